@@ -0,0 +1,317 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.builders;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Keeps the files produced by builds so they can be restored instead of building again. Builds are identified by a key computed
+ * from everything which goes into them: where the source is from and its revision, the builder and what it is built against.
+ * Each build is kept in its own directory named after its key. Once the cache grows beyond its maximum size, the least recently
+ * used builds are removed. Several processes may share a cache, so it is only changed while holding a lock file in its directory
+ * and cached files are copied out before they are handed to anyone.
+ */
+public class BuildCache {
+	private static final String KEY_ALGORITHM = "SHA-1";
+	private static final int HEX_RADIX = 16;
+	private static final String INDEX_FILE = "index.properties";
+	private static final String SIZE_PROPERTY = "size";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final String LOCK_FILE = ".lock";
+	/** File locks are held by the whole process, so caches in the same process have to take turns first. */
+	private static final Object PROCESS_LOCK = new Object();
+
+	private final File directory;
+	private final long maxSize;
+	private int hits;
+	private int misses;
+	private int evictions;
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param directory where builds are kept
+	 * @param maxSize maximum number of bytes to keep
+	 */
+	public BuildCache(final File directory, final long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Computes the key of a build from everything which goes into it.
+	 *
+	 * @param parts descriptions of what goes into the build, i.e. the source revision and builder
+	 * @return key of the build
+	 * @throws IOException in case of errors
+	 */
+	public String createKey(final List<String> parts) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance(KEY_ALGORITHM);
+			for (String part : parts) {
+				digest.update(part.getBytes(Charsets.UTF_8));
+				digest.update((byte) 0);
+			}
+
+			byte[] bytes = digest.digest();
+			StringBuilder builder = new StringBuilder(new BigInteger(1, bytes).toString(HEX_RADIX));
+			while (builder.length() < bytes.length * 2) {
+				builder.insert(0, '0');
+			}
+			return builder.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("Unable to compute key", e);
+		}
+	}
+
+	/**
+	 * Finds the files of a previous build, marking it as recently used. The files are copied out of the cache so they stay
+	 * around even if the build is removed from the cache later on.
+	 *
+	 * @param key key of the build
+	 * @param target directory to copy the files of the build to, replacing anything already there
+	 * @return copied files of the build by the names they were stored with, {@code null} if the build is not cached
+	 * @throws IOException in case of errors
+	 */
+	public Map<String, File> get(final String key, final File target) throws IOException {
+		synchronized (PROCESS_LOCK) {
+			FileLock lock = lock();
+			try {
+				Map<String, File> result = restore(key, target);
+				synchronized (this) {
+					if (result == null) {
+						++misses;
+					} else {
+						++hits;
+					}
+				}
+				return result;
+			} finally {
+				unlock(lock);
+			}
+		}
+	}
+
+	private Map<String, File> restore(final String key, final File target) throws IOException {
+		File entry = new File(directory, key);
+		File indexFile = new File(entry, INDEX_FILE);
+		if (!indexFile.isFile()) {
+			return null;
+		}
+
+		Properties index = load(indexFile);
+		for (String file : index.stringPropertyNames()) {
+			if (!SIZE_PROPERTY.equals(file) && !new File(entry, file).isFile()) {
+				// partially removed by hand, can't be trusted anymore
+				FileUtils.deleteDirectory(entry);
+				return null;
+			}
+		}
+
+		FileUtils.deleteDirectory(target);
+		FileUtils.forceMkdir(target);
+		Map<String, File> result = new LinkedHashMap<String, File>();
+		for (String file : index.stringPropertyNames()) {
+			if (SIZE_PROPERTY.equals(file)) {
+				continue;
+			}
+
+			File restored = new File(target, file);
+			Files.copy(new File(entry, file), restored);
+			result.put(index.getProperty(file), restored);
+		}
+
+		if (!entry.setLastModified(System.currentTimeMillis())) {
+			throw new IOException("Unable to mark cached build as used: " + entry);
+		}
+		return result;
+	}
+
+	/**
+	 * Keeps the files of a build, removing the least recently used builds if the cache grows too large. Nothing happens if the
+	 * build is already cached.
+	 *
+	 * @param key key of the build
+	 * @param files files of the build by the names they should be restored with
+	 * @throws IOException in case of errors
+	 */
+	public void put(final String key, final Map<String, File> files) throws IOException {
+		File entry = new File(directory, key);
+		if (entry.exists()) {
+			return;
+		}
+
+		// only visible once complete, copied without the lock as other processes never look at it
+		FileUtils.forceMkdir(directory);
+		File temp = File.createTempFile(key, TEMP_SUFFIX, directory);
+		if (!temp.delete() || !temp.mkdir()) {
+			throw new IOException("Unable to create directory: " + temp);
+		}
+		try {
+			copy(files, temp);
+		} catch (IOException e) {
+			FileUtils.deleteDirectory(temp);
+			throw e;
+		}
+
+		synchronized (PROCESS_LOCK) {
+			FileLock lock = lock();
+			try {
+				if (entry.exists()) {
+					// added by someone else in the meantime
+					FileUtils.deleteDirectory(temp);
+				} else if (!temp.renameTo(entry)) {
+					FileUtils.deleteDirectory(temp);
+					throw new IOException("Unable to add build to cache: " + entry);
+				} else {
+					evict();
+				}
+			} finally {
+				unlock(lock);
+			}
+		}
+	}
+
+	private static void copy(final Map<String, File> files, final File temp) throws IOException {
+		Properties index = new Properties();
+		long size = 0;
+		for (Map.Entry<String, File> file : files.entrySet()) {
+			String name = String.valueOf(index.size());
+			Files.copy(file.getValue(), new File(temp, name));
+			index.setProperty(name, file.getKey());
+			size += file.getValue().length();
+		}
+		index.setProperty(SIZE_PROPERTY, String.valueOf(size));
+		store(index, new File(temp, INDEX_FILE));
+	}
+
+	private FileLock lock() throws IOException {
+		FileUtils.forceMkdir(directory);
+		RandomAccessFile file = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+		try {
+			return file.getChannel().lock();
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	private static void unlock(final FileLock lock) throws IOException {
+		try {
+			lock.release();
+		} finally {
+			// also closes the file
+			lock.channel().close();
+		}
+	}
+
+	private void evict() throws IOException {
+		File[] entries = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(final File file) {
+				return file.isDirectory() && !file.getName().endsWith(TEMP_SUFFIX);
+			}
+		});
+		Arrays.sort(entries, new Comparator<File>() {
+			@Override
+			public int compare(final File file1, final File file2) {
+				return Long.valueOf(file1.lastModified()).compareTo(file2.lastModified());
+			}
+		});
+
+		long[] sizes = new long[entries.length];
+		long total = 0;
+		for (int i = 0; i < entries.length; ++i) {
+			File indexFile = new File(entries[i], INDEX_FILE);
+			if (indexFile.isFile()) {
+				sizes[i] = Long.parseLong(load(indexFile).getProperty(SIZE_PROPERTY, "0"));
+			}
+			total += sizes[i];
+		}
+
+		for (int i = 0; i < entries.length && total > maxSize; ++i) {
+			FileUtils.deleteDirectory(entries[i]);
+			total -= sizes[i];
+			synchronized (this) {
+				++evictions;
+			}
+		}
+	}
+
+	private static Properties load(final File file) throws IOException {
+		Properties properties = new Properties();
+		InputStream stream = new FileInputStream(file);
+		try {
+			properties.load(stream);
+		} finally {
+			IOUtil.close(stream);
+		}
+		return properties;
+	}
+
+	private static void store(final Properties properties, final File file) throws IOException {
+		OutputStream stream = new FileOutputStream(file);
+		try {
+			properties.store(stream, null);
+		} finally {
+			IOUtil.close(stream);
+		}
+	}
+
+	/**
+	 * @return number of builds which were found in the cache
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of builds which were not found in the cache
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return number of builds which were removed to keep the cache small enough
+	 */
+	public synchronized int getEvictions() {
+		return evictions;
+	}
+}
@@ -19,9 +19,11 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.maven.artifact.Artifact;
@@ -33,17 +35,30 @@ import org.codehaus.plexus.component.annotations.Component;
 import org.codehaus.plexus.component.annotations.Configuration;
 import org.codehaus.plexus.component.annotations.Requirement;
 import org.codehaus.plexus.logging.AbstractLogEnabled;
+import org.debian.dependency.events.BuildEvent;
+import org.debian.dependency.events.BuildEventType;
+import org.debian.dependency.events.BuildEvents;
+import org.debian.dependency.repository.LocalRepositoryIndex;
 import org.debian.dependency.sources.Source;
 
 /** Default implementation of {@link SourceBuilderManager}. */
 @Component(role = SourceBuilderManager.class, hint = "default")
 public class DefaultSourceBuilderManager extends AbstractLogEnabled implements SourceBuilderManager {
+	private static final int ARTIFACT_FIELDS = 5;
+	private static final int TYPE_FIELD = 2;
+	private static final int CLASSIFIER_FIELD = 3;
+	private static final int VERSION_FIELD = 4;
+	private static final String RESTORE_DIRECTORY = ".build-cache";
+
 	@Requirement(role = SourceBuilder.class)
 	private List<SourceBuilder> builders = new ArrayList<SourceBuilder>();
 	@Requirement
 	private RepositorySystem repositorySystem;
+	@Requirement
+	private LocalRepositoryIndex localRepositoryIndex;
 	@Configuration(value = "false")
 	private boolean allowPrebuiltSources;
+	private BuildCache buildCache;
 
 	public void setBuilders(final List<SourceBuilder> builders) {
 		// new list so that we can modify it
@@ -77,37 +92,178 @@ public class DefaultSourceBuilderManager extends AbstractLogEnabled implements S
 	@Override
 	public Set<Artifact> build(final Artifact artifact, final Source source, final File localRepository, final MavenSession session)
 			throws ArtifactBuildException {
+		return build(Collections.singletonList(artifact), source, localRepository, session);
+	}
+
+	@Override
+	public Set<Artifact> build(final List<Artifact> artifacts, final Source source, final File localRepository,
+			final MavenSession session) throws ArtifactBuildException {
+		return build(artifacts, source, null, null, localRepository, session);
+	}
+
+	@Override
+	public Set<Artifact> build(final List<Artifact> artifacts, final Source source, final SourceBuilder detectedBuilder,
+			final String dependencies, final File localRepository, final MavenSession session) throws ArtifactBuildException {
 		try {
-			SourceBuilder builder = detect(source.getLocation());
+			SourceBuilder builder = detectedBuilder;
+			if (builder == null) {
+				BuildEvent detection = BuildEvents.begin(BuildEventType.BUILDER_DETECTION, artifacts.get(0), null);
+				try {
+					builder = detect(source.getLocation());
+				} finally {
+					detection.end();
+				}
+			}
 			if (builder == null) {
-				throw new ArtifactBuildException("No suitable builder for " + artifact);
+				throw new ArtifactBuildException("No suitable builder for " + artifacts);
 			}
 
 			if (getLogger().isDebugEnabled()) {
-				getLogger().debug("Using " + builder + " to build " + artifact);
+				getLogger().debug("Using " + builder + " to build " + artifacts);
+			}
+
+			String cacheKey = createCacheKey(artifacts, source, builder, dependencies);
+			if (cacheKey != null) {
+				Set<Artifact> cached = restore(cacheKey, source);
+				if (cached != null) {
+					getLogger().info("Restored " + artifacts + " from the build cache");
+					return cached;
+				}
+			}
+
+			Map<Artifact, File> repositoryFiles = new HashMap<Artifact, File>();
+			List<Artifact> resolvedArtifacts = new ArrayList<Artifact>(artifacts.size());
+			for (Artifact artifact : artifacts) {
+				Artifact resolvedArtifact = resolveArtifact(artifact, session);
+				repositoryFiles.put(artifact, resolvedArtifact.getFile().getAbsoluteFile());
+				resolvedArtifacts.add(resolvedArtifact);
 			}
 
-			Artifact resolvdArtifact = resolveArtifact(artifact, session);
-			File file = resolvdArtifact.getFile().getAbsoluteFile();
+			// cleaning in between would remove what was built before it is installed
 			source.clean();
-			Set<Artifact> result = new HashSet<Artifact>(builder.build(resolvdArtifact, source, localRepository));
+			Set<Artifact> result = new HashSet<Artifact>();
+			String builderName = builder.getClass().getName();
+			if (builder instanceof ReactorSourceBuilder && resolvedArtifacts.size() > 1) {
+				BuildEvent event = BuildEvents.begin(BuildEventType.BUILDER_EXECUTION, artifacts.get(0), builderName);
+				try {
+					result.addAll(((ReactorSourceBuilder) builder).build(resolvedArtifacts, source, localRepository));
+				} finally {
+					event.end();
+				}
+			} else {
+				for (Artifact resolvedArtifact : resolvedArtifacts) {
+					BuildEvent event = BuildEvents.begin(BuildEventType.BUILDER_EXECUTION, resolvedArtifact, builderName);
+					try {
+						result.addAll(builder.build(resolvedArtifact, source, localRepository));
+					} finally {
+						event.end();
+					}
+				}
+			}
+
 			for (Iterator<Artifact> iter = result.iterator(); iter.hasNext();) {
 				Artifact resultArtifact = iter.next();
+				File file = repositoryFiles.get(resultArtifact);
 				if (resultArtifact.getFile() == null) {
 					getLogger().warn("Artifact has no file " + resultArtifact);
 					iter.remove();
-				} else if (!allowPrebuiltSources && resultArtifact.equals(artifact)
-						&& resultArtifact.getFile().getAbsoluteFile().equals(file)) {
+				} else if (!allowPrebuiltSources && file != null && resultArtifact.getFile().getAbsoluteFile().equals(file)) {
 					throw new ArtifactBuildException("Built file is the same as repository file, was it really built?");
 				}
 			}
+
+			if (cacheKey != null) {
+				store(cacheKey, result);
+			}
 			return result;
 		} catch (IOException e) {
 			throw new ArtifactBuildException(e);
 		}
 	}
 
+	private String createCacheKey(final List<Artifact> artifacts, final Source source, final SourceBuilder builder,
+			final String dependencies) throws IOException {
+		if (buildCache == null || dependencies == null) {
+			return null;
+		}
+
+		// without a revision, there is no telling what the source contains
+		String revision = source.getRevision();
+		if (revision == null) {
+			return null;
+		}
+
+		List<String> parts = new ArrayList<String>();
+		parts.add(String.valueOf(source.getOrigin()));
+		parts.add(revision);
+		parts.add(builder.getClass().getName());
+		for (Artifact artifact : artifacts) {
+			parts.add(formatArtifact(artifact));
+		}
+		parts.add(dependencies);
+		return buildCache.createKey(parts);
+	}
+
+	private Set<Artifact> restore(final String cacheKey, final Source source) throws IOException {
+		// kept with the source like anything it builds, so it lives until the source is cleaned again
+		Map<String, File> files = buildCache.get(cacheKey, new File(source.getLocation(), RESTORE_DIRECTORY));
+		if (files == null) {
+			return null;
+		}
+
+		Set<Artifact> result = new HashSet<Artifact>();
+		for (Map.Entry<String, File> file : files.entrySet()) {
+			String[] fields = file.getKey().split(":", -1);
+			if (fields.length != ARTIFACT_FIELDS) {
+				throw new IOException("Invalid artifact in build cache: " + file.getKey());
+			}
+
+			String classifier = fields[CLASSIFIER_FIELD];
+			if (classifier.isEmpty()) {
+				classifier = null;
+			}
+			Artifact artifact = repositorySystem.createArtifactWithClassifier(fields[0], fields[1], fields[VERSION_FIELD],
+					fields[TYPE_FIELD], classifier);
+			artifact.setFile(file.getValue());
+			result.add(artifact);
+		}
+		return result;
+	}
+
+	private void store(final String cacheKey, final Set<Artifact> artifacts) {
+		Map<String, File> files = new HashMap<String, File>();
+		for (Artifact artifact : artifacts) {
+			files.put(formatArtifact(artifact), artifact.getFile());
+		}
+
+		try {
+			buildCache.put(cacheKey, files);
+		} catch (IOException e) {
+			// only costs a rebuild later
+			getLogger().warn("Unable to add build to the build cache", e);
+		}
+	}
+
+	private static String formatArtifact(final Artifact artifact) {
+		String classifier = artifact.getClassifier();
+		if (classifier == null) {
+			classifier = "";
+		}
+		return artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getType() + ":" + classifier + ":"
+				+ artifact.getVersion();
+	}
+
+	@Override
+	public void setBuildCache(final BuildCache buildCache) {
+		this.buildCache = buildCache;
+	}
+
 	private Artifact resolveArtifact(final Artifact toResolve, final MavenSession session) {
+		Artifact indexed = localRepositoryIndex.find(toResolve, session.getLocalRepository());
+		if (indexed != null) {
+			return indexed;
+		}
+
 		ArtifactResolutionRequest request = new ArtifactResolutionRequest()
 				.setLocalRepository(session.getLocalRepository())
 				.setOffline(true)
@@ -115,6 +271,8 @@ public class DefaultSourceBuilderManager extends AbstractLogEnabled implements S
 				.setArtifact(toResolve);
 
 		ArtifactResolutionResult result = repositorySystem.resolve(request);
-		return result.getArtifacts().iterator().next();
+		Artifact resolved = result.getArtifacts().iterator().next();
+		localRepositoryIndex.add(resolved, session.getLocalRepository());
+		return resolved;
 	}
 }
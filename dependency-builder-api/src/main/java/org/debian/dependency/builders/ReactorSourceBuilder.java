@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.builders;
+
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.artifact.Artifact;
+import org.debian.dependency.sources.Source;
+
+/**
+ * A {@link SourceBuilder} which is able to build many projects from the same {@link Source} at once, i.e. the modules of a
+ * multi-module project.
+ */
+public interface ReactorSourceBuilder extends SourceBuilder {
+	/**
+	 * Builds all of the project {@link Artifact}s located within the given {@link Source} in a single invocation. The returned
+	 * set of artifacts should include any artifact built as part of building the given projects. Each <em>must</em> set the
+	 * {@link Artifact#setFile(File) file} of the artifact to be valid.
+	 *
+	 * @param artifacts artifacts to build
+	 * @param source where the artifacts should be built from
+	 * @param localRepository maven repository which can be used for local resolution
+	 * @return original artifacts with any attached artifacts
+	 * @throws ArtifactBuildException in we are unable to build the artifacts
+	 */
+	Set<Artifact> build(List<Artifact> artifacts, Source source, File localRepository) throws ArtifactBuildException;
+}
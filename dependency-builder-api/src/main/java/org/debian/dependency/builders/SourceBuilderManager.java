@@ -61,4 +61,42 @@ public interface SourceBuilderManager {
 	 * @throws ArtifactBuildException in case of errors
 	 */
 	Set<Artifact> build(Artifact artifact, Source source, File localRepository, MavenSession session) throws ArtifactBuildException;
+
+	/**
+	 * Builds all of the given {@link Artifact}s provided in a single {@link Source}. If the detected {@link SourceBuilder} is a
+	 * {@link ReactorSourceBuilder}, they are built together in a single invocation. Otherwise they are built one after another
+	 * in the given order.
+	 *
+	 * @param artifacts artifacts to build, in the order they must be built
+	 * @param source source of the artifacts
+	 * @param localRepository repository that should be used for resolution
+	 * @param session current session
+	 * @return artifacts that were built which can include attached and supplementary artifacts
+	 * @throws ArtifactBuildException in case of errors
+	 */
+	Set<Artifact> build(List<Artifact> artifacts, Source source, File localRepository, MavenSession session) throws ArtifactBuildException;
+
+	/**
+	 * Builds all of the given {@link Artifact}s like {@link #build(List, Source, File, MavenSession)}, but restores them from the
+	 * {@link #setBuildCache(BuildCache) build cache} when they were built before. Builds are only restored when the source has the
+	 * same origin and revision, the same {@link SourceBuilder} is used and the artifacts are built against the same dependencies.
+	 *
+	 * @param artifacts artifacts to build, in the order they must be built
+	 * @param source source of the artifacts
+	 * @param builder builder which was already {@link #detect(File) detected} for the source or {@code null} to detect it
+	 * @param dependencies description of every dependency the artifacts are built against or {@code null} to always build
+	 * @param localRepository repository that should be used for resolution
+	 * @param session current session
+	 * @return artifacts that were built which can include attached and supplementary artifacts
+	 * @throws ArtifactBuildException in case of errors
+	 */
+	Set<Artifact> build(List<Artifact> artifacts, Source source, SourceBuilder builder, String dependencies, File localRepository,
+			MavenSession session) throws ArtifactBuildException;
+
+	/**
+	 * Sets where builds are kept so they can be restored instead of building them again.
+	 *
+	 * @param buildCache cache of builds or {@code null} to always build
+	 */
+	void setBuildCache(BuildCache buildCache);
 }
@@ -0,0 +1,22 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.events;
+
+/** A step of the build which has been started and is timed until it is ended. */
+public interface BuildEvent {
+	/** Ends the step, recording it if anyone is listening. */
+	void end();
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.events;
+
+/** Steps of the build which are recorded as events. */
+public enum BuildEventType {
+	/** Building a project model from its pom. */
+	PROJECT_BUILDING,
+	/** Resolving the dependency graph of a project. */
+	RESOLUTION,
+	/** Retrieving source using a single source retrieval strategy. */
+	SOURCE_RETRIEVAL,
+	/** Detecting which builder can build a source. */
+	BUILDER_DETECTION,
+	/** Building an artifact with a builder. */
+	BUILDER_EXECUTION,
+	/** Installing an artifact into a repository. */
+	INSTALL
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.events;
+
+import org.apache.maven.artifact.Artifact;
+
+/**
+ * Entry point for recording {@link BuildEvent build events}. Events are recorded with Java Flight Recorder when it is available
+ * and recording them, otherwise starting an event does nothing and returns a shared instance.
+ */
+public final class BuildEvents {
+	private static final BuildEvent NOOP = new BuildEvent() {
+		@Override
+		public void end() {
+			// nothing was started
+		}
+	};
+	private static final EventFactory FACTORY = createFactory();
+
+	private BuildEvents() {
+	}
+
+	/*
+	 * Flight recorder classes only exist on some Java runtimes, so they are only loaded once we know they are there.
+	 */
+	private static EventFactory createFactory() {
+		try {
+			Class.forName("jdk.jfr.Event", false, BuildEvents.class.getClassLoader());
+			return (EventFactory) Class.forName(BuildEvents.class.getPackage().getName() + ".JfrEventFactory").newInstance();
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (InstantiationException e) {
+			return null;
+		} catch (IllegalAccessException e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Starts a new event.
+	 *
+	 * @param type type of event
+	 * @param artifact artifact the event is for
+	 * @param detail extra information about the event, may be {@code null}
+	 * @return event which must be ended
+	 */
+	public static BuildEvent begin(final BuildEventType type, final Artifact artifact, final String detail) {
+		if (FACTORY == null) {
+			return NOOP;
+		}
+		BuildEvent event = FACTORY.begin(type, artifact, detail);
+		if (event == null) {
+			return NOOP;
+		}
+		return event;
+	}
+
+	/**
+	 * @return whether events can be recorded on this runtime
+	 */
+	public static boolean isAvailable() {
+		return FACTORY != null;
+	}
+
+	/** Creates events for a particular event recorder. */
+	interface EventFactory {
+		/**
+		 * @param type type of event
+		 * @param artifact artifact the event is for
+		 * @param detail extra information about the event, may be {@code null}
+		 * @return started event or {@code null} if the event is not being recorded
+		 */
+		BuildEvent begin(BuildEventType type, Artifact artifact, String detail);
+	}
+}
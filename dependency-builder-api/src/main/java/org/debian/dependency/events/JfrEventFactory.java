@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.events;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import org.apache.maven.artifact.Artifact;
+import org.codehaus.plexus.util.StringUtils;
+
+/** Creates Java Flight Recorder events. Only loaded by {@link BuildEvents} when flight recorder is available. */
+final class JfrEventFactory implements BuildEvents.EventFactory {
+	private static final String CATEGORY = "Dependency Builder";
+
+	/** Whether an event is enabled only depends on its type, so these are never begun and only tell us whether to create one. */
+	private final Map<BuildEventType, ArtifactEvent> prototypes = new EnumMap<BuildEventType, ArtifactEvent>(BuildEventType.class);
+
+	JfrEventFactory() {
+		for (BuildEventType type : BuildEventType.values()) {
+			prototypes.put(type, create(type));
+		}
+	}
+
+	@Override
+	public BuildEvent begin(final BuildEventType type, final Artifact artifact, final String detail) {
+		if (!prototypes.get(type).isEnabled()) {
+			return null;
+		}
+
+		ArtifactEvent event = create(type);
+		event.begin();
+		return new RecordedEvent(event, artifact, detail);
+	}
+
+	private static ArtifactEvent create(final BuildEventType type) {
+		switch (type) {
+		case PROJECT_BUILDING:
+			return new ProjectBuildingEvent();
+		case RESOLUTION:
+			return new ResolutionEvent();
+		case SOURCE_RETRIEVAL:
+			return new SourceRetrievalEvent();
+		case BUILDER_DETECTION:
+			return new BuilderDetectionEvent();
+		case BUILDER_EXECUTION:
+			return new BuilderExecutionEvent();
+		case INSTALL:
+			return new InstallEvent();
+		default:
+			throw new IllegalArgumentException("Unknown event type " + type);
+		}
+	}
+
+	/**
+	 * Formats the coordinates of an artifact.
+	 *
+	 * @param artifact artifact to format
+	 * @return group id, artifact id, type, classifier (if any) and version separated by colons
+	 */
+	static String coordinates(final Artifact artifact) {
+		if (artifact == null) {
+			return null;
+		}
+
+		StringBuilder result = new StringBuilder()
+				.append(artifact.getGroupId()).append(':')
+				.append(artifact.getArtifactId()).append(':')
+				.append(artifact.getType()).append(':');
+		if (!StringUtils.isEmpty(artifact.getClassifier())) {
+			result.append(artifact.getClassifier()).append(':');
+		}
+		return result.append(artifact.getVersion()).toString();
+	}
+
+	/*
+	 * Fields are only filled in once we know the event will be committed so that short events cost next to nothing.
+	 */
+	private static final class RecordedEvent implements BuildEvent {
+		private final ArtifactEvent event;
+		private final Artifact artifact;
+		private final String detail;
+
+		RecordedEvent(final ArtifactEvent event, final Artifact artifact, final String detail) {
+			this.event = event;
+			this.artifact = artifact;
+			this.detail = detail;
+		}
+
+		@Override
+		public void end() {
+			event.end();
+			if (event.shouldCommit()) {
+				event.artifact = coordinates(artifact);
+				event.detail = detail;
+				event.commit();
+			}
+		}
+	}
+
+	/** Base for all events, fields are not private since flight recorder ignores private fields of super classes. */
+	abstract static class ArtifactEvent extends Event {
+		@Label("Artifact")
+		@Description("Coordinates of the artifact")
+		protected String artifact;
+		@Label("Detail")
+		protected String detail;
+	}
+
+	/** Event for {@link BuildEventType#PROJECT_BUILDING}. */
+	@Name("org.debian.dependency.ProjectBuilding")
+	@Label("Project Building")
+	@Category(CATEGORY)
+	static final class ProjectBuildingEvent extends ArtifactEvent {
+	}
+
+	/** Event for {@link BuildEventType#RESOLUTION}. */
+	@Name("org.debian.dependency.Resolution")
+	@Label("Graph Resolution")
+	@Category(CATEGORY)
+	static final class ResolutionEvent extends ArtifactEvent {
+	}
+
+	/** Event for {@link BuildEventType#SOURCE_RETRIEVAL}. */
+	@Name("org.debian.dependency.SourceRetrieval")
+	@Label("Source Retrieval")
+	@Category(CATEGORY)
+	static final class SourceRetrievalEvent extends ArtifactEvent {
+	}
+
+	/** Event for {@link BuildEventType#BUILDER_DETECTION}. */
+	@Name("org.debian.dependency.BuilderDetection")
+	@Label("Builder Detection")
+	@Category(CATEGORY)
+	static final class BuilderDetectionEvent extends ArtifactEvent {
+	}
+
+	/** Event for {@link BuildEventType#BUILDER_EXECUTION}. */
+	@Name("org.debian.dependency.BuilderExecution")
+	@Label("Builder Execution")
+	@Category(CATEGORY)
+	static final class BuilderExecutionEvent extends ArtifactEvent {
+	}
+
+	/** Event for {@link BuildEventType#INSTALL}. */
+	@Name("org.debian.dependency.Install")
+	@Label("Install")
+	@Category(CATEGORY)
+	static final class InstallEvent extends ArtifactEvent {
+	}
+}
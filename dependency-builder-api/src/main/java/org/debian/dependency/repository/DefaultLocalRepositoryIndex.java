@@ -0,0 +1,392 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.repository;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.codehaus.plexus.component.annotations.Component;
+import org.codehaus.plexus.component.annotations.Configuration;
+import org.codehaus.plexus.logging.AbstractLogEnabled;
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.Disposable;
+import org.codehaus.plexus.util.IOUtil;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Keeps a sorted list of every file in a local repository in a memory-mapped file in the given directory, so that the local
+ * repository itself (which is often shared) is left alone. The list is built by walking the repository once and is rebuilt from
+ * scratch once it is older than its maximum age, counting from when it was walked. Files added in between are added as they are
+ * resolved and written out along with the rest of the list every so often, files which are found to be removed are dropped the
+ * same way.
+ * <p/>
+ * Lookups don't wait for a repository to be walked, they find nothing until the index is ready. Each indexed file is checked to
+ * still be there the first time it is found, later lookups of the same file trust the index.
+ */
+@Component(role = LocalRepositoryIndex.class)
+public class DefaultLocalRepositoryIndex extends AbstractLogEnabled implements LocalRepositoryIndex, Disposable {
+	private static final String INDEX_PREFIX = "local-index-";
+	private static final int MAGIC = 0x44424c49;
+	private static final int FORMAT = 2;
+	private static final int BYTES_PER_INT = 4;
+	private static final int BYTES_PER_LONG = 8;
+	/** Magic, format, time walked and number of paths. */
+	private static final int HEADER_BYTES = 3 * BYTES_PER_INT + BYTES_PER_LONG;
+	private static final int BYTE_MASK = 0xff;
+	private static final long DEFAULT_MAX_AGE = 24;
+	private static final int FLUSH_ADDITIONS = 1000;
+
+	/** Hours after which the index is rebuilt from scratch. */
+	@Configuration(name = "max-age", value = "24")
+	private long maxAge = DEFAULT_MAX_AGE;
+	private final Map<String, Index> indexes = new HashMap<String, Index>();
+	private File directory;
+
+	@Override
+	public Artifact find(final Artifact artifact, final ArtifactRepository localRepository) {
+		if (artifact.isSnapshot()) {
+			return null;
+		}
+
+		Index index = getIndex(localRepository);
+		String path = localRepository.pathOf(artifact);
+		if (index == null || path == null || !index.contains(path)) {
+			return null;
+		}
+
+		File file = new File(localRepository.getBasedir(), path);
+		if (!index.isVerified(path)) {
+			if (!file.isFile()) {
+				// removed behind our back, resolve it as usual
+				index.remove(path);
+				return null;
+			}
+			index.verified(path);
+		}
+
+		artifact.setFile(file);
+		artifact.setResolved(true);
+		return artifact;
+	}
+
+	@Override
+	public void add(final Artifact artifact, final ArtifactRepository localRepository) {
+		if (artifact.isSnapshot()) {
+			return;
+		}
+
+		Index index = getIndex(localRepository);
+		String path = localRepository.pathOf(artifact);
+		if (index == null || path == null || !index.add(path) || index.getChanges() < FLUSH_ADDITIONS) {
+			return;
+		}
+
+		try {
+			index.write();
+		} catch (IOException e) {
+			getLogger().debug("Unable to update the index of " + localRepository.getBasedir(), e);
+		}
+	}
+
+	@Override
+	public synchronized void setDirectory(final File directory) {
+		dispose();
+		this.directory = directory;
+	}
+
+	@Override
+	public synchronized void dispose() {
+		for (Index index : indexes.values()) {
+			if (index == null || index.getChanges() == 0) {
+				continue;
+			}
+
+			try {
+				index.write();
+			} catch (IOException e) {
+				getLogger().debug("Unable to update the index " + index.file, e);
+			}
+		}
+		indexes.clear();
+	}
+
+	private Index getIndex(final ArtifactRepository localRepository) {
+		String basedir = localRepository.getBasedir();
+		File indexDirectory;
+		synchronized (this) {
+			if (basedir == null || basedir.isEmpty() || directory == null) {
+				return null;
+			} else if (indexes.containsKey(basedir)) {
+				return indexes.get(basedir);
+			}
+
+			// everyone else resolves as usual until the repository is walked
+			indexes.put(basedir, null);
+			indexDirectory = directory;
+		}
+
+		// a repository which can't be indexed is just resolved as usual
+		Index index = null;
+		try {
+			index = open(new File(basedir), indexDirectory);
+		} catch (IOException e) {
+			getLogger().warn("Unable to index local repository " + basedir, e);
+		}
+
+		synchronized (this) {
+			// indexes kept elsewhere were dropped in the meantime
+			if (indexDirectory.equals(directory) && indexes.containsKey(basedir)) {
+				indexes.put(basedir, index);
+			}
+		}
+		return index;
+	}
+
+	private Index open(final File repository, final File indexDirectory) throws IOException {
+		if (!repository.isDirectory()) {
+			return null;
+		}
+
+		// repositories are told apart by their path, which is mangled into a single file name
+		Index index = new Index(new File(indexDirectory, INDEX_PREFIX + repository.getAbsolutePath().replaceAll("[^A-Za-z0-9.-]",
+				"_")));
+		if (index.file.isFile()) {
+			try {
+				index.read();
+				if (System.currentTimeMillis() - index.walked < TimeUnit.HOURS.toMillis(maxAge)) {
+					return index;
+				}
+			} catch (IOException e) {
+				getLogger().debug("Unable to read index " + index.file + ", walking the repository again", e);
+			}
+		}
+
+		getLogger().info("Indexing local repository " + repository);
+		long walked = System.currentTimeMillis();
+		List<String> paths = new ArrayList<String>();
+		walk(repository, "", paths);
+		index.write(paths, walked);
+		return index;
+	}
+
+	private static void walk(final File directory, final String prefix, final List<String> paths) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			String name = file.getName();
+			if (file.isDirectory()) {
+				// hidden directories at the top are used by tools, not by artifacts
+				if (!prefix.isEmpty() || !name.startsWith(".")) {
+					walk(file, prefix + name + "/", paths);
+				}
+			} else if (!isMetadata(name)) {
+				paths.add(prefix + name);
+			}
+		}
+	}
+
+	private static boolean isMetadata(final String name) {
+		return name.endsWith(".lastUpdated") || name.endsWith(".sha1") || name.endsWith(".md5") || name.startsWith("maven-metadata")
+				|| name.equals("_remote.repositories") || name.equals("resolver-status.properties");
+	}
+
+	private static int compare(final byte[] left, final ByteBuffer buffer, final int offset, final int length) {
+		int common = Math.min(left.length, length);
+		for (int i = 0; i < common; ++i) {
+			int difference = (left[i] & BYTE_MASK) - (buffer.get(offset + i) & BYTE_MASK);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		return left.length - length;
+	}
+
+	/** Orders paths by their encoded bytes, the same way they are searched. */
+	private static final class PathComparator implements Comparator<byte[]> {
+		@Override
+		public int compare(final byte[] left, final byte[] right) {
+			return DefaultLocalRepositoryIndex.compare(left, ByteBuffer.wrap(right), 0, right.length);
+		}
+	}
+
+	/**
+	 * Index of a single repository. The file holds a header, the offset of every path (plus the end of the last) and then the
+	 * sorted paths themselves. The header records when the repository was walked, which stays the same as paths are added.
+	 */
+	private static final class Index {
+		private final File file;
+		private final Set<String> added = new HashSet<String>();
+		private final Set<String> removed = new HashSet<String>();
+		private final Set<String> verified = new HashSet<String>();
+		private ByteBuffer buffer = ByteBuffer.allocate(0);
+		private long walked;
+		private int count;
+		private int dataStart;
+
+		public Index(final File file) {
+			this.file = file;
+		}
+
+		public synchronized void read() throws IOException {
+			FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+			try {
+				ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if (mapped.getInt(0) != MAGIC || mapped.getInt(BYTES_PER_INT) != FORMAT) {
+					throw new IOException("Unknown index format " + file);
+				}
+
+				buffer = mapped;
+				walked = mapped.getLong(2 * BYTES_PER_INT);
+				count = mapped.getInt(2 * BYTES_PER_INT + BYTES_PER_LONG);
+				dataStart = HEADER_BYTES + (count + 1) * BYTES_PER_INT;
+			} finally {
+				channel.close();
+			}
+		}
+
+		public synchronized boolean contains(final String path) {
+			if (added.contains(path)) {
+				return true;
+			} else if (removed.contains(path)) {
+				return false;
+			}
+
+			byte[] key = path.getBytes(Charsets.UTF_8);
+			int low = 0;
+			int high = count - 1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				int start = offset(middle);
+				int result = DefaultLocalRepositoryIndex.compare(key, buffer, dataStart + start, offset(middle + 1) - start);
+				if (result == 0) {
+					return true;
+				} else if (result < 0) {
+					high = middle - 1;
+				} else {
+					low = middle + 1;
+				}
+			}
+			return false;
+		}
+
+		public synchronized boolean add(final String path) {
+			if (contains(path)) {
+				return false;
+			} else if (removed.remove(path)) {
+				// still indexed, just no longer dropped
+				return true;
+			}
+			return added.add(path);
+		}
+
+		public synchronized void remove(final String path) {
+			verified.remove(path);
+			if (!added.remove(path)) {
+				removed.add(path);
+			}
+		}
+
+		public synchronized boolean isVerified(final String path) {
+			return verified.contains(path);
+		}
+
+		public synchronized void verified(final String path) {
+			verified.add(path);
+		}
+
+		public synchronized int getChanges() {
+			return added.size() + removed.size();
+		}
+
+		private int offset(final int entry) {
+			return buffer.getInt(HEADER_BYTES + entry * BYTES_PER_INT);
+		}
+
+		/** Writes out every path in the index, including those which were added. */
+		public synchronized void write() throws IOException {
+			List<String> paths = new ArrayList<String>(count + added.size());
+			for (int i = 0; i < count; ++i) {
+				byte[] path = new byte[offset(i + 1) - offset(i)];
+				for (int j = 0; j < path.length; ++j) {
+					path[j] = buffer.get(dataStart + offset(i) + j);
+				}
+				paths.add(new String(path, Charsets.UTF_8));
+			}
+			paths.removeAll(removed);
+			paths.addAll(added);
+			write(paths, walked);
+		}
+
+		public synchronized void write(final List<String> paths, final long time) throws IOException {
+			List<byte[]> sorted = new ArrayList<byte[]>(paths.size());
+			for (String path : paths) {
+				sorted.add(path.getBytes(Charsets.UTF_8));
+			}
+			Collections.sort(sorted, new PathComparator());
+
+			Files.createParentDirs(file);
+			// write to the side first so readers never see a partial index
+			File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				output.writeInt(MAGIC);
+				output.writeInt(FORMAT);
+				output.writeLong(time);
+				output.writeInt(sorted.size());
+				int offset = 0;
+				for (byte[] path : sorted) {
+					output.writeInt(offset);
+					offset += path.length;
+				}
+				output.writeInt(offset);
+				for (byte[] path : sorted) {
+					output.write(path);
+				}
+			} finally {
+				IOUtil.close(output);
+			}
+
+			if (!temp.renameTo(file)) {
+				temp.delete();
+				throw new IOException("Unable to replace index " + file);
+			}
+			added.clear();
+			removed.clear();
+			read();
+		}
+	}
+}
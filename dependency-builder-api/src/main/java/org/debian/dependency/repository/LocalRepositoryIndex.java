@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.repository;
+
+import java.io.File;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+
+/**
+ * Index of the files in a local repository. Looking up an artifact in the index at most checks that its file is still there, so
+ * it is much cheaper than resolving the artifact from the local repository. The index is only a shortcut: anything it doesn't know
+ * about should still be resolved and then {@link #add added}. Nothing is indexed until {@link #setDirectory(File) told} where to
+ * keep indexes.
+ */
+public interface LocalRepositoryIndex {
+	/**
+	 * Looks up an artifact in the index of a local repository. When found, the file of the artifact is set to where it is in the
+	 * repository. Snapshots are never found, they must always be resolved. Files which have been removed from the repository since
+	 * they were indexed are dropped from the index and not found, but need only be checked the first time they are looked up.
+	 *
+	 * @param artifact artifact to find
+	 * @param localRepository local repository to look in
+	 * @return the artifact if it is in the index, otherwise {@code null}
+	 */
+	Artifact find(Artifact artifact, ArtifactRepository localRepository);
+
+	/**
+	 * Adds a resolved artifact to the index of a local repository so that later lookups find it.
+	 *
+	 * @param artifact artifact which is in the repository
+	 * @param localRepository local repository the artifact is in
+	 */
+	void add(Artifact artifact, ArtifactRepository localRepository);
+
+	/**
+	 * Sets where indexes are kept, writing out those which were kept elsewhere.
+	 *
+	 * @param directory directory to keep indexes in or {@code null} to stop indexing
+	 */
+	void setDirectory(File directory);
+}
@@ -34,6 +34,9 @@ import org.codehaus.plexus.context.ContextException;
 import org.codehaus.plexus.logging.AbstractLogEnabled;
 import org.codehaus.plexus.personality.plexus.lifecycle.phase.Contextualizable;
 import org.codehaus.plexus.util.StringUtils;
+import org.debian.dependency.events.BuildEvent;
+import org.debian.dependency.events.BuildEventType;
+import org.debian.dependency.events.BuildEvents;
 
 import com.google.common.io.Files;
 
@@ -53,7 +56,12 @@ public class DefaultSourceRetrievalManager extends AbstractLogEnabled implements
 		File checkoutDir = createNewDir(parentDir, "CHECKOUT-");
 		SourceRetrieval selected = null;
 		for (SourceRetrieval sourceRetrieval : sourceRetrievals) {
-			location = sourceRetrieval.retrieveSource(artifact, checkoutDir, session);
+			BuildEvent event = BuildEvents.begin(BuildEventType.SOURCE_RETRIEVAL, artifact, sourceRetrieval.getClass().getName());
+			try {
+				location = sourceRetrieval.retrieveSource(artifact, checkoutDir, session);
+			} finally {
+				event.end();
+			}
 			if (!StringUtils.isEmpty(location)) {
 				selected = sourceRetrieval;
 				getLogger().debug("Selected source retrieval " + sourceRetrieval);
@@ -84,6 +92,17 @@ public class DefaultSourceRetrievalManager extends AbstractLogEnabled implements
 		}
 	}
 
+	@Override
+	public String getSourceLocation(final Artifact artifact, final MavenSession session) throws SourceRetrievalException {
+		for (SourceRetrieval sourceRetrieval : sourceRetrievals) {
+			String location = sourceRetrieval.getSourceLocation(artifact, session);
+			if (!StringUtils.isEmpty(location)) {
+				return location;
+			}
+		}
+		return null;
+	}
+
 	/*
 	 * This can be replaced by java.nio.file.Files#createTempDir when java 1.7+ becomes the lowest supported version
 	 */
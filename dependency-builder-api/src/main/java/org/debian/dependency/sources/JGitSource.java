@@ -40,6 +40,7 @@ public class JGitSource extends AbstractLogEnabled implements Source {
 	private static final String COMMIT_MESSAGE_PREFIX = "[dependency-builder]";
 	private static final String WORK_BRANCH = "dependency-builder-maven-plugin";
 	private Git git;
+	private String origin;
 
 	@Override
 	public File getLocation() {
@@ -51,6 +52,7 @@ public class JGitSource extends AbstractLogEnabled implements Source {
 
 	@Override
 	public void initialize(final File location, final String origin) throws IOException {
+		this.origin = origin;
 		try {
 			openRepo(location, origin);
 			setupRepo();
@@ -173,6 +175,24 @@ public class JGitSource extends AbstractLogEnabled implements Source {
 		}
 	}
 
+	@Override
+	public String getOrigin() {
+		return origin;
+	}
+
+	@Override
+	public String getRevision() throws IOException {
+		if (git == null) {
+			throw new IllegalStateException("Not initialized");
+		}
+
+		ObjectId head = git.getRepository().resolve(Constants.HEAD);
+		if (head == null) {
+			return null;
+		}
+		return head.name();
+	}
+
 	@Override
 	public void clean() throws IOException {
 		try {
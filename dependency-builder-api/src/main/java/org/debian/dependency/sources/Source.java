@@ -37,6 +37,20 @@ public interface Source {
 	 */
 	void initialize(File location, String origin) throws IOException;
 
+	/**
+	 * @return where the source is from as given during initialization
+	 */
+	String getOrigin();
+
+	/**
+	 * Gets an identifier for the current state of the source. Two sources with the same origin and revision should contain the
+	 * same files.
+	 *
+	 * @return revision of the source or {@code null} if it cannot be determined
+	 * @throws IOException in case of errors
+	 */
+	String getRevision() throws IOException;
+
 	/**
 	 * Cleans any stale files and returns the source to a pristine copy.
 	 *
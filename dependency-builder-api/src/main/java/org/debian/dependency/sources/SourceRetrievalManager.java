@@ -32,4 +32,16 @@ public interface SourceRetrievalManager {
 	 * @throws SourceRetrievalException in case of errors
 	 */
 	Source checkoutSource(Artifact artifact, File parentDir, MavenSession session) throws SourceRetrievalException;
+
+	/**
+	 * Gets where the source of the given {@link Artifact} is located, using the same {@link SourceRetrieval} that would be used
+	 * to check it out. Artifacts which come from the same source repository have the same location.
+	 *
+	 * @param artifact which artifact to get the location for
+	 * @param session current session
+	 * @return location of the source or {@code null} if it cannot be found
+	 * @throws SourceRetrievalException in case of errors
+	 * @see SourceRetrieval#getSourceLocation(Artifact, MavenSession)
+	 */
+	String getSourceLocation(Artifact artifact, MavenSession session) throws SourceRetrievalException;
 }
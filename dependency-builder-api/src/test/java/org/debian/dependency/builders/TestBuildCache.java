@@ -0,0 +1,156 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.builders;
+
+import static org.hamcrest.Matchers.arrayContainingInAnyOrder;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Files;
+
+/** Test case for {@link BuildCache}. */
+public class TestBuildCache {
+	private static final String CONTENT = "0123456789";
+	private static final long OLD = 1000000000L;
+	private static final int THREADS = 4;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private File directory;
+	private File file;
+	private File target;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = tempFolder.newFolder();
+		file = tempFolder.newFile();
+		target = new File(tempFolder.getRoot(), "restored");
+		Files.write(CONTENT, file, Charset.defaultCharset());
+	}
+
+	/** Stored files should be found again under the same name and counted as hits. */
+	@Test
+	public void testPutAndGet() throws Exception {
+		BuildCache cache = new BuildCache(directory, Long.MAX_VALUE);
+		String key = cache.createKey(Arrays.asList("origin", "revision"));
+
+		assertNull(cache.get(key, target));
+		cache.put(key, Collections.singletonMap("name", file));
+		Map<String, File> result = cache.get(key, target);
+
+		assertThat(result.keySet(), contains("name"));
+		assertEquals(CONTENT, Files.toString(result.get("name"), Charset.defaultCharset()));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	/** Keys must depend on every part as well as where one ends and the next begins. */
+	@Test
+	public void testKeys() throws Exception {
+		BuildCache cache = new BuildCache(directory, Long.MAX_VALUE);
+
+		assertEquals(cache.createKey(Arrays.asList("a", "b")), cache.createKey(Arrays.asList("a", "b")));
+		assertThat(cache.createKey(Arrays.asList("a", "b")), not(cache.createKey(Arrays.asList("ab", ""))));
+	}
+
+	/** The least recently used builds should be removed first once the cache is too large. */
+	@Test
+	public void testLeastRecentlyUsedEvicted() throws Exception {
+		BuildCache cache = new BuildCache(directory, CONTENT.length() * 2);
+		cache.put("first", Collections.singletonMap("name", file));
+		cache.put("second", Collections.singletonMap("name", file));
+		new File(directory, "first").setLastModified(OLD);
+		new File(directory, "second").setLastModified(OLD);
+
+		// using the first build makes the second the oldest
+		assertNotNull(cache.get("first", target));
+		cache.put("third", Collections.singletonMap("name", file));
+
+		assertNotNull(cache.get("first", target));
+		assertNull(cache.get("second", target));
+		assertNotNull(cache.get("third", target));
+		assertEquals(1, cache.getEvictions());
+	}
+
+	/** Restored files should be copies which stay around when their build is removed from the cache. */
+	@Test
+	public void testRestoredOutliveEviction() throws Exception {
+		BuildCache cache = new BuildCache(directory, CONTENT.length());
+		cache.put("first", Collections.singletonMap("name", file));
+		File restored = cache.get("first", target).get("name");
+
+		cache.put("second", Collections.singletonMap("name", file));
+
+		assertNull(cache.get("first", tempFolder.newFolder()));
+		assertEquals(CONTENT, Files.toString(restored, Charset.defaultCharset()));
+	}
+
+	/** Caches sharing a directory should not trip over each other when adding builds at the same time. */
+	@Test
+	public void testSharedDirectory() throws Exception {
+		final BuildCache cache1 = new BuildCache(directory, Long.MAX_VALUE);
+		final BuildCache cache2 = new BuildCache(directory, Long.MAX_VALUE);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>();
+			for (int i = 0; i < THREADS; ++i) {
+				final BuildCache cache;
+				if (i % 2 == 0) {
+					cache = cache1;
+				} else {
+					cache = cache2;
+				}
+				results.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						cache.put("key", Collections.singletonMap("name", file));
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> result : results) {
+				result.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(CONTENT, Files.toString(cache2.get("key", target).get("name"), Charset.defaultCharset()));
+		assertThat(directory.list(), arrayContainingInAnyOrder("key", ".lock"));
+	}
+}
@@ -15,10 +15,12 @@
  */
 package org.debian.dependency.builders;
 
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
@@ -27,11 +29,14 @@ import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
@@ -44,10 +49,14 @@ import org.apache.maven.execution.MavenSession;
 import org.apache.maven.repository.RepositorySystem;
 import org.codehaus.plexus.logging.Logger;
 import org.codehaus.plexus.util.ReflectionUtils;
+import org.debian.dependency.repository.LocalRepositoryIndex;
 import org.debian.dependency.sources.Source;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
@@ -55,9 +64,14 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
 
+import com.google.common.io.Files;
+
 /** Test case for {@link DefaultSourceBuilderManager} . */
 @RunWith(MockitoJUnitRunner.class)
 public class TestDefaultSourceBuilderManager {
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
 	@InjectMocks
 	private final DefaultSourceBuilderManager manager = new DefaultSourceBuilderManager();
 	private static final int PRIORITY_INVALID = -1;
@@ -70,6 +84,8 @@ public class TestDefaultSourceBuilderManager {
 	@Mock
 	private RepositorySystem repoSystem;
 	@Mock
+	private LocalRepositoryIndex localRepositoryIndex;
+	@Mock
 	private SourceBuilder invalidPriorityBuilder;
 	@Mock
 	private SourceBuilder lowPriorityBuilder;
@@ -284,4 +300,94 @@ public class TestDefaultSourceBuilderManager {
 		manager.build(artifact, source, repository, session);
 		verify(selectedBuilder).build(eq(resolvedArtifact), any(Source.class), any(File.class));
 	}
+
+	/** Reactor builders should build every artifact from a source in a single invocation. */
+	@Test
+	public void testReactorBuildsTogether() throws Exception {
+		ReactorSourceBuilder reactorBuilder = mock(ReactorSourceBuilder.class);
+		manager.setBuilders(Collections.<SourceBuilder> singletonList(reactorBuilder));
+		Artifact artifact2 = mock(Artifact.class, "artifact2");
+
+		manager.build(Arrays.asList(artifact, artifact2), source, repository, session);
+
+		verify(reactorBuilder).build(Arrays.asList(artifact, artifact2), source, repository);
+		verify(reactorBuilder, never()).build(any(Artifact.class), any(Source.class), any(File.class));
+	}
+
+	/** Other builders build the artifacts from a source one after another without cleaning away what was built. */
+	@Test
+	public void testGroupBuiltInOrder() throws Exception {
+		Artifact artifact2 = mock(Artifact.class, "artifact2");
+
+		manager.build(Arrays.asList(artifact, artifact2), source, repository, session);
+
+		InOrder order = inOrder(source, selectedBuilder);
+		order.verify(source).clean();
+		order.verify(selectedBuilder).build(artifact, source, repository);
+		order.verify(selectedBuilder).build(artifact2, source, repository);
+		verify(source, times(1)).clean();
+	}
+
+	/** Builds of the same revision against the same dependencies should be restored from the cache instead of built again. */
+	@Test
+	public void testRestoredFromCache() throws Exception {
+		File cacheDirectory = tempFolder.newFolder();
+		manager.setBuildCache(new BuildCache(cacheDirectory, Long.MAX_VALUE));
+		when(source.getRevision())
+				.thenReturn("revision");
+		when(source.getLocation())
+				.thenReturn(tempFolder.newFolder());
+
+		File builtFile = tempFolder.newFile();
+		Files.write("built", builtFile, Charset.defaultCharset());
+		Artifact built = mock(Artifact.class, "built");
+		when(built.getGroupId()).thenReturn("group");
+		when(built.getArtifactId()).thenReturn("built");
+		when(built.getVersion()).thenReturn("1");
+		when(built.getType()).thenReturn("jar");
+		when(built.getFile()).thenReturn(builtFile);
+		when(selectedBuilder.build(any(Artifact.class), any(Source.class), any(File.class)))
+				.thenReturn(Collections.singleton(built));
+
+		Artifact restored = mock(Artifact.class, "restored");
+		when(repoSystem.createArtifactWithClassifier("group", "built", "1", "jar", null))
+				.thenReturn(restored);
+
+		manager.build(Arrays.asList(artifact), source, null, "dependencies", repository, session);
+		Set<Artifact> results = manager.build(Arrays.asList(artifact), source, null, "dependencies", repository, session);
+
+		verify(selectedBuilder, times(1)).build(any(Artifact.class), any(Source.class), any(File.class));
+		assertThat(results, contains(restored));
+		ArgumentCaptor<File> restoredFile = ArgumentCaptor.forClass(File.class);
+		verify(restored).setFile(restoredFile.capture());
+		assertEquals("built", Files.toString(restoredFile.getValue(), Charset.defaultCharset()));
+		assertThat("Restored files must outlive the cache entry", restoredFile.getValue().getPath(),
+				not(startsWith(cacheDirectory.getPath())));
+
+		// anything else that goes into the build must be built again
+		manager.build(Arrays.asList(artifact), source, null, "other dependencies", repository, session);
+		verify(selectedBuilder, times(2)).build(any(Artifact.class), any(Source.class), any(File.class));
+	}
+
+	/** A builder which was already detected should be used as is instead of detecting it again. */
+	@Test
+	public void testDetectedBuilder() throws Exception {
+		manager.build(Arrays.asList(artifact), source, lowPriorityBuilder, null, repository, session);
+
+		verify(lowPriorityBuilder).build(artifact, source, repository);
+		verify(selectedBuilder, never()).getPriority(any(File.class));
+	}
+
+	/** Without a revision, there is no telling whether a source was built before. */
+	@Test
+	public void testNoRevisionNotCached() throws Exception {
+		BuildCache cache = new BuildCache(tempFolder.newFolder(), Long.MAX_VALUE);
+		manager.setBuildCache(cache);
+
+		manager.build(Arrays.asList(artifact), source, null, "dependencies", repository, session);
+		manager.build(Arrays.asList(artifact), source, null, "dependencies", repository, session);
+
+		verify(selectedBuilder, times(2)).build(any(Artifact.class), any(Source.class), any(File.class));
+		assertEquals(0, cache.getMisses());
+	}
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.apache.maven.artifact.Artifact;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Test case for {@link BuildEvents}. */
+public class TestBuildEvents {
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private final Artifact artifact = mock(Artifact.class);
+
+	@Before
+	public void setUp() {
+		when(artifact.getGroupId()).thenReturn("group");
+		when(artifact.getArtifactId()).thenReturn("artifact");
+		when(artifact.getType()).thenReturn("jar");
+		when(artifact.getVersion()).thenReturn("1.0");
+	}
+
+	/** Events should be recorded with the coordinates of their artifact while a recording is running. */
+	@Test
+	public void testRecorded() throws Exception {
+		Assume.assumeTrue(BuildEvents.isAvailable());
+
+		Recording recording = new Recording();
+		File dump = tempFolder.newFile("events.jfr");
+		try {
+			recording.enable(JfrEventFactory.BuilderExecutionEvent.class);
+			recording.disable(JfrEventFactory.InstallEvent.class);
+			recording.start();
+
+			BuildEvents.begin(BuildEventType.BUILDER_EXECUTION, artifact, "builder").end();
+			// disabled
+			BuildEvents.begin(BuildEventType.INSTALL, artifact, null).end();
+
+			recording.stop();
+			recording.dump(dump.toPath());
+		} finally {
+			recording.close();
+		}
+
+		List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+		for (RecordedEvent event : RecordingFile.readAllEvents(dump.toPath())) {
+			if (event.getEventType().getName().startsWith("org.debian.dependency.")) {
+				events.add(event);
+			}
+		}
+
+		assertEquals(1, events.size());
+		assertEquals("org.debian.dependency.BuilderExecution", events.get(0).getEventType().getName());
+		assertEquals("group:artifact:jar:1.0", events.get(0).getString("artifact"));
+		assertEquals("builder", events.get(0).getString("detail"));
+	}
+
+	/** Without a recording, starting an event should not create anything. */
+	@Test
+	public void testNotRecording() {
+		BuildEvent event = BuildEvents.begin(BuildEventType.RESOLUTION, artifact, null);
+
+		assertSame(event, BuildEvents.begin(BuildEventType.PROJECT_BUILDING, artifact, null));
+		event.end();
+	}
+
+	/** Classifiers are part of the coordinates when present. */
+	@Test
+	public void testCoordinatesWithClassifier() {
+		when(artifact.getClassifier()).thenReturn("tests");
+
+		assertEquals("group:artifact:jar:tests:1.0", JfrEventFactory.coordinates(artifact));
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.repository;
+
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.arrayWithSize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.codehaus.plexus.logging.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.io.Files;
+
+/** Test case for {@link DefaultLocalRepositoryIndex}. */
+public class TestDefaultLocalRepositoryIndex {
+	private static final int WALKED_OFFSET = 8;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+	@Rule
+	public TemporaryFolder indexFolder = new TemporaryFolder();
+
+	private final ArtifactRepository repository = mock(ArtifactRepository.class);
+	private DefaultLocalRepositoryIndex index;
+
+	@Before
+	public void setUp() throws Exception {
+		when(repository.getBasedir())
+				.thenReturn(tempFolder.getRoot().getCanonicalPath());
+		when(repository.pathOf(any(Artifact.class)))
+				.then(new Answer<String>() {
+					@Override
+					public String answer(final InvocationOnMock invocation) throws Throwable {
+						Artifact artifact = (Artifact) invocation.getArguments()[0];
+						return artifact.getGroupId() + "/" + artifact.getArtifactId() + "/" + artifact.getVersion() + "/"
+								+ artifact.getArtifactId() + "-" + artifact.getVersion() + "." + artifact.getType();
+					}
+				});
+
+		index = createIndex();
+	}
+
+	@After
+	public void tearDown() {
+		index.dispose();
+	}
+
+	private DefaultLocalRepositoryIndex createIndex() {
+		DefaultLocalRepositoryIndex result = new DefaultLocalRepositoryIndex();
+		result.enableLogging(mock(Logger.class));
+		result.setDirectory(indexFolder.getRoot());
+		return result;
+	}
+
+	private Artifact createArtifact(final String artifactId, final String version) {
+		return new DefaultArtifact("group", artifactId, version, null, "jar", null, new DefaultArtifactHandler("jar"));
+	}
+
+	private File createFile(final Artifact artifact) throws Exception {
+		File file = new File(tempFolder.getRoot(), repository.pathOf(artifact));
+		Files.createParentDirs(file);
+		Files.touch(file);
+		return file;
+	}
+
+	/** Files which were in the repository when it was indexed should be found without resolving them. */
+	@Test
+	public void testFindIndexed() throws Exception {
+		Artifact artifact = createArtifact("artifact", "1.0");
+		File file = createFile(artifact);
+		createFile(createArtifact("other", "1.0"));
+
+		assertSame(artifact, index.find(artifact, repository));
+		assertEquals(file.getCanonicalFile(), artifact.getFile().getCanonicalFile());
+		assertEquals(true, artifact.isResolved());
+	}
+
+	/** Artifacts which aren't in the repository aren't found. */
+	@Test
+	public void testFindMissing() throws Exception {
+		createFile(createArtifact("artifact", "1.0"));
+
+		assertNull(index.find(createArtifact("artifact", "2.0"), repository));
+		assertNull(index.find(createArtifact("missing", "1.0"), repository));
+	}
+
+	/** Artifacts resolved after the repository was indexed should be found once added. */
+	@Test
+	public void testAdd() throws Exception {
+		Artifact artifact = createArtifact("artifact", "1.0");
+		assertNull(index.find(artifact, repository));
+
+		createFile(artifact);
+		index.add(artifact, repository);
+
+		assertSame(artifact, index.find(artifact, repository));
+	}
+
+	/** Files removed from the repository after they were indexed must be resolved again, and forgotten by the index. */
+	@Test
+	public void testFindRemoved() throws Exception {
+		Artifact artifact = createArtifact("artifact", "1.0");
+		File file = createFile(artifact);
+		assertNull(index.find(createArtifact("other", "1.0"), repository));
+		index.dispose();
+
+		assertTrue(file.delete());
+		index = createIndex();
+		assertNull(index.find(artifact, repository));
+		index.dispose();
+
+		// dropped from what was written, so only found again once added back
+		index = createIndex();
+		createFile(artifact);
+		assertNull(index.find(artifact, repository));
+		index.add(artifact, repository);
+		assertSame(artifact, index.find(artifact, repository));
+	}
+
+	/** Files are only checked the first time they are found, after that the index is trusted. */
+	@Test
+	public void testFindVerifiedOnce() throws Exception {
+		Artifact artifact = createArtifact("artifact", "1.0");
+		File file = createFile(artifact);
+		assertSame(artifact, index.find(artifact, repository));
+
+		assertTrue(file.delete());
+		assertSame(artifact, index.find(artifact, repository));
+	}
+
+	/** The age of an index is when the repository was walked, not when paths were last added to it. */
+	@Test
+	public void testMaxAge() throws Exception {
+		Artifact added = createArtifact("added", "1.0");
+		createFile(added);
+		index.add(added, repository);
+		index.dispose();
+
+		// walked long ago, but recently written
+		File[] files = indexFolder.getRoot().listFiles();
+		assertThat(files, arrayWithSize(1));
+		RandomAccessFile file = new RandomAccessFile(files[0], "rw");
+		try {
+			file.seek(WALKED_OFFSET);
+			file.writeLong(0);
+		} finally {
+			file.close();
+		}
+		assertTrue(files[0].setLastModified(System.currentTimeMillis()));
+
+		Artifact unknown = createArtifact("unknown", "1.0");
+		createFile(unknown);
+		index = createIndex();
+		assertSame(unknown, index.find(unknown, repository));
+	}
+
+	/** Indexes are kept in their own directory, never in the local repository. */
+	@Test
+	public void testIndexOutsideRepository() throws Exception {
+		createFile(createArtifact("artifact", "1.0"));
+		index.find(createArtifact("artifact", "1.0"), repository);
+		index.dispose();
+
+		assertThat(tempFolder.getRoot().list(), arrayContaining("group"));
+		assertThat(indexFolder.getRoot().list(), arrayWithSize(1));
+	}
+
+	/** Nothing is indexed until there is somewhere to keep indexes. */
+	@Test
+	public void testNoDirectory() throws Exception {
+		Artifact artifact = createArtifact("artifact", "1.0");
+		createFile(artifact);
+		index.setDirectory(null);
+
+		assertNull(index.find(artifact, repository));
+		assertThat(indexFolder.getRoot().list(), arrayWithSize(0));
+	}
+
+	/** Snapshots change too often to be indexed and must always be resolved. */
+	@Test
+	public void testSnapshot() throws Exception {
+		Artifact artifact = createArtifact("artifact", "1.0-SNAPSHOT");
+		createFile(artifact);
+		index.add(artifact, repository);
+
+		assertNull(index.find(artifact, repository));
+	}
+
+	/** The index should be read back instead of walking the repository again, including anything added to it. */
+	@Test
+	public void testPersisted() throws Exception {
+		Artifact indexed = createArtifact("indexed", "1.0");
+		createFile(indexed);
+		assertNull(index.find(createArtifact("missing", "1.0"), repository));
+
+		Artifact added = createArtifact("added", "1.0");
+		createFile(added);
+		index.add(added, repository);
+		index.dispose();
+
+		// not walked, so not found
+		Artifact unknown = createArtifact("unknown", "1.0");
+		createFile(unknown);
+
+		index = createIndex();
+		assertSame(indexed, index.find(indexed, repository));
+		assertSame(added, index.find(added, repository));
+		assertNull(index.find(unknown, repository));
+	}
+}
@@ -16,6 +16,7 @@
 package org.debian.dependency.sources;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
@@ -182,4 +183,29 @@ public class TestDefaultSourceRetrievalManager {
 		verify(source).initialize(new File(directory, dirname), location);
 		assertEquals(source, result);
 	}
+
+	/** The location should come from the first source retrieval which knows where the source is. */
+	@Test
+	public void testSourceLocation() throws Exception {
+		SourceRetrieval highPriority = mock(SourceRetrieval.class);
+		SourceRetrieval lowPriority = mock(SourceRetrieval.class);
+
+		when(highPriority.getPriority())
+				.thenReturn(SourceRetrieval.PRIORITY_HIGH);
+		when(lowPriority.getPriority())
+				.thenReturn(SourceRetrieval.PRIORITY_LOW);
+		when(highPriority.getSourceLocation(artifact, session))
+				.thenReturn("");
+		when(lowPriority.getSourceLocation(artifact, session))
+				.thenReturn("location");
+		manager.setSourceRetrievals(Arrays.asList(highPriority, lowPriority));
+
+		assertEquals("location", manager.getSourceLocation(artifact, session));
+	}
+
+	/** Without any source retrieval knowing where the source is, there is no location. */
+	@Test
+	public void testNoSourceLocation() throws Exception {
+		assertNull(manager.getSourceLocation(artifact, session));
+	}
 }
@@ -96,6 +96,28 @@ public class TestJGitSource {
 		assertEquals(directory.getAbsoluteFile(), source.getLocation().getAbsoluteFile());
 	}
 
+	/** The origin given during initialization should be kept. */
+	@Test
+	public void testGetOrigin() throws Exception {
+		source.initialize(directory, ORIGIN);
+
+		assertEquals(ORIGIN, source.getOrigin());
+	}
+
+	/** The revision is the commit of the work branch. */
+	@Test
+	public void testGetRevision() throws Exception {
+		source.initialize(directory, ORIGIN);
+
+		assertEquals(git.getRepository().resolve(WORK_BRANCH).name(), source.getRevision());
+	}
+
+	/** If we haven't been initialized yet, there is no revision. */
+	@Test(expected = IllegalStateException.class)
+	public void testGetRevisionBeforeInit() throws Exception {
+		source.getRevision();
+	}
+
 	/** When initializing an existing git repository, we should preserve its history. */
 	@Test
 	public void testInitGit() throws Exception {
@@ -0,0 +1,716 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.ArtifactUtils;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.repository.RepositorySystem;
+import org.apache.maven.rtinfo.RuntimeInformation;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.apache.maven.shared.dependency.graph.filter.ArtifactDependencyNodeFilter;
+import org.apache.maven.shared.dependency.graph.filter.DependencyNodeFilter;
+import org.apache.maven.shared.dependency.graph.traversal.DependencyNodeVisitor;
+import org.codehaus.plexus.util.IOUtil;
+import org.debian.dependency.builders.SourceBuilderManager;
+import org.debian.dependency.graph.BuildGraph;
+import org.debian.dependency.graph.BuildThreadFactory;
+import org.debian.dependency.ledger.BuildHistory;
+import org.debian.dependency.ledger.BuildTimings;
+import org.debian.dependency.ledger.ResolutionSnapshot;
+import org.debian.dependency.sources.SourceRetrievalException;
+import org.debian.dependency.sources.SourceRetrievalManager;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Base for goals which work with the dependencies of a set of artifacts. Resolves the artifacts along with their dependencies
+ * and decides which of them are ignored and which must be built.
+ */
+public abstract class AbstractDependencyMojo extends AbstractMojo {
+	private static final String SUREFIRE_GROUPID = "org.apache.maven.surefire";
+	private static final String SUREFIRE_PLUGIN_VERSION = "{org.apache.maven.plugins:maven-surefire-plugin}";
+	private static final Pattern ARTIFACT_PATTERN = Pattern.compile("^([^:]+):([^:]+)(?::\\{([^:]+):([^:]+)\\}|:(.+))?$");
+	private static final int REF_GROUP_ID_GROUP = 3;
+	private static final int REF_ARTIFACT_ID_GROUP = 4;
+	private static final int VERSION_GROUP = 5;
+	private static final int DEFAULT_CHUNK_SIZE = 100;
+	private static final double PERCENT = 100;
+	private static final String RESOLVE_BUILD = "build";
+	private static final String RESOLVE_PROJECT = "project";
+
+	/**
+	 * A single artifact to build. This parameter will be merged with {@link #artifacts} and built first if both are specified.
+	 *
+	 * @see #artifacts
+	 */
+	@Parameter
+	private String artifact;
+	/**
+	 * Defines all artifacts to build. This can be used to specify multiple artifacts to build, or implicit dependencies which are
+	 * not represented in the pom.
+	 * <p/>
+	 * Artifacts are defined in one of the following formats:
+	 * <ul>
+	 * <li><code>&lt;groupId&gt;:&lt;artifactId&gt;</code></li>
+	 * <li><code>&lt;groupId&gt;:&lt;artifactId&gt;:&lt;version&gt;</code></li>
+	 * <li><code>&lt;groupId&gt;:&lt;artifactId&gt;:{&lt;refGroupId&gt;:&lt;refArtifactId&gt;}</code></li>
+	 * </ul>
+	 * If the version is not specified, the latest available version will be selected. If the version is specified in the
+	 * <code>{*}</code> format, it can reference the version of another artifact which was resolved (the first one). It is
+	 * ignored, if no artifact can be found.
+	 */
+	@Parameter
+	private Set<String> artifacts = new LinkedHashSet<String>();
+	/** Where artifacts should be dumped after they are built. This can point to an existing repository or a new directory. */
+	@Parameter(property = "dependency-builder.outputDirectory", required = true,
+			defaultValue = "${project.build.directory}/dependency-builder/repository")
+	private File outputDirectory;
+	/**
+	 * Defines artifact dependencies which should be ignored. Ignored artifacts are not build, they are resolved in the usual
+	 * Maven way and copied to {@link #outputDirectory}.
+	 */
+	@Parameter
+	private final StrictPatternArtifactFilter ignores = new StrictPatternArtifactFilter(false);
+	/**
+	 * Whether to allow more than a single source repository for building artifacts. If not set, only the source repository for
+	 * the first artifact will be used. Artifacts which come from the same source repository are checked out and built together.
+	 */
+	@Parameter
+	private boolean multiProject;
+	/**
+	 * Maximum number of artifacts to build at the same time. Artifacts are only built once all of the artifacts they depend on
+	 * have been built and installed in {@link #outputDirectory}.
+	 */
+	@Parameter(defaultValue = "1")
+	private int threads = 1;
+	/** Where the record of built artifacts is kept. */
+	@Parameter(property = "dependency-builder.ledgerDirectory", defaultValue = "${project.build.directory}/dependency-builder/ledger")
+	private File ledgerDirectory;
+	/**
+	 * Where to remember how long each artifact took to check out and build. When building with multiple {@link #threads}, this
+	 * is used to start artifacts on the longest path through the dependency graph first. It can be shared between projects.
+	 */
+	@Parameter(defaultValue = "${project.build.directory}/dependency-builder/history.properties")
+	private File historyFile;
+	/**
+	 * File listing more artifacts to build, one per line in any of the formats of {@link #artifacts}. Blank lines and lines starting
+	 * with <code>#</code> are skipped. The file is read while artifacts are resolved, so it can list far more artifacts than would
+	 * be practical to configure in the pom.
+	 */
+	@Parameter
+	private File manifest;
+	/**
+	 * Number of artifacts to resolve before deciding what must be built from them. Only the artifacts which must be built are kept
+	 * between chunks, so smaller chunks use less memory when building many artifacts.
+	 */
+	@Parameter(defaultValue = "100")
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	/**
+	 * Number of artifacts to resolve at the same time. Each chunk is resolved concurrently, but the resolved graphs are used in
+	 * the order the artifacts were given, so the result is the same as resolving them one at a time.
+	 */
+	@Parameter(property = "dependency-builder.resolveThreads", defaultValue = "1")
+	private int resolveThreads = 1;
+
+	@Parameter(defaultValue = "${session}")
+	private MavenSession session;
+
+	@Component
+	private RepositorySystem repositorySystem;
+	@Component
+	private SourceRetrievalManager sourceRetrievalManager;
+	@Component
+	private SourceBuilderManager sourceBuilderManager;
+	@Component
+	private DependencyCollection dependencyCollection;
+	@Component
+	private ProjectCache projectCache;
+	@Component
+	private RuntimeInformation runtimeInformation;
+
+	private final BuildTimings timings = new BuildTimings();
+	private ResolutionSnapshot snapshot;
+
+	private DependencyNode resolveDependencies(final Artifact artifact) throws DependencyResolutionException {
+		long start = System.nanoTime();
+		try {
+			// don't resolve build dependencies for artifacts that are going to be installed; they are not used
+			boolean ignored = ignores.include(artifact);
+			String kind = RESOLVE_BUILD;
+			if (ignored) {
+				kind = RESOLVE_PROJECT;
+			}
+
+			DependencyNode graph = loadSnapshot(artifact, kind);
+			if (graph != null) {
+				return graph;
+			}
+
+			if (ignored) {
+				graph = dependencyCollection.resolveProjectDependencies(artifact.getGroupId(), artifact.getArtifactId(),
+						artifact.getVersion(), null, session);
+			} else {
+				graph = dependencyCollection.resolveBuildDependencyGraph(artifact.getGroupId(), artifact.getArtifactId(),
+						artifact.getVersion(), null, session);
+			}
+			saveSnapshot(artifact, kind, graph);
+			return graph;
+		} finally {
+			timings.record(BuildGraph.key(artifact), BuildTimings.RESOLVE, start);
+		}
+	}
+
+	private DependencyNode loadSnapshot(final Artifact artifact, final String kind) {
+		if (snapshot == null) {
+			return null;
+		}
+
+		try {
+			DependencyNode graph = snapshot.load(artifact, kind);
+			if (graph != null) {
+				getLog().debug("Reusing resolved dependencies of " + artifact);
+			}
+			return graph;
+		} catch (IOException e) {
+			getLog().debug("Unable to read resolved dependencies of " + artifact + ", resolving them again", e);
+			return null;
+		}
+	}
+
+	private void saveSnapshot(final Artifact artifact, final String kind, final DependencyNode graph) {
+		if (snapshot == null) {
+			return;
+		}
+
+		try {
+			snapshot.save(artifact, kind, graph);
+		} catch (IOException e) {
+			getLog().warn("Unable to save resolved dependencies of " + artifact, e);
+		}
+	}
+
+	/**
+	 * Merges the configured {@link #artifact} with the other {@link #artifacts} and adds the artifacts which are always ignored or
+	 * built. Must be called once before any other method.
+	 */
+	protected void setupArtifacts() {
+		if (artifact != null) {
+			Set<String> newArtifacts = new LinkedHashSet<String>();
+			newArtifacts.add(artifact);
+			newArtifacts.addAll(artifacts);
+			artifacts = newArtifacts;
+		}
+
+		setupDefaultIgnores();
+	}
+
+	private void setupDefaultIgnores() {
+		List<String> includes = new ArrayList<String>(ignores.getIncludes());
+		includes.add("org.apache.maven.plugins");
+		includes.add(SUREFIRE_GROUPID); // ensures dependencies below are installed
+		ignores.setIncludes(includes);
+
+		// implicit dependencies defined by the default plugins covered above in the most common packaging types
+		artifacts.add(String.format("%s:surefire-junit3:%s", SUREFIRE_GROUPID, SUREFIRE_PLUGIN_VERSION));
+		artifacts.add(String.format("%s:surefire-junit4:%s", SUREFIRE_GROUPID, SUREFIRE_PLUGIN_VERSION));
+		artifacts.add(String.format("%s:surefire-junit47:%s", SUREFIRE_GROUPID, SUREFIRE_PLUGIN_VERSION));
+		artifacts.add(String.format("%s:surefire-testng:%s", SUREFIRE_GROUPID, SUREFIRE_PLUGIN_VERSION));
+	}
+
+	/**
+	 * Resolves every configured artifact and creates the graph of artifacts which must be built. Artifacts are resolved a
+	 * {@link #chunkSize chunk} at a time and only what the selector keeps from each chunk is added to the graph, so the resolved
+	 * dependency trees can be discarded as soon as possible. Only the first artifact is built unless building {@link #multiProject}.
+	 *
+	 * @param selector selects what must be built from each chunk of dependency graphs
+	 * @param selected builder to add every selected dependency graph to when not building {@link #multiProject}, so that the
+	 *            graphs themselves can be released
+	 * @param locations map to add the source location of each artifact to (by graph key), if known
+	 * @return graph to build, empty if everything was ignored
+	 * @throws MojoFailureException in case of errors
+	 * @throws MojoExecutionException in case of errors
+	 */
+	protected BuildGraph createBuildGraph(final GraphSelector selector, final BuildGraph.Builder selected,
+			final Map<String, String> locations) throws MojoFailureException, MojoExecutionException {
+		if (chunkSize < 1) {
+			throw new MojoFailureException("Must resolve at least 1 artifact at a time, not " + chunkSize);
+		} else if (resolveThreads < 1) {
+			throw new MojoFailureException("Must resolve with at least 1 thread, not " + resolveThreads);
+		}
+
+		// without a local repository there is nothing to check stored graphs against
+		if (getSnapshotDirectory() != null && session.getLocalRepository() != null) {
+			snapshot = new ResolutionSnapshot(getSnapshotDirectory(), session.getLocalRepository(), repositorySystem,
+					runtimeInformation.getMavenVersion());
+		}
+
+		ExecutorService executor = null;
+		if (resolveThreads > 1) {
+			executor = Executors.newFixedThreadPool(resolveThreads, new BuildThreadFactory("dependency-builder-resolve-"));
+		}
+
+		BuildGraph buildGraph;
+		try {
+			ChunkedResolution resolution = new ChunkedResolution(selector, selected, executor);
+			for (String specifier : artifacts) {
+				resolution.add(specifier);
+			}
+			if (manifest != null) {
+				readManifest(resolution);
+			}
+			buildGraph = resolution.finish();
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+
+		if (!multiProject || buildGraph.size() == 0) {
+			return buildGraph;
+		}
+		findSourceLocations(buildGraph, locations);
+		return buildGraph.group(locations);
+	}
+
+	private void readManifest(final ChunkedResolution resolution) throws MojoFailureException, MojoExecutionException {
+		BufferedReader reader = null;
+		try {
+			reader = Files.newReader(manifest, Charsets.UTF_8);
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				String specifier = line.trim();
+				if (!specifier.isEmpty() && !specifier.startsWith("#")) {
+					resolution.add(specifier);
+				}
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Unable to read manifest " + manifest, e);
+		} finally {
+			IOUtil.close(reader);
+		}
+	}
+
+	private void findSourceLocations(final BuildGraph buildGraph, final Map<String, String> locations) {
+		for (String key : buildGraph.getKeys()) {
+			try {
+				locations.put(key, sourceRetrievalManager.getSourceLocation(buildGraph.getArtifact(key), session));
+			} catch (SourceRetrievalException e) {
+				getLog().debug("Unable to find source location, building separately: " + buildGraph.getArtifact(key), e);
+			}
+		}
+	}
+
+	/**
+	 * Loads how long artifacts took to build in previous runs.
+	 *
+	 * @return build history, empty if it could not be read
+	 */
+	protected BuildHistory loadHistory() {
+		BuildHistory history = new BuildHistory(historyFile);
+		try {
+			history.load();
+		} catch (IOException e) {
+			getLog().warn("Unable to read build history, artifacts will be built in discovery order", e);
+		}
+		return history;
+	}
+
+	/**
+	 * Estimates how long each artifact in the given graph takes to build based on previous runs. Artifacts which were
+	 * {@link BuildGraph#group(Map) grouped} take as long as all of their artifacts.
+	 *
+	 * @param buildGraph graph to estimate
+	 * @param history durations of previous runs
+	 * @return estimated duration by graph key for every artifact which has been built before
+	 */
+	protected Map<String, Long> estimateDurations(final BuildGraph buildGraph, final BuildHistory history) {
+		Map<String, Long> result = new HashMap<String, Long>();
+		for (String key : buildGraph.getKeys()) {
+			long total = 0;
+			for (Artifact artifact : buildGraph.getArtifacts(key)) {
+				Long duration = history.getDuration(ArtifactUtils.versionlessKey(artifact));
+				if (duration == null) {
+					total = -1;
+					break;
+				}
+				total += duration;
+			}
+
+			if (total >= 0) {
+				result.put(key, total);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return filter selecting which dependencies are ignored
+	 */
+	protected DependencyNodeFilter createIgnoreFilter() {
+		return new ArtifactDependencyNodeFilter(ignores);
+	}
+
+	private Artifact createArtifact(final String specifier, final Map<String, Artifact> index) throws MojoExecutionException {
+		Matcher matcher = ARTIFACT_PATTERN.matcher(specifier);
+		if (!matcher.find()) {
+			throw new MojoExecutionException("Artifact `" + specifier
+					+ "` is not valid, must `have format <groupId>:<artifactId> or <groupId>:<artifactId>:<version>");
+		}
+
+		String groupId = matcher.group(1);
+		String artifactId = matcher.group(2);
+		String version = "LATEST";
+
+		if (matcher.group(VERSION_GROUP) != null) {
+			version = matcher.group(VERSION_GROUP);
+		}
+
+		// specifier can be resolved now completely
+		if (matcher.group(REF_GROUP_ID_GROUP) == null || matcher.group(REF_ARTIFACT_ID_GROUP) == null) {
+			return repositorySystem.createProjectArtifact(groupId, artifactId, version);
+		}
+
+		// otherwise it must be a referencing another artifact
+		Artifact found = index.get(ArtifactUtils.versionlessKey(matcher.group(REF_GROUP_ID_GROUP), matcher.group(REF_ARTIFACT_ID_GROUP)));
+		if (found != null) {
+			return repositorySystem.createProjectArtifact(groupId, artifactId, found.getVersion());
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return where built and ignored artifacts are installed
+	 */
+	protected File getOutputDirectory() {
+		return outputDirectory;
+	}
+
+	/**
+	 * @param outputDirectory where built and ignored artifacts are installed
+	 */
+	protected void setOutputDirectory(final File outputDirectory) {
+		this.outputDirectory = outputDirectory;
+	}
+
+	/**
+	 * @return whether more than a single source repository is built
+	 */
+	protected boolean isMultiProject() {
+		return multiProject;
+	}
+
+	/**
+	 * @return where resolved dependency graphs are kept between runs or {@code null} to always resolve them
+	 */
+	protected File getSnapshotDirectory() {
+		return null;
+	}
+
+	/**
+	 * @return maximum number of artifacts to build at the same time
+	 */
+	protected int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @return where the record of built artifacts is kept
+	 */
+	protected File getLedgerDirectory() {
+		return ledgerDirectory;
+	}
+
+	/**
+	 * @param ledgerDirectory where the record of built artifacts is kept
+	 */
+	protected void setLedgerDirectory(final File ledgerDirectory) {
+		this.ledgerDirectory = ledgerDirectory;
+	}
+
+	/**
+	 * @return where the durations of builds are kept
+	 */
+	protected File getHistoryFile() {
+		return historyFile;
+	}
+
+	/**
+	 * @return current session
+	 */
+	protected MavenSession getSession() {
+		return session;
+	}
+
+	/**
+	 * @return repository system
+	 */
+	protected RepositorySystem getRepositorySystem() {
+		return repositorySystem;
+	}
+
+	/**
+	 * @return manager for retrieving sources
+	 */
+	protected SourceRetrievalManager getSourceRetrievalManager() {
+		return sourceRetrievalManager;
+	}
+
+	/**
+	 * @return manager for building sources
+	 */
+	protected SourceBuilderManager getSourceBuilderManager() {
+		return sourceBuilderManager;
+	}
+
+	/**
+	 * @return dependency collection
+	 */
+	protected DependencyCollection getDependencyCollection() {
+		return dependencyCollection;
+	}
+
+	/** Logs how well projects were shared between everything which needed them. */
+	protected void reportProjectCache() {
+		long total = projectCache.getHits() + projectCache.getMisses();
+		if (total == 0) {
+			return;
+		}
+		getLog().info(String.format("Project cache: %d hits, %d misses (%.1f%% hit rate), saved %dms", projectCache.getHits(),
+				projectCache.getMisses(), PERCENT * projectCache.getHits() / total, projectCache.getSavedMillis()));
+	}
+
+	/**
+	 * @return how long each phase took so far
+	 */
+	protected BuildTimings getTimings() {
+		return timings;
+	}
+
+	/** Selects which dependency graphs must be built. */
+	protected interface GraphSelector {
+		/**
+		 * Selects the parts of the given dependency graphs which must be built. This is called once for every chunk of resolved
+		 * artifacts.
+		 *
+		 * @param graphs resolved dependency graphs
+		 * @return dependency graphs which must be built
+		 * @throws MojoExecutionException in case of errors
+		 */
+		List<DependencyNode> select(List<DependencyNode> graphs) throws MojoExecutionException;
+	}
+
+	/**
+	 * Resolves artifacts from their specifiers, passing them on to be selected and added to the build graph a chunk at a time.
+	 * Artifacts which reference the version of another artifact are resolved last, once every other artifact is known.
+	 */
+	private class ChunkedResolution {
+		private final GraphSelector selector;
+		private final BuildGraph.Builder selected;
+		private final ExecutorService executor;
+		private final BuildGraph.Builder builder = new BuildGraph.Builder();
+		private final Map<String, Artifact> index = new HashMap<String, Artifact>();
+		private final Set<String> resolved = new HashSet<String>();
+		private final List<String> versionReferencingArtifacts = new ArrayList<String>();
+		private final List<Artifact> queued = new ArrayList<Artifact>();
+		private List<DependencyNode> pending = new ArrayList<DependencyNode>();
+		private int specifiers;
+		private long specifierTime;
+
+		public ChunkedResolution(final GraphSelector selector, final BuildGraph.Builder selected, final ExecutorService executor) {
+			this.selector = selector;
+			this.selected = selected;
+			this.executor = executor;
+		}
+
+		public void add(final String specifier) throws MojoExecutionException {
+			++specifiers;
+			long start = System.nanoTime();
+			Artifact artifact = createArtifact(specifier, Collections.<String, Artifact> emptyMap());
+			specifierTime += System.nanoTime() - start;
+			if (artifact == null) {
+				versionReferencingArtifacts.add(specifier);
+				return;
+			}
+
+			queue(artifact);
+			if (queued.size() >= chunkSize) {
+				flush();
+			}
+		}
+
+		public BuildGraph finish() throws MojoFailureException, MojoExecutionException {
+			if (resolved.isEmpty()) {
+				throw new MojoFailureException("Must specify at least 1 (non-referencing) artifact to build");
+			}
+
+			// referenced artifacts are looked up in the graphs in the order they were resolved
+			resolveQueued();
+			for (String specifier : versionReferencingArtifacts) {
+				long start = System.nanoTime();
+				Artifact artifact = createArtifact(specifier, index);
+				specifierTime += System.nanoTime() - start;
+				if (artifact != null) {
+					queue(artifact);
+					resolveQueued();
+				}
+			}
+			flush();
+
+			getLog().info("Resolved " + specifiers + " artifact specifiers in " + TimeUnit.NANOSECONDS.toMillis(specifierTime) + "ms");
+			return builder.build();
+		}
+
+		private void queue(final Artifact artifact) {
+			if (!resolved.add(BuildGraph.key(artifact))) {
+				getLog().debug("Skipping duplicate artifact " + artifact);
+				return;
+			}
+			queued.add(artifact);
+		}
+
+		private void resolveQueued() throws MojoExecutionException {
+			List<Future<DependencyNode>> graphs = new ArrayList<Future<DependencyNode>>(queued.size());
+			try {
+				for (final Artifact artifact : queued) {
+					Callable<DependencyNode> task = new Callable<DependencyNode>() {
+						@Override
+						public DependencyNode call() throws DependencyResolutionException {
+							return resolveDependencies(artifact);
+						}
+					};
+
+					if (executor == null) {
+						FutureTask<DependencyNode> graph = new FutureTask<DependencyNode>(task);
+						graph.run();
+						graphs.add(graph);
+					} else {
+						graphs.add(executor.submit(task));
+					}
+				}
+
+				// graphs are always used in the order they were given so the build graph doesn't depend on timing
+				for (int i = 0; i < graphs.size(); ++i) {
+					DependencyNode graph = getGraph(queued.get(i), graphs.get(i));
+					pending.add(graph);
+
+					long start = System.nanoTime();
+					graph.accept(new IndexingArtifactVisitor(index));
+					specifierTime += System.nanoTime() - start;
+				}
+			} finally {
+				for (Future<DependencyNode> graph : graphs) {
+					graph.cancel(true);
+				}
+				queued.clear();
+			}
+		}
+
+		private DependencyNode getGraph(final Artifact artifact, final Future<DependencyNode> graph) throws MojoExecutionException {
+			try {
+				return graph.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MojoExecutionException("Interrupted resolving dependencies for " + artifact, e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				} else if (e.getCause() instanceof Error) {
+					throw (Error) e.getCause();
+				}
+				throw new MojoExecutionException("Unable to resolve dependencies for " + artifact, e.getCause());
+			}
+		}
+
+		private void flush() throws MojoExecutionException {
+			resolveQueued();
+			if (pending.isEmpty()) {
+				return;
+			}
+
+			List<DependencyNode> toBuild = selector.select(pending);
+			getLog().debug("Selected " + toBuild.size() + " of " + pending.size() + " resolved artifacts to build");
+			pending = new ArrayList<DependencyNode>();
+
+			if (multiProject) {
+				builder.add(toBuild, true);
+				return;
+			}
+
+			selected.add(toBuild, true);
+			if (builder.size() == 0 && !toBuild.isEmpty()) {
+				builder.add(toBuild.subList(0, 1), false);
+			}
+		}
+	}
+
+	/** Indexes artifacts by group and artifact id, keeping the first one seen for each. Shared nodes are only visited once. */
+	private static class IndexingArtifactVisitor implements DependencyNodeVisitor {
+		private final Map<String, Artifact> index;
+		private final Set<DependencyNode> visited = Collections.newSetFromMap(new IdentityHashMap<DependencyNode, Boolean>());
+
+		public IndexingArtifactVisitor(final Map<String, Artifact> index) {
+			this.index = index;
+		}
+
+		@Override
+		public boolean visit(final DependencyNode node) {
+			if (!visited.add(node)) {
+				return false;
+			}
+
+			Artifact artifact = node.getArtifact();
+			String key = ArtifactUtils.versionlessKey(artifact.getGroupId(), artifact.getArtifactId());
+			if (!index.containsKey(key)) {
+				index.put(key, artifact);
+			}
+			return true;
+		}
+
+		@Override
+		public boolean endVisit(final DependencyNode node) {
+			return true;
+		}
+	}
+}
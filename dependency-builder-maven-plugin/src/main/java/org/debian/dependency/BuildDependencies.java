@@ -16,169 +16,704 @@
 package org.debian.dependency;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.ArtifactUtils;
 import org.apache.maven.artifact.InvalidRepositoryException;
 import org.apache.maven.artifact.installer.ArtifactInstallationException;
 import org.apache.maven.artifact.installer.ArtifactInstaller;
 import org.apache.maven.artifact.repository.ArtifactRepository;
-import org.apache.maven.execution.MavenSession;
-import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
-import org.apache.maven.repository.RepositorySystem;
 import org.apache.maven.shared.dependency.graph.DependencyNode;
-import org.apache.maven.shared.dependency.graph.filter.ArtifactDependencyNodeFilter;
-import org.apache.maven.shared.dependency.graph.traversal.CollectingDependencyNodeVisitor;
-import org.apache.maven.shared.dependency.graph.traversal.DependencyNodeVisitor;
 import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.StringUtils;
 import org.debian.dependency.builders.ArtifactBuildException;
-import org.debian.dependency.builders.SourceBuilderManager;
+import org.debian.dependency.builders.BuildCache;
+import org.debian.dependency.builders.SourceBuilder;
+import org.debian.dependency.events.BuildEvent;
+import org.debian.dependency.events.BuildEventType;
+import org.debian.dependency.events.BuildEvents;
+import org.debian.dependency.graph.BuildFailuresException;
+import org.debian.dependency.graph.BuildGraph;
+import org.debian.dependency.graph.BuildProgress;
+import org.debian.dependency.graph.BuildScheduler;
+import org.debian.dependency.graph.BuildTask;
+import org.debian.dependency.graph.BuildThreadFactory;
+import org.debian.dependency.graph.CriticalPathComparator;
+import org.debian.dependency.graph.SourcePrefetcher;
+import org.debian.dependency.install.BatchInstaller;
+import org.debian.dependency.install.FileTransfer;
+import org.debian.dependency.ledger.BuildHistory;
+import org.debian.dependency.ledger.BuildLedger;
+import org.debian.dependency.ledger.BuildTimings;
+import org.debian.dependency.ledger.LedgerEntry;
+import org.debian.dependency.ledger.LedgerEntry.InstalledFile;
+import org.debian.dependency.repository.LocalRepositoryIndex;
+import org.debian.dependency.shard.ArtifactCoordinates;
+import org.debian.dependency.shard.LocalWorkers;
+import org.debian.dependency.shard.ShardCoordinator;
+import org.debian.dependency.shard.ShardTask;
+import org.debian.dependency.shard.ShardWorker;
 import org.debian.dependency.sources.Source;
 import org.debian.dependency.sources.SourceRetrievalException;
-import org.debian.dependency.sources.SourceRetrievalManager;
 
-import com.google.common.collect.Iterators;
 import com.google.common.io.Files;
 
 /** Builds the dependencies of a project which deploys Maven metadata. */
 @Mojo(name = "build-dependencies")
-public class BuildDependencies extends AbstractMojo {
-	private static final String SUREFIRE_GROUPID = "org.apache.maven.surefire";
-	private static final String SUREFIRE_PLUGIN_VERSION = "{org.apache.maven.plugins:maven-surefire-plugin}";
+public class BuildDependencies extends AbstractDependencyMojo {
+	private static final int DEFAULT_PREFETCH_LIMIT = 4;
+	private static final int DEFAULT_INSTALL_THREADS = 4;
+	private static final long BYTES_PER_MIB = 1024 * 1024;
+	private static final int DEFAULT_WORKER_TIMEOUT = 600;
+	private static final long WORKER_STOP_TIMEOUT = 30000;
+	private static final long DEFAULT_BUILD_CACHE_SIZE = 10240;
+	private static final int DEFAULT_PROGRESS_INTERVAL = 30;
+	private static final String PROPERTY_PREFIX = "dependency-builder.";
+	private static final String WORKER_CONFIGURATION = "worker.properties";
+	private static final int TOKEN_BITS = 128;
+	private static final int TOKEN_RADIX = 36;
 
+	/** Directory where local source repositories should be made for potential modifications. */
+	@Parameter(property = "dependency-builder.workDirectory", defaultValue = "${project.build.directory}/dependency-builder/work")
+	private File workDirectory;
 	/**
-	 * A single artifact to build. This parameter will be merged with {@link #artifacts} and built first if both are specified.
-	 *
-	 * @see #artifacts
+	 * Whether to resume from a previous run. Every artifact which is built is recorded in the ledger directory. Artifacts recorded
+	 * by a previous run are not built again as long as the files they installed in the output directory are unchanged.
 	 */
-	@Parameter
-	private String artifact;
+	@Parameter(property = "dependency-builder.resume")
+	private boolean resume;
 	/**
-	 * Defines all artifacts to build. This can be used to specify multiple artifacts to build, or implicit dependencies which are
-	 * not represented in the pom.
-	 * <p/>
-	 * Artifacts are defined in one of the following formats:
-	 * <ul>
-	 * <li><code>&lt;groupId&gt;:&lt;artifactId&gt;</code></li>
-	 * <li><code>&lt;groupId&gt;:&lt;artifactId&gt;:&lt;version&gt;</code></li>
-	 * <li><code>&lt;groupId&gt;:&lt;artifactId&gt;:{&lt;refGroupId&gt;:&lt;refArtifactId&gt;}</code></li>
-	 * </ul>
-	 * If the version is not specified, the latest available version will be selected. If the version is specified in the
-	 * <code>{*}</code> format, it can reference the version of another artifact which was resolved (the first one). It is
-	 * ignored, if no artifact can be found.
+	 * Whether to keep the resolved dependencies of every artifact in the {@link #workDirectory} and reuse them in later runs.
+	 * Resolved dependencies are only reused while every pom they were resolved from, including parents and imported boms, is
+	 * unchanged in the local repository. Snapshots, version ranges and {@code LATEST} are always resolved. Disabled by default.
 	 */
-	@Parameter
-	private Set<String> artifacts = new LinkedHashSet<String>();
-	/** Where artifacts should be dumped after they are built. This can point to an existing repository or a new directory. */
-	@Parameter(required = true, defaultValue = "${project.build.directory}/dependency-builder/repository")
-	private File outputDirectory;
+	@Parameter(property = "dependency-builder.reuseResolution")
+	private boolean reuseResolution;
 	/**
-	 * Defines artifact dependencies which should be ignored. Ignored artifacts are not build, they are resolved in the usual
-	 * Maven way and copied to {@link #outputDirectory}.
+	 * Number of sources to check out ahead of the artifacts being built. When set, sources are checked out in the background in
+	 * the order artifacts are expected to be built while earlier artifacts are building. Disabled by default.
+	 */
+	@Parameter(defaultValue = "0")
+	private int prefetchThreads;
+	/**
+	 * Maximum number of sources which may be checked out ahead of time and not yet built. Prefetching waits for artifacts to be
+	 * built once this is reached so that checkouts cannot fill {@link #workDirectory}.
+	 */
+	@Parameter(defaultValue = "4")
+	private int prefetchLimit = DEFAULT_PREFETCH_LIMIT;
+	/**
+	 * Whether to keep building after an artifact fails. Only the artifacts which depend on a failed artifact are skipped, every
+	 * other artifact is still built and all failures are reported at the end.
 	 */
 	@Parameter
-	private final StrictPatternArtifactFilter ignores = new StrictPatternArtifactFilter(false);
-	/** Directory where local source repositories should be made for potential modifications. */
-	@Parameter(defaultValue = "${project.build.directory}/dependency-builder/work")
-	private File workDirectory;
+	private boolean keepGoing;
+	/**
+	 * Number of files to install into the output directory at the same time. All artifacts from a single build are installed
+	 * together and repository metadata is only written once per project.
+	 */
+	@Parameter(defaultValue = "4")
+	private int installThreads = DEFAULT_INSTALL_THREADS;
+	/**
+	 * Whether to hard link files into the output directory instead of copying them. Files which cannot be linked (i.e. they are
+	 * on a different file system or links are unsupported) are still copied. Linked files share their contents with the built or
+	 * resolved file, so they should not be modified afterwards.
+	 */
+	@Parameter(property = "dependency-builder.linkFiles")
+	private boolean linkFiles;
+	/**
+	 * Number of worker processes to start on this machine. When set, or when {@link #coordinatorPort} is, this build becomes a
+	 * coordinator: it resolves artifacts and decides the order they are built in, but every artifact is checked out, built and
+	 * installed by a worker process. The number of workers used at the same time is limited by the number of threads. Workers are
+	 * started by running this goal from the command line with the settings, profiles and user properties of this build. The
+	 * parameters they build with are written to <code>worker.properties</code> in {@link #workDirectory} and passed along as
+	 * {@link #workerConfiguration}.
+	 */
+	@Parameter(defaultValue = "0")
+	private int workers;
 	/**
-	 * Whether to allow more than a single source repository for building artifacts. If not set, only the source repository for
-	 * the first artifact will be used.
+	 * Port the coordinator listens on for workers. When set, workers on other hosts can connect as long as they share the output
+	 * directory with the coordinator and can read its <code>worker.properties</code>, which holds the token workers must present.
+	 * By default, any free port on the loopback interface is used so only local workers can connect.
+	 */
+	@Parameter(defaultValue = "0")
+	private int coordinatorPort;
+	/** Number of seconds to wait for a worker to become available before failing to build an artifact. */
+	@Parameter(defaultValue = "600")
+	private int workerTimeout = DEFAULT_WORKER_TIMEOUT;
+	/**
+	 * Address of a coordinator to build artifacts for, in the format <code>&lt;host&gt;:&lt;port&gt;</code>. When set, nothing is
+	 * resolved; artifacts are built as the coordinator hands them out and installed in the output directory, which must be the
+	 * same one the coordinator uses. Requires the {@link #workerConfiguration} of the coordinator.
+	 */
+	@Parameter(property = "dependency-builder.coordinator")
+	private String coordinator;
+	/**
+	 * Parameters to build with when building for a {@link #coordinator}, as written by the coordinator. These replace the
+	 * configuration of the worker so that it builds the same way the coordinator would have. Workers on other hosts should point
+	 * this to <code>worker.properties</code> in the {@link #workDirectory} of the coordinator.
+	 */
+	@Parameter(property = "dependency-builder.workerConfiguration")
+	private File workerConfiguration;
+
+	/**
+	 * Where to keep the output of builds so that they can be restored instead of building them again, i.e. when another project
+	 * needs the same artifacts. Builds are only restored for the same source revision and builder, built against exactly the same
+	 * files from the artifacts built before it and the same ignored artifacts. Disabled by default.
 	 */
 	@Parameter
-	private boolean multiProject;
+	private File buildCache;
+	/** Maximum size of the {@link #buildCache} in MiB, the least recently used builds are removed once it grows larger. */
+	@Parameter(defaultValue = "10240")
+	private long buildCacheSize = DEFAULT_BUILD_CACHE_SIZE;
+
+	/**
+	 * Where to write how long each phase took for each artifact, one JSON object per line. A summary of each phase is also
+	 * logged at the end of the build.
+	 */
+	@Parameter(defaultValue = "${project.build.directory}/dependency-builder/timings.jsonl")
+	private File timingsFile;
 
-	@Parameter(defaultValue = "${session}")
-	private MavenSession session;
+	/**
+	 * Number of seconds between progress reports while artifacts are building. Each report logs how many artifacts are done,
+	 * running, queued and blocked along with the build rate, the size of checked out source and an estimate of the remaining
+	 * time. Set to 0 to only report once all artifacts are done.
+	 */
+	@Parameter(property = "dependency-builder.progressInterval", defaultValue = "30")
+	private int progressInterval = DEFAULT_PROGRESS_INTERVAL;
+	/** Where to write the latest progress report as a JSON object so that the build can be monitored from the outside. */
+	@Parameter(defaultValue = "${project.build.directory}/dependency-builder/status.json")
+	private File statusFile;
+
+	@Parameter(defaultValue = "${mojoExecution}", readonly = true)
+	private MojoExecution mojoExecution;
 
-	@Component
-	private RepositorySystem repositorySystem;
-	@Component
-	private SourceRetrievalManager sourceRetrievalManager;
-	@Component
-	private SourceBuilderManager sourceBuilderManager;
-	@Component
-	private DependencyCollection dependencyCollection;
 	@Component
 	private ArtifactInstaller artifactInstaller;
+	@Component
+	private LocalRepositoryIndex localRepositoryIndex;
+
+	private BatchInstaller batchInstaller;
+	private BuildLedger ledger;
+	private BuildHistory history;
+	private SourcePrefetcher prefetcher;
+	private ShardCoordinator shardCoordinator;
+	private LocalWorkers localWorkers;
+	private String workerToken;
+	private BuildCache cache;
+	/** Checksums of what each artifact built and the ignored artifacts beneath it, which is what dependents are built against. */
+	private final Map<String, String> builtChecksums = new ConcurrentHashMap<String, String>();
+	private final Map<String, Set<String>> ignoredDependencies = new HashMap<String, Set<String>>();
+	private BuildProgress progress;
+	private ScheduledExecutorService progressReporter;
 
 	@Override
 	public void execute() throws MojoExecutionException, MojoFailureException {
-		if (artifact != null) {
-			Set<String> newArtifacts = new LinkedHashSet<String>();
-			newArtifacts.add(artifact);
-			newArtifacts.addAll(artifacts);
-			artifacts = newArtifacts;
+		if (coordinator != null && workerConfiguration != null) {
+			configureWorker();
 		}
 
-		setupDefaultIgnores();
+		if (getThreads() < 1) {
+			throw new MojoFailureException("Must build with at least 1 thread, not " + getThreads());
+		} else if (prefetchThreads < 0) {
+			throw new MojoFailureException("Must prefetch with 0 or more threads, not " + prefetchThreads);
+		} else if (prefetchThreads > 0 && prefetchLimit < 1) {
+			throw new MojoFailureException("Must be able to prefetch at least 1 source, not " + prefetchLimit);
+		} else if (installThreads < 1) {
+			throw new MojoFailureException("Must install with at least 1 thread, not " + installThreads);
+		} else if (workers < 0) {
+			throw new MojoFailureException("Must start 0 or more workers, not " + workers);
+		} else if (buildCacheSize < 0) {
+			throw new MojoFailureException("Build cache size must not be negative, not " + buildCacheSize);
+		} else if (progressInterval < 0) {
+			throw new MojoFailureException("Progress interval must not be negative, not " + progressInterval);
+		}
+
+		setupArtifacts();
 
 		try {
-			Files.createParentDirs(outputDirectory);
+			Files.createParentDirs(getOutputDirectory());
 			FileUtils.forceMkdir(workDirectory);
 		} catch (IOException e) {
 			throw new MojoExecutionException("Failed to write file system", e);
 		}
 
+		if (resume) {
+			ledger = new BuildLedger(getLedgerDirectory(), getOutputDirectory());
+		}
+
+		// the local repository may be shared, so what we know about it is kept with our own files
+		localRepositoryIndex.setDirectory(new File(workDirectory, ".local-index"));
 		try {
-			ArtifactRepository repository = repositorySystem.createLocalRepository(outputDirectory);
-			List<DependencyNode> graphs = createArtifactGraph();
+			ArtifactRepository repository = getRepositorySystem().createLocalRepository(getOutputDirectory());
+			FileTransfer transfer = new FileTransfer(linkFiles);
+			if (coordinator != null) {
+				buildForCoordinator(repository, transfer);
+				return;
+			}
 
-			getLog().debug("Installing ignored artifacts");
-			List<DependencyNode> toBuild = dependencyCollection.installDependencies(graphs,
-					new ArtifactDependencyNodeFilter(ignores), repository, session);
-			if (toBuild.isEmpty()) {
+			BuildGraph.Builder selected = new BuildGraph.Builder();
+			BuildGraph buildGraph = createBuildGraph(new InstallingGraphSelector(repository, transfer), selected,
+					new HashMap<String, String>());
+			if (buildGraph.size() == 0) {
 				throw new MojoFailureException("All artifacts were ignored and installed, nothing to build!");
 			}
 
-			for (Iterator<DependencyNode> iter = toBuild.iterator(); iter.hasNext();) {
-				DependencyNode node = iter.next();
-				Set<Artifact> builtArtifacts = buildDependencyGraph(node);
-				for (Artifact artifact : builtArtifacts) {
-					artifactInstaller.install(artifact.getFile(), artifact, repository);
+			history = loadHistory();
+			Map<String, Long> durations = estimateDurations(buildGraph, history);
+			CriticalPathComparator order = new CriticalPathComparator(buildGraph, durations);
+			BuildScheduler scheduler = new BuildScheduler(getThreads(), order, keepGoing);
+			Set<Artifact> builtArtifacts;
+			batchInstaller = new BatchInstaller(artifactInstaller, transfer, installThreads);
+			try {
+				startCache();
+				startProgress(scheduler, buildGraph, durations);
+				BuildTask task = new InstallingBuildTask(repository, buildGraph);
+				if (workers > 0 || coordinatorPort > 0) {
+					// sources are checked out by the workers
+					startCoordinator();
+					task = new ShardedBuildTask(repository, buildGraph);
+				} else {
+					startPrefetch(scheduler, buildGraph, order);
 				}
-
-				checkSingleProjectFailure(node, iter, builtArtifacts);
+				builtArtifacts = scheduler.execute(buildGraph, task);
+			} catch (BuildFailuresException e) {
+				reportFailures(e);
+				throw e;
+			} finally {
+				if (prefetcher != null) {
+					prefetcher.stop();
+				}
+				stopCoordinator();
+				stopProgress();
+				batchInstaller.stop();
+				saveDurations();
+				reportTransfer(transfer);
+				reportCache();
 			}
+			checkSingleProjectFailure(selected.build(), builtArtifacts);
 		} catch (InvalidRepositoryException e) {
 			throw new MojoExecutionException("Unable to create local repository", e);
-		} catch (DependencyResolutionException e) {
-			throw new MojoExecutionException("Unable to resolve dependencies", e);
-		} catch (ArtifactInstallationException e) {
-			throw new MojoExecutionException("Unable to install ignored artifact", e);
+		} finally {
+			localRepositoryIndex.setDirectory(null);
+			// workers share the build directory, the coordinator records their time
+			if (coordinator == null) {
+				reportTimings();
+			}
 		}
 	}
 
-	private void checkSingleProjectFailure(final DependencyNode current, final Iterator<DependencyNode> rest, final Set<Artifact> builtArtifacts)
-			throws MojoFailureException {
-		if (multiProject) {
+	@Override
+	protected File getSnapshotDirectory() {
+		if (!reuseResolution) {
+			return null;
+		}
+		return new File(workDirectory, ".resolution");
+	}
+
+	private void reportTimings() {
+		reportProjectCache();
+		getLog().info("Time spent in each phase:");
+		for (String line : getTimings().summarize()) {
+			getLog().info("  " + line);
+		}
+
+		try {
+			getTimings().write(timingsFile);
+		} catch (IOException e) {
+			getLog().warn("Unable to write timings", e);
+		}
+	}
+
+	private void buildForCoordinator(final ArtifactRepository repository, final FileTransfer transfer) throws MojoExecutionException {
+		int separator = coordinator.lastIndexOf(':');
+		int port = -1;
+		try {
+			port = Integer.parseInt(coordinator.substring(separator + 1));
+		} catch (NumberFormatException e) {
+			getLog().debug("Invalid coordinator port", e);
+		}
+		if (separator <= 0 || port < 0) {
+			throw new MojoExecutionException("Coordinator must have format <host>:<port>, not " + coordinator);
+		} else if (workerToken == null) {
+			throw new MojoExecutionException("Building for a coordinator requires its worker configuration");
+		}
+
+		// durations are recorded by the coordinator
+		history = new BuildHistory(getHistoryFile());
+		batchInstaller = new BatchInstaller(artifactInstaller, transfer, installThreads);
+		try {
+			startCache();
+			ShardWorker worker = new ShardWorker(coordinator.substring(0, separator), port,
+					ManagementFactory.getRuntimeMXBean().getName(), workerToken);
+			int count = worker.run(new WorkerTask(repository));
+			getLog().info("Finished " + count + " builds for coordinator " + coordinator);
+		} catch (IOException e) {
+			throw new MojoExecutionException("Lost connection to coordinator " + coordinator, e);
+		} finally {
+			batchInstaller.stop();
+			reportTransfer(transfer);
+			reportCache();
+		}
+	}
+
+	private void configureWorker() throws MojoExecutionException {
+		Properties configuration = new Properties();
+		InputStream stream = null;
+		try {
+			stream = new FileInputStream(workerConfiguration);
+			configuration.load(stream);
+		} catch (IOException e) {
+			throw new MojoExecutionException("Unable to read worker configuration " + workerConfiguration, e);
+		} finally {
+			IOUtil.close(stream);
+		}
+
+		workerToken = configuration.getProperty("token");
+		try {
+			setOutputDirectory(new File(configuration.getProperty("outputDirectory", getOutputDirectory().getPath())));
+			setLedgerDirectory(new File(configuration.getProperty("ledgerDirectory", getLedgerDirectory().getPath())));
+			workDirectory = new File(configuration.getProperty("workDirectory", workDirectory.getPath()));
+			resume = Boolean.parseBoolean(configuration.getProperty("resume", String.valueOf(resume)));
+			linkFiles = Boolean.parseBoolean(configuration.getProperty("linkFiles", String.valueOf(linkFiles)));
+			installThreads = Integer.parseInt(configuration.getProperty("installThreads", String.valueOf(installThreads)));
+			buildCacheSize = Long.parseLong(configuration.getProperty("buildCacheSize", String.valueOf(buildCacheSize)));
+			if (configuration.getProperty("buildCache") != null) {
+				buildCache = new File(configuration.getProperty("buildCache"));
+			}
+		} catch (NumberFormatException e) {
+			throw new MojoExecutionException("Invalid worker configuration " + workerConfiguration, e);
+		}
+	}
+
+	private File writeWorkerConfiguration() throws IOException {
+		Properties configuration = new Properties();
+		configuration.setProperty("outputDirectory", getOutputDirectory().getPath());
+		configuration.setProperty("ledgerDirectory", getLedgerDirectory().getPath());
+		configuration.setProperty("workDirectory", workDirectory.getPath());
+		configuration.setProperty("resume", String.valueOf(resume));
+		configuration.setProperty("linkFiles", String.valueOf(linkFiles));
+		configuration.setProperty("installThreads", String.valueOf(installThreads));
+		configuration.setProperty("buildCacheSize", String.valueOf(buildCacheSize));
+		if (buildCache != null) {
+			configuration.setProperty("buildCache", buildCache.getPath());
+		}
+		configuration.setProperty("token", workerToken);
+
+		File file = new File(workDirectory, WORKER_CONFIGURATION);
+		OutputStream stream = null;
+		try {
+			// only those who can read the token can connect, so keep it to ourselves before it is written
+			if ((file.exists() && !file.delete()) || !file.createNewFile()) {
+				throw new IOException("Unable to replace " + file);
+			}
+			if (!file.setReadable(false, false) || !file.setReadable(true, true)) {
+				getLog().warn("Unable to restrict who can read the worker token in " + file);
+			}
+			stream = new FileOutputStream(file);
+			configuration.store(stream, "Parameters workers build with");
+		} finally {
+			IOUtil.close(stream);
+		}
+		return file;
+	}
+
+	private void startCoordinator() throws MojoExecutionException {
+		try {
+			// only listen for other hosts when asked to
+			InetAddress address = InetAddress.getByName(null);
+			if (coordinatorPort > 0) {
+				address = null;
+			}
+			workerToken = new BigInteger(TOKEN_BITS, new SecureRandom()).toString(TOKEN_RADIX);
+			File configuration = writeWorkerConfiguration();
+			shardCoordinator = new ShardCoordinator(address, coordinatorPort, TimeUnit.SECONDS.toMillis(workerTimeout), workerToken);
+			shardCoordinator.start();
+			getLog().info("Coordinating workers on port " + shardCoordinator.getPort() + " with configuration " + configuration);
+
+			if (workers > 0) {
+				localWorkers = new LocalWorkers(createWorkerCommand(shardCoordinator.getPort(), configuration), workDirectory);
+				localWorkers.start(workers);
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Unable to start workers", e);
+		}
+	}
+
+	private List<String> createWorkerCommand(final int port, final File configuration) {
+		MavenExecutionRequest request = getSession().getRequest();
+		List<String> command = new ArrayList<String>();
+		command.add(new File(System.getProperty("maven.home"), "bin/mvn").getPath());
+		command.add("--batch-mode");
+		if (getSession().isOffline()) {
+			command.add("--offline");
+		}
+		if (request.getUserSettingsFile() != null && request.getUserSettingsFile().isFile()) {
+			command.add("--settings");
+			command.add(request.getUserSettingsFile().getPath());
+		}
+		if (request.getGlobalSettingsFile() != null && request.getGlobalSettingsFile().isFile()) {
+			command.add("--global-settings");
+			command.add(request.getGlobalSettingsFile().getPath());
+		}
+
+		List<String> profiles = new ArrayList<String>(request.getActiveProfiles());
+		for (String profile : request.getInactiveProfiles()) {
+			profiles.add("!" + profile);
+		}
+		if (!profiles.isEmpty()) {
+			command.add("--activate-profiles");
+			command.add(StringUtils.join(profiles.iterator(), ","));
+		}
+
+		// our own properties are replaced by the worker configuration
+		Properties userProperties = request.getUserProperties();
+		for (String name : new TreeSet<String>(userProperties.stringPropertyNames())) {
+			if (!name.startsWith(PROPERTY_PREFIX) && !"maven.repo.local".equals(name)) {
+				command.add("-D" + name + "=" + userProperties.getProperty(name));
+			}
+		}
+
+		command.add("--file");
+		command.add(getSession().getCurrentProject().getFile().getPath());
+		command.add("-Dmaven.repo.local=" + getSession().getLocalRepository().getBasedir());
+		command.add("-D" + PROPERTY_PREFIX + "coordinator=localhost:" + port);
+		command.add("-D" + PROPERTY_PREFIX + "workerConfiguration=" + configuration.getPath());
+		command.add(mojoExecution.getGroupId() + ":" + mojoExecution.getArtifactId() + ":" + mojoExecution.getVersion() + ":"
+				+ mojoExecution.getGoal());
+		return command;
+	}
+
+	private void stopCoordinator() {
+		if (shardCoordinator != null) {
+			shardCoordinator.stop();
+		}
+		if (localWorkers != null) {
+			int killed = localWorkers.stop(WORKER_STOP_TIMEOUT);
+			if (killed > 0) {
+				getLog().warn(killed + " workers did not stop and were killed, see their logs in " + workDirectory);
+			}
+		}
+	}
+
+	private void startProgress(final BuildScheduler scheduler, final BuildGraph buildGraph, final Map<String, Long> durations) {
+		progress = new BuildProgress(buildGraph, getThreads(), durations);
+		scheduler.addListener(progress);
+		writeStatus();
+
+		if (progressInterval > 0) {
+			progressReporter = Executors.newSingleThreadScheduledExecutor(new BuildThreadFactory("dependency-builder-progress-"));
+			progressReporter.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					progress.measureCheckedOut();
+					getLog().info("Progress: " + progress.getStatus());
+					writeStatus();
+				}
+			}, progressInterval, progressInterval, TimeUnit.SECONDS);
+		}
+	}
+
+	private void writeStatus() {
+		try {
+			progress.write(statusFile);
+		} catch (IOException e) {
+			getLog().warn("Unable to write build status", e);
+		}
+	}
+
+	private void stopProgress() {
+		if (progressReporter != null) {
+			progressReporter.shutdownNow();
+		}
+		if (progress != null) {
+			// everything is built by now, so this holds up nothing
+			progress.measureCheckedOut();
+			getLog().info("Progress: " + progress.getStatus());
+			writeStatus();
+		}
+	}
+
+	private void startCache() {
+		if (buildCache != null) {
+			cache = new BuildCache(buildCache, buildCacheSize * BYTES_PER_MIB);
+			getSourceBuilderManager().setBuildCache(cache);
+		}
+	}
+
+	private void reportCache() {
+		if (cache != null) {
+			getSourceBuilderManager().setBuildCache(null);
+			getLog().info("Build cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses, " + cache.getEvictions()
+					+ " builds removed");
+		}
+	}
+
+	private String describeDependencies(final BuildGraph buildGraph, final String key) {
+		Set<String> dependencies = new TreeSet<String>();
+		addIgnoredDependencies(buildGraph, key, dependencies);
+		for (String dependency : buildGraph.getTransitiveDependencies(key)) {
+			// the same version can be built from another revision, so only what it actually built will do
+			String checksum = builtChecksums.get(dependency);
+			if (checksum == null) {
+				return null;
+			}
+			for (Artifact artifact : buildGraph.getArtifacts(dependency)) {
+				dependencies.add(BuildGraph.key(artifact) + "=" + checksum);
+			}
+			addIgnoredDependencies(buildGraph, dependency, dependencies);
+		}
+		return StringUtils.join(dependencies.iterator(), ",");
+	}
+
+	private void addIgnoredDependencies(final BuildGraph buildGraph, final String key, final Set<String> dependencies) {
+		synchronized (ignoredDependencies) {
+			for (Artifact artifact : buildGraph.getArtifacts(key)) {
+				Set<String> ignored = ignoredDependencies.get(BuildGraph.key(artifact));
+				if (ignored != null) {
+					dependencies.addAll(ignored);
+				}
+			}
+		}
+	}
+
+	private void recordChecksum(final String key, final Set<Artifact> built) throws MojoExecutionException {
+		Set<String> checksums = new TreeSet<String>();
+		for (Artifact artifact : built) {
+			try {
+				checksums.add(artifact.getId() + "=" + BuildLedger.checksum(artifact.getFile()));
+			} catch (IOException e) {
+				throw new MojoExecutionException("Unable to checksum built artifact " + artifact, e);
+			}
+		}
+		builtChecksums.put(key, StringUtils.join(checksums.iterator(), ","));
+	}
+
+	/**
+	 * Records which ignored artifacts each artifact that is built is built against. Everything beneath an ignored artifact is
+	 * ignored as well, so these are whole subgraphs hanging off of the artifacts which are built.
+	 */
+	private void recordIgnored(final List<DependencyNode> graphs, final List<DependencyNode> toBuild) {
+		Set<String> built = new HashSet<String>();
+		Set<DependencyNode> visited = Collections.newSetFromMap(new IdentityHashMap<DependencyNode, Boolean>());
+		for (DependencyNode graph : toBuild) {
+			collectKeys(graph, built, visited);
+		}
+
+		visited.clear();
+		Map<DependencyNode, Set<String>> closures = new IdentityHashMap<DependencyNode, Set<String>>();
+		synchronized (ignoredDependencies) {
+			for (DependencyNode graph : graphs) {
+				recordIgnored(graph, built, visited, closures);
+			}
+		}
+	}
+
+	private void recordIgnored(final DependencyNode node, final Set<String> built, final Set<DependencyNode> visited,
+			final Map<DependencyNode, Set<String>> closures) {
+		String key = BuildGraph.key(node.getArtifact());
+		if (!built.contains(key) || !visited.add(node) || node.getChildren() == null) {
 			return;
 		}
 
-		// collect artifacts to report for failure
-		CollectingDependencyNodeVisitor collector = new CollectingDependencyNodeVisitor();
-		current.accept(collector);
-		while (rest.hasNext()) {
-			rest.next().accept(collector);
+		for (DependencyNode child : node.getChildren()) {
+			if (built.contains(BuildGraph.key(child.getArtifact()))) {
+				recordIgnored(child, built, visited, closures);
+				continue;
+			}
+
+			Set<String> ignored = ignoredDependencies.get(key);
+			if (ignored == null) {
+				ignored = new TreeSet<String>();
+				ignoredDependencies.put(key, ignored);
+			}
+			collectKeys(child, ignored, closures);
+		}
+	}
+
+	private static void collectKeys(final DependencyNode node, final Set<String> keys, final Set<DependencyNode> visited) {
+		if (!visited.add(node)) {
+			return;
+		}
+		keys.add(BuildGraph.key(node.getArtifact()));
+		if (node.getChildren() != null) {
+			for (DependencyNode child : node.getChildren()) {
+				collectKeys(child, keys, visited);
+			}
+		}
+	}
+
+	private static void collectKeys(final DependencyNode node, final Set<String> keys, final Map<DependencyNode, Set<String>> closures) {
+		Set<String> closure = closures.get(node);
+		if (closure == null) {
+			closure = new HashSet<String>();
+			collectKeys(node, closure, Collections.newSetFromMap(new IdentityHashMap<DependencyNode, Boolean>()));
+			closures.put(node, closure);
 		}
+		keys.addAll(closure);
+	}
+
+	private void reportTransfer(final FileTransfer transfer) {
+		getLog().info(String.format("Installed %.1f MiB by linking and %.1f MiB by copying", (double) transfer.getLinkedBytes() / BYTES_PER_MIB,
+				(double) transfer.getCopiedBytes() / BYTES_PER_MIB));
+	}
 
-		Set<Artifact> artifacts = new HashSet<Artifact>(collector.getNodes().size());
-		for (DependencyNode node : collector.getNodes()) {
-			artifacts.add(node.getArtifact());
+	private void reportFailures(final BuildFailuresException failures) {
+		getLog().error(failures.getFailures().size() + " artifacts failed to build:");
+		for (Map.Entry<String, Throwable> entry : failures.getFailures().entrySet()) {
+			getLog().error(" * " + entry.getKey() + ": " + entry.getValue().getMessage(), entry.getValue());
+		}
+
+		if (!failures.getBlocked().isEmpty()) {
+			getLog().error(failures.getBlocked().size() + " artifacts were not built because they depend on a failure:");
+			for (String key : failures.getBlocked()) {
+				getLog().error(" * " + key);
+			}
+		}
+	}
+
+	private void checkSingleProjectFailure(final BuildGraph selected, final Set<Artifact> builtArtifacts)
+			throws MojoFailureException {
+		if (isMultiProject()) {
+			return;
+		}
+
+		// collect artifacts to report for failure
+		Set<Artifact> artifacts = new LinkedHashSet<Artifact>(selected.size());
+		for (String key : selected.getKeys()) {
+			artifacts.add(selected.getArtifact(key));
 		}
 		artifacts.removeAll(builtArtifacts);
 
@@ -187,170 +722,329 @@ public class BuildDependencies extends AbstractMojo {
 			for (Artifact artifact : artifacts) {
 				getLog().error(" * " + artifact);
 			}
-			throw new MojoFailureException("Unable to build artifact, unmet dependencies: "
-					+ collector.getNodes().get(0).getArtifact());
+			throw new MojoFailureException("Unable to build artifact, unmet dependencies: " + selected.getArtifact(selected.getKey(0)));
 		}
 	}
 
-	private Set<Artifact> buildDependencyGraph(final DependencyNode graph) throws MojoFailureException, MojoExecutionException {
-		Iterator<DependencyNode> iter;
-		if (multiProject) {
-			CollectingDependencyNodeVisitor collector = new CollectingDependencyNodeVisitor();
-			graph.accept(collector);
-
-			// reversed ensures dependencies of dependencies are built first
-			iter = new ReversedIterator<DependencyNode>(collector.getNodes());
-		} else {
-			iter = Iterators.singletonIterator(graph);
+	private Set<Artifact> buildArtifacts(final List<Artifact> artifacts, final ArtifactRepository repository, final String dependencies)
+			throws MojoExecutionException {
+		// artifacts from the same source are all checked out and built together
+		Artifact artifact = artifacts.get(0);
+		String description = describe(artifacts);
+		Set<Artifact> previouslyBuilt = findPreviouslyBuilt(artifacts);
+		if (previouslyBuilt != null) {
+			getLog().info("Skipping " + description + ", already built by a previous run");
+			if (progress != null) {
+				progress.skipped(BuildGraph.key(artifact));
+			}
+			return previouslyBuilt;
 		}
 
-		Set<Artifact> result = new HashSet<Artifact>();
-		while (iter.hasNext()) {
-			Artifact artifact = iter.next().getArtifact();
+		String key = BuildGraph.key(artifact);
+		try {
+			long start = System.currentTimeMillis();
+			long phaseStart = System.nanoTime();
+			Source source = checkoutSource(artifact);
+			getTimings().record(key, BuildTimings.CHECKOUT, phaseStart);
+			if (progress != null && source.getLocation() != null) {
+				progress.addCheckedOut(source.getLocation());
+			}
+
+			phaseStart = System.nanoTime();
+			SourceBuilder builder;
+			BuildEvent detection = BuildEvents.begin(BuildEventType.BUILDER_DETECTION, artifact, null);
 			try {
-				Source source = sourceRetrievalManager.checkoutSource(artifact, workDirectory, session);
-				Set<Artifact> built = sourceBuilderManager.build(artifact, source, outputDirectory, session);
-				if (!built.contains(artifact)) {
-					getLog().warn("Artifact not found in built artifacts: " + artifact);
+				builder = getSourceBuilderManager().detect(source.getLocation());
+			} finally {
+				detection.end();
+			}
+			getTimings().record(key, BuildTimings.DETECT, phaseStart);
+
+			phaseStart = System.nanoTime();
+			Set<Artifact> built;
+			if (dependencies != null) {
+				built = getSourceBuilderManager().build(artifacts, source, builder, dependencies, getOutputDirectory(), getSession());
+			} else if (artifacts.size() == 1) {
+				built = getSourceBuilderManager().build(artifact, source, getOutputDirectory(), getSession());
+			} else {
+				built = getSourceBuilderManager().build(artifacts, source, getOutputDirectory(), getSession());
+			}
+			getTimings().record(key, BuildTimings.BUILD, phaseStart);
+
+			long duration = (System.currentTimeMillis() - start) / artifacts.size();
+			for (Artifact member : artifacts) {
+				history.record(ArtifactUtils.versionlessKey(member), duration);
+				if (!built.contains(member)) {
+					getLog().warn("Artifact not found in built artifacts: " + member);
 				}
-				result.addAll(built);
-			} catch (SourceRetrievalException e) {
-				throw new MojoExecutionException("Unable to retrieve source: " + artifact, e);
-			} catch (ArtifactBuildException e) {
-				throw new MojoExecutionException("Unable to build artifact: " + artifact, e);
+			}
+
+			phaseStart = System.nanoTime();
+			batchInstaller.install(built, repository);
+			getTimings().record(key, BuildTimings.INSTALL, phaseStart);
+
+			for (Artifact member : artifacts) {
+				recordBuilt(member, source, builder, built, repository);
+			}
+			return built;
+		} catch (SourceRetrievalException e) {
+			throw new MojoExecutionException("Unable to retrieve source: " + description, e);
+		} catch (ArtifactBuildException e) {
+			throw new MojoExecutionException("Unable to build artifact: " + description, e);
+		} catch (ArtifactInstallationException e) {
+			throw new MojoExecutionException("Unable to install artifact: " + description, e);
+		} catch (IOException e) {
+			throw new MojoExecutionException("Unable to detect builder: " + description, e);
+		} finally {
+			if (prefetcher != null) {
+				prefetcher.release(artifact);
 			}
 		}
-		return result;
 	}
 
-	private List<DependencyNode> createArtifactGraph() throws MojoFailureException, MojoExecutionException {
-		List<DependencyNode> result = new ArrayList<DependencyNode>();
-		List<String> versionReferencingArtifacts = new ArrayList<String>();
+	private static String describe(final List<Artifact> artifacts) {
+		if (artifacts.size() == 1) {
+			return artifacts.get(0).toString();
+		}
+		return artifacts.toString();
+	}
 
-		// stage 1 -- normal artifacts
-		for (String specifier : artifacts) {
-			Artifact artifact = createArtifact(specifier, Collections.<DependencyNode> emptyList());
-			if (artifact == null) {
-				versionReferencingArtifacts.add(specifier);
-				continue;
-			}
+	private Source checkoutSource(final Artifact artifact) throws SourceRetrievalException {
+		if (prefetcher == null) {
+			return getSourceRetrievalManager().checkoutSource(artifact, workDirectory, getSession());
+		}
+		return prefetcher.take(artifact);
+	}
 
-			try {
-				result.add(resolveDependencies(artifact));
-			} catch (DependencyResolutionException e) {
-				throw new MojoExecutionException("Unable to resolve dependencies for " + artifact, e);
+	private void startPrefetch(final BuildScheduler scheduler, final BuildGraph buildGraph, final Comparator<String> order)
+			throws MojoExecutionException {
+		if (prefetchThreads == 0) {
+			return;
+		}
+
+		// no sense checking out what we won't build
+		List<String> upcoming = new ArrayList<String>();
+		for (String key : buildGraph.sort(order)) {
+			if (findPreviouslyBuilt(buildGraph.getArtifacts(key)) == null) {
+				upcoming.add(key);
 			}
 		}
 
-		if (result.isEmpty()) {
-			throw new MojoFailureException("Must specify at least 1 (non-referencing) artifact to build");
+		prefetcher = new SourcePrefetcher(getSourceRetrievalManager(), workDirectory, getSession(), prefetchThreads, prefetchLimit);
+		// artifacts blocked behind a failure are never built, so they must give up their place
+		scheduler.addListener(prefetcher);
+		prefetcher.start(buildGraph, upcoming);
+	}
+
+	private void saveDurations() {
+		try {
+			history.save();
+		} catch (IOException e) {
+			getLog().warn("Unable to save build history", e);
 		}
+	}
 
-		// stage 2 -- referencing artifacts
-		for (String specifier : versionReferencingArtifacts) {
-			Artifact artifact = createArtifact(specifier, result);
-			if (artifact != null) {
-				try {
-					result.add(resolveDependencies(artifact));
-				} catch (DependencyResolutionException e) {
-					throw new MojoExecutionException("Unable to resolve dependencies for " + artifact, e);
-				}
+	private Set<Artifact> findPreviouslyBuilt(final List<Artifact> artifacts) throws MojoExecutionException {
+		Set<Artifact> result = new HashSet<Artifact>();
+		for (Artifact artifact : artifacts) {
+			Set<Artifact> previouslyBuilt = findPreviouslyBuilt(artifact);
+			if (previouslyBuilt == null) {
+				return null;
 			}
+			result.addAll(previouslyBuilt);
 		}
-
 		return result;
 	}
 
-	private DependencyNode resolveDependencies(final Artifact artifact) throws DependencyResolutionException {
-		// don't resolve build dependencies for artifacts that are going to be installed; they are not used
-		if (ignores.include(artifact)) {
-			return dependencyCollection.resolveProjectDependencies(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion(),
-					null, session);
+	private Set<Artifact> findPreviouslyBuilt(final Artifact artifact) throws MojoExecutionException {
+		if (ledger == null) {
+			return null;
 		}
 
-		return dependencyCollection.resolveBuildDependencies(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion(), null,
-				session);
+		try {
+			LedgerEntry entry = ledger.read(BuildGraph.key(artifact));
+			if (entry == null || !ledger.isValid(entry)) {
+				return null;
+			}
+
+			Set<Artifact> result = new HashSet<Artifact>();
+			for (InstalledFile installed : entry.getFiles()) {
+				Artifact builtArtifact;
+				if (installed.getClassifier() == null) {
+					builtArtifact = getRepositorySystem().createArtifact(installed.getGroupId(), installed.getArtifactId(), installed.getVersion(),
+							installed.getType());
+				} else {
+					builtArtifact = getRepositorySystem().createArtifactWithClassifier(installed.getGroupId(), installed.getArtifactId(),
+							installed.getVersion(), installed.getType(), installed.getClassifier());
+				}
+				builtArtifact.setFile(new File(getOutputDirectory(), installed.getPath()));
+				result.add(builtArtifact);
+			}
+			return result;
+		} catch (IOException e) {
+			throw new MojoExecutionException("Unable to read build ledger for " + artifact, e);
+		}
 	}
 
-	private void setupDefaultIgnores() {
-		List<String> includes = new ArrayList<String>(ignores.getIncludes());
-		includes.add("org.apache.maven.plugins");
-		includes.add(SUREFIRE_GROUPID); // ensures dependencies below are installed
-		ignores.setIncludes(includes);
+	private void recordBuilt(final Artifact artifact, final Source source, final SourceBuilder builder, final Set<Artifact> built,
+			final ArtifactRepository repository) throws MojoExecutionException {
+		if (ledger == null) {
+			return;
+		}
 
-		// implicit dependencies defined by the default plugins covered above in the most common packaging types
-		artifacts.add(String.format("%s:surefire-junit3:%s", SUREFIRE_GROUPID, SUREFIRE_PLUGIN_VERSION));
-		artifacts.add(String.format("%s:surefire-junit4:%s", SUREFIRE_GROUPID, SUREFIRE_PLUGIN_VERSION));
-		artifacts.add(String.format("%s:surefire-junit47:%s", SUREFIRE_GROUPID, SUREFIRE_PLUGIN_VERSION));
-		artifacts.add(String.format("%s:surefire-testng:%s", SUREFIRE_GROUPID, SUREFIRE_PLUGIN_VERSION));
-	}
+		try {
+			LedgerEntry entry = new LedgerEntry(BuildGraph.key(artifact));
+			entry.setOrigin(source.getOrigin());
+			entry.setRevision(source.getRevision());
 
-	private Artifact createArtifact(final String specifier, final List<DependencyNode> graphs) throws MojoExecutionException {
-		Pattern artifactPattern = Pattern.compile("^([^:]+):([^:]+)(?::\\{([^:]+):([^:]+)\\}|:(.+))?$");
-		final int refGroupIdGroup = 3; // NOPMD
-		final int refArtifactGroup = 4; // NOPMD
-		final int versionGroup = 5; // NOPMD
+			if (builder != null) {
+				entry.setBuilder(builder.getClass().getName());
+			}
 
-		Matcher matcher = artifactPattern.matcher(specifier);
-		if (!matcher.find()) {
-			throw new MojoExecutionException("Artifact `" + specifier
-					+ "` is not valid, must `have format <groupId>:<artifactId> or <groupId>:<artifactId>:<version>");
+			for (Artifact builtArtifact : built) {
+				String path = repository.pathOf(builtArtifact);
+				entry.addFile(new InstalledFile(builtArtifact.getGroupId(), builtArtifact.getArtifactId(), builtArtifact.getVersion(),
+						builtArtifact.getType(), builtArtifact.getClassifier(), path, ledger.checksum(path)));
+			}
+			ledger.write(entry);
+		} catch (IOException e) {
+			throw new MojoExecutionException("Unable to record build of " + artifact, e);
 		}
+	}
 
-		String groupId = matcher.group(1);
-		String artifactId = matcher.group(2);
-		String version = "LATEST";
+	/** Builds artifacts and installs the result so it is available for artifacts which depend on it. */
+	private class InstallingBuildTask implements BuildTask {
+		private final ArtifactRepository repository;
 
-		if (matcher.group(versionGroup) != null) {
-			version = matcher.group(versionGroup);
-		}
+		private final BuildGraph buildGraph;
 
-		// specifier can be resolved now completely
-		if (matcher.group(refGroupIdGroup) == null || matcher.group(refArtifactGroup) == null) {
-			return repositorySystem.createProjectArtifact(groupId, artifactId, version);
+		public InstallingBuildTask(final ArtifactRepository repository, final BuildGraph buildGraph) {
+			this.repository = repository;
+			this.buildGraph = buildGraph;
 		}
 
-		// otherwise it must be a referencing another artifact
-		String refGroupId = matcher.group(refGroupIdGroup);
-		String refArtifactId = matcher.group(refArtifactGroup);
-		for (DependencyNode graph : graphs) {
-			DetectArtifactVisitor visitor = new DetectArtifactVisitor(refGroupId, refArtifactId);
-			graph.accept(visitor);
+		@Override
+		public Set<Artifact> build(final List<Artifact> artifacts) throws MojoExecutionException {
+			// artifacts built together are keyed by the first of them
+			String key = BuildGraph.key(artifacts.get(0));
+			String dependencies = null;
+			if (cache != null) {
+				dependencies = describeDependencies(buildGraph, key);
+			}
 
-			if (visitor.foundArtifact != null) {
-				return repositorySystem.createProjectArtifact(groupId, artifactId, visitor.foundArtifact.getVersion());
+			Set<Artifact> built = buildArtifacts(artifacts, repository, dependencies);
+			if (cache != null) {
+				recordChecksum(key, built);
 			}
+			return built;
+		}
+	}
+
+	/** Installs ignored artifacts from each chunk of resolved artifacts, leaving those which must be built. */
+	private class InstallingGraphSelector implements GraphSelector {
+		private final ArtifactRepository repository;
+		private final FileTransfer transfer;
+
+		public InstallingGraphSelector(final ArtifactRepository repository, final FileTransfer transfer) {
+			this.repository = repository;
+			this.transfer = transfer;
 		}
 
-		return null;
+		@Override
+		public List<DependencyNode> select(final List<DependencyNode> graphs) throws MojoExecutionException {
+			getLog().debug("Installing ignored artifacts");
+			long start = System.nanoTime();
+			try {
+				List<DependencyNode> toBuild = getDependencyCollection().installDependencies(graphs, createIgnoreFilter(), repository,
+						transfer, getSession());
+				if (buildCache != null) {
+					recordIgnored(graphs, toBuild);
+				}
+				return toBuild;
+			} catch (DependencyResolutionException e) {
+				throw new MojoExecutionException("Unable to resolve dependencies", e);
+			} catch (ArtifactInstallationException e) {
+				throw new MojoExecutionException("Unable to install ignored artifact", e);
+			} finally {
+				getTimings().record(null, BuildTimings.INSTALL_IGNORED, start);
+			}
+		}
 	}
 
-	/** Detects an artifact with a particular group and artifact id. */
-	private static class DetectArtifactVisitor implements DependencyNodeVisitor {
-		private final String groupId;
-		private final String artifactId;
-		private Artifact foundArtifact;
-		private boolean stillLooking = true;
+	/** Hands builds to the workers of the coordinator, they are installed once the worker is done. */
+	private class ShardedBuildTask implements BuildTask {
+		private final ArtifactRepository repository;
+
+		private final BuildGraph buildGraph;
 
-		public DetectArtifactVisitor(final String groupId, final String artifactId) {
-			this.groupId = groupId;
-			this.artifactId = artifactId;
+		public ShardedBuildTask(final ArtifactRepository repository, final BuildGraph buildGraph) {
+			this.repository = repository;
+			this.buildGraph = buildGraph;
 		}
 
 		@Override
-		public boolean visit(final DependencyNode node) {
-			Artifact artifact = node.getArtifact();
-			if (stillLooking && artifact.getGroupId().equals(groupId) && artifact.getArtifactId().equals(artifactId)) {
-				stillLooking = false;
-				foundArtifact = artifact;
+		public Set<Artifact> build(final List<Artifact> artifacts) throws MojoExecutionException {
+			Set<Artifact> previouslyBuilt = findPreviouslyBuilt(artifacts);
+			if (previouslyBuilt != null) {
+				getLog().info("Skipping " + describe(artifacts) + ", already built by a previous run");
+				progress.skipped(BuildGraph.key(artifacts.get(0)));
+				return previouslyBuilt;
 			}
 
-			return stillLooking;
+			List<String> coordinates = new ArrayList<String>(artifacts.size());
+			for (Artifact artifact : artifacts) {
+				coordinates.add(ArtifactCoordinates.format(artifact));
+			}
+
+			// workers restore from the cache with what the coordinator knows was built
+			String key = BuildGraph.key(artifacts.get(0));
+			String dependencies = null;
+			if (cache != null) {
+				dependencies = describeDependencies(buildGraph, key);
+			}
+
+			long start = System.currentTimeMillis();
+			long phaseStart = System.nanoTime();
+			List<String> built = shardCoordinator.build(coordinates, dependencies);
+			getTimings().record(key, BuildTimings.WORKER, phaseStart);
+			long duration = (System.currentTimeMillis() - start) / artifacts.size();
+			for (Artifact member : artifacts) {
+				history.record(ArtifactUtils.versionlessKey(member), duration);
+			}
+
+			Set<Artifact> result = new HashSet<Artifact>();
+			for (String builtCoordinates : built) {
+				Artifact artifact = ArtifactCoordinates.parse(builtCoordinates, getRepositorySystem());
+				artifact.setFile(new File(repository.getBasedir(), repository.pathOf(artifact)));
+				result.add(artifact);
+			}
+			if (cache != null) {
+				recordChecksum(key, result);
+			}
+			return result;
+		}
+	}
+
+	/** Builds whatever the coordinator asks for, the same way artifacts are built without a coordinator. */
+	private class WorkerTask implements ShardTask {
+		private final ArtifactRepository repository;
+
+		public WorkerTask(final ArtifactRepository repository) {
+			this.repository = repository;
 		}
 
 		@Override
-		public boolean endVisit(final DependencyNode node) {
-			return stillLooking;
+		public List<String> build(final List<String> coordinates, final String dependencies) throws MojoExecutionException {
+			List<Artifact> artifacts = new ArrayList<Artifact>(coordinates.size());
+			for (String artifactCoordinates : coordinates) {
+				artifacts.add(ArtifactCoordinates.parse(artifactCoordinates, getRepositorySystem()));
+			}
+
+			List<String> result = new ArrayList<String>();
+			for (Artifact artifact : buildArtifacts(artifacts, repository, dependencies)) {
+				result.add(ArtifactCoordinates.format(artifact));
+			}
+			return result;
 		}
 	}
 }
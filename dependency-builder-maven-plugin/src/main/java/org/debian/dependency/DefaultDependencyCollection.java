@@ -15,11 +15,25 @@
  */
 package org.debian.dependency;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.installer.ArtifactInstallationException;
@@ -36,43 +50,60 @@ import org.apache.maven.model.Dependency;
 import org.apache.maven.model.Exclusion;
 import org.apache.maven.model.Extension;
 import org.apache.maven.model.Plugin;
-import org.apache.maven.model.building.ModelBuildingRequest;
-import org.apache.maven.project.DefaultProjectBuildingRequest;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.ProjectBuilder;
 import org.apache.maven.project.ProjectBuildingException;
-import org.apache.maven.project.ProjectBuildingRequest;
-import org.apache.maven.project.ProjectBuildingResult;
 import org.apache.maven.repository.RepositorySystem;
 import org.apache.maven.shared.dependency.graph.DependencyGraphBuilder;
 import org.apache.maven.shared.dependency.graph.DependencyGraphBuilderException;
 import org.apache.maven.shared.dependency.graph.DependencyNode;
 import org.apache.maven.shared.dependency.graph.filter.DependencyNodeFilter;
+import org.apache.maven.shared.dependency.graph.internal.DefaultDependencyNode;
 import org.apache.maven.shared.dependency.graph.traversal.BuildingDependencyNodeVisitor;
-import org.apache.maven.shared.dependency.graph.traversal.CollectingDependencyNodeVisitor;
-import org.apache.maven.shared.dependency.graph.traversal.DependencyNodeVisitor;
-import org.apache.maven.shared.dependency.graph.traversal.FilteringDependencyNodeVisitor;
 import org.codehaus.plexus.component.annotations.Component;
+import org.codehaus.plexus.component.annotations.Configuration;
 import org.codehaus.plexus.component.annotations.Requirement;
 import org.codehaus.plexus.logging.AbstractLogEnabled;
-import org.debian.dependency.filters.DependencyNodeAncestorOrSelfArtifactFilter;
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.Disposable;
+import org.debian.dependency.events.BuildEvent;
+import org.debian.dependency.events.BuildEventType;
+import org.debian.dependency.events.BuildEvents;
+import org.debian.dependency.graph.BuildThreadFactory;
+import org.debian.dependency.install.FileTransfer;
+import org.debian.dependency.repository.LocalRepositoryIndex;
 
 /** Default implementation of {@link DependencyCollection}. */
 @Component(role = DependencyCollection.class)
-public class DefaultDependencyCollection extends AbstractLogEnabled implements DependencyCollection {
+public class DefaultDependencyCollection extends AbstractLogEnabled implements DependencyCollection, Disposable {
+	private static final int PRIME = 31;
+	private static final int DEFAULT_RESOLVE_THREADS = 4;
+
 	@Requirement
 	private ProjectBuilder projectBuilder;
 	@Requirement
+	private ProjectCache projectCache;
+	@Requirement
 	private DependencyGraphBuilder dependencyGraphBuilder;
 	@Requirement
 	private RepositorySystem repositorySystem;
 	@Requirement
+	private LocalRepositoryIndex localRepositoryIndex;
+	@Requirement
 	private ArtifactInstaller artifactInstaller;
 
+	/** Number of plugin and extension dependency graphs of a project to resolve at the same time. */
+	@Configuration(name = "resolve-threads", value = "4")
+	private int resolveThreads = DEFAULT_RESOLVE_THREADS;
+	private ExecutorService executor;
+
+	private final Map<MavenSession, SessionGraphs> sessions = new WeakHashMap<MavenSession, SessionGraphs>();
+	private final ConcurrentMap<String, Object> installLocks = new ConcurrentHashMap<String, Object>();
+
 	@Override
 	public DependencyNode resolveProjectDependencies(final String groupId, final String artifactId, final String version,
 			final ArtifactFilter filter, final MavenSession session) throws DependencyResolutionException {
 		MavenProject project = buildProject(groupId, artifactId, version, session);
+		BuildEvent event = BuildEvents.begin(BuildEventType.RESOLUTION, project.getArtifact(), "project");
 		try {
 			AndArtifactFilter realFilter = new AndArtifactFilter();
 			// this scope should really be runtime, but due to MNG-5197, we must resolve everything
@@ -84,12 +115,25 @@ public class DefaultDependencyCollection extends AbstractLogEnabled implements D
 			return dependencyGraphBuilder.buildDependencyGraph(project, realFilter);
 		} catch (DependencyGraphBuilderException e) {
 			throw new DependencyResolutionException(e);
+		} finally {
+			event.end();
 		}
 	}
 
 	@Override
 	public DependencyNode resolveBuildDependencies(final String groupId, final String artifactId, final String version,
 			final ArtifactFilter filter, final MavenSession session) throws DependencyResolutionException {
+		return resolveBuild(groupId, artifactId, version, filter, session, false);
+	}
+
+	@Override
+	public DependencyNode resolveBuildDependencyGraph(final String groupId, final String artifactId, final String version,
+			final ArtifactFilter filter, final MavenSession session) throws DependencyResolutionException {
+		return resolveBuild(groupId, artifactId, version, filter, session, true);
+	}
+
+	private DependencyNode resolveBuild(final String groupId, final String artifactId, final String version, final ArtifactFilter filter,
+			final MavenSession session, final boolean shared) throws DependencyResolutionException {
 		MavenProject project = buildProject(groupId, artifactId, version, session);
 
 		AndArtifactFilter testScoped = new AndArtifactFilter();
@@ -99,87 +143,277 @@ public class DefaultDependencyCollection extends AbstractLogEnabled implements D
 		}
 
 		BuildingDependencyNodeVisitor dependencies = new BuildingDependencyNodeVisitor();
+		BuildEvent event = BuildEvents.begin(BuildEventType.RESOLUTION, project.getArtifact(), "build");
 		try {
 			DependencyNode root = dependencyGraphBuilder.buildDependencyGraph(project, testScoped);
 
-			dependencies.visit(root);
+			DependencyNode result = null;
+			if (shared) {
+				result = share(root, session);
+			} else {
+				dependencies.visit(root);
+				if (root.getChildren() != null) {
+					for (DependencyNode child : root.getChildren()) {
+						child.accept(dependencies);
+					}
+				}
+			}
 
-			if (root.getChildren() != null) {
-				for (DependencyNode child : root.getChildren()) {
-					child.accept(dependencies);
+			// subgraphs are resolved concurrently, but always grafted in the order they would have been resolved one at a time
+			List<Future<DependencyNode>> pending = new ArrayList<Future<DependencyNode>>();
+			try {
+				submitBuildExtensions(pending, project, filter, session);
+				submitPluginDependencies(pending, project, filter, session);
+				for (Future<DependencyNode> subgraph : pending) {
+					if (shared) {
+						result.getChildren().add(getResult(subgraph));
+					} else {
+						getResult(subgraph).accept(dependencies);
+					}
+				}
+			} finally {
+				for (Future<DependencyNode> subgraph : pending) {
+					subgraph.cancel(true);
 				}
 			}
 
-			visitBuildExtensions(dependencies, project, filter, session);
-			visitPluginDependencies(dependencies, project, filter, session);
+			if (shared) {
+				return result;
+			}
 			dependencies.endVisit(root);
-
 			return dependencies.getDependencyTree();
 		} catch (DependencyGraphBuilderException e) {
 			throw new DependencyResolutionException(e);
+		} finally {
+			event.end();
 		}
 	}
 
-	private void visitPluginDependencies(final DependencyNodeVisitor visitor, final MavenProject project, final ArtifactFilter filter,
-			final MavenSession session) throws DependencyResolutionException, DependencyGraphBuilderException {
-		for (Plugin plugin : project.getBuildPlugins()) {
+	private void submitPluginDependencies(final List<Future<DependencyNode>> pending, final MavenProject project,
+			final ArtifactFilter filter, final MavenSession session) {
+		for (final Plugin plugin : project.getBuildPlugins()) {
 			if (filter == null || filter.include(repositorySystem.createPluginArtifact(plugin))) {
-				DependencyNode pluginDependencies = resolveProjectDependencies(plugin.getGroupId(), plugin.getArtifactId(),
-						plugin.getVersion(), filter, session);
-				pluginDependencies.accept(visitor);
+				pending.add(submit(new Callable<DependencyNode>() {
+					@Override
+					public DependencyNode call() throws DependencyResolutionException {
+						return resolveSharedDependencies(plugin.getGroupId(), plugin.getArtifactId(), plugin.getVersion(), filter, session);
+					}
+				}));
 			}
 
-			for (Dependency dep : plugin.getDependencies()) {
+			for (final Dependency dep : plugin.getDependencies()) {
 				if (filter != null && !filter.include(repositorySystem.createDependencyArtifact(dep))) {
 					continue;
 				}
 
-				MavenProject depProject = buildProject(dep.getGroupId(), dep.getArtifactId(), dep.getVersion(), session);
-				List<String> exclusions = new ArrayList<String>(dep.getExclusions().size());
-				for (Exclusion exclusion : dep.getExclusions()) {
-					exclusions.add(exclusion.getGroupId() + ":" + exclusion.getArtifactId());
-				}
+				pending.add(submit(new Callable<DependencyNode>() {
+					@Override
+					public DependencyNode call() throws DependencyResolutionException, DependencyGraphBuilderException {
+						return resolvePluginDependency(dep, filter, session);
+					}
+				}));
+			}
+		}
+	}
 
+	private DependencyNode resolvePluginDependency(final Dependency dep, final ArtifactFilter filter, final MavenSession session)
+			throws DependencyResolutionException, DependencyGraphBuilderException {
+		final List<String> exclusions = new ArrayList<String>(dep.getExclusions().size());
+		for (Exclusion exclusion : dep.getExclusions()) {
+			exclusions.add(exclusion.getGroupId() + ":" + exclusion.getArtifactId());
+		}
+
+		SubgraphKey key = new SubgraphKey(dep.getGroupId() + ":" + dep.getArtifactId() + ":" + dep.getVersion(), exclusions, filter);
+		return resolveSubgraph(key, new Callable<DependencyNode>() {
+			@Override
+			public DependencyNode call() throws DependencyResolutionException, DependencyGraphBuilderException {
+				MavenProject depProject = buildProject(dep.getGroupId(), dep.getArtifactId(), dep.getVersion(), session);
 				AndArtifactFilter depFilter = new AndArtifactFilter();
 				depFilter.add(new ExcludesArtifactFilter(exclusions));
 				depFilter.add(filter);
 
-				DependencyNode dependencies = dependencyGraphBuilder.buildDependencyGraph(depProject, depFilter);
-				dependencies.accept(visitor);
+				return dependencyGraphBuilder.buildDependencyGraph(depProject, depFilter);
 			}
-		}
+		}, session);
 	}
 
-	private void visitBuildExtensions(final DependencyNodeVisitor visitor, final MavenProject project,
-			final ArtifactFilter filter, final MavenSession session) throws DependencyResolutionException {
-		for (Extension extension : project.getBuildExtensions()) {
+	private void submitBuildExtensions(final List<Future<DependencyNode>> pending, final MavenProject project,
+			final ArtifactFilter filter, final MavenSession session) {
+		for (final Extension extension : project.getBuildExtensions()) {
 			Artifact artifact = repositorySystem.createProjectArtifact(extension.getGroupId(), extension.getArtifactId(),
 					extension.getVersion());
 			if (filter != null && !filter.include(artifact)) {
 				continue;
 			}
 
-			DependencyNode extensionDependencies = resolveProjectDependencies(extension.getGroupId(), extension.getArtifactId(),
-					extension.getVersion(), filter, session);
-			extensionDependencies.accept(visitor);
+			pending.add(submit(new Callable<DependencyNode>() {
+				@Override
+				public DependencyNode call() throws DependencyResolutionException {
+					return resolveSharedDependencies(extension.getGroupId(), extension.getArtifactId(), extension.getVersion(), filter,
+							session);
+				}
+			}));
+		}
+	}
+
+	private <T> Future<T> submit(final Callable<T> task) {
+		synchronized (this) {
+			if (executor == null && resolveThreads > 1) {
+				executor = Executors.newFixedThreadPool(resolveThreads, new BuildThreadFactory("dependency-builder-resolve-"));
+			}
+		}
+
+		if (executor != null) {
+			return executor.submit(task);
 		}
+
+		FutureTask<T> result = new FutureTask<T>(task);
+		result.run();
+		return result;
+	}
+
+	private static DependencyNode getResult(final Future<DependencyNode> subgraph) throws DependencyResolutionException,
+			DependencyGraphBuilderException {
+		try {
+			return subgraph.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DependencyResolutionException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof DependencyResolutionException) {
+				throw (DependencyResolutionException) cause;
+			} else if (cause instanceof DependencyGraphBuilderException) {
+				throw (DependencyGraphBuilderException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new DependencyResolutionException(cause);
+		}
+	}
+
+	@Override
+	public synchronized void dispose() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/*
+	 * Plugins and extensions are usually the same for many projects, so their dependencies are only resolved once per session.
+	 */
+	private DependencyNode resolveSharedDependencies(final String groupId, final String artifactId, final String version,
+			final ArtifactFilter filter, final MavenSession session) throws DependencyResolutionException {
+		SubgraphKey key = new SubgraphKey(groupId + ":" + artifactId + ":" + version, null, filter);
+		try {
+			return resolveSubgraph(key, new Callable<DependencyNode>() {
+				@Override
+				public DependencyNode call() throws DependencyResolutionException {
+					return resolveProjectDependencies(groupId, artifactId, version, filter, session);
+				}
+			}, session);
+		} catch (DependencyGraphBuilderException e) {
+			throw new DependencyResolutionException(e);
+		}
+	}
+
+	/*
+	 * Resolves a subgraph unless it is already resolved or being resolved, in which case that result is used. Subgraphs are kept
+	 * with interned artifacts so they can be shared as is. Failures are not kept, the next request tries again.
+	 */
+	private DependencyNode resolveSubgraph(final SubgraphKey key, final Callable<DependencyNode> resolution, final MavenSession session)
+			throws DependencyResolutionException, DependencyGraphBuilderException {
+		FutureTask<DependencyNode> subgraph;
+		boolean resolving = false;
+		synchronized (sessions) {
+			Map<SubgraphKey, FutureTask<DependencyNode>> subgraphs = getSessionGraphs(session).subgraphs;
+			subgraph = subgraphs.get(key);
+			if (subgraph == null) {
+				subgraph = new FutureTask<DependencyNode>(new Callable<DependencyNode>() {
+					@Override
+					public DependencyNode call() throws Exception {
+						return share(resolution.call(), session);
+					}
+				});
+				subgraphs.put(key, subgraph);
+				resolving = true;
+			}
+		}
+
+		if (resolving) {
+			subgraph.run();
+		} else {
+			getLogger().debug("Reusing resolved dependencies of " + key.coordinates);
+		}
+
+		boolean resolved = false;
+		try {
+			DependencyNode result = getResult(subgraph);
+			resolved = true;
+			return result;
+		} finally {
+			if (!resolved) {
+				synchronized (sessions) {
+					Map<SubgraphKey, FutureTask<DependencyNode>> subgraphs = getSessionGraphs(session).subgraphs;
+					if (subgraphs.get(key) == subgraph) {
+						subgraphs.remove(key);
+					}
+				}
+			}
+		}
+	}
+
+	private SessionGraphs getSessionGraphs(final MavenSession session) {
+		synchronized (sessions) {
+			SessionGraphs graphs = sessions.get(session);
+			if (graphs == null) {
+				graphs = new SessionGraphs();
+				sessions.put(session, graphs);
+			}
+			return graphs;
+		}
+	}
+
+	/*
+	 * Copies a graph replacing each artifact with the first equal artifact seen in this session.
+	 */
+	private DependencyNode share(final DependencyNode graph, final MavenSession session) {
+		synchronized (sessions) {
+			return share(graph, null, getSessionGraphs(session).artifacts);
+		}
+	}
+
+	private static DependencyNode share(final DependencyNode node, final DependencyNode parent, final Map<String, Artifact> artifacts) {
+		Artifact artifact = node.getArtifact();
+		String key = artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getType() + ":" + artifact.getClassifier()
+				+ ":" + artifact.getVersion() + ":" + artifact.getScope() + ":" + artifact.isOptional();
+		Artifact interned = artifacts.get(key);
+		if (interned == null) {
+			interned = artifact;
+			artifacts.put(key, interned);
+		}
+
+		DefaultDependencyNode result = new DefaultDependencyNode(parent, interned, node.getPremanagedVersion(), node.getPremanagedScope(),
+				node.getVersionConstraint());
+		List<DependencyNode> children = new ArrayList<DependencyNode>();
+		if (node.getChildren() != null) {
+			for (DependencyNode child : node.getChildren()) {
+				children.add(share(child, result, artifacts));
+			}
+		}
+		result.setChildren(children);
+		return result;
 	}
 
 	private MavenProject buildProject(final String groupId, final String artifactId, final String version, final MavenSession session)
 			throws DependencyResolutionException {
 		Artifact artifact = repositorySystem.createProjectArtifact(groupId, artifactId, version);
 
-		ProjectBuildingRequest request = new DefaultProjectBuildingRequest(session.getProjectBuildingRequest());
-		request.setActiveProfileIds(null);
-		request.setInactiveProfileIds(null);
-		request.setProfiles(null);
-		request.setResolveDependencies(false); // we may filter them out
-		request.setUserProperties(null);
-		request.setValidationLevel(ModelBuildingRequest.VALIDATION_LEVEL_MINIMAL);
-
 		try {
-			ProjectBuildingResult result = projectBuilder.build(artifact, request);
-			return result.getProject();
+			return projectCache.build(artifact, projectCache.createRequest(session), projectBuilder, session);
 		} catch (ProjectBuildingException e) {
 			throw new DependencyResolutionException(e);
 		}
@@ -187,36 +421,155 @@ public class DefaultDependencyCollection extends AbstractLogEnabled implements D
 
 	@Override
 	public List<DependencyNode> installDependencies(final List<DependencyNode> graphs, final DependencyNodeFilter selection,
-			final ArtifactRepository repository, final MavenSession session) throws DependencyResolutionException,
-			ArtifactInstallationException {
-		Set<Artifact> installing = new HashSet<Artifact>();
-		List<DependencyNode> notInstalled = collectNodes(graphs, selection, installing);
-
+			final ArtifactRepository repository, final FileTransfer transfer, final MavenSession session)
+			throws DependencyResolutionException, ArtifactInstallationException {
+		Set<Artifact> installing = new LinkedHashSet<Artifact>();
+		List<DependencyNode> notInstalled = selectDependencies(graphs, selection, installing);
+
+		// every file is installed once per session, no matter how many artifacts or chunks share it
+		Set<Artifact> installed = getInstalled(repository, session);
+		Set<Artifact> scheduled = new HashSet<Artifact>();
+		List<Artifact> artifacts = new ArrayList<Artifact>();
 		for (Artifact artifact : installing) {
-			getLogger().debug("Installing " + artifact);
+			if (!isInstalled(installed, artifact) && scheduled.add(artifact)) {
+				artifacts.add(artifact);
+			}
+		}
 
-			// artifact first as you could potentially use it without pom, albeit not easily
-			artifact = resolveArtifact(artifact, session);
-			artifactInstaller.install(artifact.getFile(), artifact, repository);
+		// artifacts first as you could potentially use them without poms, albeit not easily
+		List<Future<MavenProject>> projects = new ArrayList<Future<MavenProject>>(artifacts.size());
+		for (final Artifact artifact : artifacts) {
+			projects.add(submit(new Callable<MavenProject>() {
+				@Override
+				public MavenProject call() throws DependencyResolutionException, ArtifactInstallationException {
+					getLogger().debug("Installing " + artifact);
+					Artifact resolved = resolveArtifact(artifact, session);
+					install(resolved, repository, transfer);
+					return buildProject(resolved.getGroupId(), resolved.getArtifactId(), resolved.getVersion(), session);
+				}
+			}));
+		}
 
-			// now the parent poms as the project one is useless without them
-			MavenProject project = buildProject(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion(), session);
+		// now the parent poms as the project ones are useless without them
+		List<Future<Artifact>> parents = new ArrayList<Future<Artifact>>();
+		for (MavenProject project : awaitInstalls(projects)) {
 			for (MavenProject parent = project.getParent(); parent != null; parent = parent.getParent()) {
-				Artifact parentArtifact = resolveArtifact(parent.getArtifact(), session);
-				artifactInstaller.install(parentArtifact.getFile(), parentArtifact, repository);
+				if (!isInstalled(installed, parent.getArtifact()) && scheduled.add(parent.getArtifact())) {
+					parents.add(submitInstall(parent.getArtifact(), installed, repository, transfer, session));
+				}
 			}
+		}
+		awaitInstalls(parents);
 
-			// finally the pom itself
+		// finally the poms themselves
+		List<Future<Artifact>> poms = new ArrayList<Future<Artifact>>(artifacts.size());
+		for (Artifact artifact : artifacts) {
 			Artifact pomArtifact = repositorySystem.createProjectArtifact(artifact.getGroupId(), artifact.getArtifactId(),
 					artifact.getVersion());
-			pomArtifact = resolveArtifact(pomArtifact, session);
-			artifactInstaller.install(pomArtifact.getFile(), pomArtifact, repository);
+			if (!isInstalled(installed, pomArtifact) && scheduled.add(pomArtifact)) {
+				poms.add(submitInstall(pomArtifact, installed, repository, transfer, session));
+			}
 		}
+		awaitInstalls(poms);
 
+		// only now is everything an artifact needs in the repository
+		synchronized (installed) {
+			installed.addAll(artifacts);
+		}
 		return notInstalled;
 	}
 
-	private List<DependencyNode> collectNodes(final List<DependencyNode> graphs, final DependencyNodeFilter selection,
+	private Set<Artifact> getInstalled(final ArtifactRepository repository, final MavenSession session) {
+		synchronized (sessions) {
+			Map<String, Set<Artifact>> installed = getSessionGraphs(session).installed;
+			Set<Artifact> result = installed.get(repository.getBasedir());
+			if (result == null) {
+				result = new HashSet<Artifact>();
+				installed.put(repository.getBasedir(), result);
+			}
+			return result;
+		}
+	}
+
+	private static boolean isInstalled(final Set<Artifact> installed, final Artifact artifact) {
+		synchronized (installed) {
+			return installed.contains(artifact);
+		}
+	}
+
+	private Future<Artifact> submitInstall(final Artifact artifact, final Set<Artifact> installed, final ArtifactRepository repository,
+			final FileTransfer transfer, final MavenSession session) {
+		return submit(new Callable<Artifact>() {
+			@Override
+			public Artifact call() throws DependencyResolutionException, ArtifactInstallationException {
+				Artifact resolved = resolveArtifact(artifact, session);
+				install(resolved, repository, transfer);
+				synchronized (installed) {
+					installed.add(artifact);
+				}
+				return resolved;
+			}
+		});
+	}
+
+	private static <T> List<T> awaitInstalls(final List<Future<T>> installs) throws DependencyResolutionException,
+			ArtifactInstallationException {
+		List<T> result = new ArrayList<T>(installs.size());
+		try {
+			for (Future<T> install : installs) {
+				result.add(install.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DependencyResolutionException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof DependencyResolutionException) {
+				throw (DependencyResolutionException) cause;
+			} else if (cause instanceof ArtifactInstallationException) {
+				throw (ArtifactInstallationException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new DependencyResolutionException(cause);
+		} finally {
+			for (Future<T> install : installs) {
+				install.cancel(true);
+			}
+		}
+		return result;
+	}
+
+	private void install(final Artifact artifact, final ArtifactRepository repository, final FileTransfer transfer)
+			throws ArtifactInstallationException {
+		BuildEvent event = BuildEvents.begin(BuildEventType.INSTALL, artifact, "ignored");
+		try {
+			transfer.stage(artifact, repository);
+			// every version and classifier of a project shares its metadata, which the installer rewrites without locking
+			synchronized (getInstallLock(artifact, repository)) {
+				artifactInstaller.install(artifact.getFile(), artifact, repository);
+			}
+		} catch (IOException e) {
+			throw new ArtifactInstallationException("Unable to link " + artifact + " into " + repository, e);
+		} finally {
+			event.end();
+		}
+	}
+
+	private Object getInstallLock(final Artifact artifact, final ArtifactRepository repository) {
+		String key = repository.getBasedir() + ":" + artifact.getGroupId() + ":" + artifact.getArtifactId();
+		Object lock = new Object();
+		Object existing = installLocks.putIfAbsent(key, lock);
+		if (existing == null) {
+			return lock;
+		}
+		return existing;
+	}
+
+	@Override
+	public List<DependencyNode> selectDependencies(final List<DependencyNode> graphs, final DependencyNodeFilter selection,
 			final Set<Artifact> includes) {
 		DependencyNodeFilter filter = selection;
 		if (filter == null) {
@@ -228,36 +581,88 @@ public class DefaultDependencyCollection extends AbstractLogEnabled implements D
 			};
 		}
 
-		CollectingDependencyNodeVisitor installing = new CollectingDependencyNodeVisitor();
+		// everything at or below a selected node is selected, so the flag is carried down instead of checking every ancestor
+		Set<Artifact> artifacts = new HashSet<Artifact>();
+		Set<DependencyNode> walked = Collections.newSetFromMap(new IdentityHashMap<DependencyNode, Boolean>());
+		Set<DependencyNode> walkedSelected = Collections.newSetFromMap(new IdentityHashMap<DependencyNode, Boolean>());
 		for (DependencyNode graph : graphs) {
-			graph.accept(new FilteringDependencyNodeVisitor(installing, new DependencyNodeAncestorOrSelfArtifactFilter(filter)));
-		}
-
-		final Set<Artifact> artifacts = new HashSet<Artifact>();
-		for (DependencyNode node : installing.getNodes()) {
-			artifacts.add(node.getArtifact());
+			select(graph, filter, false, artifacts, walked, walkedSelected);
 		}
 		includes.addAll(artifacts);
 
+		// selected artifacts are removed wherever they are, not only below a selected node
 		List<DependencyNode> result = new ArrayList<DependencyNode>();
+		Map<DependencyNode, DependencyNode> copies = new IdentityHashMap<DependencyNode, DependencyNode>();
 		for (DependencyNode graph : graphs) {
-			BuildingDependencyNodeVisitor visitor = new BuildingDependencyNodeVisitor();
-			graph.accept(new FilteringDependencyNodeVisitor(visitor, new DependencyNodeFilter() {
-				@Override
-				public boolean accept(final DependencyNode node) {
-					return !artifacts.contains(node.getArtifact());
-				}
-			}));
-
-			if (visitor.getDependencyTree() != null) {
-				result.add(visitor.getDependencyTree());
+			if (!artifacts.contains(graph.getArtifact())) {
+				prune(graph, null, result, artifacts, copies);
 			}
 		}
 
 		return Collections.unmodifiableList(result);
 	}
 
+	/*
+	 * Shared nodes are walked at most twice, once without and once with a selected ancestor.
+	 */
+	private static void select(final DependencyNode node, final DependencyNodeFilter filter, final boolean selectedAncestor,
+			final Set<Artifact> artifacts, final Set<DependencyNode> walked, final Set<DependencyNode> walkedSelected) {
+		boolean selected = selectedAncestor || filter.accept(node);
+		if (selected) {
+			if (!walkedSelected.add(node)) {
+				return;
+			}
+			artifacts.add(node.getArtifact());
+		} else if (!walked.add(node)) {
+			return;
+		}
+
+		if (node.getChildren() != null) {
+			for (DependencyNode child : node.getChildren()) {
+				select(child, filter, selected, artifacts, walked, walkedSelected);
+			}
+		}
+	}
+
+	/*
+	 * Copies a graph without the given artifacts. Anything kept below a removed node is moved up to the closest kept ancestor and
+	 * shared nodes stay shared in the copy.
+	 */
+	private static void prune(final DependencyNode node, final DependencyNode parent, final List<DependencyNode> siblings,
+			final Set<Artifact> removed, final Map<DependencyNode, DependencyNode> copies) {
+		if (removed.contains(node.getArtifact())) {
+			if (node.getChildren() != null) {
+				for (DependencyNode child : node.getChildren()) {
+					prune(child, parent, siblings, removed, copies);
+				}
+			}
+			return;
+		}
+
+		DependencyNode copy = copies.get(node);
+		if (copy == null) {
+			DefaultDependencyNode created = new DefaultDependencyNode(parent, node.getArtifact(), node.getPremanagedVersion(),
+					node.getPremanagedScope(), node.getVersionConstraint());
+			copies.put(node, created);
+
+			List<DependencyNode> children = new ArrayList<DependencyNode>();
+			if (node.getChildren() != null) {
+				for (DependencyNode child : node.getChildren()) {
+					prune(child, created, children, removed, copies);
+				}
+			}
+			created.setChildren(children);
+			copy = created;
+		}
+		siblings.add(copy);
+	}
+
 	private Artifact resolveArtifact(final Artifact toResolve, final MavenSession session) throws DependencyResolutionException {
+		Artifact indexed = localRepositoryIndex.find(toResolve, session.getLocalRepository());
+		if (indexed != null) {
+			return indexed;
+		}
+
 		// otherwise resolve through the normal means
 		ArtifactResolutionRequest request = new ArtifactResolutionRequest()
 				.setLocalRepository(session.getLocalRepository())
@@ -280,6 +685,46 @@ public class DefaultDependencyCollection extends AbstractLogEnabled implements D
 			throw new DependencyResolutionException("Unable to resolve artifact " + toResolve);
 		}
 
-		return result.getArtifacts().iterator().next();
+		Artifact resolved = result.getArtifacts().iterator().next();
+		localRepositoryIndex.add(resolved, session.getLocalRepository());
+		return resolved;
+	}
+
+	/** Resolved subgraphs, interned artifacts and installed artifacts (by repository) of a single session. */
+	private static final class SessionGraphs {
+		private final Map<SubgraphKey, FutureTask<DependencyNode>> subgraphs = new HashMap<SubgraphKey, FutureTask<DependencyNode>>();
+		private final Map<String, Artifact> artifacts = new HashMap<String, Artifact>();
+		private final Map<String, Set<Artifact>> installed = new HashMap<String, Set<Artifact>>();
+	}
+
+	/** Identifies a resolved plugin or extension dependency graph, filters are compared by identity. */
+	private static final class SubgraphKey {
+		private final String coordinates;
+		private final List<String> exclusions;
+		private final ArtifactFilter filter;
+
+		public SubgraphKey(final String coordinates, final List<String> exclusions, final ArtifactFilter filter) {
+			this.coordinates = coordinates;
+			this.exclusions = exclusions;
+			this.filter = filter;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof SubgraphKey)) {
+				return false;
+			}
+
+			SubgraphKey other = (SubgraphKey) obj;
+			if (exclusions == null) {
+				return other.exclusions == null && coordinates.equals(other.coordinates) && filter == other.filter;
+			}
+			return exclusions.equals(other.exclusions) && coordinates.equals(other.coordinates) && filter == other.filter;
+		}
+
+		@Override
+		public int hashCode() {
+			return coordinates.hashCode() * PRIME + System.identityHashCode(filter);
+		}
 	}
 }
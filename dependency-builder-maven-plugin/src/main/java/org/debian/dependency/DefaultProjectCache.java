@@ -0,0 +1,239 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Profile;
+import org.apache.maven.model.building.ModelBuildingRequest;
+import org.apache.maven.project.DefaultProjectBuildingRequest;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.ProjectBuilder;
+import org.apache.maven.project.ProjectBuildingException;
+import org.apache.maven.project.ProjectBuildingRequest;
+import org.codehaus.plexus.component.annotations.Component;
+import org.codehaus.plexus.component.annotations.Configuration;
+import org.debian.dependency.events.BuildEvent;
+import org.debian.dependency.events.BuildEventType;
+import org.debian.dependency.events.BuildEvents;
+
+/**
+ * Default implementation of {@link ProjectCache}. Each session has its own cache which holds a limited number of the
+ * most recently used projects and is dropped along with the session. When several threads need the same project at the same
+ * time, only one of them builds it.
+ */
+@Component(role = ProjectCache.class)
+public class DefaultProjectCache implements ProjectCache {
+	private static final int DEFAULT_MAX_PROJECTS = 1000;
+	private static final int INITIAL_CAPACITY = 16;
+	private static final float LOAD_FACTOR = 0.75f;
+	private static final Object NO_SESSION = new Object();
+
+	@Configuration(name = "max-projects", value = "1000")
+	private int maxProjects = DEFAULT_MAX_PROJECTS;
+	private final Map<Object, Map<String, CachedProject>> sessions = new WeakHashMap<Object, Map<String, CachedProject>>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong savedNanos = new AtomicLong();
+
+	/** Creates a new cache with the default size. */
+	public DefaultProjectCache() {
+	}
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param maxProjects maximum number of projects to keep per session
+	 */
+	public DefaultProjectCache(final int maxProjects) {
+		this.maxProjects = maxProjects;
+	}
+
+	@Override
+	public MavenProject build(final Artifact artifact, final ProjectBuildingRequest request, final ProjectBuilder projectBuilder,
+			final MavenSession session) throws ProjectBuildingException {
+		String key = createKey(artifact, request);
+		CachedProject cached;
+		boolean building = false;
+		synchronized (sessions) {
+			Map<String, CachedProject> projects = getProjects(session);
+			cached = projects.get(key);
+			if (cached == null) {
+				cached = new CachedProject(artifact, request, projectBuilder);
+				projects.put(key, cached);
+				building = true;
+			}
+		}
+
+		if (building) {
+			misses.incrementAndGet();
+			cached.run();
+		}
+
+		try {
+			MavenProject result = cached.get();
+			if (!building) {
+				hits.incrementAndGet();
+				savedNanos.addAndGet(cached.nanos);
+			}
+			return result;
+		} catch (ExecutionException e) {
+			// failures are not cached, the next request tries again
+			synchronized (sessions) {
+				getProjects(session).remove(key);
+			}
+			return rethrow(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for project " + artifact, e);
+		}
+	}
+
+	@Override
+	public ProjectBuildingRequest createRequest(final MavenSession session) {
+		// dependencies are built the way they were deployed, not the way the current project is
+		ProjectBuildingRequest request = new DefaultProjectBuildingRequest(session.getProjectBuildingRequest());
+		request.setActiveProfileIds(null);
+		request.setInactiveProfileIds(null);
+		request.setProfiles(null);
+		request.setResolveDependencies(false); // we may filter them out
+		request.setUserProperties(null);
+		request.setValidationLevel(ModelBuildingRequest.VALIDATION_LEVEL_MINIMAL);
+		return request;
+	}
+
+	private static MavenProject rethrow(final Throwable cause) throws ProjectBuildingException {
+		if (cause instanceof ProjectBuildingException) {
+			throw (ProjectBuildingException) cause;
+		} else if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		} else if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		throw new IllegalStateException("Unexpected failure building project", cause);
+	}
+
+	private Map<String, CachedProject> getProjects(final MavenSession session) {
+		Object owner = session;
+		if (owner == null) {
+			owner = NO_SESSION;
+		}
+
+		Map<String, CachedProject> result = sessions.get(owner);
+		if (result == null) {
+			result = new LinkedHashMap<String, CachedProject>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<String, CachedProject> eldest) {
+					return size() > maxProjects;
+				}
+			};
+			sessions.put(owner, result);
+		}
+		return result;
+	}
+
+	/*
+	 * Only settings which change the project itself are part of the key, anything else is the same for the whole session.
+	 */
+	private static String createKey(final Artifact artifact, final ProjectBuildingRequest request) {
+		List<String> profiles = new ArrayList<String>();
+		if (request.getProfiles() != null) {
+			for (Profile profile : request.getProfiles()) {
+				profiles.add(profile.getId());
+			}
+		}
+
+		return artifact.getGroupId() + ':' + artifact.getArtifactId() + ':' + artifact.getVersion()
+				+ '|' + request.getValidationLevel()
+				+ '|' + request.isResolveDependencies()
+				+ '|' + request.isProcessPlugins()
+				+ '|' + request.getActiveProfileIds()
+				+ '|' + request.getInactiveProfileIds()
+				+ '|' + profiles
+				+ '|' + sorted(request.getUserProperties())
+				+ '|' + request.getLocalRepository();
+	}
+
+	private static Map<Object, Object> sorted(final Properties properties) {
+		if (properties == null) {
+			return null;
+		}
+		return new TreeMap<Object, Object>(properties);
+	}
+
+	@Override
+	public long getHits() {
+		return hits.get();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public long getSavedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(savedNanos.get());
+	}
+
+	/** A project which has been built or is being built. */
+	private static class CachedProject extends FutureTask<MavenProject> {
+		private long start;
+		private volatile long nanos;
+
+		public CachedProject(final Artifact artifact, final ProjectBuildingRequest request, final ProjectBuilder projectBuilder) {
+			super(new Callable<MavenProject>() {
+				@Override
+				public MavenProject call() throws ProjectBuildingException {
+					BuildEvent event = BuildEvents.begin(BuildEventType.PROJECT_BUILDING, artifact, null);
+					try {
+						return projectBuilder.build(artifact, request).getProject();
+					} finally {
+						event.end();
+					}
+				}
+			});
+		}
+
+		@Override
+		public void run() {
+			start = System.nanoTime();
+			super.run();
+		}
+
+		@Override
+		protected void set(final MavenProject project) {
+			// before anyone waiting is released
+			nanos = System.nanoTime() - start;
+			super.set(project);
+		}
+	}
+}
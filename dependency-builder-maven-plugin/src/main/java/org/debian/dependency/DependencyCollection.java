@@ -16,13 +16,16 @@
 package org.debian.dependency;
 
 import java.util.List;
+import java.util.Set;
 
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.installer.ArtifactInstallationException;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.shared.dependency.graph.DependencyNode;
 import org.apache.maven.shared.dependency.graph.filter.DependencyNodeFilter;
+import org.debian.dependency.install.FileTransfer;
 
 /**
  * Provides a facility to collect dependencies against a project.
@@ -61,18 +64,49 @@ public interface DependencyCollection {
 	DependencyNode resolveBuildDependencies(String groupId, String artifactId, String version,
 			ArtifactFilter filter, MavenSession session) throws DependencyResolutionException;
 
+	/**
+	 * Resolves the same dependencies as {@link #resolveBuildDependencies}, but as a graph rather than a tree. The dependency graphs
+	 * of plugins and extensions are shared between every project resolved in the same session instead of being copied under each
+	 * of them and equal artifacts are the same instance. A shared node has several parents, but {@link DependencyNode#getParent()}
+	 * only returns the one it was resolved under, which is {@code null} for the root of a plugin or extension graph. Walking the
+	 * graph should remember visited nodes to avoid walking shared nodes more than once.
+	 *
+	 * @param groupId artifacts group ID
+	 * @param artifactId artifacts artifact ID
+	 * @param version artifacts version
+	 * @param filter filter for dependencies (or {@code null})
+	 * @param session session for resolving artifacts
+	 * @return {@link DependencyNode} for the project
+	 * @throws DependencyResolutionException in case of errors
+	 */
+	DependencyNode resolveBuildDependencyGraph(String groupId, String artifactId, String version,
+			ArtifactFilter filter, MavenSession session) throws DependencyResolutionException;
+
 	/**
 	 * Installs artifacts from the given artifact graphs in the {@link ArtifactRepository}. If selection is non-{@code null}, then
-	 * only the selected artifacts will be installed. All graphs are returned with the installed nodes removed.
+	 * only the selected artifacts will be installed. All graphs are returned with the installed nodes removed. Artifacts and parent
+	 * poms are only installed once per session, even when several graphs or calls share them.
 	 *
 	 * @param graphs artifact graphs to walk
 	 * @param selection filter of nodes to install or {@code null} to install everything
 	 * @param repository where artifacts should be installed
+	 * @param transfer how files are put in the repository
 	 * @param session session for resolving artifacts
 	 * @return new artifact graphs with installed artifact and children removed (if any)
 	 * @throws DependencyResolutionException in case of errors
 	 * @throws ArtifactInstallationException in case of errors
 	 */
 	List<DependencyNode> installDependencies(List<DependencyNode> graphs, DependencyNodeFilter selection, ArtifactRepository repository,
-			MavenSession session) throws DependencyResolutionException, ArtifactInstallationException;
+			FileTransfer transfer, MavenSession session) throws DependencyResolutionException, ArtifactInstallationException;
+
+	/**
+	 * Selects the same artifacts from the given artifact graphs as {@link #installDependencies} would install without installing
+	 * them.
+	 *
+	 * @param graphs artifact graphs to walk
+	 * @param selection filter of nodes to select or {@code null} to select everything
+	 * @param selected set to add the selected artifacts to
+	 * @return new artifact graphs with selected artifact and children removed (if any)
+	 */
+	List<DependencyNode> selectDependencies(List<DependencyNode> graphs, DependencyNodeFilter selection, Set<Artifact> selected);
 }
\ No newline at end of file
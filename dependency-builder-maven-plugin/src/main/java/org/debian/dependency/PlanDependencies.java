@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.apache.maven.shared.dependency.graph.filter.DependencyNodeFilter;
+import org.debian.dependency.graph.BuildGraph;
+import org.debian.dependency.graph.CriticalPathComparator;
+import org.debian.dependency.ledger.BuildLedger;
+import org.debian.dependency.ledger.LedgerEntry;
+
+/**
+ * Shows what {@code build-dependencies} would do with the same configuration without checking out, building or installing
+ * anything. Artifacts are listed by the level of the dependency graph they would be built in along with the source they come
+ * from, how they were built before and how long the whole build is expected to take.
+ */
+@Mojo(name = "plan-dependencies")
+public class PlanDependencies extends AbstractDependencyMojo {
+	private static final String UNKNOWN_BUILDER = "unknown until checked out";
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		if (getThreads() < 1) {
+			throw new MojoFailureException("Must build with at least 1 thread, not " + getThreads());
+		}
+
+		setupArtifacts();
+
+		final Set<Artifact> ignored = new HashSet<Artifact>();
+		final DependencyNodeFilter ignoreFilter = createIgnoreFilter();
+		Map<String, String> locations = new HashMap<String, String>();
+		BuildGraph buildGraph = createBuildGraph(new GraphSelector() {
+			@Override
+			public List<DependencyNode> select(final List<DependencyNode> graphs) {
+				return getDependencyCollection().selectDependencies(graphs, ignoreFilter, ignored);
+			}
+		}, new BuildGraph.Builder(), locations);
+		reportProjectCache();
+
+		getLog().info(ignored.size() + " ignored artifacts would be installed without building");
+		for (Artifact artifact : ignored) {
+			getLog().debug(" * " + artifact);
+		}
+		if (buildGraph.size() == 0) {
+			getLog().info("All artifacts are ignored, nothing to build");
+			return;
+		}
+
+		logLevels(buildGraph, locations);
+		logEstimate(buildGraph);
+	}
+
+	private void logLevels(final BuildGraph buildGraph, final Map<String, String> locations) throws MojoExecutionException {
+		BuildLedger ledger = new BuildLedger(getLedgerDirectory(), getOutputDirectory());
+		List<Set<String>> levels = buildGraph.getLevels();
+		int count = 0;
+		for (int i = 0; i < levels.size(); ++i) {
+			getLog().info("Level " + (i + 1) + ":");
+			for (String key : levels.get(i)) {
+				List<Artifact> artifacts = buildGraph.getArtifacts(key);
+				count += artifacts.size();
+
+				getLog().info(" * " + key + " (" + findBuilder(ledger, key) + ")");
+				if (artifacts.size() > 1) {
+					getLog().info("   built together from " + locations.get(key) + " with:");
+					for (Artifact artifact : artifacts.subList(1, artifacts.size())) {
+						getLog().info("    - " + BuildGraph.key(artifact));
+					}
+				}
+			}
+		}
+
+		getLog().info(count + " artifacts would be built from " + buildGraph.size() + " sources in " + levels.size() + " levels");
+	}
+
+	private static String findBuilder(final BuildLedger ledger, final String key) throws MojoExecutionException {
+		try {
+			LedgerEntry entry = ledger.read(key);
+			if (entry == null || entry.getBuilder() == null) {
+				return UNKNOWN_BUILDER;
+			}
+			String builder = entry.getBuilder();
+			return builder.substring(builder.lastIndexOf('.') + 1);
+		} catch (IOException e) {
+			throw new MojoExecutionException("Unable to read build ledger for " + key, e);
+		}
+	}
+
+	private void logEstimate(final BuildGraph buildGraph) {
+		Map<String, Long> durations = estimateDurations(buildGraph, loadHistory());
+		if (durations.isEmpty()) {
+			getLog().info("No build history, unable to estimate how long the build would take");
+			return;
+		}
+
+		// the build can never be shorter than its longest path, nor than the work split evenly between all threads
+		CriticalPathComparator estimator = new CriticalPathComparator(buildGraph, durations);
+		long criticalPath = 0;
+		long total = 0;
+		for (String key : buildGraph.getKeys()) {
+			criticalPath = Math.max(criticalPath, estimator.getRemaining(key));
+			total += estimator.getEstimate(key);
+		}
+		long estimate = Math.max(criticalPath, total / getThreads());
+
+		getLog().info("Estimated build time with " + getThreads() + " threads: " + formatDuration(estimate) + " (" + durations.size()
+				+ " of " + buildGraph.size() + " sources built before)");
+	}
+
+	private static String formatDuration(final long millis) {
+		long hours = TimeUnit.MILLISECONDS.toHours(millis);
+		long minutes = TimeUnit.MILLISECONDS.toMinutes(millis) - TimeUnit.HOURS.toMinutes(hours);
+		long seconds = TimeUnit.MILLISECONDS.toSeconds(millis) - TimeUnit.HOURS.toSeconds(hours) - TimeUnit.MINUTES.toSeconds(minutes);
+		return String.format("%dh %02dm %02ds", hours, minutes, seconds);
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.ProjectBuilder;
+import org.apache.maven.project.ProjectBuildingException;
+import org.apache.maven.project.ProjectBuildingRequest;
+
+/**
+ * Remembers projects which have been built so that components which need the same project only build it once. Projects are
+ * only shared between requests with the same settings in the same session.
+ */
+public interface ProjectCache {
+	/**
+	 * Gets the project for the given artifact, building it if it hasn't been built yet. The returned project is shared with every
+	 * caller which asks for the same project, so any changes must be the same for all of them.
+	 *
+	 * @param artifact artifact to build the project for
+	 * @param request how to build the project
+	 * @param projectBuilder builds the project if it isn't cached
+	 * @param session session the project is shared in
+	 * @return project for the artifact
+	 * @throws ProjectBuildingException in case of errors
+	 */
+	MavenProject build(Artifact artifact, ProjectBuildingRequest request, ProjectBuilder projectBuilder, MavenSession session)
+			throws ProjectBuildingException;
+
+	/**
+	 * Creates the request projects of dependencies are built with. Projects are only shared between requests with the same
+	 * settings, so every component which builds them should start from this request.
+	 *
+	 * @param session current session
+	 * @return new request for the session
+	 */
+	ProjectBuildingRequest createRequest(MavenSession session);
+
+	/**
+	 * @return number of projects which were found in the cache
+	 */
+	long getHits();
+
+	/**
+	 * @return number of projects which had to be built
+	 */
+	long getMisses();
+
+	/**
+	 * @return time it took to build the projects which were found in the cache in milliseconds
+	 */
+	long getSavedMillis();
+}
@@ -24,14 +24,17 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.ArtifactUtils;
 import org.apache.maven.model.Model;
 import org.apache.maven.model.building.DefaultModelBuildingRequest;
 import org.apache.maven.model.building.ModelBuilder;
@@ -52,11 +55,13 @@ import org.debian.dependency.ServicePackage;
 import org.debian.dependency.sources.Source;
 
 /**
- * Builds a Maven project using an embedded (forked) version of Maven.
+ * Builds a Maven project using an embedded (forked) version of Maven. Modules of the same multi-module project are built together
+ * in a single reactor.
  */
 @Component(role = SourceBuilder.class, hint = "maven2")
-public class ForkedMavenBuilder extends AbstractBuildFileSourceBuilder implements SourceBuilder {
-	private static final String POM_INCLUDES = "**/pom.xml";
+public class ForkedMavenBuilder extends AbstractBuildFileSourceBuilder implements ReactorSourceBuilder {
+	private static final String POM_NAME = "pom.xml";
+	private static final String POM_INCLUDES = "**/" + POM_NAME;
 	private static final String POM_EXCLUDES = "**/src/**";
 	private static final Pattern ARTIFACT_PATTERN = Pattern.compile("^(?<groupId>[^:]*):(?<artifactId>[^:]*):(?<type>[^:]*)"
 			+ "(?::(?<classifier>[^:]*))?:(?<version>[^:]*)$");
@@ -70,15 +75,51 @@ public class ForkedMavenBuilder extends AbstractBuildFileSourceBuilder implement
 
 	@Override
 	public Set<Artifact> build(final Artifact artifact, final Source source, final File localRepository) throws ArtifactBuildException {
+		Model model = findProjectModel(artifact, source.getLocation());
+		InvocationRequest request = createRequest(model.getPomFile(), localRepository)
+				.setRecursive(false); // in case we are dealing with a pom packaging
+		invoke(request);
+		return getBuiltArtifacts(model);
+	}
+
+	@Override
+	public Set<Artifact> build(final List<Artifact> artifacts, final Source source, final File localRepository)
+			throws ArtifactBuildException {
+		List<Model> models = findProjectModels(artifacts, source.getLocation());
+		File reactorPom = new File(findCommonDirectory(models), POM_NAME);
+		if (!reactorPom.isFile()) {
+			getLogger().debug("No common reactor for " + artifacts + ", building separately");
+			Set<Artifact> result = new HashSet<Artifact>();
+			for (Artifact artifact : artifacts) {
+				result.addAll(build(artifact, source, localRepository));
+			}
+			return result;
+		}
+
+		List<String> projects = new ArrayList<String>(models.size());
+		for (Model model : models) {
+			projects.add(model.getGroupId() + ":" + model.getArtifactId());
+		}
+
+		InvocationRequest request = createRequest(reactorPom, localRepository)
+				.setProjects(projects);
+		invoke(request);
+
+		Set<Artifact> result = new HashSet<Artifact>();
+		for (Model model : models) {
+			result.addAll(getBuiltArtifacts(model));
+		}
+		return result;
+	}
+
+	private InvocationRequest createRequest(final File pomFile, final File localRepository) throws ArtifactBuildException {
 		Properties properties = new Properties();
 		properties.setProperty("maven.ext.class.path", getOriginClassPath(ServicePackage.class).toString());
 
-		Model model = findProjectModel(artifact, source.getLocation());
-		InvocationRequest request = new DefaultInvocationRequest()
-				.setPomFile(model.getPomFile())
+		return new DefaultInvocationRequest()
+				.setPomFile(pomFile)
 				.setGoals(Arrays.asList("verify"))
 				.setOffline(true)
-				.setRecursive(false) // in case we are dealing with a pom packaging
 				.setProperties(properties)
 				.setOutputHandler(new InvocationOutputHandler() {
 					@Override
@@ -93,11 +134,13 @@ public class ForkedMavenBuilder extends AbstractBuildFileSourceBuilder implement
 					}
 				})
 				.setLocalRepositoryDirectory(localRepository);
+	}
 
+	private void invoke(final InvocationRequest request) throws ArtifactBuildException {
 		try {
 			InvocationResult result = invoker.execute(request);
 			if (result.getExecutionException() == null && result.getExitCode() == 0) {
-				return getBuiltArtifacts(new File(model.getBuild().getDirectory(), ServicePackage.PROJECT_ARTIFACT_REPORT_NAME));
+				return;
 			} else if (result.getExecutionException() != null) {
 				throw new ArtifactBuildException("Unable to build proejct", result.getExecutionException());
 			}
@@ -105,11 +148,29 @@ public class ForkedMavenBuilder extends AbstractBuildFileSourceBuilder implement
 			throw new ArtifactBuildException("Execution did not complete successfully");
 		} catch (MavenInvocationException e) {
 			throw new ArtifactBuildException("Unable to build project", e);
-		} catch (IOException e) {
-			throw new ArtifactBuildException(e);
 		}
 	}
 
+	private static File findCommonDirectory(final List<Model> models) {
+		File result = models.get(0).getPomFile().getAbsoluteFile().getParentFile();
+		for (Model model : models) {
+			File directory = model.getPomFile().getAbsoluteFile().getParentFile();
+			while (result != null && !isAncestorOrSelf(result, directory)) {
+				result = result.getParentFile();
+			}
+		}
+		return result;
+	}
+
+	private static boolean isAncestorOrSelf(final File ancestor, final File file) {
+		for (File current = file; current != null; current = current.getParentFile()) {
+			if (current.equals(ancestor)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	@SuppressWarnings("PMD.PreserveStackTrace")
 	private static File getOriginClassPath(final Class<?> clazz) throws ArtifactBuildException {
 		try {
@@ -143,6 +204,14 @@ public class ForkedMavenBuilder extends AbstractBuildFileSourceBuilder implement
 		}
 	}
 
+	private Set<Artifact> getBuiltArtifacts(final Model model) throws ArtifactBuildException {
+		try {
+			return getBuiltArtifacts(new File(model.getBuild().getDirectory(), ServicePackage.PROJECT_ARTIFACT_REPORT_NAME));
+		} catch (IOException e) {
+			throw new ArtifactBuildException(e);
+		}
+	}
+
 	private Set<Artifact> getBuiltArtifacts(final File reportFile) throws IOException, ArtifactBuildException {
 		if (!reportFile.exists()) {
 			return Collections.emptySet();
@@ -187,6 +256,36 @@ public class ForkedMavenBuilder extends AbstractBuildFileSourceBuilder implement
 		return findProjectModel(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion(), basedir);
 	}
 
+	private List<Model> findProjectModels(final List<Artifact> artifacts, final File basedir) throws ArtifactBuildException {
+		Map<String, Model> models = new HashMap<String, Model>();
+		try {
+			for (File pom : findBuildFiles(basedir)) {
+				try {
+					ModelBuildingRequest request = new DefaultModelBuildingRequest()
+							.setPomFile(pom)
+							.setValidationLevel(ModelBuildingRequest.VALIDATION_LEVEL_MINIMAL);
+
+					Model model = modelBuilder.build(request).getEffectiveModel();
+					models.put(ArtifactUtils.key(model.getGroupId(), model.getArtifactId(), model.getVersion()), model);
+				} catch (ModelBuildingException e) {
+					getLogger().debug("Ignoring unreadable pom file:" + pom, e);
+				}
+			}
+		} catch (IOException e) {
+			throw new ArtifactBuildException(e);
+		}
+
+		List<Model> result = new ArrayList<Model>(artifacts.size());
+		for (Artifact artifact : artifacts) {
+			Model model = models.get(ArtifactUtils.key(artifact));
+			if (model == null) {
+				throw new ArtifactBuildException("Unable to find reactor containing " + artifact + " under " + basedir);
+			}
+			result.add(model);
+		}
+		return result;
+	}
+
 	private Model findProjectModel(final String groupId, final String artifactId, final String version, final File basedir)
 			throws ArtifactBuildException {
 		try {
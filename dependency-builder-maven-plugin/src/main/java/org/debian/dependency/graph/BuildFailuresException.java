@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.graph;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Reports every artifact which failed to build when building continued past the first failure, along with the artifacts which
+ * could not be built because they depend on one that failed.
+ */
+public class BuildFailuresException extends MojoFailureException {
+	private static final long serialVersionUID = 1L;
+
+	private final Map<String, Throwable> failures;
+	private final Set<String> blocked;
+
+	/**
+	 * Creates a new exception.
+	 *
+	 * @param failures cause of each artifact which failed (by graph key), must not be empty
+	 * @param blocked keys of the artifacts which were not built because they depend on a failure
+	 */
+	public BuildFailuresException(final Map<String, Throwable> failures, final Set<String> blocked) {
+		super(failures.size() + " artifacts failed to build and " + blocked.size() + " depend on them: " + failures.keySet(),
+				failures.values().iterator().next());
+		this.failures = Collections.unmodifiableMap(failures);
+		this.blocked = Collections.unmodifiableSet(blocked);
+	}
+
+	/**
+	 * @return cause of each artifact which failed to build by graph key
+	 */
+	public Map<String, Throwable> getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return keys of the artifacts which were not built because they depend on a failure
+	 */
+	public Set<String> getBlocked() {
+		return blocked;
+	}
+}
@@ -0,0 +1,584 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.ArtifactUtils;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+
+/**
+ * A directed acyclic graph of artifacts which need to be built. Each distinct project (by group id, artifact id and version)
+ * appears exactly once regardless of how many times it is present in the original {@link DependencyNode} trees. Edges point from
+ * an artifact to the artifacts it depends on.
+ * <p/>
+ * Dependency trees may reference an ancestor project again (i.e. a plugin which depends on the project it builds). These back
+ * edges are dropped so that the deepest occurrence is built first, the same order a reversed pre-order traversal would give.
+ * <p/>
+ * Every artifact is given an id, its position in discovery order, and edges are kept in arrays of ids so that large graphs stay
+ * small once the trees they were created from are released. Artifacts can be looked up either by key or by id.
+ */
+public class BuildGraph {
+	private static final int[] NONE = new int[0];
+
+	private final Map<String, Integer> ids = new LinkedHashMap<String, Integer>();
+	private final List<String> keys = new ArrayList<String>();
+	private final List<Artifact> artifacts = new ArrayList<Artifact>();
+	private final List<List<Artifact>> members = new ArrayList<List<Artifact>>();
+	private int[] dependencyOffsets = {0};
+	private int[] dependencyIds = NONE;
+	private int[] dependentOffsets = {0};
+	private int[] dependentIds = NONE;
+
+	/**
+	 * Creates a new graph from the given dependency trees.
+	 *
+	 * @param graphs dependency trees
+	 * @param transitive whether children of the roots should be part of the graph
+	 * @return new build graph
+	 */
+	public static BuildGraph create(final List<DependencyNode> graphs, final boolean transitive) {
+		return new Builder().add(graphs, transitive).build();
+	}
+
+	private int addArtifact(final String key, final Artifact artifact, final List<Artifact> artifactMembers) {
+		int id = keys.size();
+		ids.put(key, id);
+		keys.add(key);
+		artifacts.add(artifact);
+		members.add(artifactMembers);
+		return id;
+	}
+
+	/*
+	 * Edges are given as pairs in the order they were found, which is kept for both directions.
+	 */
+	private void setEdges(final IntList from, final IntList to) {
+		dependencyOffsets = offsets(from, size());
+		dependencyIds = place(from, to, dependencyOffsets);
+		dependentOffsets = offsets(to, size());
+		dependentIds = place(to, from, dependentOffsets);
+	}
+
+	private static int[] offsets(final IntList sources, final int size) {
+		int[] result = new int[size + 1];
+		for (int i = 0; i < sources.size(); ++i) {
+			++result[sources.get(i) + 1];
+		}
+		for (int i = 0; i < size; ++i) {
+			result[i + 1] += result[i];
+		}
+		return result;
+	}
+
+	private static int[] place(final IntList sources, final IntList targets, final int[] offsets) {
+		int[] next = offsets.clone();
+		int[] result = new int[sources.size()];
+		for (int i = 0; i < sources.size(); ++i) {
+			result[next[sources.get(i)]++] = targets.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a new graph where artifacts from the same source are merged so they are built together. The merged artifact is
+	 * identified by the key of whichever of its artifacts can be built first.
+	 * <p/>
+	 * Artifacts can only be merged if it does not create a cycle, i.e. when an artifact depends on an artifact from a different
+	 * source which depends on another artifact from the first source. Sources which would create a cycle are built artifact by
+	 * artifact instead.
+	 *
+	 * @param locations location of the source of each artifact by key, artifacts without a location are never merged
+	 * @return new build graph
+	 */
+	public BuildGraph group(final Map<String, String> locations) {
+		int[] order = sortIds(null);
+		int[] groups = new int[size()];
+		Map<String, Integer> firstByLocation = new HashMap<String, Integer>();
+		for (int id : order) {
+			String location = locations.get(keys.get(id));
+			if (location == null || location.isEmpty()) {
+				groups[id] = id;
+			} else if (firstByLocation.containsKey(location)) {
+				groups[id] = firstByLocation.get(location);
+			} else {
+				firstByLocation.put(location, id);
+				groups[id] = id;
+			}
+		}
+
+		while (true) {
+			BuildGraph result = merge(order, groups);
+			boolean[] cyclic = result.findCyclic();
+			boolean found = false;
+			for (int id : order) {
+				if (cyclic[result.getId(keys.get(groups[id]))]) {
+					groups[id] = id;
+					found = true;
+				}
+			}
+
+			if (!found) {
+				return result;
+			}
+		}
+	}
+
+	private BuildGraph merge(final int[] order, final int[] groups) {
+		BuildGraph result = new BuildGraph();
+		int[] mapping = new int[size()];
+		for (int id : order) {
+			String group = keys.get(groups[id]);
+			if (!result.ids.containsKey(group)) {
+				result.addArtifact(group, artifacts.get(groups[id]), new ArrayList<Artifact>());
+			}
+			mapping[id] = result.getId(group);
+			result.members.get(mapping[id]).add(artifacts.get(id));
+		}
+
+		List<IntList> edges = new ArrayList<IntList>(result.size());
+		for (int i = 0; i < result.size(); ++i) {
+			edges.add(new IntList());
+		}
+
+		IntList from = new IntList();
+		IntList to = new IntList();
+		for (int id : order) {
+			int group = mapping[id];
+			for (int i = dependencyOffsets[id]; i < dependencyOffsets[id + 1]; ++i) {
+				int dependencyGroup = mapping[dependencyIds[i]];
+				if (group != dependencyGroup && edges.get(group).addUnique(dependencyGroup)) {
+					from.add(group);
+					to.add(dependencyGroup);
+				}
+			}
+		}
+		result.setEdges(from, to);
+		return result;
+	}
+
+	/*
+	 * Finds artifacts which are part of a cycle, or between cycles, by removing everything which could be built first or last.
+	 */
+	private boolean[] findCyclic() {
+		boolean[] result = new boolean[size()];
+		Arrays.fill(result, true);
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int id = 0; id < size(); ++id) {
+				if (result[id] && (disjoint(dependencyIds, dependencyOffsets, id, result)
+						|| disjoint(dependentIds, dependentOffsets, id, result))) {
+					result[id] = false;
+					changed = true;
+				}
+			}
+		}
+		return result;
+	}
+
+	private static boolean disjoint(final int[] edges, final int[] offsets, final int id, final boolean[] set) {
+		for (int i = offsets[id]; i < offsets[id + 1]; ++i) {
+			if (set[edges[i]]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates the key used to identify artifacts within the graph.
+	 *
+	 * @param artifact artifact to create a key for
+	 * @return key of the artifact
+	 */
+	public static String key(final Artifact artifact) {
+		return ArtifactUtils.key(artifact);
+	}
+
+	/**
+	 * @return keys of every artifact in the graph in the order they were discovered
+	 */
+	public Set<String> getKeys() {
+		return Collections.unmodifiableSet(ids.keySet());
+	}
+
+	/**
+	 * @param key key of the artifact
+	 * @return id of the artifact or -1 if it is not part of the graph
+	 */
+	public int getId(final String key) {
+		Integer id = ids.get(key);
+		if (id == null) {
+			return -1;
+		}
+		return id;
+	}
+
+	/**
+	 * @param id id of the artifact
+	 * @return key of the artifact
+	 */
+	public String getKey(final int id) {
+		return keys.get(id);
+	}
+
+	/**
+	 * @param key key of the artifact
+	 * @return artifact for the given key or {@code null} if it is not part of the graph
+	 */
+	public Artifact getArtifact(final String key) {
+		Integer id = ids.get(key);
+		if (id == null) {
+			return null;
+		}
+		return artifacts.get(id);
+	}
+
+	/**
+	 * @param key key of the artifact
+	 * @return every artifact which is built as part of the given one in the order they must be built, only more than the artifact
+	 *         itself if artifacts were {@link #group(Map) grouped}
+	 */
+	public List<Artifact> getArtifacts(final String key) {
+		return Collections.unmodifiableList(members.get(ids.get(key)));
+	}
+
+	/**
+	 * @param key key of the artifact
+	 * @return keys of the artifacts which must be built before the given one
+	 */
+	public Set<String> getDependencies(final String key) {
+		return toKeys(getDependencyIds(ids.get(key)));
+	}
+
+	/**
+	 * @param id id of the artifact
+	 * @return ids of the artifacts which must be built before the given one
+	 */
+	public int[] getDependencyIds(final int id) {
+		return Arrays.copyOfRange(dependencyIds, dependencyOffsets[id], dependencyOffsets[id + 1]);
+	}
+
+	/**
+	 * @param id id of the artifact
+	 * @return number of artifacts which must be built before the given one
+	 */
+	public int getDependencyCount(final int id) {
+		return dependencyOffsets[id + 1] - dependencyOffsets[id];
+	}
+
+	/**
+	 * @param key key of the artifact
+	 * @return keys of the artifacts which must be built before the given one, directly or through another dependency
+	 */
+	public Set<String> getTransitiveDependencies(final String key) {
+		Set<String> result = new LinkedHashSet<String>();
+		boolean[] seen = new boolean[size()];
+		IntList queue = new IntList();
+		queue.addAll(getDependencyIds(ids.get(key)));
+		while (queue.size() > 0) {
+			int dependency = queue.removeLast();
+			if (!seen[dependency]) {
+				seen[dependency] = true;
+				result.add(keys.get(dependency));
+				queue.addAll(getDependencyIds(dependency));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param key key of the artifact
+	 * @return keys of the artifacts which cannot be built until the given one is
+	 */
+	public Set<String> getDependents(final String key) {
+		return toKeys(getDependentIds(ids.get(key)));
+	}
+
+	/**
+	 * @param id id of the artifact
+	 * @return ids of the artifacts which cannot be built until the given one is
+	 */
+	public int[] getDependentIds(final int id) {
+		return Arrays.copyOfRange(dependentIds, dependentOffsets[id], dependentOffsets[id + 1]);
+	}
+
+	/**
+	 * @param id id of the artifact
+	 * @return number of artifacts which cannot be built until the given one is
+	 */
+	public int getDependentCount(final int id) {
+		return dependentOffsets[id + 1] - dependentOffsets[id];
+	}
+
+	private Set<String> toKeys(final int[] values) {
+		Set<String> result = new LinkedHashSet<String>();
+		for (int id : values) {
+			result.add(keys.get(id));
+		}
+		return Collections.unmodifiableSet(result);
+	}
+
+	/**
+	 * Orders the artifacts so that every artifact comes after all of its dependencies. When several artifacts could come next,
+	 * they are taken in the given order, falling back to the order they were discovered.
+	 *
+	 * @param order order of artifacts (by key) which could come next or {@code null} for discovery order
+	 * @return keys of every artifact in the graph in the order they can be built
+	 */
+	public List<String> sort(final Comparator<String> order) {
+		int[] sorted = sortIds(order);
+		List<String> result = new ArrayList<String>(sorted.length);
+		for (int id : sorted) {
+			result.add(keys.get(id));
+		}
+		return result;
+	}
+
+	/**
+	 * Orders the artifacts like {@link #sort(Comparator)} does.
+	 *
+	 * @param order order of artifacts (by key) which could come next or {@code null} for discovery order
+	 * @return ids of every artifact in the graph in the order they can be built
+	 */
+	public int[] sortIds(final Comparator<String> order) {
+		// ids are assigned in discovery order
+		Queue<Integer> ready = new PriorityQueue<Integer>(size() + 1, new Comparator<Integer>() {
+			@Override
+			public int compare(final Integer id1, final Integer id2) {
+				if (order != null) {
+					int result = order.compare(keys.get(id1), keys.get(id2));
+					if (result != 0) {
+						return result;
+					}
+				}
+				return id1.compareTo(id2);
+			}
+		});
+
+		int[] remaining = new int[size()];
+		for (int id = 0; id < size(); ++id) {
+			remaining[id] = getDependencyCount(id);
+			if (remaining[id] == 0) {
+				ready.add(id);
+			}
+		}
+
+		IntList result = new IntList();
+		while (!ready.isEmpty()) {
+			int id = ready.poll();
+			result.add(id);
+			for (int i = dependentOffsets[id]; i < dependentOffsets[id + 1]; ++i) {
+				if (--remaining[dependentIds[i]] == 0) {
+					ready.add(dependentIds[i]);
+				}
+			}
+		}
+		return result.toArray();
+	}
+
+	/**
+	 * Splits the artifacts into levels which can be built one after the other. Every artifact is on the level after the deepest
+	 * of its dependencies, so all artifacts on the same level can be built at the same time once the previous levels are built.
+	 *
+	 * @return keys of the artifacts on each level, starting with those without dependencies
+	 */
+	public List<Set<String>> getLevels() {
+		int[] depths = new int[size()];
+		List<Set<String>> result = new ArrayList<Set<String>>();
+		for (int id : sortIds(null)) {
+			int depth = 0;
+			for (int i = dependencyOffsets[id]; i < dependencyOffsets[id + 1]; ++i) {
+				depth = Math.max(depth, depths[dependencyIds[i]] + 1);
+			}
+			depths[id] = depth;
+
+			if (depth == result.size()) {
+				result.add(new LinkedHashSet<String>());
+			}
+			result.get(depth).add(keys.get(id));
+		}
+		return result;
+	}
+
+	/**
+	 * @return number of artifacts in the graph
+	 */
+	public int size() {
+		return keys.size();
+	}
+
+	/**
+	 * Creates a graph from dependency trees which are added a few at a time. Only the distinct artifacts and the edges between
+	 * them are kept, so the trees can be discarded once they have been added.
+	 */
+	public static class Builder {
+		private static final byte VISITING = 1;
+		private static final byte VISITED = 2;
+
+		private final BuildGraph graph = new BuildGraph();
+		private final List<IntList> edges = new ArrayList<IntList>();
+		private final Map<DependencyNode, Integer> collected = new IdentityHashMap<DependencyNode, Integer>();
+
+		/**
+		 * Adds the given dependency graphs to the graph. Nodes shared between the graphs are only walked once.
+		 *
+		 * @param graphs dependency graphs
+		 * @param transitive whether children of the roots should be part of the graph
+		 * @return this builder
+		 */
+		public Builder add(final List<DependencyNode> graphs, final boolean transitive) {
+			try {
+				for (DependencyNode node : graphs) {
+					collect(node, transitive);
+				}
+			} finally {
+				// don't keep the graphs alive once they are added
+				collected.clear();
+			}
+			return this;
+		}
+
+		private int collect(final DependencyNode node, final boolean transitive) {
+			if (transitive && collected.containsKey(node)) {
+				return collected.get(node);
+			}
+
+			String key = key(node.getArtifact());
+			int id = graph.getId(key);
+			if (id < 0) {
+				id = graph.addArtifact(key, node.getArtifact(), Collections.singletonList(node.getArtifact()));
+				edges.add(new IntList());
+			}
+
+			if (!transitive || node.getChildren() == null) {
+				return id;
+			}
+			collected.put(node, id);
+
+			for (DependencyNode child : node.getChildren()) {
+				edges.get(id).addUnique(collect(child, transitive));
+			}
+			return id;
+		}
+
+		/**
+		 * @return number of artifacts added so far
+		 */
+		public int size() {
+			return graph.size();
+		}
+
+		/**
+		 * Creates the graph of everything which was added. The builder must not be used afterwards.
+		 *
+		 * @return new build graph
+		 */
+		public BuildGraph build() {
+			byte[] states = new byte[graph.size()];
+			IntList from = new IntList();
+			IntList to = new IntList();
+			for (int id = 0; id < graph.size(); ++id) {
+				link(id, states, from, to);
+			}
+			graph.setEdges(from, to);
+			edges.clear();
+			return graph;
+		}
+
+		private void link(final int id, final byte[] states, final IntList from, final IntList to) {
+			if (states[id] == VISITED) {
+				return;
+			}
+
+			states[id] = VISITING;
+			IntList dependencies = edges.get(id);
+			for (int i = 0; i < dependencies.size(); ++i) {
+				int dependency = dependencies.get(i);
+				// self references and references to ancestors would create a cycle
+				if (states[dependency] == VISITING) {
+					continue;
+				}
+
+				from.add(id);
+				to.add(dependency);
+				link(dependency, states, from, to);
+			}
+			states[id] = VISITED;
+		}
+	}
+
+	/** A growable list of ints. */
+	private static final class IntList {
+		private static final int INITIAL_CAPACITY = 4;
+
+		private int[] values = new int[INITIAL_CAPACITY];
+		private int size;
+
+		public void add(final int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		public void addAll(final int[] toAdd) {
+			for (int value : toAdd) {
+				add(value);
+			}
+		}
+
+		public boolean addUnique(final int value) {
+			for (int i = 0; i < size; ++i) {
+				if (values[i] == value) {
+					return false;
+				}
+			}
+			add(value);
+			return true;
+		}
+
+		public int get(final int index) {
+			return values[index];
+		}
+
+		public int removeLast() {
+			return values[--size];
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+}
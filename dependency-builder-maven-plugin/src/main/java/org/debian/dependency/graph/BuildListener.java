@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.graph;
+
+/** Notified by the {@link BuildScheduler} as artifacts of a {@link BuildGraph} are built. */
+public interface BuildListener {
+	/**
+	 * Called when an artifact is handed to a worker.
+	 *
+	 * @param key key of the artifact
+	 */
+	void started(String key);
+
+	/**
+	 * Called when an artifact is done building.
+	 *
+	 * @param key key of the artifact
+	 * @param success whether the artifact was built
+	 */
+	void finished(String key, boolean success);
+
+	/**
+	 * Called when an artifact will not be built because it depends on an artifact which failed. This only happens when keeping
+	 * going, otherwise nothing new is started after a failure.
+	 *
+	 * @param key key of the artifact
+	 */
+	void blocked(String key);
+}
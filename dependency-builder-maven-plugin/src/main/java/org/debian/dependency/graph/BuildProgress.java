@@ -0,0 +1,406 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.debian.dependency.ledger.BuildTimings;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Keeps track of how far the build of a {@link BuildGraph} has come. Artifacts are either done, failed, running, queued (every
+ * dependency is done) or blocked (waiting for a dependency, possibly one which failed).
+ * <p/>
+ * The remaining time is estimated from how long each artifact took before, falling back to the average time an artifact has
+ * taken so far (or took before, until one is done). It is the larger of the remaining work spread over every thread and the
+ * longest chain of remaining artifacts, which cannot be built at the same time. Artifacts which depend on a failure are never
+ * built, so they are not part of the estimate. Artifacts which were {@link #skipped(String) skipped} took no real time, so they
+ * are not part of the average.
+ */
+public class BuildProgress implements BuildListener {
+	private static final long MILLIS_PER_HOUR = TimeUnit.HOURS.toMillis(1);
+	private static final double BYTES_PER_MIB = 1024 * 1024;
+
+	private final BuildGraph graph;
+	private final int threads;
+	private final int[] order;
+	private final Map<String, Long> durations;
+	private final long knownAverage;
+	private final Set<String> skipped = new HashSet<String>();
+	private final Map<String, Long> running = new LinkedHashMap<String, Long>();
+	private final boolean[] done;
+	private final boolean[] failed;
+	private int doneCount;
+	private int failedCount;
+	private long started = -1;
+	private long finishedMillis;
+	private int finishedCount;
+	private long checkedOutBytes;
+	private final Queue<File> unmeasured = new ConcurrentLinkedQueue<File>();
+
+	/**
+	 * Creates a new tracker.
+	 *
+	 * @param graph graph which is being built
+	 * @param threads maximum number of artifacts built at the same time
+	 */
+	public BuildProgress(final BuildGraph graph, final int threads) {
+		this(graph, threads, Collections.<String, Long> emptyMap());
+	}
+
+	/**
+	 * Creates a new tracker.
+	 *
+	 * @param graph graph which is being built
+	 * @param threads maximum number of artifacts built at the same time
+	 * @param durations how long artifacts took before by graph key
+	 */
+	public BuildProgress(final BuildGraph graph, final int threads, final Map<String, Long> durations) {
+		this.graph = graph;
+		this.threads = threads;
+		this.order = graph.sortIds(null);
+		this.done = new boolean[graph.size()];
+		this.failed = new boolean[graph.size()];
+		this.durations = durations;
+
+		long total = 0;
+		int count = 0;
+		for (String key : graph.getKeys()) {
+			Long duration = durations.get(key);
+			if (duration != null) {
+				total += duration;
+				++count;
+			}
+		}
+		if (count > 0) {
+			knownAverage = total / count;
+		} else {
+			knownAverage = -1;
+		}
+	}
+
+	/**
+	 * @return current time in milliseconds
+	 */
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public synchronized void started(final String key) {
+		long time = now();
+		if (started < 0) {
+			started = time;
+		}
+		running.put(key, time);
+	}
+
+	@Override
+	public synchronized void finished(final String key, final boolean success) {
+		Long start = running.remove(key);
+		long elapsed = -1;
+		if (start != null) {
+			elapsed = now() - start;
+		}
+		// skipped artifacts (and anything else which took no time) say nothing about how long the rest will take
+		if (!skipped.remove(key) && elapsed > 0) {
+			finishedMillis += elapsed;
+			++finishedCount;
+		}
+
+		if (success) {
+			done[graph.getId(key)] = true;
+			++doneCount;
+		} else {
+			failed[graph.getId(key)] = true;
+			++failedCount;
+		}
+	}
+
+	@Override
+	public void blocked(final String key) {
+		// artifacts depending on a failure are found from the failures themselves
+	}
+
+	/**
+	 * Records that an artifact is not built because it was already built before. This may be called from any thread, before the
+	 * artifact is finished.
+	 *
+	 * @param key key of the artifact
+	 */
+	public synchronized void skipped(final String key) {
+		skipped.add(key);
+	}
+
+	/**
+	 * Records source which was checked out. This may be called from any thread.
+	 *
+	 * @param bytes size of the checked out source
+	 */
+	public synchronized void addCheckedOutBytes(final long bytes) {
+		checkedOutBytes += bytes;
+	}
+
+	/**
+	 * Records source which was checked out without measuring it, so that build threads don't have to walk the file system. This
+	 * may be called from any thread.
+	 *
+	 * @param location where the source was checked out
+	 */
+	public void addCheckedOut(final File location) {
+		unmeasured.add(location);
+	}
+
+	/**
+	 * Measures the source {@link #addCheckedOut(File) checked out} since the last call. This walks the file system, so should be
+	 * called by whoever reports progress rather than a build thread.
+	 */
+	public void measureCheckedOut() {
+		for (File location = unmeasured.poll(); location != null; location = unmeasured.poll()) {
+			if (location.isDirectory()) {
+				addCheckedOutBytes(FileUtils.sizeOfDirectory(location));
+			}
+		}
+	}
+
+	/**
+	 * @return snapshot of the current progress
+	 */
+	public synchronized Status getStatus() {
+		long time = now();
+		Status status = new Status();
+		status.total = order.length;
+		status.done = doneCount;
+		status.failed = failedCount;
+		status.running = running.size();
+		status.checkedOutBytes = checkedOutBytes;
+		status.runningKeys = new ArrayList<String>(running.keySet());
+		if (started >= 0 && time > started) {
+			status.artifactsPerHour = (double) doneCount * MILLIS_PER_HOUR / (time - started);
+		}
+
+		long average = knownAverage;
+		if (finishedCount > 0) {
+			average = finishedMillis / finishedCount;
+		}
+
+		// dependencies always come first, so their state is known by the time we get to an artifact
+		boolean[] doomed = new boolean[order.length];
+		long[] costs = new long[order.length];
+		Arrays.fill(costs, -1);
+		long work = 0;
+		boolean unknown = false;
+		for (int id : order) {
+			if (done[id] || failed[id]) {
+				continue;
+			}
+
+			boolean ready = true;
+			for (int dependency : graph.getDependencyIds(id)) {
+				doomed[id] |= failed[dependency] || doomed[dependency];
+				ready &= done[dependency];
+			}
+
+			String key = graph.getKey(id);
+			Long start = running.get(key);
+			if (doomed[id]) {
+				++status.blocked;
+				continue;
+			} else if (start == null && ready) {
+				++status.queued;
+			} else if (start == null) {
+				++status.blocked;
+			}
+
+			long estimate = average;
+			if (durations.containsKey(key)) {
+				estimate = durations.get(key);
+			}
+			unknown |= estimate < 0;
+			if (start != null) {
+				estimate -= time - start;
+			}
+			costs[id] = Math.max(0, estimate);
+			work += costs[id];
+		}
+
+		if (!unknown) {
+			status.eta = Math.max(work / threads, longestPath(costs));
+		}
+		return status;
+	}
+
+	private long longestPath(final long[] costs) {
+		long[] paths = new long[order.length];
+		long result = 0;
+		for (int i = order.length - 1; i >= 0; --i) {
+			int id = order[i];
+			if (costs[id] < 0) {
+				continue;
+			}
+
+			long longest = 0;
+			for (int dependent : graph.getDependentIds(id)) {
+				longest = Math.max(longest, paths[dependent]);
+			}
+			paths[id] = costs[id] + longest;
+			result = Math.max(result, paths[id]);
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the current progress to the given file as a single JSON object. The file is replaced in one step, so anyone polling
+	 * it never sees a partial write.
+	 *
+	 * @param file where to write the progress
+	 * @throws IOException in case of errors
+	 */
+	public void write(final File file) throws IOException {
+		Status status = getStatus();
+		StringBuilder running = new StringBuilder();
+		for (String key : status.runningKeys) {
+			if (running.length() > 0) {
+				running.append(',');
+			}
+			running.append(BuildTimings.quote(key));
+		}
+
+		File temp = new File(file.getPath() + ".tmp");
+		Files.createParentDirs(temp);
+		Writer writer = Files.newWriter(temp, Charsets.UTF_8);
+		try {
+			writer.write("{\"time\":" + now() + ",\"total\":" + status.total + ",\"done\":" + status.done + ",\"failed\":"
+					+ status.failed + ",\"running\":" + status.running + ",\"queued\":" + status.queued + ",\"blocked\":"
+					+ status.blocked + ",\"artifactsPerHour\":" + status.artifactsPerHour + ",\"checkedOutBytes\":"
+					+ status.checkedOutBytes + ",\"etaMillis\":" + status.eta + ",\"runningArtifacts\":[" + running + "]}\n");
+		} finally {
+			IOUtil.close(writer);
+		}
+
+		if (!temp.renameTo(file) && (!file.delete() || !temp.renameTo(file))) {
+			throw new IOException("Unable to replace " + file);
+		}
+	}
+
+	/** Progress of a build at a single point in time. */
+	public static class Status {
+		private int total;
+		private int done;
+		private int failed;
+		private int running;
+		private int queued;
+		private int blocked;
+		private double artifactsPerHour;
+		private long checkedOutBytes;
+		private long eta = -1;
+		private List<String> runningKeys = Collections.emptyList();
+
+		/**
+		 * @return number of artifacts in the graph
+		 */
+		public int getTotal() {
+			return total;
+		}
+
+		/**
+		 * @return number of artifacts which were built
+		 */
+		public int getDone() {
+			return done;
+		}
+
+		/**
+		 * @return number of artifacts which failed to build
+		 */
+		public int getFailed() {
+			return failed;
+		}
+
+		/**
+		 * @return number of artifacts which are building
+		 */
+		public int getRunning() {
+			return running;
+		}
+
+		/**
+		 * @return number of artifacts which can be built as soon as a thread is free
+		 */
+		public int getQueued() {
+			return queued;
+		}
+
+		/**
+		 * @return number of artifacts waiting for one of their dependencies
+		 */
+		public int getBlocked() {
+			return blocked;
+		}
+
+		/**
+		 * @return number of artifacts built per hour since the first artifact was started
+		 */
+		public double getArtifactsPerHour() {
+			return artifactsPerHour;
+		}
+
+		/**
+		 * @return total size of source checked out
+		 */
+		public long getCheckedOutBytes() {
+			return checkedOutBytes;
+		}
+
+		/**
+		 * @return estimated milliseconds until the build is done or -1 if nothing has finished yet
+		 */
+		public long getEta() {
+			return eta;
+		}
+
+		@Override
+		public String toString() {
+			String result = String.format(Locale.ROOT, "%d/%d done, %d failed, %d running, %d queued, %d blocked, "
+					+ "%.1f artifacts/hour, %.1f MiB checked out", done, total, failed, running, queued, blocked, artifactsPerHour,
+					checkedOutBytes / BYTES_PER_MIB);
+			if (eta < 0) {
+				return result + ", ETA unknown";
+			}
+
+			long minutes = TimeUnit.MILLISECONDS.toMinutes(eta);
+			return result + String.format(", ETA %dh %02dm", minutes / TimeUnit.HOURS.toMinutes(1), minutes % TimeUnit.HOURS.toMinutes(1));
+		}
+	}
+}
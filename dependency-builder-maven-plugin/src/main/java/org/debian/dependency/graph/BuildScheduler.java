@@ -0,0 +1,275 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.graph;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Builds the artifacts of a {@link BuildGraph} on a pool of worker threads. An artifact is only handed to a worker once every
+ * artifact it depends on has been built, independent artifacts are built at the same time. When more artifacts are ready than
+ * there are workers, they are started in the given order or the order they were discovered if there is none.
+ * <p/>
+ * If any artifact fails to build, no new artifacts are started. Artifacts which are currently building are allowed to finish
+ * before the first failure is reported. When keeping going, only the artifacts which depend on a failed artifact (directly or
+ * transitively) are blocked; everything else is still built and all failures are reported together at the end in a
+ * {@link BuildFailuresException}.
+ */
+public class BuildScheduler {
+	private final int threads;
+	private final Comparator<String> order;
+	private final boolean keepGoing;
+	private final List<BuildListener> listeners = new ArrayList<BuildListener>();
+
+	/**
+	 * Creates a new scheduler which starts artifacts in the order they were discovered.
+	 *
+	 * @param threads maximum number of artifacts to build at the same time
+	 */
+	public BuildScheduler(final int threads) {
+		this(threads, null);
+	}
+
+	/**
+	 * Creates a new scheduler.
+	 *
+	 * @param threads maximum number of artifacts to build at the same time
+	 * @param order order to start artifacts which are ready to be built (by graph key) or {@code null} for discovery order
+	 */
+	public BuildScheduler(final int threads, final Comparator<String> order) {
+		this(threads, order, false);
+	}
+
+	/**
+	 * Creates a new scheduler.
+	 *
+	 * @param threads maximum number of artifacts to build at the same time
+	 * @param order order to start artifacts which are ready to be built (by graph key) or {@code null} for discovery order
+	 * @param keepGoing whether to continue building artifacts which don't depend on a failed artifact
+	 */
+	public BuildScheduler(final int threads, final Comparator<String> order, final boolean keepGoing) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Must have at least 1 thread");
+		}
+		this.threads = threads;
+		this.order = order;
+		this.keepGoing = keepGoing;
+	}
+
+	/**
+	 * @param listener notified as artifacts are started, finished and blocked, always called from the thread executing the graph
+	 */
+	public void addListener(final BuildListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Builds every artifact in the given graph.
+	 *
+	 * @param graph graph to build
+	 * @param task how each artifact is built
+	 * @return all artifacts that were built
+	 * @throws MojoExecutionException in case of errors
+	 * @throws MojoFailureException in case of errors
+	 */
+	public Set<Artifact> execute(final BuildGraph graph, final BuildTask task) throws MojoExecutionException, MojoFailureException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new BuildThreadFactory("dependency-builder-"));
+		try {
+			return execute(graph, task, new ExecutorCompletionService<Set<Artifact>>(executor));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private Set<Artifact> execute(final BuildGraph graph, final BuildTask task, final CompletionService<Set<Artifact>> completion)
+			throws MojoExecutionException, MojoFailureException {
+		int[] remaining = new int[graph.size()];
+		Queue<ReadyArtifact> ready = new PriorityQueue<ReadyArtifact>(graph.size() + 1, new ReadyComparator());
+		long sequence = 0;
+		for (int id = 0; id < graph.size(); ++id) {
+			remaining[id] = graph.getDependencyCount(id);
+			if (remaining[id] == 0) {
+				ready.add(new ReadyArtifact(graph.getKey(id), id, sequence++));
+			}
+		}
+
+		Map<Future<Set<Artifact>>, Integer> running = new HashMap<Future<Set<Artifact>>, Integer>();
+		Set<Artifact> result = new HashSet<Artifact>();
+		int built = 0;
+		Map<String, Throwable> failures = new LinkedHashMap<String, Throwable>();
+		Set<String> blocked = new LinkedHashSet<String>();
+		Throwable failure = null;
+		startReady(graph, task, completion, ready, running);
+		while (!running.isEmpty()) {
+			Future<Set<Artifact>> future = take(completion);
+			int id = running.remove(future);
+			String key = graph.getKey(id);
+
+			try {
+				result.addAll(future.get());
+				++built;
+				for (BuildListener listener : listeners) {
+					listener.finished(key, true);
+				}
+			} catch (ExecutionException e) {
+				for (BuildListener listener : listeners) {
+					listener.finished(key, false);
+				}
+				if (keepGoing) {
+					failures.put(key, e.getCause());
+					block(graph, id, blocked);
+					startReady(graph, task, completion, ready, running);
+				} else if (failure == null) {
+					failure = e.getCause();
+				}
+				continue;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MojoExecutionException("Interrupted while building artifacts", e);
+			}
+
+			// don't start anything new if something has failed, we only let current builds finish
+			if (failure != null) {
+				continue;
+			}
+
+			for (int dependent : graph.getDependentIds(id)) {
+				if (--remaining[dependent] == 0) {
+					ready.add(new ReadyArtifact(graph.getKey(dependent), dependent, sequence++));
+				}
+			}
+			startReady(graph, task, completion, ready, running);
+		}
+
+		if (failure != null) {
+			rethrow(failure);
+		} else if (!failures.isEmpty()) {
+			throw new BuildFailuresException(failures, blocked);
+		} else if (built != graph.size()) {
+			throw new IllegalStateException("Not all artifacts were built, is there a cycle in the graph?");
+		}
+		return result;
+	}
+
+	private void block(final BuildGraph graph, final int failed, final Set<String> blocked) {
+		Queue<Integer> queue = new LinkedList<Integer>();
+		for (int dependent : graph.getDependentIds(failed)) {
+			queue.add(dependent);
+		}
+		while (!queue.isEmpty()) {
+			int id = queue.poll();
+			if (blocked.add(graph.getKey(id))) {
+				for (BuildListener listener : listeners) {
+					listener.blocked(graph.getKey(id));
+				}
+				for (int dependent : graph.getDependentIds(id)) {
+					queue.add(dependent);
+				}
+			}
+		}
+	}
+
+	private void startReady(final BuildGraph graph, final BuildTask task, final CompletionService<Set<Artifact>> completion,
+			final Queue<ReadyArtifact> ready, final Map<Future<Set<Artifact>>, Integer> running) {
+		while (running.size() < threads && !ready.isEmpty()) {
+			ReadyArtifact next = ready.poll();
+			for (BuildListener listener : listeners) {
+				listener.started(next.key);
+			}
+			running.put(submit(completion, task, graph.getArtifacts(next.key)), next.id);
+		}
+	}
+
+	private static Future<Set<Artifact>> submit(final CompletionService<Set<Artifact>> completion, final BuildTask task,
+			final List<Artifact> artifacts) {
+		return completion.submit(new Callable<Set<Artifact>>() {
+			@Override
+			public Set<Artifact> call() throws Exception {
+				return task.build(artifacts);
+			}
+		});
+	}
+
+	private static Future<Set<Artifact>> take(final CompletionService<Set<Artifact>> completion) throws MojoExecutionException {
+		try {
+			return completion.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Interrupted while building artifacts", e);
+		}
+	}
+
+	private static void rethrow(final Throwable failure) throws MojoExecutionException, MojoFailureException {
+		if (failure instanceof MojoExecutionException) {
+			throw (MojoExecutionException) failure;
+		} else if (failure instanceof MojoFailureException) {
+			throw (MojoFailureException) failure;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		throw new MojoExecutionException("Unable to build artifacts", failure);
+	}
+
+	/** An artifact which can be built, but hasn't been started yet. */
+	private static class ReadyArtifact {
+		private final String key;
+		private final int id;
+		private final long sequence;
+
+		public ReadyArtifact(final String key, final int id, final long sequence) {
+			this.key = key;
+			this.id = id;
+			this.sequence = sequence;
+		}
+	}
+
+	/** Orders ready artifacts by the configured order falling back to the order they became ready. */
+	private class ReadyComparator implements Comparator<ReadyArtifact> {
+		@Override
+		public int compare(final ReadyArtifact ready1, final ReadyArtifact ready2) {
+			if (order != null) {
+				int result = order.compare(ready1.key, ready2.key);
+				if (result != 0) {
+					return result;
+				}
+			}
+			return Long.valueOf(ready1.sequence).compareTo(ready2.sequence);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.graph;
+
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/** Work performed by the {@link BuildScheduler} for a single artifact in a {@link BuildGraph}. */
+public interface BuildTask {
+	/**
+	 * Builds the given artifacts, all from the same source. When this method returns, the built artifacts must be available to
+	 * any artifact which depends on them. This method may be called concurrently for different artifacts.
+	 *
+	 * @param artifacts artifacts to build in the order they must be built
+	 * @return artifacts that were built
+	 * @throws MojoExecutionException in case of errors
+	 * @throws MojoFailureException in case of errors
+	 * @see BuildGraph#getArtifacts(String)
+	 */
+	Set<Artifact> build(List<Artifact> artifacts) throws MojoExecutionException, MojoFailureException;
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.graph;
+
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * Orders artifacts of a {@link BuildGraph} so that those on the longest remaining path through the graph are built first. The
+ * length of a path is the sum of the estimated durations of every artifact on it, ending at an artifact nothing else depends on.
+ * <p/>
+ * Artifacts without a known duration are estimated with the average of the known durations. Without any known durations, every
+ * artifact counts the same so paths are measured by the number of artifacts on them. Ties are broken by fan-out (artifacts
+ * which unblock the most other artifacts first).
+ */
+public class CriticalPathComparator implements Comparator<String> {
+	private final BuildGraph graph;
+	private final Map<String, Long> durations;
+	private final long defaultDuration;
+	private final long[] remaining;
+
+	/**
+	 * Creates a new comparator.
+	 *
+	 * @param graph graph which is being built
+	 * @param durations known durations of artifacts by graph key
+	 */
+	public CriticalPathComparator(final BuildGraph graph, final Map<String, Long> durations) {
+		this.graph = graph;
+		this.durations = durations;
+
+		long total = 0;
+		int count = 0;
+		for (String key : graph.getKeys()) {
+			Long duration = durations.get(key);
+			if (duration != null) {
+				total += duration;
+				++count;
+			}
+		}
+
+		if (count == 0) {
+			defaultDuration = 1;
+		} else {
+			defaultDuration = Math.max(1, total / count);
+		}
+
+		// dependents always come after an artifact, so working backwards they are known before the artifact is
+		remaining = new long[graph.size()];
+		int[] order = graph.sortIds(null);
+		for (int i = order.length - 1; i >= 0; --i) {
+			int id = order[i];
+			long longest = 0;
+			for (int dependent : graph.getDependentIds(id)) {
+				longest = Math.max(longest, remaining[dependent]);
+			}
+			remaining[id] = getEstimate(graph.getKey(id)) + longest;
+		}
+	}
+
+	/**
+	 * Gets the length of the longest path starting at the given artifact, including itself.
+	 *
+	 * @param key key of the artifact
+	 * @return estimated remaining duration
+	 */
+	public final long getRemaining(final String key) {
+		return remaining[graph.getId(key)];
+	}
+
+	/**
+	 * @param key key of the artifact
+	 * @return estimated duration of building just the given artifact
+	 */
+	public final long getEstimate(final String key) {
+		Long duration = durations.get(key);
+		if (duration == null) {
+			return defaultDuration;
+		}
+		return duration;
+	}
+
+	@Override
+	public int compare(final String key1, final String key2) {
+		int id1 = graph.getId(key1);
+		int id2 = graph.getId(key2);
+		// longest first
+		if (remaining[id1] < remaining[id2]) {
+			return 1;
+		} else if (remaining[id1] > remaining[id2]) {
+			return -1;
+		}
+		return graph.getDependentCount(id2) - graph.getDependentCount(id1);
+	}
+}
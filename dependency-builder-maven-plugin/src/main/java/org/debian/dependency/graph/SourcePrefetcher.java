@@ -0,0 +1,216 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.graph;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.debian.dependency.sources.Source;
+import org.debian.dependency.sources.SourceRetrievalException;
+import org.debian.dependency.sources.SourceRetrievalManager;
+
+/**
+ * Checks out sources ahead of the artifacts being built so that builds don't wait on the network. Sources are checked out on a
+ * separate pool of threads in the order artifacts are expected to be built.
+ * <p/>
+ * Only a limited number of sources may be checked out ahead of time. Once the limit is reached, no more sources are checked out
+ * until an artifact which was checked out ahead of time has been built, keeping unbuilt checkouts from filling the disk. If an
+ * artifact is needed before its source was prefetched, it is checked out directly instead. Artifacts which will never be built
+ * because they depend on a failure, as reported through {@link BuildListener#blocked(String)}, are skipped and give up their
+ * place.
+ */
+public class SourcePrefetcher implements BuildListener {
+	private final SourceRetrievalManager sourceRetrievalManager;
+	private final File workDirectory;
+	private final MavenSession session;
+	private final int threads;
+	private final Semaphore capacity;
+
+	private final Object lock = new Object();
+	private final Map<String, Future<Source>> checkouts = new HashMap<String, Future<Source>>();
+	private final Set<String> claimed = new HashSet<String>();
+	private final Set<String> holding = new HashSet<String>();
+	private ExecutorService executor;
+	private Thread feeder;
+
+	/**
+	 * Creates a new prefetcher.
+	 *
+	 * @param sourceRetrievalManager how sources are checked out
+	 * @param workDirectory where sources are checked out
+	 * @param session current session
+	 * @param threads number of sources to check out at the same time
+	 * @param limit maximum number of sources which may be checked out and not yet built
+	 */
+	public SourcePrefetcher(final SourceRetrievalManager sourceRetrievalManager, final File workDirectory, final MavenSession session,
+			final int threads, final int limit) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Must have at least 1 thread");
+		} else if (limit < 1) {
+			throw new IllegalArgumentException("Must be able to prefetch at least 1 source");
+		}
+		this.sourceRetrievalManager = sourceRetrievalManager;
+		this.workDirectory = workDirectory;
+		this.session = session;
+		this.threads = threads;
+		this.capacity = new Semaphore(limit);
+	}
+
+	/**
+	 * Starts checking out the sources of the given artifacts in the background.
+	 *
+	 * @param graph graph being built
+	 * @param order keys of the artifacts to prefetch, in the order they are expected to be built
+	 */
+	public void start(final BuildGraph graph, final List<String> order) {
+		executor = Executors.newFixedThreadPool(threads, new BuildThreadFactory("dependency-builder-prefetch-"));
+		feeder = new BuildThreadFactory("dependency-builder-prefetcher").newThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (String key : order) {
+						capacity.acquire();
+						if (!prefetch(key, graph.getArtifact(key))) {
+							capacity.release();
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		feeder.start();
+	}
+
+	private boolean prefetch(final String key, final Artifact artifact) {
+		synchronized (lock) {
+			if (claimed.contains(key) || checkouts.containsKey(key) || executor.isShutdown()) {
+				return false;
+			}
+
+			checkouts.put(key, executor.submit(new Callable<Source>() {
+				@Override
+				public Source call() throws SourceRetrievalException {
+					return sourceRetrievalManager.checkoutSource(artifact, workDirectory, session);
+				}
+			}));
+			holding.add(key);
+			return true;
+		}
+	}
+
+	/**
+	 * Gets the source for the given artifact, waiting for it to be prefetched or checking it out directly if it wasn't. Callers
+	 * must {@link #release(Artifact) release} the artifact once it has been built.
+	 *
+	 * @param artifact artifact to get the source for
+	 * @return source of the artifact
+	 * @throws SourceRetrievalException in case of errors
+	 */
+	public Source take(final Artifact artifact) throws SourceRetrievalException {
+		String key = BuildGraph.key(artifact);
+		Future<Source> checkout;
+		synchronized (lock) {
+			claimed.add(key);
+			checkout = checkouts.remove(key);
+		}
+
+		if (checkout == null) {
+			return sourceRetrievalManager.checkoutSource(artifact, workDirectory, session);
+		}
+
+		try {
+			return checkout.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SourceRetrievalException) {
+				throw (SourceRetrievalException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new SourceRetrievalException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SourceRetrievalException(e);
+		}
+	}
+
+	/**
+	 * Notifies that the given artifact has been built (or failed to build), allowing another source to be prefetched in its place.
+	 *
+	 * @param artifact artifact which was built
+	 */
+	public void release(final Artifact artifact) {
+		release(BuildGraph.key(artifact));
+	}
+
+	private void release(final String key) {
+		synchronized (lock) {
+			if (holding.remove(key)) {
+				capacity.release();
+			}
+		}
+	}
+
+	@Override
+	public void started(final String key) {
+		// sources are taken once the build needs them
+	}
+
+	@Override
+	public void finished(final String key, final boolean success) {
+		release(key);
+	}
+
+	@Override
+	public void blocked(final String key) {
+		Future<Source> checkout;
+		synchronized (lock) {
+			claimed.add(key);
+			checkout = checkouts.remove(key);
+		}
+		if (checkout != null) {
+			// checkouts in progress finish, their source is simply never used
+			checkout.cancel(false);
+		}
+		release(key);
+	}
+
+	/**
+	 * Stops prefetching sources. Checkouts in progress are interrupted.
+	 */
+	public void stop() {
+		synchronized (lock) {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+		if (feeder != null) {
+			feeder.interrupt();
+		}
+	}
+}
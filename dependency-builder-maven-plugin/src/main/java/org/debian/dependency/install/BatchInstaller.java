@@ -0,0 +1,209 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.install;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.ArtifactUtils;
+import org.apache.maven.artifact.installer.ArtifactInstallationException;
+import org.apache.maven.artifact.installer.ArtifactInstaller;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.debian.dependency.events.BuildEvent;
+import org.debian.dependency.events.BuildEventType;
+import org.debian.dependency.events.BuildEvents;
+import org.debian.dependency.graph.BuildThreadFactory;
+
+/**
+ * Installs all artifacts from a single build together on a pool of threads. Each artifact is copied into the repository on its
+ * own thread, but the repository metadata of a project (by group and artifact id) is written only once: a single artifact of
+ * every project goes through the {@link ArtifactInstaller}, the rest are copied directly.
+ * <p/>
+ * Installs of the same project from different batches never overlap so they don't clobber each other's metadata. Files are put
+ * in the repository with a {@link FileTransfer}, so they can be linked rather than copied.
+ */
+public class BatchInstaller {
+	private final ArtifactInstaller installer;
+	private final FileTransfer transfer;
+	private final ExecutorService executor;
+	private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+
+	/**
+	 * Creates a new installer.
+	 *
+	 * @param installer installer used for writing metadata
+	 * @param transfer how files are put in the repository
+	 * @param threads number of files which may be installed at the same time
+	 */
+	public BatchInstaller(final ArtifactInstaller installer, final FileTransfer transfer, final int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Must have at least 1 thread");
+		}
+		this.installer = installer;
+		this.transfer = transfer;
+		this.executor = Executors.newFixedThreadPool(threads, new BuildThreadFactory("dependency-builder-install-"));
+	}
+
+	/**
+	 * Installs the given artifacts, returning once all of them have been installed.
+	 *
+	 * @param artifacts artifacts to install, each must have a file
+	 * @param repository repository to install to
+	 * @throws ArtifactInstallationException if any artifact cannot be installed
+	 */
+	public void install(final Collection<Artifact> artifacts, final ArtifactRepository repository)
+			throws ArtifactInstallationException {
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(artifacts.size());
+		for (Map.Entry<String, List<Artifact>> entry : groupByProject(artifacts).entrySet()) {
+			Object lock = getLock(entry.getKey());
+			List<Artifact> project = entry.getValue();
+			Artifact metadataArtifact = selectMetadataArtifact(project);
+			for (Artifact artifact : project) {
+				futures.add(executor.submit(new InstallTask(artifact, artifact == metadataArtifact, lock, repository)));
+			}
+		}
+
+		ArtifactInstallationException failure = null;
+		for (Future<Void> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = toInstallationException(e.getCause());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ArtifactInstallationException("Interrupted while installing artifacts", e);
+			}
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/** Stops all threads. Artifacts which are currently being installed are allowed to finish. */
+	public void stop() {
+		executor.shutdown();
+	}
+
+	private static Map<String, List<Artifact>> groupByProject(final Collection<Artifact> artifacts) {
+		Map<String, List<Artifact>> result = new LinkedHashMap<String, List<Artifact>>();
+		for (Artifact artifact : artifacts) {
+			String key = ArtifactUtils.versionlessKey(artifact.getGroupId(), artifact.getArtifactId());
+			List<Artifact> project = result.get(key);
+			if (project == null) {
+				project = new ArrayList<Artifact>();
+				result.put(key, project);
+			}
+			project.add(artifact);
+		}
+		return result;
+	}
+
+	private static Artifact selectMetadataArtifact(final List<Artifact> project) {
+		// the pom is the one artifact every project has
+		for (Artifact artifact : project) {
+			if ("pom".equals(artifact.getType())) {
+				return artifact;
+			}
+		}
+		return project.get(0);
+	}
+
+	private Object getLock(final String key) {
+		Object lock = new Object();
+		Object existing = locks.putIfAbsent(key, lock);
+		if (existing == null) {
+			return lock;
+		}
+		return existing;
+	}
+
+	private static ArtifactInstallationException toInstallationException(final Throwable cause) {
+		if (cause instanceof ArtifactInstallationException) {
+			return (ArtifactInstallationException) cause;
+		} else if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		} else if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return new ArtifactInstallationException("Unable to install artifact", cause);
+	}
+
+	/** Installs a single artifact. */
+	private class InstallTask implements Callable<Void> {
+		private final Artifact artifact;
+		private final boolean writeMetadata;
+		private final Object lock;
+		private final ArtifactRepository repository;
+
+		public InstallTask(final Artifact artifact, final boolean writeMetadata, final Object lock, final ArtifactRepository repository) {
+			this.artifact = artifact;
+			this.writeMetadata = writeMetadata;
+			this.lock = lock;
+			this.repository = repository;
+		}
+
+		@Override
+		public Void call() throws ArtifactInstallationException {
+			synchronized (lock) {
+				// artifacts with their own metadata, i.e. a project pom, cannot be copied without losing it
+				if (writeMetadata || !artifact.getMetadataList().isEmpty()) {
+					BuildEvent event = BuildEvents.begin(BuildEventType.INSTALL, artifact, "metadata");
+					try {
+						stage();
+						installer.install(artifact.getFile(), artifact, repository);
+					} finally {
+						event.end();
+					}
+					return null;
+				}
+			}
+
+			BuildEvent event = BuildEvents.begin(BuildEventType.INSTALL, artifact, "transfer");
+			try {
+				transfer.transfer(artifact.getFile(), new File(repository.getBasedir(), repository.pathOf(artifact)));
+			} catch (IOException e) {
+				throw new ArtifactInstallationException("Unable to copy " + artifact + " to " + repository, e);
+			} finally {
+				event.end();
+			}
+			return null;
+		}
+
+		private void stage() throws ArtifactInstallationException {
+			try {
+				transfer.stage(artifact, repository);
+			} catch (IOException e) {
+				throw new ArtifactInstallationException("Unable to link " + artifact + " into " + repository, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.install;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Puts files into a repository either by hard linking them or copying their bytes. Linking is only attempted when asked for and
+ * when running on Java 7 or later; if the link cannot be made (i.e. the files are on different file systems), the file is copied
+ * instead. Keeps track of how many bytes were linked and copied.
+ * <p/>
+ * Linked files share their contents with the original, so linking should only be used when the original is not modified later.
+ */
+public class FileTransfer {
+	private static final Method TO_PATH;
+	private static final Method CREATE_LINK;
+
+	static {
+		Method[] methods = findLinkMethods();
+		TO_PATH = methods[0];
+		CREATE_LINK = methods[1];
+	}
+
+	private final boolean link;
+	private final AtomicLong linkedBytes = new AtomicLong();
+	private final AtomicLong copiedBytes = new AtomicLong();
+
+	/**
+	 * Creates a new transfer.
+	 *
+	 * @param link whether to try linking files before copying them
+	 */
+	public FileTransfer(final boolean link) {
+		this.link = link;
+	}
+
+	/**
+	 * Puts the source file at the target location, replacing anything already there. Nothing happens if the source already is
+	 * at the target location.
+	 *
+	 * @param source file to transfer
+	 * @param target where to transfer to
+	 * @throws IOException in case of errors
+	 */
+	public void transfer(final File source, final File target) throws IOException {
+		if (!source.isFile()) {
+			throw new IOException("Source file does not exist: " + source);
+		} else if (target.getCanonicalFile().equals(source.getCanonicalFile())) {
+			return;
+		}
+		FileUtils.forceMkdir(target.getParentFile());
+		if (target.exists() && !target.delete()) {
+			throw new IOException("Unable to replace " + target);
+		}
+
+		long length = source.length();
+		if (link && createLink(source, target)) {
+			linkedBytes.addAndGet(length);
+			return;
+		}
+
+		copy(source, target);
+		copiedBytes.addAndGet(length);
+	}
+
+	/**
+	 * Prepares to install an artifact with the {@link org.apache.maven.artifact.installer.ArtifactInstaller}. When linking, the
+	 * file is linked into the repository ahead of time so that the installer finds an identical file there and only writes
+	 * metadata. Otherwise the installer copies the file itself.
+	 *
+	 * @param artifact artifact which will be installed
+	 * @param repository repository it will be installed in
+	 * @throws IOException in case of errors
+	 */
+	public void stage(final Artifact artifact, final ArtifactRepository repository) throws IOException {
+		// poms are always copied by the installer so the project metadata can be rewritten
+		if (!link || "pom".equals(artifact.getType())) {
+			if (artifact.getFile() != null) {
+				copiedBytes.addAndGet(artifact.getFile().length());
+			}
+			return;
+		}
+
+		File target = new File(repository.getBasedir(), repository.pathOf(artifact));
+		transfer(artifact.getFile(), target);
+		if (!target.setLastModified(artifact.getFile().lastModified())) {
+			throw new IOException("Unable to set modification time of " + target);
+		}
+	}
+
+	/**
+	 * @return number of bytes which were linked rather than copied
+	 */
+	public long getLinkedBytes() {
+		return linkedBytes.get();
+	}
+
+	/**
+	 * @return number of bytes which were copied
+	 */
+	public long getCopiedBytes() {
+		return copiedBytes.get();
+	}
+
+	private static Method[] findLinkMethods() {
+		// java.nio.file only exists in 1.7+
+		try {
+			Class<?> pathClass = Class.forName("java.nio.file.Path");
+			Class<?> filesClass = Class.forName("java.nio.file.Files");
+			return new Method[] { File.class.getMethod("toPath"), filesClass.getMethod("createLink", pathClass, pathClass) };
+		} catch (ClassNotFoundException e) {
+			return new Method[2];
+		} catch (NoSuchMethodException e) {
+			return new Method[2];
+		}
+	}
+
+	private static boolean createLink(final File source, final File target) {
+		if (CREATE_LINK == null) {
+			return false;
+		}
+
+		try {
+			CREATE_LINK.invoke(null, TO_PATH.invoke(target), TO_PATH.invoke(source));
+			return true;
+		} catch (InvocationTargetException e) {
+			// different file systems, no permission or simply unsupported
+			return false;
+		} catch (IllegalAccessException e) {
+			return false;
+		}
+	}
+
+	private static void copy(final File source, final File target) throws IOException {
+		FileInputStream input = new FileInputStream(source);
+		FileOutputStream output = null;
+		try {
+			output = new FileOutputStream(target);
+			FileChannel in = input.getChannel();
+			FileChannel out = output.getChannel();
+			long size = in.size();
+			long position = 0;
+			while (position < size) {
+				position += in.transferTo(position, size - position, out);
+			}
+		} finally {
+			IOUtil.close(output);
+			IOUtil.close(input);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.ledger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+import org.codehaus.plexus.util.IOUtil;
+
+import com.google.common.io.Files;
+
+/**
+ * Remembers how long it took to check out and build artifacts. Durations are keyed by group and artifact id so that they carry
+ * over between versions of the same project. When an artifact is built again, the recorded duration is averaged with the new one
+ * to smooth out noisy builds.
+ */
+public class BuildHistory {
+	private final File file;
+	private final Map<String, Long> durations = new HashMap<String, Long>();
+
+	/**
+	 * Creates a new history backed by the given file.
+	 *
+	 * @param file where the history is stored
+	 */
+	public BuildHistory(final File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Loads any previously saved durations.
+	 *
+	 * @throws IOException in case of errors
+	 */
+	public synchronized void load() throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+
+		Properties properties = new Properties();
+		InputStream stream = new FileInputStream(file);
+		try {
+			properties.load(stream);
+		} finally {
+			IOUtil.close(stream);
+		}
+
+		for (String key : properties.stringPropertyNames()) {
+			try {
+				durations.put(key, Long.valueOf(properties.getProperty(key)));
+			} catch (NumberFormatException e) {
+				// ignore the entry, it will be recorded again next build
+				continue;
+			}
+		}
+	}
+
+	/**
+	 * Saves all durations.
+	 *
+	 * @throws IOException in case of errors
+	 */
+	public synchronized void save() throws IOException {
+		Properties properties = new Properties();
+		for (Entry<String, Long> entry : durations.entrySet()) {
+			properties.setProperty(entry.getKey(), entry.getValue().toString());
+		}
+
+		Files.createParentDirs(file);
+		OutputStream stream = new FileOutputStream(file);
+		try {
+			properties.store(stream, "Build durations in milliseconds");
+		} finally {
+			IOUtil.close(stream);
+		}
+	}
+
+	/**
+	 * @param key group and artifact id of the artifact
+	 * @return duration in milliseconds or {@code null} if it was never recorded
+	 */
+	public synchronized Long getDuration(final String key) {
+		return durations.get(key);
+	}
+
+	/**
+	 * Records how long it took to build an artifact.
+	 *
+	 * @param key group and artifact id of the artifact
+	 * @param duration duration in milliseconds
+	 */
+	public synchronized void record(final String key, final long duration) {
+		Long previous = durations.get(key);
+		if (previous == null) {
+			durations.put(key, duration);
+		} else {
+			durations.put(key, (previous + duration) / 2);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.ledger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.debian.dependency.ledger.LedgerEntry.InstalledFile;
+
+import com.google.common.io.Files;
+
+/**
+ * A persistent record of artifacts which have been built and installed into an output repository. Each artifact is recorded in
+ * its own file as soon as it has been installed so that an interrupted run loses at most the artifacts which were building at
+ * the time.
+ * <p/>
+ * An entry is only considered valid while every file it installed is still present in the repository with the same checksum.
+ */
+public class BuildLedger {
+	private static final String ENTRY_SUFFIX = ".properties";
+	private static final String CHECKSUM_ALGORITHM = "SHA-1";
+	private static final int HEX_RADIX = 16;
+	private static final String KEY = "artifact";
+	private static final String ORIGIN = "origin";
+	private static final String REVISION = "revision";
+	private static final String BUILDER = "builder";
+	private static final String FILE_COUNT = "files";
+	private static final String FILE_PREFIX = "file.";
+
+	private final File directory;
+	private final File repository;
+
+	/**
+	 * Creates a new ledger.
+	 *
+	 * @param directory where ledger entries are stored
+	 * @param repository base directory of the repository artifacts are installed in
+	 */
+	public BuildLedger(final File directory, final File repository) {
+		this.directory = directory;
+		this.repository = repository;
+	}
+
+	/**
+	 * Reads the entry for the given artifact key.
+	 *
+	 * @param key key of the artifact
+	 * @return recorded entry or {@code null} if the artifact was never recorded
+	 * @throws IOException in case of errors
+	 */
+	public LedgerEntry read(final String key) throws IOException {
+		File file = getEntryFile(key);
+		if (!file.exists()) {
+			return null;
+		}
+
+		Properties properties = new Properties();
+		InputStream stream = new FileInputStream(file);
+		try {
+			properties.load(stream);
+		} finally {
+			IOUtil.close(stream);
+		}
+
+		// different keys may map to the same file name
+		if (!key.equals(properties.getProperty(KEY))) {
+			return null;
+		}
+
+		LedgerEntry entry = new LedgerEntry(key);
+		entry.setOrigin(properties.getProperty(ORIGIN));
+		entry.setRevision(properties.getProperty(REVISION));
+		entry.setBuilder(properties.getProperty(BUILDER));
+
+		int count = Integer.parseInt(properties.getProperty(FILE_COUNT, "0"));
+		for (int i = 0; i < count; ++i) {
+			String prefix = FILE_PREFIX + i + ".";
+			entry.addFile(new InstalledFile(properties.getProperty(prefix + "groupId"), properties.getProperty(prefix + "artifactId"),
+					properties.getProperty(prefix + "version"), properties.getProperty(prefix + "type"),
+					properties.getProperty(prefix + "classifier"), properties.getProperty(prefix + "path"),
+					properties.getProperty(prefix + "checksum")));
+		}
+		return entry;
+	}
+
+	/**
+	 * Determines whether everything the entry installed is still present and unmodified in the repository.
+	 *
+	 * @param entry entry to check
+	 * @return whether the entry is still valid
+	 * @throws IOException in case of errors
+	 */
+	public boolean isValid(final LedgerEntry entry) throws IOException {
+		if (entry.getFiles().isEmpty()) {
+			return false;
+		}
+
+		for (InstalledFile installed : entry.getFiles()) {
+			File file = new File(repository, installed.getPath());
+			if (!file.isFile() || !checksum(file).equals(installed.getChecksum())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Records the given entry, replacing any previous entry for the same artifact.
+	 *
+	 * @param entry entry to record
+	 * @throws IOException in case of errors
+	 */
+	public void write(final LedgerEntry entry) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty(KEY, entry.getKey());
+		setProperty(properties, ORIGIN, entry.getOrigin());
+		setProperty(properties, REVISION, entry.getRevision());
+		setProperty(properties, BUILDER, entry.getBuilder());
+
+		properties.setProperty(FILE_COUNT, String.valueOf(entry.getFiles().size()));
+		for (int i = 0; i < entry.getFiles().size(); ++i) {
+			InstalledFile installed = entry.getFiles().get(i);
+			String prefix = FILE_PREFIX + i + ".";
+			setProperty(properties, prefix + "groupId", installed.getGroupId());
+			setProperty(properties, prefix + "artifactId", installed.getArtifactId());
+			setProperty(properties, prefix + "version", installed.getVersion());
+			setProperty(properties, prefix + "type", installed.getType());
+			setProperty(properties, prefix + "classifier", installed.getClassifier());
+			setProperty(properties, prefix + "path", installed.getPath());
+			setProperty(properties, prefix + "checksum", installed.getChecksum());
+		}
+
+		// write to the side first so an interrupted write never leaves a partial entry behind
+		File file = getEntryFile(entry.getKey());
+		File temp = new File(directory, file.getName() + ".tmp");
+		Files.createParentDirs(temp);
+		OutputStream stream = new FileOutputStream(temp);
+		try {
+			properties.store(stream, "Built by dependency-builder");
+		} finally {
+			IOUtil.close(stream);
+		}
+
+		if (!temp.renameTo(file)) {
+			file.delete();
+			Files.move(temp, file);
+		}
+	}
+
+	/**
+	 * Computes the checksum of a file in the repository.
+	 *
+	 * @param path path of the file relative to the repository
+	 * @return current checksum of the file
+	 * @throws IOException in case of errors
+	 */
+	public String checksum(final String path) throws IOException {
+		return checksum(new File(repository, path));
+	}
+
+	/**
+	 * Computes the checksum of any file, the same way as files in the repository.
+	 *
+	 * @param file file to checksum
+	 * @return current checksum of the file
+	 * @throws IOException in case of errors
+	 */
+	public static String checksum(final File file) throws IOException {
+		try {
+			byte[] digest = Files.getDigest(file, MessageDigest.getInstance(CHECKSUM_ALGORITHM));
+			StringBuilder builder = new StringBuilder(new BigInteger(1, digest).toString(HEX_RADIX));
+			while (builder.length() < digest.length * 2) {
+				builder.insert(0, '0');
+			}
+			return builder.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("Unable to compute checksum", e);
+		}
+	}
+
+	private static void setProperty(final Properties properties, final String key, final String value) {
+		if (value != null) {
+			properties.setProperty(key, value);
+		}
+	}
+
+	private File getEntryFile(final String key) {
+		return new File(directory, key.replaceAll("[^a-zA-Z0-9.-]", "_") + ENTRY_SUFFIX);
+	}
+}
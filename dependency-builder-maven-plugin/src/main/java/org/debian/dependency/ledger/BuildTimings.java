@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.ledger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.util.IOUtil;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Records how long each phase of the build took for each artifact so that a slow run can be broken down afterwards. Timings are
+ * written as JSON lines, one object per measurement, and can be summarized by phase.
+ */
+public class BuildTimings {
+	/** Resolving the dependencies of a configured artifact. */
+	public static final String RESOLVE = "resolve";
+	/** Installing the ignored artifacts of a chunk of resolved artifacts. */
+	public static final String INSTALL_IGNORED = "install-ignored";
+	/** Checking out the source of an artifact. */
+	public static final String CHECKOUT = "checkout";
+	/** Detecting which builder builds a source. */
+	public static final String DETECT = "detect";
+	/** Building the artifacts of a source. */
+	public static final String BUILD = "build";
+	/** Installing built artifacts. */
+	public static final String INSTALL = "install";
+	/** Building and installing artifacts on a worker. */
+	public static final String WORKER = "worker";
+
+	private static final int COUNT = 0;
+	private static final int TOTAL = 1;
+	private static final int LONGEST = 2;
+	private static final String SUMMARY_FORMAT = "%-16s %8s %12s %12s %12s";
+
+	private final List<Timing> timings = new ArrayList<Timing>();
+
+	/**
+	 * Records a phase which started at the given time and has just ended.
+	 *
+	 * @param artifact key of the artifact the phase was for or {@code null} if it wasn't for a single artifact
+	 * @param phase phase which ended
+	 * @param start when the phase started as given by {@link System#nanoTime()}
+	 */
+	public void record(final String artifact, final String phase, final long start) {
+		long nanos = System.nanoTime() - start;
+		long startMillis = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(nanos);
+		synchronized (timings) {
+			timings.add(new Timing(artifact, phase, startMillis, nanos));
+		}
+	}
+
+	/**
+	 * Writes every timing to the given file as JSON lines, replacing the file if it exists.
+	 *
+	 * @param file where to write timings
+	 * @throws IOException in case of errors
+	 */
+	public void write(final File file) throws IOException {
+		Files.createParentDirs(file);
+		Writer writer = Files.newWriter(file, Charsets.UTF_8);
+		try {
+			synchronized (timings) {
+				for (Timing timing : timings) {
+					writer.write("{\"artifact\":" + quote(timing.artifact) + ",\"phase\":" + quote(timing.phase) + ",\"start\":"
+							+ timing.start + ",\"millis\":" + TimeUnit.NANOSECONDS.toMillis(timing.nanos) + "}\n");
+				}
+			}
+		} finally {
+			IOUtil.close(writer);
+		}
+	}
+
+	/**
+	 * Summarizes the timings of each phase in a table with the number of times the phase ran, the total time and the average and
+	 * longest time it took.
+	 *
+	 * @return lines of the table, starting with the header
+	 */
+	public List<String> summarize() {
+		Map<String, long[]> phases = new LinkedHashMap<String, long[]>();
+		synchronized (timings) {
+			for (Timing timing : timings) {
+				long[] summary = phases.get(timing.phase);
+				if (summary == null) {
+					summary = new long[LONGEST + 1];
+					phases.put(timing.phase, summary);
+				}
+				summary[COUNT]++;
+				summary[TOTAL] += timing.nanos;
+				summary[LONGEST] = Math.max(summary[LONGEST], timing.nanos);
+			}
+		}
+
+		List<String> result = new ArrayList<String>();
+		result.add(String.format(SUMMARY_FORMAT, "phase", "count", "total", "average", "longest"));
+		for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+			long[] summary = phase.getValue();
+			result.add(String.format(SUMMARY_FORMAT, phase.getKey(), summary[COUNT], formatNanos(summary[TOTAL]),
+					formatNanos(summary[TOTAL] / summary[COUNT]), formatNanos(summary[LONGEST])));
+		}
+		return result;
+	}
+
+	private static String formatNanos(final long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos) + "ms";
+	}
+
+	/**
+	 * Quotes a string as a JSON value.
+	 *
+	 * @param value value to quote, may be {@code null}
+	 * @return quoted value or {@code null} as a JSON literal
+	 */
+	public static String quote(final String value) {
+		if (value == null) {
+			return "null";
+		}
+
+		StringBuilder builder = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				builder.append('\\').append(c);
+			} else if (c < ' ') {
+				builder.append(String.format("\\u%04x", (int) c));
+			} else {
+				builder.append(c);
+			}
+		}
+		return builder.append('"').toString();
+	}
+
+	/** How long a single phase took. */
+	private static class Timing {
+		private final String artifact;
+		private final String phase;
+		private final long start;
+		private final long nanos;
+
+		public Timing(final String artifact, final String phase, final long start, final long nanos) {
+			this.artifact = artifact;
+			this.phase = phase;
+			this.start = start;
+			this.nanos = nanos;
+		}
+	}
+}
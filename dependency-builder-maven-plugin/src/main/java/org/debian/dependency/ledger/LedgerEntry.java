@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.ledger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** Record of a single artifact which was built and installed by a previous run. */
+public class LedgerEntry {
+	private final String key;
+	private String origin;
+	private String revision;
+	private String builder;
+	private final List<InstalledFile> files = new ArrayList<InstalledFile>();
+
+	/**
+	 * Creates a new entry.
+	 *
+	 * @param key key of the artifact that was built
+	 */
+	public LedgerEntry(final String key) {
+		this.key = key;
+	}
+
+	/**
+	 * @return key of the artifact that was built
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @return where the source was retrieved from
+	 */
+	public String getOrigin() {
+		return origin;
+	}
+
+	public void setOrigin(final String origin) {
+		this.origin = origin;
+	}
+
+	/**
+	 * @return revision of the source that was built
+	 */
+	public String getRevision() {
+		return revision;
+	}
+
+	public void setRevision(final String revision) {
+		this.revision = revision;
+	}
+
+	/**
+	 * @return name of the builder used to build the source
+	 */
+	public String getBuilder() {
+		return builder;
+	}
+
+	public void setBuilder(final String builder) {
+		this.builder = builder;
+	}
+
+	/**
+	 * @return files which were installed as part of the build
+	 */
+	public List<InstalledFile> getFiles() {
+		return Collections.unmodifiableList(files);
+	}
+
+	/**
+	 * Adds a file which was installed as part of the build.
+	 *
+	 * @param file installed file
+	 */
+	public void addFile(final InstalledFile file) {
+		files.add(file);
+	}
+
+	/** An artifact file which was installed in the output repository. */
+	public static class InstalledFile {
+		private final String groupId;
+		private final String artifactId;
+		private final String version;
+		private final String type;
+		private final String classifier;
+		private final String path;
+		private final String checksum;
+
+		/**
+		 * Creates a new installed file.
+		 *
+		 * @param groupId group id of the artifact
+		 * @param artifactId artifact id of the artifact
+		 * @param version version of the artifact
+		 * @param type type of the artifact
+		 * @param classifier classifier of the artifact (or {@code null})
+		 * @param path path of the file relative to the repository
+		 * @param checksum checksum of the file when it was installed
+		 */
+		public InstalledFile(final String groupId, final String artifactId, final String version, final String type,
+				final String classifier, final String path, final String checksum) {
+			this.groupId = groupId;
+			this.artifactId = artifactId;
+			this.version = version;
+			this.type = type;
+			this.classifier = classifier;
+			this.path = path;
+			this.checksum = checksum;
+		}
+
+		public String getGroupId() {
+			return groupId;
+		}
+
+		public String getArtifactId() {
+			return artifactId;
+		}
+
+		public String getVersion() {
+			return version;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public String getClassifier() {
+			return classifier;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public String getChecksum() {
+			return checksum;
+		}
+	}
+}
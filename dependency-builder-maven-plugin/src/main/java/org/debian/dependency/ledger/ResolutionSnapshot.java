@@ -0,0 +1,539 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.ledger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.apache.maven.repository.RepositorySystem;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.apache.maven.shared.dependency.graph.internal.DefaultDependencyNode;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.ReaderFactory;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Keeps resolved dependency graphs between runs. Each graph is stored in its own file along with the checksum of every pom that
+ * went into resolving it: the pom of every artifact in it, their parents and the boms they import. A stored graph is only used
+ * while its key and the version of Maven match and every one of those poms is unchanged in the local repository, so changes to
+ * any project in the graph cause it to be resolved again. Nodes shared between several parents are stored once and are shared
+ * again when loaded.
+ * <p/>
+ * Graphs which contain a version that can change without any pom changing, i.e. snapshots, ranges and {@code LATEST}, are never
+ * stored, no matter where in the graph it is declared. Neither are graphs with a parent or import that can't be followed through
+ * the local repository.
+ */
+public class ResolutionSnapshot {
+	private static final int MAGIC = 0x44425253;
+	private static final int FORMAT = 4;
+	private static final String SUFFIX = ".snapshot";
+	private static final String CHECKSUM_ALGORITHM = "SHA-1";
+	private static final long MAP_THRESHOLD = 1024 * 1024;
+	private static final Pattern EXPRESSION = Pattern.compile("\\$\\{([^}]+)\\}");
+	private static final int MAX_LINEAGE = 64;
+
+	private final File directory;
+	private final ArtifactRepository localRepository;
+	private final RepositorySystem repositorySystem;
+	private final String mavenVersion;
+
+	/**
+	 * Creates a new snapshot store.
+	 *
+	 * @param directory where snapshots are kept
+	 * @param localRepository repository the stored graphs were resolved from
+	 * @param repositorySystem used to recreate artifacts
+	 * @param mavenVersion version of Maven resolving graphs, which decides the versions of plugins that don't declare one
+	 */
+	public ResolutionSnapshot(final File directory, final ArtifactRepository localRepository, final RepositorySystem repositorySystem,
+			final String mavenVersion) {
+		this.directory = directory;
+		this.localRepository = localRepository;
+		this.repositorySystem = repositorySystem;
+		this.mavenVersion = mavenVersion;
+	}
+
+	/**
+	 * Loads the graph stored for an artifact.
+	 *
+	 * @param root artifact the graph was resolved for
+	 * @param key how the graph was resolved, i.e. the kind of resolution and its filter
+	 * @return stored graph or {@code null} if there is none or it is out of date
+	 * @throws IOException in case of errors
+	 */
+	public DependencyNode load(final Artifact root, final String key) throws IOException {
+		File file = getFile(root);
+		if (!isFixed(root.getVersion()) || !file.isFile()) {
+			return null;
+		}
+
+		try {
+			SnapshotReader reader = new SnapshotReader(read(file));
+			if (reader.buffer.getInt() != MAGIC || reader.buffer.getInt() != FORMAT || !createKey(root, key).equals(reader.readString())) {
+				return null;
+			}
+
+			for (int count = reader.buffer.getInt(); count > 0; --count) {
+				String path = reader.readString();
+				byte[] digest = new byte[reader.buffer.getInt()];
+				reader.buffer.get(digest);
+				if (!MessageDigest.isEqual(digest, checksum(new File(localRepository.getBasedir(), path)))) {
+					return null;
+				}
+			}
+
+			List<Artifact> artifacts = new ArrayList<Artifact>();
+			for (int count = reader.buffer.getInt(); count > 0; --count) {
+				artifacts.add(reader.readArtifact());
+			}
+			return reader.readNode(null, artifacts, new ArrayList<DependencyNode>());
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated snapshot " + file, e);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Corrupt snapshot " + file, e);
+		}
+	}
+
+	/**
+	 * Stores the graph resolved for an artifact, replacing any graph stored before.
+	 *
+	 * @param root artifact the graph was resolved for
+	 * @param key how the graph was resolved, i.e. the kind of resolution and its filter
+	 * @param graph resolved graph
+	 * @throws IOException in case of errors
+	 */
+	public void save(final Artifact root, final String key, final DependencyNode graph) throws IOException {
+		if (!isFixed(root.getVersion())) {
+			return;
+		}
+
+		Map<String, Artifact> artifacts = new LinkedHashMap<String, Artifact>();
+		Poms poms = new Poms();
+		index(graph, artifacts, poms, Collections.newSetFromMap(new IdentityHashMap<DependencyNode, Boolean>()));
+		if (!poms.complete) {
+			return;
+		}
+
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		for (String artifact : artifacts.keySet()) {
+			ids.put(artifact, ids.size());
+		}
+
+		File file = getFile(root);
+		Files.createParentDirs(file);
+		// write to the side first so an interrupted write never leaves a partial snapshot behind
+		File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(FORMAT);
+			writeString(output, createKey(root, key));
+
+			output.writeInt(poms.paths.size());
+			for (String path : poms.paths) {
+				byte[] digest = checksum(new File(localRepository.getBasedir(), path));
+				writeString(output, path);
+				output.writeInt(digest.length);
+				output.write(digest);
+			}
+
+			output.writeInt(artifacts.size());
+			for (Artifact artifact : artifacts.values()) {
+				writeString(output, artifact.getGroupId());
+				writeString(output, artifact.getArtifactId());
+				writeString(output, artifact.getVersion());
+				writeString(output, artifact.getType());
+				writeString(output, artifact.getClassifier());
+				writeString(output, artifact.getScope());
+				output.writeBoolean(artifact.isOptional());
+			}
+			writeNode(output, graph, ids, new IdentityHashMap<DependencyNode, Integer>());
+		} finally {
+			IOUtil.close(output);
+		}
+
+		if (!temp.renameTo(file)) {
+			file.delete();
+			if (!temp.renameTo(file)) {
+				temp.delete();
+				throw new IOException("Unable to replace snapshot " + file);
+			}
+		}
+	}
+
+	private File getFile(final Artifact root) {
+		return new File(directory, root.getGroupId() + File.separator + root.getArtifactId() + "-" + root.getVersion() + SUFFIX);
+	}
+
+	private String createKey(final Artifact root, final String key) {
+		return root.getGroupId() + ":" + root.getArtifactId() + ":" + root.getVersion() + "|" + mavenVersion + "|" + key;
+	}
+
+	private static String artifactKey(final Artifact artifact) {
+		return artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getType() + ":" + artifact.getClassifier()
+				+ ":" + artifact.getVersion() + ":" + artifact.getScope() + ":" + artifact.isOptional();
+	}
+
+	/**
+	 * Determines whether an artifact with the given version always has the same pom.
+	 *
+	 * @param version version to check
+	 * @return whether the version is a single, released version
+	 */
+	public static boolean isFixed(final String version) {
+		return version != null && !version.isEmpty() && !version.startsWith("[") && !version.startsWith("(")
+				&& !Artifact.LATEST_VERSION.equals(version) && !Artifact.RELEASE_VERSION.equals(version)
+				&& !version.endsWith(Artifact.SNAPSHOT_VERSION);
+	}
+
+	private void index(final DependencyNode node, final Map<String, Artifact> artifacts, final Poms poms,
+			final Set<DependencyNode> visited) throws IOException {
+		if (!visited.add(node)) {
+			return;
+		}
+
+		// a newer version in range would be picked without any pom changing
+		Artifact artifact = node.getArtifact();
+		String constraint = node.getVersionConstraint();
+		if (!isFixed(artifact.getVersion()) || !isFixed(artifact.getBaseVersion())
+				|| (constraint != null && !constraint.isEmpty() && !isFixed(constraint))) {
+			poms.complete = false;
+			return;
+		}
+
+		String key = artifactKey(artifact);
+		if (!artifacts.containsKey(key)) {
+			artifacts.put(key, artifact);
+			indexPom(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion(), poms);
+		}
+
+		if (node.getChildren() != null) {
+			for (DependencyNode child : node.getChildren()) {
+				index(child, artifacts, poms, visited);
+			}
+		}
+	}
+
+	/*
+	 * Follows a pom through its parents and imported boms, which is everything the model of the project is built from.
+	 */
+	private void indexPom(final String groupId, final String artifactId, final String version, final Poms poms) throws IOException {
+		String path = getPomPath(groupId, artifactId, version);
+		if (!poms.indexed.add(path)) {
+			return;
+		}
+
+		List<Model> lineage = new ArrayList<Model>();
+		Set<String> seen = new HashSet<String>();
+		for (Parent parent = null; lineage.size() < MAX_LINEAGE; parent = lineage.get(lineage.size() - 1).getParent()) {
+			String current = path;
+			if (parent != null) {
+				current = getPomPath(parent.getGroupId(), parent.getArtifactId(), parent.getVersion());
+			}
+			if (!seen.add(current)) {
+				poms.complete = false;
+				return;
+			}
+
+			poms.paths.add(current);
+			Model model = poms.read(new File(localRepository.getBasedir(), current));
+			if (model == null) {
+				break;
+			}
+			lineage.add(model);
+			if (model.getParent() == null) {
+				break;
+			} else if (!isFixed(model.getParent().getVersion())) {
+				poms.complete = false;
+				return;
+			}
+		}
+
+		Properties properties = getProperties(lineage);
+		for (Model model : lineage) {
+			if (model.getDependencyManagement() == null) {
+				continue;
+			}
+
+			for (Dependency dependency : model.getDependencyManagement().getDependencies()) {
+				if (!"import".equals(dependency.getScope()) || !"pom".equals(dependency.getType())) {
+					continue;
+				}
+
+				String importGroupId = interpolate(dependency.getGroupId(), properties);
+				String importArtifactId = interpolate(dependency.getArtifactId(), properties);
+				String importVersion = interpolate(dependency.getVersion(), properties);
+				if (importGroupId == null || importArtifactId == null || !isFixed(importVersion)) {
+					poms.complete = false;
+					return;
+				}
+				indexPom(importGroupId, importArtifactId, importVersion, poms);
+			}
+		}
+	}
+
+	private String getPomPath(final String groupId, final String artifactId, final String version) {
+		return localRepository.pathOf(repositorySystem.createProjectArtifact(groupId, artifactId, version));
+	}
+
+	/*
+	 * Properties as the project sees them, the closest definition wins.
+	 */
+	private static Properties getProperties(final List<Model> lineage) {
+		Properties properties = new Properties();
+		for (int i = lineage.size() - 1; i >= 0; --i) {
+			Model model = lineage.get(i);
+			properties.putAll(model.getProperties());
+			if (model.getGroupId() != null) {
+				properties.setProperty("project.groupId", model.getGroupId());
+			} else if (model.getParent() != null) {
+				properties.setProperty("project.groupId", model.getParent().getGroupId());
+			}
+			if (model.getVersion() != null) {
+				properties.setProperty("project.version", model.getVersion());
+			} else if (model.getParent() != null) {
+				properties.setProperty("project.version", model.getParent().getVersion());
+			}
+			if (model.getParent() != null) {
+				properties.setProperty("project.parent.version", model.getParent().getVersion());
+				properties.setProperty("project.parent.groupId", model.getParent().getGroupId());
+			}
+		}
+		if (!lineage.isEmpty()) {
+			properties.setProperty("project.artifactId", lineage.get(0).getArtifactId());
+		}
+
+		for (String name : new String[] { "groupId", "artifactId", "version", "parent.version", "parent.groupId" }) {
+			if (properties.containsKey("project." + name)) {
+				properties.setProperty("pom." + name, properties.getProperty("project." + name));
+			}
+		}
+		return properties;
+	}
+
+	/*
+	 * Expands the properties in a value, null if there is anything left which can't be expanded.
+	 */
+	private static String interpolate(final String value, final Properties properties) {
+		if (value == null) {
+			return null;
+		}
+
+		String result = value;
+		for (int depth = 0; depth < MAX_LINEAGE && result.contains("${"); ++depth) {
+			Matcher matcher = EXPRESSION.matcher(result);
+			StringBuffer buffer = new StringBuffer();
+			while (matcher.find()) {
+				String replacement = properties.getProperty(matcher.group(1));
+				if (replacement == null) {
+					return null;
+				}
+				matcher.appendReplacement(buffer, Matcher.quoteReplacement(replacement));
+			}
+			matcher.appendTail(buffer);
+			result = buffer.toString();
+		}
+
+		if (result.contains("${")) {
+			return null;
+		}
+		return result;
+	}
+
+	/*
+	 * Nodes which are shared in the graph are written once, every other occurrence is a negative reference to the first.
+	 */
+	private static void writeNode(final DataOutputStream output, final DependencyNode node, final Map<String, Integer> ids,
+			final Map<DependencyNode, Integer> written) throws IOException {
+		Integer reference = written.get(node);
+		if (reference != null) {
+			output.writeInt(-reference - 1);
+			return;
+		}
+		written.put(node, written.size());
+
+		output.writeInt(ids.get(artifactKey(node.getArtifact())));
+		writeString(output, node.getPremanagedVersion());
+		writeString(output, node.getPremanagedScope());
+		writeString(output, node.getVersionConstraint());
+
+		if (node.getChildren() == null) {
+			output.writeInt(0);
+			return;
+		}
+		output.writeInt(node.getChildren().size());
+		for (DependencyNode child : node.getChildren()) {
+			writeNode(output, child, ids, written);
+		}
+	}
+
+	private static void writeString(final DataOutputStream output, final String value) throws IOException {
+		if (value == null) {
+			output.writeInt(-1);
+			return;
+		}
+
+		byte[] bytes = value.getBytes(Charsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private static ByteBuffer read(final File file) throws IOException {
+		if (file.length() < MAP_THRESHOLD) {
+			return ByteBuffer.wrap(Files.toByteArray(file));
+		}
+
+		// large graphs are mapped so they can be read without copying the whole file onto the heap
+		FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+		try {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			IOUtil.close(channel);
+		}
+	}
+
+	private static byte[] checksum(final File file) throws IOException {
+		if (!file.isFile()) {
+			return new byte[0];
+		}
+
+		try {
+			return Files.getDigest(file, MessageDigest.getInstance(CHECKSUM_ALGORITHM));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("Unable to compute checksum", e);
+		}
+	}
+
+	/** Poms that went into resolving a graph. Models are read once no matter how many projects share them. */
+	private static final class Poms {
+		private final Set<String> paths = new LinkedHashSet<String>();
+		private final Set<String> indexed = new HashSet<String>();
+		private final Map<String, Model> models = new HashMap<String, Model>();
+		private boolean complete = true;
+
+		/*
+		 * A pom which is missing or isn't valid is still checked, but there is nothing in it to follow.
+		 */
+		public Model read(final File file) throws IOException {
+			String path = file.getPath();
+			if (models.containsKey(path)) {
+				return models.get(path);
+			}
+
+			Model model = null;
+			if (file.isFile()) {
+				Reader reader = ReaderFactory.newXmlReader(file);
+				try {
+					model = new MavenXpp3Reader().read(reader, false);
+				} catch (XmlPullParserException e) {
+					model = null;
+				} finally {
+					IOUtil.close(reader);
+				}
+			}
+			models.put(path, model);
+			return model;
+		}
+	}
+
+	/** Reads a snapshot from a buffer. */
+	private final class SnapshotReader {
+		private final ByteBuffer buffer;
+
+		public SnapshotReader(final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public String readString() {
+			int length = buffer.getInt();
+			if (length < 0) {
+				return null;
+			}
+
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			return new String(bytes, Charsets.UTF_8);
+		}
+
+		public Artifact readArtifact() {
+			String groupId = readString();
+			String artifactId = readString();
+			String version = readString();
+			String type = readString();
+			String classifier = readString();
+			String scope = readString();
+
+			Artifact artifact = repositorySystem.createArtifactWithClassifier(groupId, artifactId, version, type, classifier);
+			artifact.setScope(scope);
+			artifact.setOptional(buffer.get() != 0);
+			return artifact;
+		}
+
+		public DependencyNode readNode(final DependencyNode parent, final List<Artifact> artifacts, final List<DependencyNode> nodes) {
+			int id = buffer.getInt();
+			if (id < 0) {
+				return nodes.get(-id - 1);
+			}
+
+			Artifact artifact = artifacts.get(id);
+			String premanagedVersion = readString();
+			String premanagedScope = readString();
+			String versionConstraint = readString();
+
+			DefaultDependencyNode node = new DefaultDependencyNode(parent, artifact, premanagedVersion, premanagedScope, versionConstraint);
+			nodes.add(node);
+			int count = buffer.getInt();
+			List<DependencyNode> children = new ArrayList<DependencyNode>(count);
+			for (int i = 0; i < count; ++i) {
+				children.add(readNode(node, artifacts, nodes));
+			}
+			node.setChildren(children);
+			return node;
+		}
+	}
+}
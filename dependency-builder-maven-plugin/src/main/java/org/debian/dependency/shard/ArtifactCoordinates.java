@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.shard;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.repository.RepositorySystem;
+
+/**
+ * Converts artifacts to and from the coordinates sent between the {@link ShardCoordinator} and its workers. Coordinates have the
+ * format <code>&lt;groupId&gt;:&lt;artifactId&gt;:&lt;type&gt;:&lt;classifier&gt;:&lt;version&gt;</code> where the classifier
+ * may be empty.
+ */
+public final class ArtifactCoordinates {
+	private static final int FIELDS = 5;
+	private static final int TYPE_FIELD = 2;
+	private static final int CLASSIFIER_FIELD = 3;
+	private static final int VERSION_FIELD = 4;
+
+	private ArtifactCoordinates() {
+	}
+
+	/**
+	 * @param artifact artifact to describe
+	 * @return coordinates of the artifact
+	 */
+	public static String format(final Artifact artifact) {
+		String classifier = artifact.getClassifier();
+		if (classifier == null) {
+			classifier = "";
+		}
+		return artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getType() + ":" + classifier + ":"
+				+ artifact.getVersion();
+	}
+
+	/**
+	 * @param coordinates coordinates of an artifact
+	 * @param repositorySystem system used to create the artifact
+	 * @return artifact with the given coordinates
+	 * @throws MojoExecutionException if the coordinates are not valid
+	 */
+	public static Artifact parse(final String coordinates, final RepositorySystem repositorySystem) throws MojoExecutionException {
+		String[] fields = coordinates.split(":", -1);
+		if (fields.length != FIELDS) {
+			throw new MojoExecutionException("Invalid artifact coordinates: " + coordinates);
+		}
+
+		String classifier = fields[CLASSIFIER_FIELD];
+		if (classifier.isEmpty()) {
+			classifier = null;
+		}
+		return repositorySystem.createArtifactWithClassifier(fields[0], fields[1], fields[VERSION_FIELD], fields[TYPE_FIELD], classifier);
+	}
+}
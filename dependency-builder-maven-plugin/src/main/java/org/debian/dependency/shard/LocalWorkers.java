@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.shard;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.debian.dependency.graph.BuildThreadFactory;
+
+/**
+ * Worker processes started on the local machine. The output of each worker is written to its own log file so it doesn't get
+ * mixed in with the output of the coordinator.
+ */
+public class LocalWorkers {
+	private static final long POLL_INTERVAL = 100;
+
+	private final List<String> command;
+	private final File logDirectory;
+	private final List<Process> processes = new ArrayList<Process>();
+	private final BuildThreadFactory threadFactory = new BuildThreadFactory("dependency-builder-worker-output-");
+
+	/**
+	 * Creates a new set of workers.
+	 *
+	 * @param command command which starts a worker
+	 * @param logDirectory where to write the output of each worker
+	 */
+	public LocalWorkers(final List<String> command, final File logDirectory) {
+		this.command = new ArrayList<String>(command);
+		this.logDirectory = logDirectory;
+	}
+
+	/**
+	 * Starts the given number of workers.
+	 *
+	 * @param count number of workers to start
+	 * @throws IOException if a worker cannot be started
+	 */
+	public void start(final int count) throws IOException {
+		for (int i = 0; i < count; ++i) {
+			Process process = new ProcessBuilder(command)
+					.redirectErrorStream(true)
+					.start();
+			processes.add(process);
+			process.getOutputStream().close();
+
+			File log = new File(logDirectory, "worker-" + processes.size() + ".log");
+			threadFactory.newThread(new OutputCopier(process.getInputStream(), new FileOutputStream(log))).start();
+		}
+	}
+
+	/**
+	 * Waits for the workers to exit, killing those that are still running after the given time.
+	 *
+	 * @param timeout how long to wait in milliseconds
+	 * @return number of workers which had to be killed
+	 */
+	public int stop(final long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		int killed = 0;
+		for (Process process : processes) {
+			while (isRunning(process) && System.currentTimeMillis() < deadline) {
+				try {
+					Thread.sleep(POLL_INTERVAL);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+
+			if (isRunning(process)) {
+				process.destroy();
+				++killed;
+			}
+		}
+		processes.clear();
+		return killed;
+	}
+
+	private static boolean isRunning(final Process process) {
+		try {
+			process.exitValue();
+			return false;
+		} catch (IllegalThreadStateException e) {
+			return true;
+		}
+	}
+
+	/** Copies the output of a worker until it exits. */
+	private static class OutputCopier implements Runnable {
+		private final InputStream input;
+		private final OutputStream output;
+
+		public OutputCopier(final InputStream input, final OutputStream output) {
+			this.input = input;
+			this.output = output;
+		}
+
+		@Override
+		public void run() {
+			try {
+				IOUtil.copy(input, output);
+			} catch (IOException e) {
+				// the worker is gone, nothing more to copy
+				return;
+			} finally {
+				IOUtil.close(output);
+				IOUtil.close(input);
+			}
+		}
+	}
+}
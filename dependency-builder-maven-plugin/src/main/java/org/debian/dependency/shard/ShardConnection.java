@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.shard;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Exchanges messages between a {@link ShardCoordinator} and a {@link ShardWorker}. Each message is a single line of tab separated
+ * fields, the first of which is the command.
+ */
+class ShardConnection {
+	/** Sent by a worker once connected, followed by its name and the token of the coordinator. */
+	static final String HELLO = "HELLO";
+	/** Asks a worker to build artifacts, followed by what they are built against (or {@link #NONE}) and their coordinates. */
+	static final String BUILD = "BUILD";
+	/** Sent by a worker every {@link #HEARTBEAT_INTERVAL} while building, so the coordinator knows it is still there. */
+	static final String BUSY = "BUSY";
+	/** Reply of a worker once artifacts are built and installed, followed by the coordinates of what was built. */
+	static final String BUILT = "BUILT";
+	/** Reply of a worker when artifacts could not be built, followed by the reason. */
+	static final String FAILED = "FAILED";
+	/** Tells a worker there is nothing left to build. */
+	static final String STOP = "STOP";
+	/** Field which has no value. */
+	static final String NONE = "-";
+	/** Milliseconds between {@link #BUSY} messages of a worker. */
+	static final int HEARTBEAT_INTERVAL = 10000;
+
+	private static final String SEPARATOR = "\t";
+	private static final String ENCODING = "UTF-8";
+
+	private final Socket socket;
+	private final BufferedReader reader;
+	private final Writer writer;
+	private String name;
+
+	public ShardConnection(final Socket socket) throws IOException {
+		this.socket = socket;
+		reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), ENCODING));
+		writer = new OutputStreamWriter(socket.getOutputStream(), ENCODING);
+		name = String.valueOf(socket.getRemoteSocketAddress());
+	}
+
+	public synchronized void send(final String command, final List<String> fields) throws IOException {
+		StringBuilder line = new StringBuilder(command);
+		for (String field : fields) {
+			// fields can't span lines or be split
+			line.append(SEPARATOR).append(field.replaceAll("[\t\r\n]+", " "));
+		}
+		writer.write(line.append('\n').toString());
+		writer.flush();
+	}
+
+	public List<String> receive() throws IOException {
+		String line = reader.readLine();
+		if (line == null) {
+			throw new EOFException("Connection closed by " + name);
+		}
+		return Arrays.asList(line.split(SEPARATOR, -1));
+	}
+
+	public void setTimeout(final int timeout) throws IOException {
+		socket.setSoTimeout(timeout);
+	}
+
+	public void close() {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// nothing more to send
+			return;
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(final String name) {
+		this.name = name;
+	}
+}
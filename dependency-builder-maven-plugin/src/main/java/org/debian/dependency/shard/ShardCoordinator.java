@@ -0,0 +1,283 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.shard;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.debian.dependency.graph.BuildThreadFactory;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Hands builds out to {@link ShardWorker workers} in other processes, possibly on other hosts. Workers connect to the coordinator
+ * over a socket and are given one build at a time; each build is a shard of the build graph which is only handed out once
+ * everything it depends on has been built, so it is up to the caller (i.e. the
+ * {@link org.debian.dependency.graph.BuildScheduler}) to respect dependencies.
+ * <p/>
+ * A build is only finished once the worker reports that its artifacts are installed. Workers must therefore install into a
+ * location every other worker can see, i.e. a shared file system. Workers which go away, whether idle or busy, are dropped and
+ * their build is handed to another worker. Busy workers which stop sending heartbeats are treated as gone.
+ * <p/>
+ * Workers must know the token of the coordinator to connect, anything else connecting is turned away.
+ */
+public class ShardCoordinator {
+	private static final int BACKLOG = 50;
+	private static final int MAX_ATTEMPTS = 3;
+	private static final int HANDSHAKE_TIMEOUT = 10000;
+	private static final int MISSED_HEARTBEATS = 3;
+
+	private final ServerSocket serverSocket;
+	private final long timeout;
+	private final String token;
+	private final int replyTimeout;
+	private final ExecutorService handshakes = Executors.newCachedThreadPool(new BuildThreadFactory("dependency-builder-handshake-"));
+	private final BlockingQueue<ShardConnection> idle = new LinkedBlockingQueue<ShardConnection>();
+	private final Set<ShardConnection> connections = new HashSet<ShardConnection>();
+
+	/**
+	 * Creates a new coordinator listening for workers.
+	 *
+	 * @param address address to listen on
+	 * @param port port to listen on, 0 for any free port
+	 * @param timeout how long to wait for a worker to become available in milliseconds
+	 * @param token secret workers must send to connect
+	 * @throws IOException if the socket cannot be opened
+	 */
+	public ShardCoordinator(final InetAddress address, final int port, final long timeout, final String token) throws IOException {
+		this(address, port, timeout, token, ShardConnection.HEARTBEAT_INTERVAL * MISSED_HEARTBEATS);
+	}
+
+	ShardCoordinator(final InetAddress address, final int port, final long timeout, final String token, final int replyTimeout)
+			throws IOException {
+		serverSocket = new ServerSocket(port, BACKLOG, address);
+		this.timeout = timeout;
+		this.token = token;
+		this.replyTimeout = replyTimeout;
+	}
+
+	/**
+	 * Starts accepting workers in the background.
+	 */
+	public void start() {
+		new BuildThreadFactory("dependency-builder-coordinator-").newThread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}).start();
+	}
+
+	private void accept() {
+		while (!serverSocket.isClosed()) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				// closed while accepting, or a connection which went away before it was accepted
+				continue;
+			}
+
+			// workers which are slow to introduce themselves must not hold up the others
+			try {
+				handshakes.execute(new Runnable() {
+					@Override
+					public void run() {
+						handshake(socket);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// stopped in the meantime
+				close(socket);
+			}
+		}
+	}
+
+	private void handshake(final Socket socket) {
+		ShardConnection connection = null;
+		try {
+			connection = new ShardConnection(socket);
+			connection.setTimeout(HANDSHAKE_TIMEOUT);
+			List<String> message = connection.receive();
+			if (!ShardConnection.HELLO.equals(message.get(0)) || message.size() < 3 || !isToken(message.get(2))) {
+				connection.close();
+				return;
+			}
+			connection.setName(message.get(1));
+			connection.setTimeout(replyTimeout);
+		} catch (IOException e) {
+			// a bad worker does not stop the others
+			if (connection != null) {
+				connection.close();
+			} else {
+				close(socket);
+			}
+			return;
+		}
+
+		synchronized (connections) {
+			if (serverSocket.isClosed()) {
+				connection.close();
+				return;
+			}
+			connections.add(connection);
+		}
+		idle.add(connection);
+	}
+
+	private boolean isToken(final String candidate) {
+		// takes the same time no matter where they differ
+		return MessageDigest.isEqual(token.getBytes(Charsets.UTF_8), candidate.getBytes(Charsets.UTF_8));
+	}
+
+	private static void close(final Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// nothing more to send
+			return;
+		}
+	}
+
+	/**
+	 * Builds the given artifacts on the next available worker, waiting for one if all are busy. May be called concurrently.
+	 *
+	 * @param coordinates coordinates of the artifacts to build in the order they must be built
+	 * @return coordinates of the artifacts that were built
+	 * @throws MojoExecutionException if there is no worker or the build fails
+	 * @see ArtifactCoordinates
+	 */
+	public List<String> build(final List<String> coordinates) throws MojoExecutionException {
+		return build(coordinates, null);
+	}
+
+	/**
+	 * Builds the given artifacts on the next available worker, waiting for one if all are busy. May be called concurrently. When
+	 * the worker goes away before it replies, the build is handed to another worker a few times before giving up.
+	 *
+	 * @param coordinates coordinates of the artifacts to build in the order they must be built
+	 * @param dependencies description of what the artifacts are built against or {@code null} to always build them
+	 * @return coordinates of the artifacts that were built
+	 * @throws MojoExecutionException if there is no worker or the build fails
+	 * @see ArtifactCoordinates
+	 */
+	public List<String> build(final List<String> coordinates, final String dependencies) throws MojoExecutionException {
+		List<String> fields = new ArrayList<String>(coordinates.size() + 1);
+		if (dependencies == null) {
+			fields.add(ShardConnection.NONE);
+		} else {
+			fields.add(dependencies);
+		}
+		fields.addAll(coordinates);
+
+		for (int attempt = 1;; ++attempt) {
+			ShardConnection worker = takeWorker();
+			List<String> reply;
+			try {
+				worker.send(ShardConnection.BUILD, fields);
+				reply = worker.receive();
+				while (ShardConnection.BUSY.equals(reply.get(0))) {
+					reply = worker.receive();
+				}
+			} catch (IOException e) {
+				// the worker is gone, stopped sending heartbeats or is in an unknown state
+				synchronized (connections) {
+					connections.remove(worker);
+				}
+				worker.close();
+				if (attempt < MAX_ATTEMPTS) {
+					continue;
+				}
+				throw new MojoExecutionException("Lost worker " + worker.getName() + " while building " + coordinates, e);
+			}
+			idle.add(worker);
+
+			if (ShardConnection.BUILT.equals(reply.get(0))) {
+				return new ArrayList<String>(reply.subList(1, reply.size()));
+			}
+			throw new MojoExecutionException("Worker " + worker.getName() + " failed to build " + coordinates + ": "
+					+ reply.subList(1, reply.size()));
+		}
+	}
+
+	private ShardConnection takeWorker() throws MojoExecutionException {
+		ShardConnection worker;
+		try {
+			worker = idle.poll(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Interrupted waiting for a worker", e);
+		}
+		if (worker == null) {
+			throw new MojoExecutionException("No worker became available within " + TimeUnit.MILLISECONDS.toSeconds(timeout) + "s");
+		}
+		return worker;
+	}
+
+	/**
+	 * @return port the coordinator listens on
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @return number of workers currently connected
+	 */
+	public int getWorkerCount() {
+		synchronized (connections) {
+			return connections.size();
+		}
+	}
+
+	/**
+	 * Stops accepting workers and tells every idle worker to stop. Must only be called once no more builds are running.
+	 */
+	public void stop() {
+		synchronized (connections) {
+			try {
+				serverSocket.close();
+			} catch (IOException e) {
+				// not accepting either way
+			}
+			handshakes.shutdownNow();
+
+			for (ShardConnection connection : connections) {
+				try {
+					connection.send(ShardConnection.STOP, new ArrayList<String>());
+				} catch (IOException e) {
+					// already gone
+				}
+				connection.close();
+			}
+			connections.clear();
+		}
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.shard;
+
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/** Work performed by a {@link ShardWorker} for each request from the {@link ShardCoordinator}. */
+public interface ShardTask {
+	/**
+	 * Builds and installs the given artifacts, all from the same source. When this method returns, the built artifacts must be
+	 * installed where workers building artifacts which depend on them can see them.
+	 *
+	 * @param coordinates coordinates of the artifacts to build in the order they must be built
+	 * @param dependencies description of what the artifacts are built against or {@code null} to always build them
+	 * @return coordinates of the artifacts that were built
+	 * @throws MojoExecutionException in case of errors
+	 * @see ArtifactCoordinates
+	 */
+	List<String> build(List<String> coordinates, String dependencies) throws MojoExecutionException;
+}
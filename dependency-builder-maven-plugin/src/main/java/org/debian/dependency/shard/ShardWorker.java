@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.shard;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.debian.dependency.graph.BuildThreadFactory;
+
+/** Connects to a {@link ShardCoordinator} and builds whatever it is given until the coordinator stops. */
+public class ShardWorker {
+	private final String host;
+	private final int port;
+	private final String name;
+	private final String token;
+
+	/**
+	 * Creates a new worker.
+	 *
+	 * @param host host of the coordinator
+	 * @param port port of the coordinator
+	 * @param name name of the worker, used when reporting failures
+	 * @param token secret of the coordinator
+	 */
+	public ShardWorker(final String host, final int port, final String name, final String token) {
+		this.host = host;
+		this.port = port;
+		this.name = name;
+		this.token = token;
+	}
+
+	/**
+	 * Builds artifacts for the coordinator until it stops. Failed builds are reported to the coordinator rather than ending the
+	 * worker. While building, the coordinator is sent heartbeats so it can tell a long build from a worker which hangs.
+	 *
+	 * @param task builds what the coordinator asks for
+	 * @return number of builds which were requested
+	 * @throws IOException if the connection to the coordinator fails
+	 */
+	public int run(final ShardTask task) throws IOException {
+		final ShardConnection connection = new ShardConnection(new Socket(host, port));
+		ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(
+				new BuildThreadFactory("dependency-builder-heartbeat-"));
+		Runnable heartbeat = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					connection.send(ShardConnection.BUSY, Collections.<String> emptyList());
+				} catch (IOException e) {
+					// noticed once the build is done
+					return;
+				}
+			}
+		};
+		int count = 0;
+		try {
+			connection.send(ShardConnection.HELLO, Arrays.asList(name, token));
+			while (true) {
+				List<String> message;
+				try {
+					message = connection.receive();
+				} catch (EOFException e) {
+					// coordinator went away without saying goodbye
+					return count;
+				}
+				if (!ShardConnection.BUILD.equals(message.get(0)) || message.size() < 2) {
+					return count;
+				}
+
+				++count;
+				String dependencies = message.get(1);
+				if (ShardConnection.NONE.equals(dependencies)) {
+					dependencies = null;
+				}
+				ScheduledFuture<?> beating = heartbeats.scheduleAtFixedRate(heartbeat, ShardConnection.HEARTBEAT_INTERVAL,
+						ShardConnection.HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+				List<String> built;
+				try {
+					built = task.build(message.subList(2, message.size()), dependencies);
+				} catch (MojoExecutionException e) {
+					connection.send(ShardConnection.FAILED, Collections.singletonList(String.valueOf(e.getMessage())));
+					continue;
+				} finally {
+					beating.cancel(false);
+				}
+				connection.send(ShardConnection.BUILT, built);
+			}
+		} finally {
+			heartbeats.shutdownNow();
+			connection.close();
+		}
+	}
+}
@@ -33,6 +33,7 @@ import org.codehaus.plexus.component.annotations.Requirement;
 import org.codehaus.plexus.logging.AbstractLogEnabled;
 import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.IOUtil;
+import org.debian.dependency.repository.LocalRepositoryIndex;
 
 /**
  * An attempt to build artifacts using an attached sources artifact.
@@ -43,6 +44,8 @@ public class JavaSourcesJarSourceRetrieval extends AbstractLogEnabled implements
 
 	@Requirement
 	private RepositorySystem repoSystem;
+	@Requirement
+	private LocalRepositoryIndex localRepositoryIndex;
 
 	@Override
 	public String getSourceLocation(final Artifact artifact, final MavenSession session) throws SourceRetrievalException {
@@ -113,6 +116,11 @@ public class JavaSourcesJarSourceRetrieval extends AbstractLogEnabled implements
 	}
 
 	private Artifact resolveArtifact(final Artifact toResolve, final MavenSession session) {
+		Artifact indexed = localRepositoryIndex.find(toResolve, session.getLocalRepository());
+		if (indexed != null) {
+			return indexed;
+		}
+
 		ArtifactResolutionRequest request = new ArtifactResolutionRequest()
 				.setLocalRepository(session.getLocalRepository())
 				.setOffline(true)
@@ -123,7 +131,10 @@ public class JavaSourcesJarSourceRetrieval extends AbstractLogEnabled implements
 		if (result.getArtifacts().isEmpty()) {
 			return null;
 		}
-		return result.getArtifacts().iterator().next();
+
+		Artifact resolved = result.getArtifacts().iterator().next();
+		localRepositoryIndex.add(resolved, session.getLocalRepository());
+		return resolved;
 	}
 
 	@Override
@@ -24,12 +24,9 @@ import org.apache.maven.artifact.resolver.ArtifactResolutionRequest;
 import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.model.Scm;
-import org.apache.maven.project.DefaultProjectBuildingRequest;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.ProjectBuilder;
 import org.apache.maven.project.ProjectBuildingException;
-import org.apache.maven.project.ProjectBuildingRequest;
-import org.apache.maven.project.ProjectBuildingResult;
 import org.apache.maven.repository.RepositorySystem;
 import org.apache.maven.scm.ScmException;
 import org.apache.maven.scm.ScmFileSet;
@@ -48,6 +45,8 @@ import org.codehaus.plexus.component.annotations.Component;
 import org.codehaus.plexus.component.annotations.Requirement;
 import org.codehaus.plexus.logging.AbstractLogEnabled;
 import org.codehaus.plexus.util.StringUtils;
+import org.debian.dependency.ProjectCache;
+import org.debian.dependency.repository.LocalRepositoryIndex;
 
 /**
  * Artifact sources are retrieved from the <scm/> information in an artifacts pom. First using the developer connection and
@@ -60,8 +59,12 @@ public class SCMSourceRetrieval extends AbstractLogEnabled implements SourceRetr
 	@Requirement
 	private ProjectBuilder projectBuilder;
 	@Requirement
+	private ProjectCache projectCache;
+	@Requirement
 	private RepositorySystem repositorySystem;
 	@Requirement
+	private LocalRepositoryIndex localRepositoryIndex;
+	@Requirement
 	private ScmManager scmManager;
 	@Requirement
 	private SettingsDecrypter settingsDecrypter;
@@ -192,14 +195,8 @@ public class SCMSourceRetrieval extends AbstractLogEnabled implements SourceRetr
 			Artifact pomArtifact = repositorySystem.createProjectArtifact(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion());
 			pomArtifact = resolveArtifact(pomArtifact, session);
 
-			ProjectBuildingRequest request = new DefaultProjectBuildingRequest(session.getProjectBuildingRequest());
-			request.setActiveProfileIds(null);
-			request.setInactiveProfileIds(null);
-			request.setUserProperties(null);
-
-			ProjectBuildingResult result = projectBuilder.build(artifact, request);
-
-			MavenProject mavenProject = result.getProject();
+			// the cached project is shared with resolution, only our copy is set up for checking out
+			MavenProject mavenProject = projectCache.build(artifact, projectCache.createRequest(session), projectBuilder, session).clone();
 			mavenProject.setArtifact(resolveArtifact(mavenProject.getArtifact(), session));
 			mavenProject.setFile(pomArtifact.getFile());
 			return mavenProject;
@@ -209,6 +206,11 @@ public class SCMSourceRetrieval extends AbstractLogEnabled implements SourceRetr
 	}
 
 	private Artifact resolveArtifact(final Artifact toResolve, final MavenSession session) {
+		Artifact indexed = localRepositoryIndex.find(toResolve, session.getLocalRepository());
+		if (indexed != null) {
+			return indexed;
+		}
+
 		ArtifactResolutionRequest request = new ArtifactResolutionRequest()
 				.setLocalRepository(session.getLocalRepository())
 				.setOffline(true)
@@ -216,7 +218,9 @@ public class SCMSourceRetrieval extends AbstractLogEnabled implements SourceRetr
 				.setArtifact(toResolve);
 
 		ArtifactResolutionResult result = repositorySystem.resolve(request);
-		return result.getArtifacts().iterator().next();
+		Artifact resolved = result.getArtifacts().iterator().next();
+		localRepositoryIndex.add(resolved, session.getLocalRepository());
+		return resolved;
 	}
 
 	@Override
@@ -16,15 +16,23 @@
 package org.debian.dependency;
 
 import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.AdditionalAnswers.returnsFirstArg;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
@@ -34,14 +42,30 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
 import org.apache.maven.artifact.InvalidRepositoryException;
 import org.apache.maven.artifact.installer.ArtifactInstallationException;
 import org.apache.maven.artifact.installer.ArtifactInstaller;
@@ -66,14 +90,24 @@ import org.codehaus.plexus.component.configurator.expression.ExpressionEvaluator
 import org.codehaus.plexus.configuration.DefaultPlexusConfiguration;
 import org.codehaus.plexus.configuration.PlexusConfiguration;
 import org.codehaus.plexus.configuration.xml.XmlPlexusConfiguration;
+import org.codehaus.plexus.util.IOUtil;
 import org.codehaus.plexus.util.StringUtils;
 import org.debian.dependency.builders.ArtifactBuildException;
+import org.debian.dependency.builders.BuildCache;
+import org.debian.dependency.builders.SourceBuilder;
 import org.debian.dependency.builders.SourceBuilderManager;
+import org.debian.dependency.graph.BuildFailuresException;
+import org.debian.dependency.install.FileTransfer;
+import org.debian.dependency.repository.LocalRepositoryIndex;
+import org.debian.dependency.shard.ArtifactCoordinates;
+import org.debian.dependency.shard.ShardCoordinator;
+import org.debian.dependency.shard.ShardWorkerMain;
 import org.debian.dependency.sources.Source;
 import org.debian.dependency.sources.SourceRetrievalException;
 import org.debian.dependency.sources.SourceRetrievalManager;
 import org.hamcrest.CustomTypeSafeMatcher;
 import org.hamcrest.Matcher;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -87,9 +121,13 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
 
+import com.google.common.io.Files;
+
 /** Test case for {@link BuildDependencies}. */
 @RunWith(MockitoJUnitRunner.class)
 public class TestBuildDependencies {
+	private static final long WORKER_TIMEOUT = 60000;
+
 	@Rule
 	public TemporaryFolder tempFolder = new TemporaryFolder();
 	@Rule
@@ -109,14 +147,20 @@ public class TestBuildDependencies {
 	@Mock
 	private DependencyCollection depCollection;
 	@Mock
+	private ProjectCache projectCache;
+	@Mock
 	private ArtifactInstaller installer;
+	@Mock
+	private LocalRepositoryIndex localRepositoryIndex;
+
+	private MavenSession session;
 
 	@Before
 	public void setUp() throws Exception {
 		configureMojo(configuredMojo, defaultConfiguration());
 
 		when(
-				depCollection.resolveBuildDependencies(anyString(), anyString(), anyString(), any(ArtifactFilter.class),
+				depCollection.resolveBuildDependencyGraph(anyString(), anyString(), anyString(), any(ArtifactFilter.class),
 						any(MavenSession.class)))
 				.then(new Answer<DependencyNode>() {
 					@Override
@@ -138,7 +182,7 @@ public class TestBuildDependencies {
 		when(
 				depCollection.installDependencies(anyListOf(DependencyNode.class), any(DependencyNodeFilter.class),
 						any(ArtifactRepository.class),
-						any(MavenSession.class))).then(returnsFirstArg());
+						any(FileTransfer.class), any(MavenSession.class))).then(returnsFirstArg());
 
 		when(builderManager.build(any(Artifact.class), any(Source.class), any(File.class), any(MavenSession.class)))
 				.then(new Answer<Set<Artifact>>() {
@@ -168,7 +212,8 @@ public class TestBuildDependencies {
 		// only required so tests resolve ${project.build.directory}
 		project.getBuild().setDirectory(tempFolder.getRoot().getCanonicalPath());
 
-		ExpressionEvaluator evaluator = new PluginParameterExpressionEvaluator(mojoRule.newMavenSession(project), execution);
+		session = mojoRule.newMavenSession(project);
+		ExpressionEvaluator evaluator = new PluginParameterExpressionEvaluator(session, execution);
 		configurator.configureComponent(mojo, config, evaluator, mojoRule.getContainer().getContainerRealm());
 	}
 
@@ -256,6 +301,35 @@ public class TestBuildDependencies {
 				any(MavenSession.class));
 	}
 
+	/** How long each phase took should be written for every artifact. */
+	@Test
+	public void testTimingsWritten() throws Exception {
+		PlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
+		config.addChild("artifact", "some:artifact:1");
+		configureMojo(unconfiguredMojo, config);
+
+		unconfiguredMojo.execute();
+
+		String timings = Files.toString(new File(tempFolder.getRoot(), "dependency-builder/timings.jsonl"), Charset.defaultCharset());
+		for (String phase : Arrays.asList("resolve", "install-ignored", "checkout", "detect", "build", "install")) {
+			assertThat(timings, containsString("\"phase\":\"" + phase + "\""));
+		}
+		assertThat(timings, containsString("{\"artifact\":\"some:artifact:1\",\"phase\":\"build\""));
+	}
+
+	/** The final progress should be left in the status file for anyone monitoring the build. */
+	@Test
+	public void testStatusWritten() throws Exception {
+		PlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
+		config.addChild("artifact", "some:artifact:1");
+		configureMojo(unconfiguredMojo, config);
+
+		unconfiguredMojo.execute();
+
+		String status = Files.toString(new File(tempFolder.getRoot(), "dependency-builder/status.json"), Charset.defaultCharset());
+		assertThat(status, containsString("\"total\":1,\"done\":1,\"failed\":0,\"running\":0,\"queued\":0,\"blocked\":0,"));
+	}
+
 	/** We should be able to configure multiple artifacts if necessary. */
 	@Test
 	@SuppressWarnings("unchecked")
@@ -336,6 +410,133 @@ public class TestBuildDependencies {
 				containsInAnyOrder(matchesArtifact("some", "artifact", "version"), matchesArtifact("another", "artifact", "version")));
 	}
 
+	/** Referencing artifacts should be able to reference the artifacts resolved by earlier referencing artifacts. */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testChainedVersionReferencingArtifacts() throws Exception {
+		PlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
+		config.getChild("artifacts").addChild("artifact", "some:artifact:version");
+		config.getChild("artifacts").addChild("artifact", "another:artifact:{some:artifact}");
+		config.getChild("artifacts").addChild("artifact", "third:artifact:{another:artifact}");
+		config.getChild("artifacts").addChild("artifact", "missing:artifact:{no:artifact}");
+		config.addChild("multiProject", "true");
+		configureMojo(unconfiguredMojo, config);
+
+		unconfiguredMojo.execute();
+
+		ArgumentCaptor<Artifact> buildArtifacts = ArgumentCaptor.forClass(Artifact.class);
+		verify(builderManager, times(3)).build(buildArtifacts.capture(), any(Source.class), any(File.class), any(MavenSession.class));
+		assertThat(buildArtifacts.getAllValues(), containsInAnyOrder(matchesArtifact("some", "artifact", "version"),
+				matchesArtifact("another", "artifact", "version"), matchesArtifact("third", "artifact", "version")));
+	}
+
+	/** Artifacts in the manifest should be resolved a chunk at a time, building each distinct artifact once. */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testManifest() throws Exception {
+		File manifest = tempFolder.newFile();
+		Files.write("# comment\n\nmanifest:artifact1:1\nsome:artifact:1\n  manifest:artifact2:1  \n", manifest, Charset.defaultCharset());
+
+		PlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
+		config.addChild("artifact", "some:artifact:1");
+		config.addChild("manifest", manifest.getCanonicalPath());
+		config.addChild("chunkSize", "2");
+		config.addChild("multiProject", "true");
+		configureMojo(unconfiguredMojo, config);
+
+		unconfiguredMojo.execute();
+
+		ArgumentCaptor<Artifact> buildArtifacts = ArgumentCaptor.forClass(Artifact.class);
+		verify(builderManager, times(3)).build(buildArtifacts.capture(), any(Source.class), any(File.class), any(MavenSession.class));
+		assertThat(buildArtifacts.getAllValues(), containsInAnyOrder(matchesArtifact("some", "artifact", "1"),
+				matchesArtifact("manifest", "artifact1", "1"), matchesArtifact("manifest", "artifact2", "1")));
+		verify(depCollection).resolveBuildDependencyGraph(eq("some"), eq("artifact"), eq("1"), any(ArtifactFilter.class),
+				any(MavenSession.class));
+		verify(depCollection, times(2)).installDependencies(anyListOf(DependencyNode.class), any(DependencyNodeFilter.class),
+				any(ArtifactRepository.class), any(FileTransfer.class), any(MavenSession.class));
+	}
+
+	/** Resolving roots concurrently should build the same artifacts in the same order as resolving them one at a time. */
+	@Test
+	public void testResolveThreads() throws Exception {
+		final AtomicBoolean concurrent = new AtomicBoolean();
+		final CountDownLatch overlap = new CountDownLatch(2);
+		doAnswer(new Answer<DependencyNode>() {
+			@Override
+			public DependencyNode answer(final InvocationOnMock invocation) throws Throwable {
+				if (concurrent.get()) {
+					// only returns early once two roots are being resolved at the same time
+					overlap.countDown();
+					overlap.await(WORKER_TIMEOUT, TimeUnit.MILLISECONDS);
+				}
+				String artifactId = (String) invocation.getArguments()[1];
+				DependencyNode root = createDependencyNode(null, "group", artifactId, "1");
+				createDependencyNode(root, "group", "shared", "1");
+				createDependencyNode(createDependencyNode(root, "group", artifactId + "-child", "1"), "group", "shared", "1");
+				return root;
+			}
+		}).when(depCollection).resolveBuildDependencyGraph(anyString(), anyString(), anyString(), any(ArtifactFilter.class),
+				any(MavenSession.class));
+		File manifest = tempFolder.newFile();
+		Files.write("group:first:1\ngroup:second:1\ngroup:third:1\n", manifest, Charset.defaultCharset());
+
+		List<String> serial = resolveAndBuild(manifest, 1);
+		concurrent.set(true);
+		List<String> parallel = resolveAndBuild(manifest, 2).subList(serial.size(), 2 * serial.size());
+
+		assertEquals("Roots were never resolved at the same time", 0, overlap.getCount());
+		assertThat(serial, hasSize(7));
+		assertEquals(serial, parallel);
+	}
+
+	private List<String> resolveAndBuild(final File manifest, final int resolveThreads) throws Exception {
+		// history from an earlier run would change the build order
+		File directory = tempFolder.newFolder();
+		PlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
+		config.addChild("historyFile", new File(directory, "history.properties").getCanonicalPath());
+		config.addChild("ledgerDirectory", new File(directory, "ledger").getCanonicalPath());
+		config.addChild("workDirectory", new File(directory, "work").getCanonicalPath());
+		config.addChild("manifest", manifest.getCanonicalPath());
+		config.addChild("chunkSize", "3");
+		config.addChild("resolveThreads", String.valueOf(resolveThreads));
+		config.addChild("multiProject", "true");
+		configureMojo(unconfiguredMojo, config);
+
+		unconfiguredMojo.execute();
+
+		// builds from earlier runs are still recorded, so each run is only ever appended to them
+		ArgumentCaptor<Artifact> buildArtifacts = ArgumentCaptor.forClass(Artifact.class);
+		verify(builderManager, atLeast(1)).build(buildArtifacts.capture(), any(Source.class), any(File.class),
+				any(MavenSession.class));
+		List<String> result = new ArrayList<String>();
+		for (Artifact artifact : buildArtifacts.getAllValues()) {
+			result.add(artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getVersion());
+		}
+		return result;
+	}
+
+	/** Resolution needs at least a single thread. */
+	@Test(expected = MojoFailureException.class)
+	public void testNoResolveThreads() throws Exception {
+		PlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
+		config.addChild("artifact", "some:artifact:1");
+		config.addChild("resolveThreads", "0");
+		configureMojo(unconfiguredMojo, config);
+
+		unconfiguredMojo.execute();
+	}
+
+	/** Chunks must contain at least a single artifact. */
+	@Test(expected = MojoFailureException.class)
+	public void testNoChunkSize() throws Exception {
+		PlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
+		config.addChild("artifact", "some:artifact");
+		config.addChild("chunkSize", "0");
+		configureMojo(unconfiguredMojo, config);
+
+		unconfiguredMojo.execute();
+	}
+
 	/** When there are only version referencing artifacts, we should bail. */
 	@Test(expected = MojoFailureException.class)
 	public void testOnlyVersionReferencingArtifact() throws Exception {
@@ -357,7 +558,7 @@ public class TestBuildDependencies {
 					protected boolean matchesSafely(final DependencyNodeFilter item) {
 						return item.accept(createDependencyNode(null, "org.apache.maven.plugins", "maven-compiler", "some-version"));
 					}
-				}), any(ArtifactRepository.class), any(MavenSession.class));
+				}), any(ArtifactRepository.class), any(FileTransfer.class), any(MavenSession.class));
 	}
 
 	/**
@@ -374,7 +575,7 @@ public class TestBuildDependencies {
 					protected boolean matchesSafely(final DependencyNodeFilter item) {
 						return item.accept(createDependencyNode(null, "org.apache.maven.surefire", "surefire-junit4", "some-version"));
 					}
-				}), any(ArtifactRepository.class), any(MavenSession.class));
+				}), any(ArtifactRepository.class), any(FileTransfer.class), any(MavenSession.class));
 	}
 
 	/**
@@ -391,7 +592,7 @@ public class TestBuildDependencies {
 				createDependencyNode(root, "org.apache.maven.plugins", "maven-surefire-plugin", "some-version");
 				return root;
 			}
-		}).when(depCollection).resolveBuildDependencies(anyString(), anyString(), anyString(), any(ArtifactFilter.class), any(MavenSession.class));
+		}).when(depCollection).resolveBuildDependencyGraph(anyString(), anyString(), anyString(), any(ArtifactFilter.class), any(MavenSession.class));
 
 		configuredMojo.execute();
 
@@ -440,11 +641,11 @@ public class TestBuildDependencies {
 				createDependencyNode(root, "another", "child", "version");
 				return root;
 			}
-		}).when(depCollection).resolveBuildDependencies(anyString(), anyString(), anyString(), any(ArtifactFilter.class),
+		}).when(depCollection).resolveBuildDependencyGraph(anyString(), anyString(), anyString(), any(ArtifactFilter.class),
 				any(MavenSession.class));
 		when(
 				depCollection.installDependencies(anyListOf(DependencyNode.class), any(DependencyNodeFilter.class), any(ArtifactRepository.class),
-						any(MavenSession.class)))
+						any(FileTransfer.class), any(MavenSession.class)))
 				.thenAnswer(new Answer<List<DependencyNode>>() {
 					@Override
 					public List<DependencyNode> answer(final InvocationOnMock invocation) throws Throwable {
@@ -489,7 +690,7 @@ public class TestBuildDependencies {
 		configureMojo(unconfiguredMojo, config);
 
 		when(depCollection.installDependencies(anyListOf(DependencyNode.class), any(DependencyNodeFilter.class), any(ArtifactRepository.class),
-				any(MavenSession.class)))
+				any(FileTransfer.class), any(MavenSession.class)))
 				.thenReturn(Collections.<DependencyNode> emptyList());
 
 		unconfiguredMojo.execute();
@@ -501,7 +702,7 @@ public class TestBuildDependencies {
 						return item.accept(createDependencyNode(null, "some", "artifact", null));
 					}
 				}), any(ArtifactRepository.class),
-				any(MavenSession.class));
+				any(FileTransfer.class), any(MavenSession.class));
 	}
 
 	/** The source that was checked out should be used for building. */
@@ -576,7 +777,7 @@ public class TestBuildDependencies {
 				createDependencyNode(root, "group", "child", "version");
 				return root;
 			}
-		}).when(depCollection).resolveBuildDependencies(anyString(), anyString(), anyString(), any(ArtifactFilter.class),
+		}).when(depCollection).resolveBuildDependencyGraph(anyString(), anyString(), anyString(), any(ArtifactFilter.class),
 				any(MavenSession.class));
 
 		PlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
@@ -602,7 +803,7 @@ public class TestBuildDependencies {
 	public void testInstallIgnoreResolutionErrors() throws Exception {
 		when(
 				depCollection.installDependencies(anyListOf(DependencyNode.class), any(DependencyNodeFilter.class),
-						any(ArtifactRepository.class), any(MavenSession.class)))
+						any(ArtifactRepository.class), any(FileTransfer.class), any(MavenSession.class)))
 				.thenThrow(new DependencyResolutionException());
 
 		configuredMojo.execute();
@@ -614,7 +815,7 @@ public class TestBuildDependencies {
 	public void testInstallIgnoreInstallErrors() throws Exception {
 		when(
 				depCollection.installDependencies(anyListOf(DependencyNode.class), any(DependencyNodeFilter.class),
-						any(ArtifactRepository.class), any(MavenSession.class)))
+						any(ArtifactRepository.class), any(FileTransfer.class), any(MavenSession.class)))
 				.thenThrow(ArtifactInstallationException.class);
 
 		configuredMojo.execute();
@@ -638,6 +839,32 @@ public class TestBuildDependencies {
 		configuredMojo.execute();
 	}
 
+	/** When keeping going, a failure should not stop unrelated artifacts from being built. */
+	@Test
+	public void testKeepGoing() throws Exception {
+		PlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
+		config.getChild("artifacts").addChild("artifact", "some:artifact1");
+		config.getChild("artifacts").addChild("artifact", "some:artifact2");
+		config.addChild("multiProject", "true");
+		config.addChild("keepGoing", "true");
+		configureMojo(unconfiguredMojo, config);
+
+		when(
+				builderManager.build(argThat(matchesArtifact("some", "artifact1", null)), any(Source.class), any(File.class),
+						any(MavenSession.class)))
+				.thenThrow(new ArtifactBuildException());
+
+		try {
+			unconfiguredMojo.execute();
+			fail("Failure should have been reported");
+		} catch (BuildFailuresException e) {
+			assertThat(e.getFailures().keySet(), contains("some:artifact1:LATEST"));
+		}
+
+		verify(builderManager).build(argThat(matchesArtifact("some", "artifact2", null)), any(Source.class), any(File.class),
+				any(MavenSession.class));
+	}
+
 	/** All artifacts that were built should also be to the output directory. */
 	@Test
 	public void testArtifactsInstalled() throws Exception {
@@ -656,13 +883,13 @@ public class TestBuildDependencies {
 		File file2 = new File("artifact2");
 		File file3 = new File("artifact3");
 
-		Artifact artifact1 = mock(Artifact.class);
+		Artifact artifact1 = mockArtifact("built", "artifact1", "1");
 		when(artifact1.getFile())
 				.thenReturn(file1);
-		Artifact artifact2 = mock(Artifact.class);
+		Artifact artifact2 = mockArtifact("built", "artifact2", "1");
 		when(artifact2.getFile())
 				.thenReturn(file2);
-		Artifact artifact3 = mock(Artifact.class);
+		Artifact artifact3 = mockArtifact("built", "artifact3", "1");
 		when(artifact3.getFile())
 				.thenReturn(file3);
 
@@ -681,4 +908,433 @@ public class TestBuildDependencies {
 		verify(installer).install(file2, artifact2, repository);
 		verify(installer).install(file3, artifact3, repository);
 	}
+
+	/** Artifacts should be built after their dependencies, even when we can build many at once. */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testThreadsBuildDependenciesFirst() throws Exception {
+		doAnswer(new Answer<DependencyNode>() {
+			@Override
+			public DependencyNode answer(final InvocationOnMock invocation) throws Throwable {
+				DependencyNode root = createDependencyNode(null, (String) invocation.getArguments()[0], (String) invocation.getArguments()[1],
+						(String) invocation.getArguments()[2]);
+				DependencyNode child = createDependencyNode(root, "group", "child", "version");
+				createDependencyNode(child, "group", "grandchild", "version");
+				createDependencyNode(root, "group", "grandchild", "version");
+				return root;
+			}
+		}).when(depCollection).resolveBuildDependencyGraph(anyString(), anyString(), anyString(), any(ArtifactFilter.class),
+				any(MavenSession.class));
+
+		PlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
+		config.addChild("artifact", "some:artifact");
+		config.addChild("multiProject", "true");
+		config.addChild("threads", "4");
+		configureMojo(unconfiguredMojo, config);
+
+		unconfiguredMojo.execute();
+
+		ArgumentCaptor<Artifact> buildArtifacts = ArgumentCaptor.forClass(Artifact.class);
+		verify(builderManager, times(3)).build(buildArtifacts.capture(), any(Source.class), any(File.class), any(MavenSession.class));
+		assertThat(buildArtifacts.getAllValues(), contains(matchesArtifact("group", "grandchild", "version"),
+				matchesArtifact("group", "child", "version"), matchesArtifact("some", "artifact", null)));
+	}
+
+	/** Builds are cached against what their dependencies actually built and the ignored artifacts beneath them. */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testBuildCacheDependencies() throws Exception {
+		doAnswer(new Answer<DependencyNode>() {
+			@Override
+			public DependencyNode answer(final InvocationOnMock invocation) throws Throwable {
+				DependencyNode root = createDependencyNode(null, (String) invocation.getArguments()[0], (String) invocation.getArguments()[1],
+						(String) invocation.getArguments()[2]);
+				DependencyNode child = createDependencyNode(root, "group", "child", "version");
+				DependencyNode ignored = createDependencyNode(child, "group", "ignored", "version");
+				createDependencyNode(ignored, "group", "ignored-child", "version");
+				return root;
+			}
+		}).when(depCollection).resolveBuildDependencyGraph(anyString(), anyString(), anyString(), any(ArtifactFilter.class),
+				any(MavenSession.class));
+		when(
+				depCollection.installDependencies(anyListOf(DependencyNode.class), any(DependencyNodeFilter.class),
+						any(ArtifactRepository.class), any(FileTransfer.class), any(MavenSession.class)))
+				.then(new Answer<List<DependencyNode>>() {
+					@Override
+					public List<DependencyNode> answer(final InvocationOnMock invocation) throws Throwable {
+						// the ignored artifacts are installed and cut out of a copy of the graph
+						DependencyNode root = ((List<DependencyNode>) invocation.getArguments()[0]).get(0);
+						DependencyNode child = root.getChildren().get(0);
+						DefaultDependencyNode rootCopy = new DefaultDependencyNode(null, root.getArtifact(), null, null, null);
+						DefaultDependencyNode childCopy = new DefaultDependencyNode(rootCopy, child.getArtifact(), null, null, null);
+						childCopy.setChildren(new ArrayList<DependencyNode>());
+						rootCopy.setChildren(new ArrayList<DependencyNode>(Collections.singletonList(childCopy)));
+						return Collections.<DependencyNode> singletonList(rootCopy);
+					}
+				});
+
+		final File builtFile = tempFolder.newFile();
+		Files.write("built", builtFile, Charset.defaultCharset());
+		when(builderManager.build(anyListOf(Artifact.class), any(Source.class), any(SourceBuilder.class), anyString(), any(File.class),
+						any(MavenSession.class)))
+				.then(new Answer<Set<Artifact>>() {
+					@Override
+					public Set<Artifact> answer(final InvocationOnMock invocation) throws Throwable {
+						Artifact built = mockArtifact("group", "built", "version");
+						when(built.getId()).thenReturn("built");
+						when(built.getFile()).thenReturn(builtFile);
+						return Collections.singleton(built);
+					}
+				});
+
+		PlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
+		config.addChild("artifact", "some:artifact:1");
+		config.addChild("multiProject", "true");
+		config.addChild("buildCache", tempFolder.newFolder().getCanonicalPath());
+		configureMojo(unconfiguredMojo, config);
+
+		unconfiguredMojo.execute();
+
+		ArgumentCaptor<String> dependencies = ArgumentCaptor.forClass(String.class);
+		verify(builderManager, times(2)).build(anyListOf(Artifact.class), any(Source.class), any(SourceBuilder.class),
+				dependencies.capture(), any(File.class), any(MavenSession.class));
+		assertThat(dependencies.getAllValues().get(0), containsString("group:ignored:version"));
+		assertThat(dependencies.getAllValues().get(0), containsString("group:ignored-child:version"));
+		assertThat(dependencies.getAllValues().get(0), not(containsString("group:child:version")));
+		// the dependent is built against exactly what the child built
+		assertThat(dependencies.getAllValues().get(1), containsString("group:child:version=built="));
+		assertThat(dependencies.getAllValues().get(1), containsString("group:ignored-child:version"));
+	}
+
+	/** Workers must be started with the settings of the session and build with the parameters of the coordinator. */
+	@Test
+	public void testLocalWorkers() throws Exception {
+		Assume.assumeTrue(File.separatorChar == '/');
+		final File outputDir = tempFolder.newFolder();
+		File argumentsFile = new File(tempFolder.getRoot(), "arguments");
+
+		// stands in for maven, running a worker which builds by writing a file named after the coordinates
+		File mavenHome = tempFolder.newFolder();
+		File mvn = new File(mavenHome, "bin/mvn");
+		Files.createParentDirs(mvn);
+		Files.write("#!/bin/sh\n"
+				+ "echo \"$@\" >> '" + argumentsFile.getPath() + "'\n"
+				+ "for arg in \"$@\"; do case \"$arg\" in -Ddependency-builder.coordinator=*) port=\"${arg##*:}\";;"
+				+ " -Ddependency-builder.workerConfiguration=*) token=$(sed -n 's/^token=//p' \"${arg#*=}\");; esac; done\n"
+				+ "exec '" + new File(System.getProperty("java.home"), "bin/java").getPath() + "' -cp '" + System.getProperty("java.class.path")
+				+ "' " + ShardWorkerMain.class.getName() + " \"$port\" '" + outputDir.getPath() + "' worker \"$token\"\n", mvn,
+				Charset.defaultCharset());
+		assertTrue(mvn.setExecutable(true));
+
+		ArtifactRepository repository = mock(ArtifactRepository.class);
+		when(repoSystem.createLocalRepository(any(File.class)))
+				.thenReturn(repository);
+		when(repository.getBasedir())
+				.thenReturn(outputDir.getPath());
+		when(repository.pathOf(any(Artifact.class)))
+				.then(new Answer<String>() {
+					@Override
+					public String answer(final InvocationOnMock invocation) throws Throwable {
+						return ArtifactCoordinates.format((Artifact) invocation.getArguments()[0]);
+					}
+				});
+		when(repoSystem.createArtifactWithClassifier(anyString(), anyString(), anyString(), anyString(), anyString()))
+				.then(new Answer<Artifact>() {
+					@Override
+					public Artifact answer(final InvocationOnMock invocation) throws Throwable {
+						Object[] args = invocation.getArguments();
+						// files of built artifacts are where workers installed them
+						return new DefaultArtifact((String) args[0], (String) args[1], (String) args[2], null, (String) args[3],
+								(String) args[4], new DefaultArtifactHandler((String) args[3]));
+					}
+				});
+
+		File buildCache = tempFolder.newFolder();
+		PlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
+		config.addChild("artifact", "some:artifact:1");
+		config.addChild("multiProject", "true");
+		config.addChild("workers", "2");
+		config.addChild("installThreads", "3");
+		config.addChild("buildCache", buildCache.getCanonicalPath());
+		config.addChild("workDirectory", tempFolder.newFolder().getCanonicalPath());
+		configureMojo(unconfiguredMojo, config);
+
+		File settings = tempFolder.newFile("settings.xml");
+		File pom = tempFolder.newFile("pom.xml");
+		session.getCurrentProject().setFile(pom);
+		session.getRequest().setLocalRepository(repository);
+		session.getRequest().setUserSettingsFile(settings);
+		session.getRequest().setActiveProfiles(Arrays.asList("active"));
+		session.getRequest().setInactiveProfiles(Arrays.asList("inactive"));
+		session.getRequest().getUserProperties().setProperty("some.property", "value");
+		session.getRequest().getUserProperties().setProperty("dependency-builder.resume", "true");
+
+		String originalHome = System.getProperty("maven.home");
+		System.setProperty("maven.home", mavenHome.getPath());
+		try {
+			unconfiguredMojo.execute();
+		} finally {
+			if (originalHome == null) {
+				System.clearProperty("maven.home");
+			} else {
+				System.setProperty("maven.home", originalHome);
+			}
+		}
+
+		assertTrue(new File(outputDir, "some:artifact:null::1").isFile());
+		String arguments = Files.toString(argumentsFile, Charset.defaultCharset());
+		assertThat(arguments, containsString("--settings " + settings.getPath()));
+		assertThat(arguments, containsString("--activate-profiles active,!inactive"));
+		assertThat(arguments, containsString("-Dsome.property=value"));
+		assertThat(arguments, not(containsString("dependency-builder.resume")));
+		assertThat(arguments, containsString("--file " + pom.getPath()));
+
+		Properties workerConfiguration = new Properties();
+		InputStream stream = new FileInputStream(new File(arguments.replaceAll("(?s).*-Ddependency-builder.workerConfiguration=(\\S+).*", "$1")));
+		try {
+			workerConfiguration.load(stream);
+		} finally {
+			IOUtil.close(stream);
+		}
+		assertEquals("3", workerConfiguration.getProperty("installThreads"));
+		assertEquals(buildCache.getCanonicalPath(), workerConfiguration.getProperty("buildCache"));
+		assertNotNull(workerConfiguration.getProperty("token"));
+	}
+
+	/** Workers must build whatever the coordinator hands out with the parameters the coordinator gives them. */
+	@Test
+	public void testBuildForCoordinator() throws Exception {
+		File outputDir = tempFolder.newFolder();
+		Properties workerConfiguration = new Properties();
+		workerConfiguration.setProperty("outputDirectory", outputDir.getCanonicalPath());
+		workerConfiguration.setProperty("installThreads", "2");
+		workerConfiguration.setProperty("buildCache", tempFolder.newFolder().getCanonicalPath());
+		workerConfiguration.setProperty("token", "secret");
+		File workerConfigurationFile = tempFolder.newFile();
+		OutputStream stream = new FileOutputStream(workerConfigurationFile);
+		try {
+			workerConfiguration.store(stream, null);
+		} finally {
+			IOUtil.close(stream);
+		}
+
+		final File builtFile = tempFolder.newFile();
+		when(builderManager.build(anyListOf(Artifact.class), any(Source.class), any(SourceBuilder.class), anyString(), any(File.class),
+				any(MavenSession.class)))
+				.then(new Answer<Set<Artifact>>() {
+					@Override
+					public Set<Artifact> answer(final InvocationOnMock invocation) throws Throwable {
+						Artifact built = mockArtifact("some", "artifact", "1");
+						when(built.getFile()).thenReturn(builtFile);
+						return Collections.singleton(built);
+					}
+				});
+		when(repoSystem.createArtifactWithClassifier(anyString(), anyString(), anyString(), anyString(), anyString()))
+				.then(new Answer<Artifact>() {
+					@Override
+					public Artifact answer(final InvocationOnMock invocation) throws Throwable {
+						return mockArtifact((String) invocation.getArguments()[0], (String) invocation.getArguments()[1],
+								(String) invocation.getArguments()[2]);
+					}
+				});
+
+		ShardCoordinator coordinator = new ShardCoordinator(InetAddress.getByName(null), 0, WORKER_TIMEOUT, "secret");
+		coordinator.start();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			PlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
+			config.addChild("artifact", "some:artifact");
+			config.addChild("coordinator", "localhost:" + coordinator.getPort());
+			config.addChild("workerConfiguration", workerConfigurationFile.getCanonicalPath());
+			configureMojo(unconfiguredMojo, config);
+			Future<Void> worker = executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					unconfiguredMojo.execute();
+					return null;
+				}
+			});
+
+			assertThat(coordinator.build(Arrays.asList("some:artifact:jar::1"), "group:dependency:1=checksum"),
+					contains("some:artifact:null::1"));
+			coordinator.stop();
+			worker.get();
+		} finally {
+			coordinator.stop();
+			executor.shutdownNow();
+		}
+
+		verify(builderManager).setBuildCache(isA(BuildCache.class));
+		verify(builderManager).build(anyListOf(Artifact.class), any(Source.class), any(SourceBuilder.class),
+				eq("group:dependency:1=checksum"), eq(outputDir.getCanonicalFile()), any(MavenSession.class));
+	}
+
+	/** We need at least one thread to build anything. */
+	@Test(expected = MojoFailureException.class)
+	public void testNoThreads() throws Exception {
+		PlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
+		config.addChild("artifact", "some:artifact");
+		config.addChild("threads", "0");
+		configureMojo(unconfiguredMojo, config);
+
+		unconfiguredMojo.execute();
+	}
+
+	/** Prefetched sources should be handed to the builds, each checked out only once. */
+	@Test
+	public void testPrefetchSources() throws Exception {
+		doAnswer(new Answer<DependencyNode>() {
+			@Override
+			public DependencyNode answer(final InvocationOnMock invocation) throws Throwable {
+				DependencyNode root = createDependencyNode(null, (String) invocation.getArguments()[0], (String) invocation.getArguments()[1],
+						(String) invocation.getArguments()[2]);
+				DependencyNode child = createDependencyNode(root, "group", "child", "version");
+				createDependencyNode(child, "group", "grandchild", "version");
+				return root;
+			}
+		}).when(depCollection).resolveBuildDependencyGraph(anyString(), anyString(), anyString(), any(ArtifactFilter.class),
+				any(MavenSession.class));
+
+		PlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
+		config.addChild("artifact", "some:artifact");
+		config.addChild("multiProject", "true");
+		config.addChild("prefetchThreads", "2");
+		config.addChild("prefetchLimit", "1");
+		configureMojo(unconfiguredMojo, config);
+
+		unconfiguredMojo.execute();
+
+		verify(retrievalManager, times(3)).checkoutSource(any(Artifact.class), any(File.class), any(MavenSession.class));
+		verify(builderManager, times(3)).build(any(Artifact.class), any(Source.class), any(File.class), any(MavenSession.class));
+	}
+
+	/** Prefetching can be disabled, but not with negative threads. */
+	@Test(expected = MojoFailureException.class)
+	public void testNegativePrefetchThreads() throws Exception {
+		PlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
+		config.addChild("artifact", "some:artifact");
+		config.addChild("prefetchThreads", "-1");
+		configureMojo(unconfiguredMojo, config);
+
+		unconfiguredMojo.execute();
+	}
+
+	/** Artifacts from the same source should be checked out and built together. */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testSameSourceBuiltTogether() throws Exception {
+		doAnswer(new Answer<DependencyNode>() {
+			@Override
+			public DependencyNode answer(final InvocationOnMock invocation) throws Throwable {
+				DependencyNode root = createDependencyNode(null, (String) invocation.getArguments()[0], (String) invocation.getArguments()[1],
+						(String) invocation.getArguments()[2]);
+				DependencyNode child = createDependencyNode(root, "group", "module1", "version");
+				createDependencyNode(child, "group", "module2", "version");
+				return root;
+			}
+		}).when(depCollection).resolveBuildDependencyGraph(anyString(), anyString(), anyString(), any(ArtifactFilter.class),
+				any(MavenSession.class));
+		when(retrievalManager.getSourceLocation(argThat(matchesArtifact("group", "module1", "version")), any(MavenSession.class)))
+				.thenReturn("reactor");
+		when(retrievalManager.getSourceLocation(argThat(matchesArtifact("group", "module2", "version")), any(MavenSession.class)))
+				.thenReturn("reactor");
+		when(builderManager.build(anyListOf(Artifact.class), any(Source.class), any(File.class), any(MavenSession.class)))
+				.then(new Answer<Set<Artifact>>() {
+					@Override
+					public Set<Artifact> answer(final InvocationOnMock invocation) throws Throwable {
+						return new HashSet<Artifact>((List<Artifact>) invocation.getArguments()[0]);
+					}
+				});
+
+		configuredMojo.execute();
+
+		verify(retrievalManager, times(2)).checkoutSource(any(Artifact.class), any(File.class), any(MavenSession.class));
+		verify(builderManager).build((List<Artifact>) argThat(contains(matchesArtifact("group", "module2", "version"),
+				matchesArtifact("group", "module1", "version"))), any(Source.class), any(File.class), any(MavenSession.class));
+		verify(builderManager).build(argThat(matchesArtifact("some", "artifact", null)), any(Source.class), any(File.class),
+				any(MavenSession.class));
+	}
+
+	/** When resuming, artifacts that were built by a previous run should not be built again. */
+	@Test
+	public void testResumeSkipsBuiltArtifacts() throws Exception {
+		final File outputDir = tempFolder.newFolder();
+		PlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
+		config.addChild("artifact", "some:artifact");
+		config.addChild("resume", "true");
+		config.addChild("outputDirectory", outputDir.getCanonicalPath());
+		config.addChild("ledgerDirectory", tempFolder.newFolder().getCanonicalPath());
+		configureMojo(unconfiguredMojo, config);
+		configureMojo(configuredMojo, config);
+
+		ArtifactRepository repository = mock(ArtifactRepository.class);
+		when(repoSystem.createLocalRepository(any(File.class)))
+				.thenReturn(repository);
+		when(repository.pathOf(any(Artifact.class)))
+				.then(new Answer<String>() {
+					@Override
+					public String answer(final InvocationOnMock invocation) throws Throwable {
+						Artifact artifact = (Artifact) invocation.getArguments()[0];
+						return artifact.getGroupId() + "/" + artifact.getArtifactId();
+					}
+				});
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(final InvocationOnMock invocation) throws Throwable {
+				Artifact artifact = (Artifact) invocation.getArguments()[1];
+				File file = new File(outputDir, artifact.getGroupId() + "/" + artifact.getArtifactId());
+				file.getParentFile().mkdirs();
+				Files.write(artifact.toString(), file, Charset.defaultCharset());
+				return null;
+			}
+		}).when(installer).install(any(File.class), any(Artifact.class), any(ArtifactRepository.class));
+		when(repoSystem.createArtifact(anyString(), anyString(), anyString(), anyString()))
+				.then(new Answer<Artifact>() {
+					@Override
+					public Artifact answer(final InvocationOnMock invocation) throws Throwable {
+						return mockArtifact((String) invocation.getArguments()[0], (String) invocation.getArguments()[1],
+								(String) invocation.getArguments()[2]);
+					}
+				});
+
+		unconfiguredMojo.execute();
+		configuredMojo.execute();
+
+		verify(builderManager, times(1)).build(argThat(matchesArtifact("some", "artifact", null)), any(Source.class), any(File.class),
+				any(MavenSession.class));
+	}
+
+	/** Artifacts must be built again if the files they installed have changed since they were recorded. */
+	@Test
+	public void testResumeRebuildsModifiedArtifacts() throws Exception {
+		final File outputDir = tempFolder.newFolder();
+		PlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
+		config.addChild("artifact", "some:artifact");
+		config.addChild("resume", "true");
+		config.addChild("outputDirectory", outputDir.getCanonicalPath());
+		config.addChild("ledgerDirectory", tempFolder.newFolder().getCanonicalPath());
+		configureMojo(unconfiguredMojo, config);
+		configureMojo(configuredMojo, config);
+
+		ArtifactRepository repository = mock(ArtifactRepository.class);
+		when(repoSystem.createLocalRepository(any(File.class)))
+				.thenReturn(repository);
+		when(repository.pathOf(any(Artifact.class)))
+				.thenReturn("installed");
+		final File installed = new File(outputDir, "installed");
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(final InvocationOnMock invocation) throws Throwable {
+				Files.write("original", installed, Charset.defaultCharset());
+				return null;
+			}
+		}).when(installer).install(any(File.class), any(Artifact.class), any(ArtifactRepository.class));
+
+		unconfiguredMojo.execute();
+		Files.write("modified", installed, Charset.defaultCharset());
+		configuredMojo.execute();
+
+		verify(builderManager, times(2)).build(argThat(matchesArtifact("some", "artifact", null)), any(Source.class), any(File.class),
+				any(MavenSession.class));
+	}
 }
@@ -17,39 +17,64 @@ package org.debian.dependency;
 
 import static org.debian.dependency.matchers.DependencyNodeArtifactMatcher.eqArtifactGraph;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
 import org.apache.maven.artifact.installer.ArtifactInstallationException;
 import org.apache.maven.artifact.installer.ArtifactInstaller;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.artifact.resolver.ArtifactResolutionRequest;
 import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
 import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Plugin;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.ProjectBuilder;
 import org.apache.maven.project.ProjectBuildingRequest;
+import org.apache.maven.project.ProjectBuildingResult;
 import org.apache.maven.repository.RepositorySystem;
+import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
+import org.apache.maven.shared.dependency.graph.DependencyGraphBuilder;
 import org.apache.maven.shared.dependency.graph.DependencyNode;
 import org.apache.maven.shared.dependency.graph.filter.DependencyNodeFilter;
 import org.apache.maven.shared.dependency.graph.internal.DefaultDependencyNode;
 import org.codehaus.plexus.logging.Logger;
+import org.debian.dependency.install.FileTransfer;
+import org.debian.dependency.repository.LocalRepositoryIndex;
 import org.hamcrest.CustomTypeSafeMatcher;
 import org.junit.Before;
 import org.junit.Test;
@@ -58,6 +83,7 @@ import org.mockito.Answers;
 import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
@@ -65,6 +91,10 @@ import org.mockito.stubbing.Answer;
 /** Test case for {@link DefaultDependencyCollection}. */
 @RunWith(MockitoJUnitRunner.class)
 public class TestDefaultDependencyCollection {
+	private static final long SLOW_RESOLUTION = 200;
+	private static final long SLOW_INSTALL = 50;
+	private static final long WAIT_TIMEOUT = 10000;
+
 	@InjectMocks
 	private DefaultDependencyCollection collector = new DefaultDependencyCollection();
 	@Mock
@@ -73,14 +103,21 @@ public class TestDefaultDependencyCollection {
 	private ArtifactInstaller installer;
 	@Mock(answer = Answers.RETURNS_DEEP_STUBS)
 	private ProjectBuilder projectBuilder;
+	@Spy
+	private ProjectCache projectCache = new DefaultProjectCache();
 	@Mock(answer = Answers.RETURNS_MOCKS)
 	private RepositorySystem repositorySystem;
+	@Mock
+	private LocalRepositoryIndex localRepositoryIndex;
+	@Mock
+	private DependencyGraphBuilder dependencyGraphBuilder;
 
 	private DependencyNode singleNodeGraph = createNode(null);
 	@Mock(answer = Answers.RETURNS_MOCKS)
 	private MavenSession session;
 	@Mock
 	private ArtifactRepository repository;
+	private final FileTransfer transfer = new FileTransfer(false);
 
 	@Before
 	public void setUp() throws Exception {
@@ -113,6 +150,40 @@ public class TestDefaultDependencyCollection {
 		return createNode(parent, mock(Artifact.class));
 	}
 
+	private void stubProjects(final Map<String, MavenProject> projects) throws Exception {
+		when(repositorySystem.createProjectArtifact(anyString(), anyString(), anyString()))
+				.then(new Answer<Artifact>() {
+					@Override
+					public Artifact answer(final InvocationOnMock invocation) throws Throwable {
+						Object[] args = invocation.getArguments();
+						return new DefaultArtifact((String) args[0], (String) args[1], (String) args[2], null, "pom", null,
+								new DefaultArtifactHandler("pom"));
+					}
+				});
+		when(projectBuilder.build(any(Artifact.class), any(ProjectBuildingRequest.class)))
+				.then(new Answer<ProjectBuildingResult>() {
+					@Override
+					public ProjectBuildingResult answer(final InvocationOnMock invocation) throws Throwable {
+						Artifact artifact = (Artifact) invocation.getArguments()[0];
+						ProjectBuildingResult result = mock(ProjectBuildingResult.class);
+						if (projects.containsKey(artifact.getArtifactId())) {
+							when(result.getProject()).thenReturn(projects.get(artifact.getArtifactId()));
+						} else {
+							when(result.getProject()).thenReturn(new MavenProject());
+						}
+						return result;
+					}
+				});
+	}
+
+	private static void addPlugin(final MavenProject project, final String artifactId) {
+		Plugin plugin = new Plugin();
+		plugin.setGroupId("plugin");
+		plugin.setArtifactId(artifactId);
+		plugin.setVersion("1");
+		project.getBuild().addPlugin(plugin);
+	}
+
 	/** We should be able to install all artifact graphs with no filter. */
 	@Test
 	public void testInstallNoFilter() throws Exception {
@@ -122,7 +193,7 @@ public class TestDefaultDependencyCollection {
 
 		graphs.add(createNode(null));
 
-		List<DependencyNode> result = collector.installDependencies(graphs, null, repository, session);
+		List<DependencyNode> result = collector.installDependencies(graphs, null, repository, transfer, session);
 		assertThat("All artifacts installed, nothing left", result, hasSize(0));
 
 		verify(installer).install(any(File.class), eq(graphs.get(0).getArtifact()), eq(repository));
@@ -147,7 +218,7 @@ public class TestDefaultDependencyCollection {
 			}
 		};
 
-		List<DependencyNode> result = collector.installDependencies(graphs, filter, repository, session);
+		List<DependencyNode> result = collector.installDependencies(graphs, filter, repository, transfer, session);
 
 		assertThat(result, contains(eqArtifactGraph(graphs.get(0))));
 		assertThat(result, hasSize(1));
@@ -156,6 +227,31 @@ public class TestDefaultDependencyCollection {
 		verify(installer).install(any(File.class), eq(graphs.get(1).getChildren().get(0).getArtifact()), eq(repository));
 	}
 
+	/** Selecting artifacts should give the same result as installing them without installing anything. */
+	@Test
+	public void testSelectDoesNotInstall() throws Exception {
+		final List<DependencyNode> graphs = new ArrayList<DependencyNode>();
+		graphs.add(createNode(null));
+		createNode(graphs.get(0));
+
+		graphs.add(createNode(null));
+		createNode(graphs.get(1));
+
+		DependencyNodeFilter filter = new DependencyNodeFilter() {
+			@Override
+			public boolean accept(final DependencyNode node) {
+				return node.getArtifact().equals(graphs.get(1).getArtifact());
+			}
+		};
+
+		Set<Artifact> selected = new HashSet<Artifact>();
+		List<DependencyNode> result = collector.selectDependencies(graphs, filter, selected);
+
+		assertThat(result, contains(eqArtifactGraph(graphs.get(0))));
+		assertThat(selected, containsInAnyOrder(graphs.get(1).getArtifact(), graphs.get(1).getChildren().get(0).getArtifact()));
+		verifyZeroInteractions(installer);
+	}
+
 	/**
 	 * Any artifact that is installed must not be returned. This tests for inconsistent input filters which could both include and
 	 * exclude the same artifact. An example of such a filter is this test case: it has a filter that depends on the graph level
@@ -197,7 +293,7 @@ public class TestDefaultDependencyCollection {
 		DependencyNode grandchild1Clone = createNode(root, grandchild1.getArtifact());
 		createNode(grandchild1Clone, grandgrandchild1.getArtifact());
 
-		List<DependencyNode> result = collector.installDependencies(Collections.singletonList(root), filter, repository, session);
+		List<DependencyNode> result = collector.installDependencies(Collections.singletonList(root), filter, repository, transfer, session);
 
 		DependencyNode resultRoot = createNode(null, root.getArtifact());
 		createNode(resultRoot, child1.getArtifact());
@@ -217,7 +313,7 @@ public class TestDefaultDependencyCollection {
 		doThrow(ArtifactInstallationException.class)
 				.when(installer).install(any(File.class), eq(singleNodeGraph.getArtifact()), eq(repository));
 
-		collector.installDependencies(Collections.singletonList(singleNodeGraph), null, repository, session);
+		collector.installDependencies(Collections.singletonList(singleNodeGraph), null, repository, transfer, session);
 	}
 
 	/** We should fail if we cannot install any parent poms. */
@@ -233,7 +329,7 @@ public class TestDefaultDependencyCollection {
 		doThrow(ArtifactInstallationException.class)
 				.when(installer).install(any(File.class), eq(parentArtifact), eq(repository));
 
-		collector.installDependencies(Collections.singletonList(singleNodeGraph), null, repository, session);
+		collector.installDependencies(Collections.singletonList(singleNodeGraph), null, repository, transfer, session);
 	}
 
 	/** We should fail if we cannot install a pom. */
@@ -246,7 +342,7 @@ public class TestDefaultDependencyCollection {
 		doThrow(ArtifactInstallationException.class)
 				.when(installer).install(any(File.class), eq(pomArtifact), eq(repository));
 
-		collector.installDependencies(Collections.singletonList(singleNodeGraph), null, repository, session);
+		collector.installDependencies(Collections.singletonList(singleNodeGraph), null, repository, transfer, session);
 	}
 
 	/** We should fail if we cannot install artifacts. */
@@ -258,7 +354,7 @@ public class TestDefaultDependencyCollection {
 		doReturn(badResult)
 				.when(repositorySystem).resolve(any(ArtifactResolutionRequest.class));
 
-		collector.installDependencies(Collections.singletonList(singleNodeGraph), null, repository, session);
+		collector.installDependencies(Collections.singletonList(singleNodeGraph), null, repository, transfer, session);
 	}
 
 	/** We should fail if we cannot install any parent poms. */
@@ -282,7 +378,7 @@ public class TestDefaultDependencyCollection {
 					}
 				}));
 
-		collector.installDependencies(Collections.singletonList(singleNodeGraph), null, repository, session);
+		collector.installDependencies(Collections.singletonList(singleNodeGraph), null, repository, transfer, session);
 	}
 
 	/** We should fail if we cannot install a pom. */
@@ -303,7 +399,7 @@ public class TestDefaultDependencyCollection {
 					}
 				}));
 
-		collector.installDependencies(Collections.singletonList(singleNodeGraph), null, repository, session);
+		collector.installDependencies(Collections.singletonList(singleNodeGraph), null, repository, transfer, session);
 	}
 
 	/** Happy path. */
@@ -330,7 +426,7 @@ public class TestDefaultDependencyCollection {
 		when(singleNodeGraph.getArtifact().getFile())
 				.thenReturn(graphFile);
 
-		List<DependencyNode> result = collector.installDependencies(Collections.singletonList(singleNodeGraph), null, repository, session);
+		List<DependencyNode> result = collector.installDependencies(Collections.singletonList(singleNodeGraph), null, repository, transfer, session);
 		assertThat(result, hasSize(0));
 
 		// we require a specific install sequence here to ensure the repository is in the best state if there is an error
@@ -339,4 +435,229 @@ public class TestDefaultDependencyCollection {
 		order.verify(installer).install(parentFile, parentArtifact, repository);
 		order.verify(installer).install(pomFile, pomArtifact, repository);
 	}
+
+	/** Plugin dependencies are the same for every project using the plugin, so they should only be resolved once. */
+	@Test
+	public void testPluginDependenciesResolvedOnce() throws Exception {
+		MavenProject first = new MavenProject();
+		addPlugin(first, "plugin");
+		MavenProject second = new MavenProject();
+		addPlugin(second, "plugin");
+		Map<String, MavenProject> projects = new HashMap<String, MavenProject>();
+		projects.put("first", first);
+		projects.put("second", second);
+		stubProjects(projects);
+		when(dependencyGraphBuilder.buildDependencyGraph(any(MavenProject.class), any(ArtifactFilter.class)))
+				.then(new Answer<DependencyNode>() {
+					@Override
+					public DependencyNode answer(final InvocationOnMock invocation) throws Throwable {
+						return createNode(null);
+					}
+				});
+
+		DependencyNode firstGraph = collector.resolveBuildDependencies("group", "first", "1", null, session);
+		DependencyNode secondGraph = collector.resolveBuildDependencies("group", "second", "1", null, session);
+
+		assertThat(firstGraph.getChildren(), hasSize(1));
+		assertThat(secondGraph.getChildren(), hasSize(1));
+		// each project and the plugin once
+		verify(dependencyGraphBuilder, times(3)).buildDependencyGraph(any(MavenProject.class), any(ArtifactFilter.class));
+	}
+
+	/** Projects resolved at the same time should wait for a plugin graph which is being resolved rather than resolve it again. */
+	@Test
+	public void testConcurrentPluginDependenciesResolvedOnce() throws Exception {
+		MavenProject first = new MavenProject();
+		addPlugin(first, "plugin");
+		MavenProject second = new MavenProject();
+		addPlugin(second, "plugin");
+		final MavenProject plugin = new MavenProject();
+		Map<String, MavenProject> projects = new HashMap<String, MavenProject>();
+		projects.put("first", first);
+		projects.put("second", second);
+		projects.put("plugin", plugin);
+		stubProjects(projects);
+		final CountDownLatch started = new CountDownLatch(2);
+		when(dependencyGraphBuilder.buildDependencyGraph(any(MavenProject.class), any(ArtifactFilter.class)))
+				.then(new Answer<DependencyNode>() {
+					@Override
+					public DependencyNode answer(final InvocationOnMock invocation) throws Throwable {
+						if (invocation.getArguments()[0] == plugin) {
+							// both projects are past their own graph and about to ask for the plugin
+							started.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+							Thread.sleep(SLOW_RESOLUTION);
+						} else {
+							started.countDown();
+						}
+						return createNode(null);
+					}
+				});
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			List<Future<DependencyNode>> graphs = new ArrayList<Future<DependencyNode>>();
+			for (final String artifactId : new String[] { "first", "second" }) {
+				graphs.add(executor.submit(new Callable<DependencyNode>() {
+					@Override
+					public DependencyNode call() throws Exception {
+						return collector.resolveBuildDependencyGraph("group", artifactId, "1", null, session);
+					}
+				}));
+			}
+
+			assertSame(graphs.get(0).get().getChildren().get(0), graphs.get(1).get().getChildren().get(0));
+		} finally {
+			executor.shutdown();
+		}
+		// each project and the plugin once
+		verify(dependencyGraphBuilder, times(3)).buildDependencyGraph(any(MavenProject.class), any(ArtifactFilter.class));
+	}
+
+	/** Plugin graphs are resolved concurrently, but must be added in the same order as the plugins. */
+	@Test
+	public void testPluginDependenciesKeepOrder() throws Exception {
+		MavenProject project = new MavenProject();
+		addPlugin(project, "slow");
+		addPlugin(project, "fast");
+		final MavenProject slowPlugin = new MavenProject();
+		Map<String, MavenProject> projects = new HashMap<String, MavenProject>();
+		projects.put("artifact", project);
+		projects.put("slow", slowPlugin);
+		stubProjects(projects);
+
+		final Artifact slowArtifact = new DefaultArtifact("plugin", "slow", "1", null, "jar", null, new DefaultArtifactHandler("jar"));
+		when(dependencyGraphBuilder.buildDependencyGraph(any(MavenProject.class), any(ArtifactFilter.class)))
+				.then(new Answer<DependencyNode>() {
+					@Override
+					public DependencyNode answer(final InvocationOnMock invocation) throws Throwable {
+						if (invocation.getArguments()[0] == slowPlugin) {
+							Thread.sleep(SLOW_RESOLUTION);
+							return createNode(null, slowArtifact);
+						}
+						return createNode(null, new DefaultArtifact("plugin", "other", "1", null, "jar", null, new DefaultArtifactHandler("jar")));
+					}
+				});
+
+		DependencyNode graph = collector.resolveBuildDependencies("group", "artifact", "1", null, session);
+
+		assertThat(graph.getChildren(), hasSize(2));
+		assertSame(slowArtifact, graph.getChildren().get(0).getArtifact());
+	}
+
+	/** Plugin graphs should be shared between projects as is when resolving a graph. */
+	@Test
+	public void testSharedPluginDependencies() throws Exception {
+		MavenProject first = new MavenProject();
+		addPlugin(first, "plugin");
+		MavenProject second = new MavenProject();
+		addPlugin(second, "plugin");
+		Map<String, MavenProject> projects = new HashMap<String, MavenProject>();
+		projects.put("first", first);
+		projects.put("second", second);
+		stubProjects(projects);
+		final Artifact shared = new DefaultArtifact("group", "shared", "1", null, "jar", null, new DefaultArtifactHandler("jar"));
+		when(dependencyGraphBuilder.buildDependencyGraph(any(MavenProject.class), any(ArtifactFilter.class)))
+				.then(new Answer<DependencyNode>() {
+					@Override
+					public DependencyNode answer(final InvocationOnMock invocation) throws Throwable {
+						DependencyNode root = createNode(null);
+						createNode(root, new DefaultArtifact("group", "shared", "1", null, "jar", null, new DefaultArtifactHandler("jar")));
+						return root;
+					}
+				});
+
+		DependencyNode firstGraph = collector.resolveBuildDependencyGraph("group", "first", "1", null, session);
+		DependencyNode secondGraph = collector.resolveBuildDependencyGraph("group", "second", "1", null, session);
+
+		assertThat(firstGraph.getChildren(), hasSize(2));
+		assertSame(firstGraph.getChildren().get(1), secondGraph.getChildren().get(1));
+		// equal artifacts are interned, whether they came from the project or a plugin
+		assertEquals(shared, firstGraph.getChildren().get(0).getArtifact());
+		assertSame(firstGraph.getChildren().get(0).getArtifact(), secondGraph.getChildren().get(0).getArtifact());
+		assertSame(firstGraph.getChildren().get(0).getArtifact(), firstGraph.getChildren().get(1).getChildren().get(0).getArtifact());
+	}
+
+	/** Shared parents and artifacts which were already installed should only be installed once. */
+	@Test
+	public void testInstallOnce() throws Exception {
+		MavenProject project = new MavenProject();
+		project.setParent(new MavenProject());
+		Artifact parentArtifact = mock(Artifact.class);
+		File parentFile = mock(File.class);
+		when(parentArtifact.getFile())
+				.thenReturn(parentFile);
+		project.getParent().setArtifact(parentArtifact);
+		when(projectBuilder.build(any(Artifact.class), any(ProjectBuildingRequest.class)).getProject())
+				.thenReturn(project);
+
+		DependencyNode other = createNode(null);
+		File graphFile = mock(File.class);
+		when(singleNodeGraph.getArtifact().getFile())
+				.thenReturn(graphFile);
+		List<DependencyNode> graphs = new ArrayList<DependencyNode>();
+		graphs.add(singleNodeGraph);
+		graphs.add(other);
+
+		collector.installDependencies(graphs, null, repository, transfer, session);
+		collector.installDependencies(Collections.singletonList(singleNodeGraph), null, repository, transfer, session);
+
+		verify(installer).install(graphFile, singleNodeGraph.getArtifact(), repository);
+		verify(installer).install(parentFile, parentArtifact, repository);
+	}
+
+	/** Versions of the same project share metadata, so they must never be installed at the same time. */
+	@Test
+	public void testInstallSameProjectSerially() throws Exception {
+		stubProjects(new HashMap<String, MavenProject>());
+		final AtomicInteger installing = new AtomicInteger();
+		final AtomicInteger overlaps = new AtomicInteger();
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(final InvocationOnMock invocation) throws Throwable {
+				if (installing.incrementAndGet() > 1) {
+					overlaps.incrementAndGet();
+				}
+				Thread.sleep(SLOW_INSTALL);
+				installing.decrementAndGet();
+				return null;
+			}
+		}).when(installer).install(any(File.class), any(Artifact.class), any(ArtifactRepository.class));
+
+		List<DependencyNode> graphs = new ArrayList<DependencyNode>();
+		for (String version : new String[] { "1", "2", "3" }) {
+			graphs.add(createNode(null, new DefaultArtifact("group", "project", version, null, "jar", null,
+					new DefaultArtifactHandler("jar"))));
+		}
+
+		collector.installDependencies(graphs, null, repository, transfer, session);
+
+		verify(installer, times(graphs.size() * 2)).install(any(File.class), any(Artifact.class), any(ArtifactRepository.class));
+		assertEquals(0, overlaps.get());
+	}
+
+	/** Nodes shared by a selected and an unselected parent are selected and removed from the rest of the graph. */
+	@Test
+	public void testSelectSharedNode() throws Exception {
+		DependencyNode root = createNode(null);
+		final DependencyNode ignored = createNode(root);
+		DependencyNode kept = createNode(root);
+		DependencyNode shared = createNode(kept);
+		createNode(shared);
+		ignored.getChildren().add(shared);
+
+		DependencyNodeFilter filter = new DependencyNodeFilter() {
+			@Override
+			public boolean accept(final DependencyNode node) {
+				return node.getArtifact().equals(ignored.getArtifact());
+			}
+		};
+
+		Set<Artifact> selected = new HashSet<Artifact>();
+		List<DependencyNode> result = collector.selectDependencies(Collections.singletonList(root), filter, selected);
+
+		assertThat(selected, containsInAnyOrder(ignored.getArtifact(), shared.getArtifact(), shared.getChildren().get(0).getArtifact()));
+		DependencyNode expected = createNode(null, root.getArtifact());
+		createNode(expected, kept.getArtifact());
+		assertThat(result, contains(eqArtifactGraph(expected)));
+	}
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency;
+
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.building.ModelBuildingRequest;
+import org.apache.maven.project.DefaultProjectBuildingRequest;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.ProjectBuilder;
+import org.apache.maven.project.ProjectBuildingException;
+import org.apache.maven.project.ProjectBuildingRequest;
+import org.apache.maven.project.ProjectBuildingResult;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test case for {@link DefaultProjectCache}. */
+public class TestDefaultProjectCache {
+	private final ProjectBuilder projectBuilder = mock(ProjectBuilder.class);
+	private final MavenSession session = mock(MavenSession.class);
+	private final ProjectBuildingRequest request = new DefaultProjectBuildingRequest();
+	private DefaultProjectCache cache = new DefaultProjectCache();
+
+	@Before
+	public void setUp() throws Exception {
+		ProjectBuildingResult result = mock(ProjectBuildingResult.class);
+		when(result.getProject()).thenReturn(new MavenProject());
+		when(projectBuilder.build(any(Artifact.class), any(ProjectBuildingRequest.class))).thenReturn(result);
+	}
+
+	private static Artifact createArtifact(final String artifactId) {
+		Artifact artifact = mock(Artifact.class);
+		when(artifact.getGroupId()).thenReturn("group");
+		when(artifact.getArtifactId()).thenReturn(artifactId);
+		when(artifact.getVersion()).thenReturn("1");
+		return artifact;
+	}
+
+	/** The same project should only be built once, even for different artifact instances. */
+	@Test
+	public void testBuiltOnce() throws Exception {
+		MavenProject project = cache.build(createArtifact("artifact"), request, projectBuilder, session);
+
+		assertSame(project, cache.build(createArtifact("artifact"), request, projectBuilder, session));
+		verify(projectBuilder, times(1)).build(any(Artifact.class), any(ProjectBuildingRequest.class));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	/** Projects built with different settings can differ, so they are not shared. */
+	@Test
+	public void testDifferentSettings() throws Exception {
+		cache.build(createArtifact("artifact"), request, projectBuilder, session);
+
+		ProjectBuildingRequest other = new DefaultProjectBuildingRequest(request);
+		other.setValidationLevel(ModelBuildingRequest.VALIDATION_LEVEL_MINIMAL);
+		cache.build(createArtifact("artifact"), other, projectBuilder, session);
+
+		verify(projectBuilder, times(2)).build(any(Artifact.class), any(ProjectBuildingRequest.class));
+		assertEquals(0, cache.getHits());
+	}
+
+	/** Projects are only shared within a session. */
+	@Test
+	public void testDifferentSession() throws Exception {
+		cache.build(createArtifact("artifact"), request, projectBuilder, session);
+		cache.build(createArtifact("artifact"), request, projectBuilder, mock(MavenSession.class));
+
+		verify(projectBuilder, times(2)).build(any(Artifact.class), any(ProjectBuildingRequest.class));
+	}
+
+	/** Only the most recently used projects are kept. */
+	@Test
+	public void testLeastRecentlyUsedRemoved() throws Exception {
+		cache = new DefaultProjectCache(2);
+		cache.build(createArtifact("first"), request, projectBuilder, session);
+		cache.build(createArtifact("second"), request, projectBuilder, session);
+		cache.build(createArtifact("first"), request, projectBuilder, session);
+		cache.build(createArtifact("third"), request, projectBuilder, session);
+
+		cache.build(createArtifact("first"), request, projectBuilder, session);
+		assertEquals(2, cache.getHits());
+		cache.build(createArtifact("second"), request, projectBuilder, session);
+		assertEquals(2, cache.getHits());
+	}
+
+	/** Failures should be reported to the caller and tried again next time. */
+	@Test
+	public void testFailureNotCached() throws Exception {
+		Artifact artifact = createArtifact("artifact");
+		ProjectBuildingException failure = new ProjectBuildingException("id", "failed", (Throwable) null);
+		when(projectBuilder.build(any(Artifact.class), any(ProjectBuildingRequest.class))).thenThrow(failure);
+
+		for (int i = 0; i < 2; ++i) {
+			try {
+				cache.build(artifact, request, projectBuilder, session);
+				fail("Project should not have been built");
+			} catch (ProjectBuildingException e) {
+				assertSame(failure, e);
+			}
+		}
+		verify(projectBuilder, times(2)).build(any(Artifact.class), any(ProjectBuildingRequest.class));
+	}
+
+	/** Requests created for the same session must share projects, whatever the session itself builds with. */
+	@Test
+	public void testCreateRequest() throws Exception {
+		ProjectBuildingRequest sessionRequest = new DefaultProjectBuildingRequest();
+		sessionRequest.setActiveProfileIds(Arrays.asList("profile"));
+		sessionRequest.setUserProperties(new Properties());
+		sessionRequest.getUserProperties().setProperty("property", "value");
+		sessionRequest.setValidationLevel(ModelBuildingRequest.VALIDATION_LEVEL_STRICT);
+		when(session.getProjectBuildingRequest()).thenReturn(sessionRequest);
+
+		ProjectBuildingRequest created = cache.createRequest(session);
+		assertEquals(ModelBuildingRequest.VALIDATION_LEVEL_MINIMAL, created.getValidationLevel());
+		assertThat(created.getActiveProfileIds(), empty());
+
+		MavenProject project = cache.build(createArtifact("artifact"), created, projectBuilder, session);
+		assertSame(project, cache.build(createArtifact("artifact"), cache.createRequest(session), projectBuilder, session));
+		verify(projectBuilder, times(1)).build(any(Artifact.class), any(ProjectBuildingRequest.class));
+	}
+}
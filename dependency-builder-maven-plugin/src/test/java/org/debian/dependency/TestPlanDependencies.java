@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency;
+
+import static org.junit.Assert.assertFalse;
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.PluginParameterExpressionEvaluator;
+import org.apache.maven.plugin.testing.MojoRule;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.repository.RepositorySystem;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.apache.maven.shared.dependency.graph.filter.DependencyNodeFilter;
+import org.apache.maven.shared.dependency.graph.internal.DefaultDependencyNode;
+import org.codehaus.plexus.component.configurator.ComponentConfigurator;
+import org.codehaus.plexus.component.configurator.expression.ExpressionEvaluator;
+import org.codehaus.plexus.configuration.DefaultPlexusConfiguration;
+import org.codehaus.plexus.configuration.PlexusConfiguration;
+import org.codehaus.plexus.configuration.xml.XmlPlexusConfiguration;
+import org.debian.dependency.builders.SourceBuilderManager;
+import org.debian.dependency.sources.SourceRetrievalManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Answers;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+/** Test case for {@link PlanDependencies}. */
+@RunWith(MockitoJUnitRunner.class)
+public class TestPlanDependencies {
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+	@Rule
+	public MojoRule mojoRule = new MojoRule();
+
+	@InjectMocks
+	private PlanDependencies mojo = new PlanDependencies();
+
+	@Mock
+	private RepositorySystem repoSystem;
+	@Mock(answer = Answers.RETURNS_MOCKS)
+	private SourceRetrievalManager retrievalManager;
+	@Mock
+	private SourceBuilderManager builderManager;
+	@Mock
+	private DependencyCollection depCollection;
+	@Mock
+	private ProjectCache projectCache;
+
+	@Before
+	public void setUp() throws Exception {
+		DefaultPlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
+		config.addChild("artifact", "some:artifact");
+		config.addChild("multiProject", "true");
+
+		ComponentConfigurator configurator = mojoRule.getContainer().lookup(ComponentConfigurator.class, "basic");
+		MojoExecution execution = mojoRule.newMojoExecution("plan-dependencies");
+		MavenProject project = new MavenProject();
+		project.getBuild().setDirectory(tempFolder.getRoot().getCanonicalPath());
+		ExpressionEvaluator evaluator = new PluginParameterExpressionEvaluator(mojoRule.newMavenSession(project), execution);
+		configurator.configureComponent(mojo, merge(new XmlPlexusConfiguration(execution.getConfiguration()), config), evaluator,
+				mojoRule.getContainer().getContainerRealm());
+
+		Answer<DependencyNode> createNode = new Answer<DependencyNode>() {
+			@Override
+			public DependencyNode answer(final InvocationOnMock invocation) throws Throwable {
+				return createDependencyNode((String) invocation.getArguments()[0], (String) invocation.getArguments()[1],
+						(String) invocation.getArguments()[2]);
+			}
+		};
+		when(depCollection.resolveBuildDependencyGraph(anyString(), anyString(), anyString(), any(ArtifactFilter.class),
+				any(MavenSession.class)))
+				.then(createNode);
+		when(depCollection.resolveProjectDependencies(anyString(), anyString(), anyString(), any(ArtifactFilter.class),
+				any(MavenSession.class)))
+				.then(createNode);
+		when(depCollection.selectDependencies(anyListOf(DependencyNode.class), any(DependencyNodeFilter.class), anySetOf(Artifact.class)))
+				.then(returnsFirstArg());
+
+		when(repoSystem.createProjectArtifact(anyString(), anyString(), anyString()))
+				.then(new Answer<Artifact>() {
+					@Override
+					public Artifact answer(final InvocationOnMock invocation) throws Throwable {
+						return mockArtifact((String) invocation.getArguments()[0], (String) invocation.getArguments()[1],
+								(String) invocation.getArguments()[2]);
+					}
+				});
+	}
+
+	private static PlexusConfiguration merge(final PlexusConfiguration from, final PlexusConfiguration to) {
+		for (PlexusConfiguration child : from.getChildren()) {
+			if (to.getChild(child.getName(), false) == null) {
+				to.addChild(child);
+			}
+		}
+		return to;
+	}
+
+	private static Artifact mockArtifact(final String groupId, final String artifactId, final String version) {
+		Artifact artifact = mock(Artifact.class, groupId + ":" + artifactId + ":" + version);
+		when(artifact.getGroupId())
+				.thenReturn(groupId);
+		when(artifact.getArtifactId())
+				.thenReturn(artifactId);
+		when(artifact.getVersion())
+				.thenReturn(version);
+		return artifact;
+	}
+
+	private static DependencyNode createDependencyNode(final String groupId, final String artifactId, final String version) {
+		DefaultDependencyNode node = new DefaultDependencyNode(null, mockArtifact(groupId, artifactId, version), null, null, null);
+		node.setChildren(new ArrayList<DependencyNode>());
+		return node;
+	}
+
+	/** Planning must not check out, build or install anything. */
+	@Test
+	public void testNothingBuilt() throws Exception {
+		mojo.execute();
+
+		verify(depCollection).selectDependencies(anyListOf(DependencyNode.class), any(DependencyNodeFilter.class),
+				anySetOf(Artifact.class));
+		verifyZeroInteractions(builderManager);
+		verify(retrievalManager, never()).checkoutSource(any(Artifact.class), any(File.class),
+				any(MavenSession.class));
+		assertFalse("Nothing should be written to the output directory",
+				new File(tempFolder.getRoot(), "dependency-builder/repository").exists());
+	}
+
+	/** Having everything ignored is not a failure when only planning. */
+	@Test
+	public void testAllIgnored() throws Exception {
+		when(depCollection.selectDependencies(anyListOf(DependencyNode.class), any(DependencyNodeFilter.class), anySetOf(Artifact.class)))
+				.thenReturn(Collections.<DependencyNode> emptyList());
+
+		mojo.execute();
+
+		verifyZeroInteractions(builderManager);
+	}
+
+	/** Planning with no threads makes no more sense than building with them. */
+	@Test(expected = MojoFailureException.class)
+	public void testNoThreads() throws Exception {
+		DefaultPlexusConfiguration config = new DefaultPlexusConfiguration("configuration");
+		config.addChild("threads", "0");
+		mojoRule.getContainer().lookup(ComponentConfigurator.class, "basic").configureComponent(mojo, config,
+				mojoRule.getContainer().getContainerRealm());
+
+		mojo.execute();
+	}
+}
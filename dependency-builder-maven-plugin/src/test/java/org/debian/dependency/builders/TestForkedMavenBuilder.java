@@ -15,6 +15,7 @@
  */
 package org.debian.dependency.builders;
 
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertEquals;
@@ -25,6 +26,7 @@ import static org.mockito.Matchers.argThat;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -33,13 +35,17 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.installer.ArtifactInstaller;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
 import org.apache.maven.model.building.ModelBuilder;
 import org.apache.maven.model.building.ModelBuildingException;
 import org.apache.maven.model.building.ModelBuildingRequest;
@@ -313,4 +319,78 @@ public class TestForkedMavenBuilder {
 				.getLocalRepositoryDirectory(null).getAbsoluteFile());
 		assertEquals(buildFile.getAbsoluteFile(), request.getValue().getPomFile().getAbsoluteFile());
 	}
-}
\ No newline at end of file
+
+	private List<Artifact> setupReactor(final boolean withReactorPom) throws Exception {
+		File reactor = tempFolder.newFolder("reactor");
+		if (withReactorPom) {
+			new File(reactor, "pom.xml").createNewFile();
+		}
+
+		List<File> buildFiles = new ArrayList<File>();
+		List<Artifact> result = new ArrayList<Artifact>();
+		for (String module : Arrays.asList("module1", "module2")) {
+			File pom = new File(new File(reactor, module), "pom.xml");
+			pom.getParentFile().mkdirs();
+			pom.createNewFile();
+			buildFiles.add(pom);
+
+			Artifact moduleArtifact = mock(Artifact.class, module);
+			when(moduleArtifact.getGroupId())
+					.thenReturn(GROUP_ID);
+			when(moduleArtifact.getArtifactId())
+					.thenReturn(module);
+			when(moduleArtifact.getVersion())
+					.thenReturn(VERSION);
+			result.add(moduleArtifact);
+		}
+
+		File sourceLocation = source.getLocation();
+		doReturn(buildFiles)
+				.when(builder).findBuildFiles(sourceLocation);
+		when(modelBuilder.build(any(ModelBuildingRequest.class)))
+				.then(new Answer<ModelBuildingResult>() {
+					@Override
+					public ModelBuildingResult answer(final InvocationOnMock invocation) throws Throwable {
+						File pom = ((ModelBuildingRequest) invocation.getArguments()[0]).getPomFile();
+						Model model = new Model();
+						model.setGroupId(GROUP_ID);
+						model.setArtifactId(pom.getParentFile().getName());
+						model.setVersion(VERSION);
+						model.setPomFile(pom);
+						model.setBuild(new Build());
+						model.getBuild().setDirectory(new File(pom.getParentFile(), "target").getPath());
+
+						ModelBuildingResult result = mock(ModelBuildingResult.class);
+						when(result.getEffectiveModel())
+								.thenReturn(model);
+						return result;
+					}
+				});
+		return result;
+	}
+
+	/** Modules of the same project should be built together from the project which aggregates them. */
+	@Test
+	public void testReactorBuild() throws Exception {
+		List<Artifact> artifacts = setupReactor(true);
+
+		builder.build(artifacts, source, repository);
+
+		ArgumentCaptor<InvocationRequest> request = ArgumentCaptor.forClass(InvocationRequest.class);
+		verify(invoker).execute(request.capture());
+		assertEquals(new File(tempFolder.getRoot(), "reactor/pom.xml").getAbsoluteFile(), request.getValue().getPomFile()
+				.getAbsoluteFile());
+		assertThat(request.getValue().getProjects(), contains(GROUP_ID + ":module1", GROUP_ID + ":module2"));
+		assertTrue("Modules need to be found in the reactor", request.getValue().isRecursive());
+	}
+
+	/** Without a project which aggregates the modules, they must be built one at a time. */
+	@Test
+	public void testNoReactorBuildsSeparately() throws Exception {
+		List<Artifact> artifacts = setupReactor(false);
+
+		builder.build(artifacts, source, repository);
+
+		verify(invoker, times(2)).execute(any(InvocationRequest.class));
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.graph;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.apache.maven.shared.dependency.graph.internal.DefaultDependencyNode;
+
+/** Creates dependency graphs for the graph test cases. */
+final class DependencyNodes {
+	private DependencyNodes() {
+	}
+
+	/**
+	 * Creates a node for a mocked artifact in the group {@code group} with version {@code 1}.
+	 *
+	 * @param parent node to add the new node to, may be {@code null}
+	 * @param artifactId artifact id of the node
+	 * @return new node
+	 */
+	public static DependencyNode createNode(final DependencyNode parent, final String artifactId) {
+		Artifact artifact = mock(Artifact.class, artifactId);
+		when(artifact.getGroupId()).thenReturn("group");
+		when(artifact.getArtifactId()).thenReturn(artifactId);
+		when(artifact.getVersion()).thenReturn("1");
+
+		DefaultDependencyNode node = new DefaultDependencyNode(parent, artifact, null, null, null);
+		node.setChildren(new ArrayList<DependencyNode>());
+		if (parent != null) {
+			parent.getChildren().add(node);
+		}
+		return node;
+	}
+}
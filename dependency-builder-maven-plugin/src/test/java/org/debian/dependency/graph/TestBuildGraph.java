@@ -0,0 +1,208 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.graph;
+
+import static org.debian.dependency.graph.DependencyNodes.createNode;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.junit.Test;
+
+/** Test case for {@link BuildGraph}. */
+public class TestBuildGraph {
+	/** Artifacts which occur in multiple trees or multiple times in a tree should only be in the graph once. */
+	@Test
+	public void testDuplicatesMerged() {
+		DependencyNode root1 = createNode(null, "root1");
+		createNode(createNode(root1, "child"), "shared");
+		createNode(root1, "shared");
+		DependencyNode root2 = createNode(null, "root2");
+		createNode(root2, "shared");
+
+		BuildGraph graph = BuildGraph.create(Arrays.asList(root1, root2), true);
+
+		assertEquals(4, graph.size());
+		assertThat(graph.getDependencies("group:root1:1"), contains("group:child:1", "group:shared:1"));
+		assertThat(graph.getDependents("group:shared:1"), contains("group:child:1", "group:root1:1", "group:root2:1"));
+	}
+
+	/** Trees added separately should give the same graph as when they are added together. */
+	@Test
+	public void testBuilder() {
+		DependencyNode root1 = createNode(null, "first");
+		createNode(createNode(root1, "second"), "shared");
+		DependencyNode root2 = createNode(null, "second");
+		createNode(root2, "first");
+
+		BuildGraph.Builder builder = new BuildGraph.Builder().add(Arrays.asList(root1), true);
+		assertEquals(3, builder.size());
+		BuildGraph graph = builder.add(Arrays.asList(root2), true).build();
+
+		assertThat(graph.getKeys(), contains("group:first:1", "group:second:1", "group:shared:1"));
+		assertThat(graph.getDependencies("group:first:1"), contains("group:second:1"));
+		assertThat(graph.getDependencies("group:second:1"), contains("group:shared:1"));
+	}
+
+	/** Transitive dependencies include everything which must be built first, but nothing which depends on the artifact. */
+	@Test
+	public void testTransitiveDependencies() {
+		DependencyNode root = createNode(null, "root");
+		DependencyNode child = createNode(root, "child");
+		createNode(createNode(child, "grandchild"), "leaf");
+
+		BuildGraph graph = BuildGraph.create(Arrays.asList(root), true);
+
+		assertThat(graph.getTransitiveDependencies("group:child:1"), containsInAnyOrder("group:grandchild:1", "group:leaf:1"));
+		assertThat(graph.getTransitiveDependencies("group:leaf:1"), empty());
+	}
+
+	/** Artifacts should be numbered in the order they were discovered and edges should be available by number. */
+	@Test
+	public void testIds() {
+		DependencyNode root = createNode(null, "root");
+		createNode(createNode(root, "child"), "shared");
+		createNode(root, "shared");
+
+		BuildGraph graph = BuildGraph.create(Arrays.asList(root), true);
+
+		assertEquals(0, graph.getId("group:root:1"));
+		assertEquals("group:shared:1", graph.getKey(2));
+		assertEquals(-1, graph.getId("group:missing:1"));
+		assertArrayEquals(new int[] { 1, 2 }, graph.getDependencyIds(0));
+		assertArrayEquals(new int[] { 1, 0 }, graph.getDependentIds(2));
+		assertEquals(2, graph.getDependentCount(2));
+		assertEquals(0, graph.getDependencyCount(2));
+		assertArrayEquals(new int[] { 2, 1, 0 }, graph.sortIds(null));
+	}
+
+	/** Only the roots should be in the graph when it isn't transitive. */
+	@Test
+	public void testNotTransitive() {
+		DependencyNode root = createNode(null, "root");
+		createNode(root, "child");
+
+		BuildGraph graph = BuildGraph.create(Arrays.asList(root), false);
+
+		assertThat(graph.getKeys(), contains("group:root:1"));
+		assertThat(graph.getDependencies("group:root:1"), empty());
+	}
+
+	/** A dependency back onto an ancestor must not form a cycle, the deepest occurrence is built first. */
+	@Test
+	public void testCyclesBroken() {
+		DependencyNode root = createNode(null, "root");
+		DependencyNode plugin = createNode(root, "plugin");
+		createNode(plugin, "root");
+
+		BuildGraph graph = BuildGraph.create(Arrays.asList(root), true);
+
+		assertThat(graph.getDependencies("group:root:1"), contains("group:plugin:1"));
+		assertThat(graph.getDependencies("group:plugin:1"), empty());
+	}
+
+	/** Cycles can also span multiple trees. */
+	@Test
+	public void testCyclesBrokenBetweenTrees() {
+		DependencyNode root1 = createNode(null, "first");
+		createNode(root1, "second");
+		DependencyNode root2 = createNode(null, "second");
+		createNode(root2, "first");
+
+		BuildGraph graph = BuildGraph.create(Arrays.asList(root1, root2), true);
+
+		assertThat(graph.getDependencies("group:first:1"), contains("group:second:1"));
+		assertThat(graph.getDependencies("group:second:1"), empty());
+	}
+
+	/** Sorting must put dependencies first, using the given order only between artifacts which could come next. */
+	@Test
+	public void testSort() {
+		DependencyNode root = createNode(null, "root");
+		DependencyNode child = createNode(root, "child");
+		createNode(child, "grandchild");
+		createNode(root, "leaf");
+
+		BuildGraph graph = BuildGraph.create(Arrays.asList(root), true);
+
+		assertThat(graph.sort(null), contains("group:grandchild:1", "group:child:1", "group:leaf:1", "group:root:1"));
+		assertThat(graph.sort(Collections.<String> reverseOrder()),
+				contains("group:leaf:1", "group:grandchild:1", "group:child:1", "group:root:1"));
+	}
+
+	/** Artifacts should be on the level after their deepest dependency. */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testLevels() {
+		DependencyNode root = createNode(null, "root");
+		DependencyNode child = createNode(root, "child");
+		createNode(child, "grandchild");
+		createNode(root, "leaf");
+
+		BuildGraph graph = BuildGraph.create(Arrays.asList(root), true);
+
+		assertThat(graph.getLevels(), contains(contains("group:grandchild:1", "group:leaf:1"), contains("group:child:1"),
+				contains("group:root:1")));
+	}
+
+	/** Artifacts from the same source should become a single artifact, built in dependency order. */
+	@Test
+	public void testGroupSameSource() {
+		DependencyNode root = createNode(null, "root");
+		DependencyNode module1 = createNode(root, "module1");
+		DependencyNode module2 = createNode(root, "module2");
+		module2.getChildren().add(module1);
+		createNode(module1, "leaf");
+
+		Map<String, String> locations = new HashMap<String, String>();
+		locations.put("group:module1:1", "reactor");
+		locations.put("group:module2:1", "reactor");
+		locations.put("group:root:1", "root");
+		BuildGraph graph = BuildGraph.create(Arrays.asList(root), true).group(locations);
+
+		assertEquals(3, graph.size());
+		assertThat(graph.getArtifacts("group:module1:1"), contains(graph.getArtifact("group:module1:1"), module2.getArtifact()));
+		assertThat(graph.getDependencies("group:module1:1"), contains("group:leaf:1"));
+		assertThat(graph.getDependencies("group:root:1"), contains("group:module1:1"));
+		assertThat(graph.getArtifacts("group:root:1"), contains(root.getArtifact()));
+	}
+
+	/** Artifacts from the same source cannot be built together if something in between comes from another source. */
+	@Test
+	public void testGroupWouldCycle() {
+		DependencyNode root = createNode(null, "module1");
+		DependencyNode other = createNode(root, "other");
+		createNode(other, "module2");
+
+		Map<String, String> locations = new HashMap<String, String>();
+		locations.put("group:module1:1", "reactor");
+		locations.put("group:module2:1", "reactor");
+		locations.put("group:other:1", "other");
+		BuildGraph graph = BuildGraph.create(Arrays.asList(root), true).group(locations);
+
+		assertEquals(3, graph.size());
+		assertThat(graph.sort(null), contains("group:module2:1", "group:other:1", "group:module1:1"));
+	}
+}
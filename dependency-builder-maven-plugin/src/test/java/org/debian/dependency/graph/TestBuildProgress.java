@@ -0,0 +1,187 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.graph;
+
+import static org.debian.dependency.graph.DependencyNodes.createNode;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/** Test case for {@link BuildProgress}. */
+public class TestBuildProgress {
+	private static final String ROOT = "group:root:1";
+	private static final String CHILD = "group:child:1";
+	private static final String GRANDCHILD = "group:grandchild:1";
+	private static final String LEAF = "group:leaf:1";
+	private static final long DURATION = 10000;
+	private static final double DELTA = 0.001;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private long time;
+	private BuildGraph graph;
+	private BuildProgress progress;
+
+	@Before
+	public void setUp() {
+		DependencyNode root = createNode(null, "root");
+		DependencyNode child = createNode(root, "child");
+		createNode(child, "grandchild");
+		createNode(root, "leaf");
+
+		graph = BuildGraph.create(Arrays.asList(root), true);
+		progress = new BuildProgress(graph, 2) {
+			@Override
+			protected long now() {
+				return time;
+			}
+		};
+	}
+
+	/** Nothing can be estimated until an artifact is done. */
+	@Test
+	public void testNothingFinished() {
+		progress.started(GRANDCHILD);
+		progress.started(LEAF);
+		time = DURATION;
+
+		BuildProgress.Status status = progress.getStatus();
+		assertEquals(4, status.getTotal());
+		assertEquals(2, status.getRunning());
+		assertEquals(0, status.getQueued());
+		assertEquals(2, status.getBlocked());
+		assertEquals(-1, status.getEta());
+		assertThat(status.toString(), containsString("ETA unknown"));
+	}
+
+	/** The estimate should cover the longest chain of remaining artifacts even when there are threads to spare. */
+	@Test
+	public void testEstimateLongestChain() {
+		progress.started(GRANDCHILD);
+		progress.started(LEAF);
+		time = DURATION;
+		progress.finished(GRANDCHILD, true);
+
+		BuildProgress.Status status = progress.getStatus();
+		assertEquals(1, status.getDone());
+		assertEquals(1, status.getRunning());
+		assertEquals(1, status.getQueued());
+		assertEquals(1, status.getBlocked());
+		assertEquals(360, status.getArtifactsPerHour(), DELTA);
+		// child then root, the leaf is expected to be done already
+		assertEquals(2 * DURATION, status.getEta());
+	}
+
+	/** Artifacts which depend on a failure will never be built, so they should not count towards the estimate. */
+	@Test
+	public void testFailureNotEstimated() {
+		progress.started(GRANDCHILD);
+		progress.started(LEAF);
+		time = DURATION;
+		progress.finished(GRANDCHILD, false);
+
+		BuildProgress.Status status = progress.getStatus();
+		assertEquals(1, status.getFailed());
+		assertEquals(2, status.getBlocked());
+		assertEquals(0, status.getQueued());
+		assertEquals(0, status.getEta());
+	}
+
+	/** Artifacts skipped because they were built before take no time, so they must not drag the estimate down. */
+	@Test
+	public void testSkippedNotAveraged() {
+		progress.started(LEAF);
+		progress.skipped(LEAF);
+		time = 1;
+		progress.finished(LEAF, true);
+		progress.started(GRANDCHILD);
+		time = DURATION + 1;
+		progress.finished(GRANDCHILD, true);
+
+		// child then root at the pace of the grandchild
+		assertEquals(2 * DURATION, progress.getStatus().getEta());
+	}
+
+	/** Durations from earlier builds should be used for the artifacts they are known for, before anything is done. */
+	@Test
+	public void testKnownDurations() {
+		Map<String, Long> durations = new HashMap<String, Long>();
+		durations.put(GRANDCHILD, DURATION);
+		durations.put(CHILD, 2 * DURATION);
+		durations.put(ROOT, 3 * DURATION);
+		progress = new BuildProgress(graph, 2, durations) {
+			@Override
+			protected long now() {
+				return time;
+			}
+		};
+
+		progress.started(GRANDCHILD);
+		progress.started(LEAF);
+		time = DURATION / 2;
+
+		// the leaf isn't known, so it takes the average of the known durations
+		BuildProgress.Status status = progress.getStatus();
+		assertEquals(DURATION / 2 + 2 * DURATION + 3 * DURATION, status.getEta());
+	}
+
+	/** Checked out source is only measured once asked to, away from the build threads. */
+	@Test
+	public void testMeasureCheckedOut() throws Exception {
+		File location = tempFolder.newFolder();
+		Files.write(new byte[(int) DURATION], new File(location, "file"));
+		progress.addCheckedOut(location);
+		assertEquals(0, progress.getStatus().getCheckedOutBytes());
+
+		progress.measureCheckedOut();
+		progress.measureCheckedOut();
+		assertEquals(DURATION, progress.getStatus().getCheckedOutBytes());
+	}
+
+	/** The status file should reflect the latest progress. */
+	@Test
+	public void testWrite() throws Exception {
+		File file = new File(tempFolder.getRoot(), "some/dir/status.json");
+		progress.started(LEAF);
+		progress.addCheckedOutBytes(DURATION);
+		progress.write(file);
+
+		time = DURATION;
+		progress.finished(LEAF, true);
+		progress.write(file);
+
+		String status = Files.toString(file, Charsets.UTF_8);
+		assertThat(status, containsString("\"done\":1,"));
+		assertThat(status, containsString("\"checkedOutBytes\":10000,"));
+		assertThat(status, containsString("\"runningArtifacts\":[]"));
+		assertEquals(false, new File(file.getPath() + ".tmp").exists());
+	}
+}
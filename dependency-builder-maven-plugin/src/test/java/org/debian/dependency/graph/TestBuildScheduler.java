@@ -0,0 +1,206 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.graph;
+
+import static org.debian.dependency.graph.DependencyNodes.createNode;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.junit.Test;
+
+/** Test case for {@link BuildScheduler}. */
+public class TestBuildScheduler {
+	private static final long TIMEOUT = 10;
+
+	/** Dependencies must always be built before the artifacts which depend on them. */
+	@Test
+	public void testDependenciesBuiltFirst() throws Exception {
+		DependencyNode root = createNode(null, "root");
+		DependencyNode child = createNode(root, "child");
+		createNode(child, "grandchild");
+		createNode(root, "grandchild");
+
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		Set<Artifact> result = new BuildScheduler(4).execute(BuildGraph.create(Arrays.asList(root), true), new BuildTask() {
+			@Override
+			public Set<Artifact> build(final List<Artifact> artifacts) {
+				order.add(artifacts.get(0).getArtifactId());
+				return new HashSet<Artifact>(artifacts);
+			}
+		});
+
+		assertThat(order, contains("grandchild", "child", "root"));
+		assertThat(result, hasSize(3));
+	}
+
+	/** Artifacts which don't depend on each other should be built at the same time. */
+	@Test
+	public void testIndependentBuiltConcurrently() throws Exception {
+		DependencyNode root = createNode(null, "root");
+		createNode(root, "child1");
+		createNode(root, "child2");
+
+		final CountDownLatch latch = new CountDownLatch(2);
+		new BuildScheduler(2).execute(BuildGraph.create(Arrays.asList(root), true), new BuildTask() {
+			@Override
+			public Set<Artifact> build(final List<Artifact> artifacts) throws MojoExecutionException {
+				if (artifacts.get(0).getArtifactId().startsWith("child")) {
+					latch.countDown();
+					try {
+						// would time out if the children were built one after another
+						assertTrue(latch.await(TIMEOUT, TimeUnit.SECONDS));
+					} catch (InterruptedException e) {
+						throw new MojoExecutionException("Interrupted", e);
+					}
+				}
+				return new HashSet<Artifact>(artifacts);
+			}
+		});
+	}
+
+	/** When an artifact fails, its dependents should never be started and the failure reported. */
+	@Test
+	public void testFailureStopsDependents() throws Exception {
+		DependencyNode root = createNode(null, "root");
+		createNode(root, "child");
+
+		final List<String> built = Collections.synchronizedList(new ArrayList<String>());
+		final MojoExecutionException failure = new MojoExecutionException("failed");
+		try {
+			new BuildScheduler(2).execute(BuildGraph.create(Arrays.asList(root), true), new BuildTask() {
+				@Override
+				public Set<Artifact> build(final List<Artifact> artifacts) throws MojoExecutionException {
+					built.add(artifacts.get(0).getArtifactId());
+					throw failure;
+				}
+			});
+			fail("Failure should have been reported");
+		} catch (MojoExecutionException e) {
+			assertEquals(failure, e);
+		}
+
+		assertThat(built, not(hasItem("root")));
+	}
+
+	/** When keeping going, only the dependents of a failure should be skipped and all failures reported together. */
+	@Test
+	public void testKeepGoingBuildsIndependent() throws Exception {
+		DependencyNode root = createNode(null, "root");
+		DependencyNode child = createNode(root, "child");
+		createNode(child, "broken");
+		createNode(root, "independent");
+
+		final List<String> built = Collections.synchronizedList(new ArrayList<String>());
+		try {
+			new BuildScheduler(1, null, true).execute(BuildGraph.create(Arrays.asList(root), true), new BuildTask() {
+				@Override
+				public Set<Artifact> build(final List<Artifact> artifacts) throws MojoExecutionException {
+					if ("broken".equals(artifacts.get(0).getArtifactId())) {
+						throw new MojoExecutionException("failed");
+					}
+					built.add(artifacts.get(0).getArtifactId());
+					return new HashSet<Artifact>(artifacts);
+				}
+			});
+			fail("Failure should have been reported");
+		} catch (BuildFailuresException e) {
+			assertThat(e.getFailures().keySet(), contains("group:broken:1"));
+			assertThat(e.getBlocked(), containsInAnyOrder("group:child:1", "group:root:1"));
+		}
+
+		assertThat(built, contains("independent"));
+	}
+
+	/** Listeners must be told about artifacts which are blocked behind a failure, they are never started or finished. */
+	@Test
+	public void testKeepGoingNotifiesBlocked() throws Exception {
+		DependencyNode root = createNode(null, "root");
+		createNode(root, "broken");
+
+		BuildListener listener = mock(BuildListener.class);
+		BuildScheduler scheduler = new BuildScheduler(1, null, true);
+		scheduler.addListener(listener);
+		try {
+			scheduler.execute(BuildGraph.create(Arrays.asList(root), true), new BuildTask() {
+				@Override
+				public Set<Artifact> build(final List<Artifact> artifacts) throws MojoExecutionException {
+					throw new MojoExecutionException("failed");
+				}
+			});
+			fail("Failure should have been reported");
+		} catch (BuildFailuresException e) {
+			assertThat(e.getBlocked(), contains("group:root:1"));
+		}
+
+		verify(listener).finished("group:broken:1", false);
+		verify(listener).blocked("group:root:1");
+		verify(listener, never()).started("group:root:1");
+	}
+
+	/** When more artifacts are ready than there are threads, they should be started in the given order. */
+	@Test
+	public void testReadyStartedInOrder() throws Exception {
+		DependencyNode root = createNode(null, "root");
+		createNode(root, "short");
+		createNode(root, "long");
+		BuildGraph graph = BuildGraph.create(Arrays.asList(root), true);
+
+		Map<String, Long> durations = new HashMap<String, Long>();
+		durations.put("group:short:1", 1L);
+		durations.put("group:long:1", 2L);
+
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		new BuildScheduler(1, new CriticalPathComparator(graph, durations)).execute(graph, new BuildTask() {
+			@Override
+			public Set<Artifact> build(final List<Artifact> artifacts) {
+				order.add(artifacts.get(0).getArtifactId());
+				return new HashSet<Artifact>(artifacts);
+			}
+		});
+
+		assertThat(order, contains("long", "short", "root"));
+	}
+
+	/** We need somewhere to build. */
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoThreads() {
+		new BuildScheduler(0);
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.graph;
+
+import static org.debian.dependency.graph.DependencyNodes.createNode;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test case for {@link CriticalPathComparator}. */
+public class TestCriticalPathComparator {
+	private static final String ROOT = "group:root:1";
+	private static final String CHILD = "group:child:1";
+	private static final String GRANDCHILD = "group:grandchild:1";
+	private static final String LEAF = "group:leaf:1";
+
+	private BuildGraph graph;
+
+	@Before
+	public void setUp() {
+		DependencyNode root = createNode(null, "root");
+		DependencyNode child = createNode(root, "child");
+		createNode(child, "grandchild");
+		createNode(root, "leaf");
+		graph = BuildGraph.create(Arrays.asList(root), true);
+	}
+
+	/** Without any history, the artifact with the most artifacts waiting on it goes first. */
+	@Test
+	public void testNoHistoryLongestChain() {
+		CriticalPathComparator comparator = new CriticalPathComparator(graph, Collections.<String, Long> emptyMap());
+
+		assertEquals(3, comparator.getRemaining(GRANDCHILD));
+		assertEquals(2, comparator.getRemaining(LEAF));
+		assertThat(comparator.compare(GRANDCHILD, LEAF), lessThan(0));
+		assertThat(comparator.compare(LEAF, GRANDCHILD), greaterThan(0));
+	}
+
+	/** A single long build can outweigh a chain of short ones. */
+	@Test
+	public void testHistoryLongestPath() {
+		Map<String, Long> durations = new HashMap<String, Long>();
+		durations.put(GRANDCHILD, 10L);
+		durations.put(CHILD, 10L);
+		durations.put(LEAF, 100L);
+		CriticalPathComparator comparator = new CriticalPathComparator(graph, durations);
+
+		// root has no history so is estimated with the average
+		assertEquals(40, comparator.getEstimate(ROOT));
+		assertEquals(60, comparator.getRemaining(GRANDCHILD));
+		assertEquals(140, comparator.getRemaining(LEAF));
+		assertThat(comparator.compare(LEAF, GRANDCHILD), lessThan(0));
+	}
+
+	/** Paths of the same length prefer the artifact which unblocks more. */
+	@Test
+	public void testFanOutBreaksTies() {
+		DependencyNode root1 = createNode(null, "root1");
+		DependencyNode root2 = createNode(null, "root2");
+		DependencyNode shared = createNode(root1, "shared");
+		root2.getChildren().add(shared);
+		createNode(root1, "single");
+		BuildGraph fanOut = BuildGraph.create(Arrays.asList(root1, root2), true);
+
+		CriticalPathComparator comparator = new CriticalPathComparator(fanOut, Collections.<String, Long> emptyMap());
+		assertThat(comparator.compare("group:shared:1", "group:single:1"), lessThan(0));
+		assertEquals(0, comparator.compare("group:shared:1", "group:shared:1"));
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.graph;
+
+import static org.debian.dependency.graph.DependencyNodes.createNode;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.debian.dependency.sources.Source;
+import org.debian.dependency.sources.SourceRetrievalException;
+import org.debian.dependency.sources.SourceRetrievalManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/** Test case for {@link SourcePrefetcher}. */
+public class TestSourcePrefetcher {
+	private static final long TIMEOUT = 10;
+
+	private final File workDirectory = new File("work");
+	private final List<String> checkedOut = Collections.synchronizedList(new ArrayList<String>());
+	private final Semaphore checkouts = new Semaphore(0);
+	private SourceRetrievalManager retrievalManager;
+	private BuildGraph graph;
+	private SourcePrefetcher prefetcher;
+
+	@Before
+	public void setUp() throws Exception {
+		DependencyNode root = createNode(null, "root");
+		DependencyNode child = createNode(root, "child");
+		createNode(child, "grandchild");
+		graph = BuildGraph.create(Arrays.asList(root), true);
+
+		retrievalManager = mock(SourceRetrievalManager.class);
+		when(retrievalManager.checkoutSource(any(Artifact.class), any(File.class), any(MavenSession.class)))
+				.then(new Answer<Source>() {
+					@Override
+					public Source answer(final InvocationOnMock invocation) throws Throwable {
+						checkedOut.add(((Artifact) invocation.getArguments()[0]).getArtifactId());
+						checkouts.release();
+						return mock(Source.class);
+					}
+				});
+	}
+
+	@After
+	public void tearDown() {
+		if (prefetcher != null) {
+			prefetcher.stop();
+		}
+	}
+
+	private Artifact artifact(final String artifactId) {
+		return graph.getArtifact("group:" + artifactId + ":1");
+	}
+
+	private void awaitCheckouts(final int count) throws InterruptedException {
+		assertTrue("Sources were not checked out", checkouts.tryAcquire(count, TIMEOUT, TimeUnit.SECONDS));
+	}
+
+	/** Sources which have been prefetched should be used instead of checking out again. */
+	@Test
+	public void testTakePrefetched() throws Exception {
+		prefetcher = new SourcePrefetcher(retrievalManager, workDirectory, null, 1, 1);
+		prefetcher.start(graph, graph.sort(null));
+		awaitCheckouts(1);
+
+		prefetcher.take(artifact("grandchild"));
+		assertThat(checkedOut, contains("grandchild"));
+	}
+
+	/** Once the limit is reached, nothing more should be checked out until a prefetched artifact is built. */
+	@Test
+	public void testLimitPrefetched() throws Exception {
+		prefetcher = new SourcePrefetcher(retrievalManager, workDirectory, null, 2, 1);
+		prefetcher.start(graph, graph.sort(null));
+		awaitCheckouts(1);
+
+		prefetcher.take(artifact("grandchild"));
+		assertThat(checkedOut, contains("grandchild"));
+
+		prefetcher.release(artifact("grandchild"));
+		awaitCheckouts(1);
+		assertThat(checkedOut, contains("grandchild", "child"));
+	}
+
+	/** Artifacts blocked behind a failure are never built, so they must give up their place and not be checked out. */
+	@Test
+	public void testBlockedReleased() throws Exception {
+		prefetcher = new SourcePrefetcher(retrievalManager, workDirectory, null, 1, 1);
+		prefetcher.blocked("group:child:1");
+		prefetcher.start(graph, graph.sort(null));
+		awaitCheckouts(1);
+
+		// the only place is held by the prefetched grandchild until it is blocked
+		prefetcher.blocked("group:grandchild:1");
+		awaitCheckouts(1);
+		assertThat(checkedOut, contains("grandchild", "root"));
+	}
+
+	/** Artifacts needed before they were prefetched are checked out directly, and never prefetched after. */
+	@Test
+	public void testTakeNotPrefetched() throws Exception {
+		prefetcher = new SourcePrefetcher(retrievalManager, workDirectory, null, 1, 2);
+		prefetcher.take(artifact("child"));
+		prefetcher.start(graph, Arrays.asList("group:child:1", "group:grandchild:1"));
+		awaitCheckouts(2);
+
+		prefetcher.take(artifact("grandchild"));
+		assertThat(checkedOut, contains("child", "grandchild"));
+	}
+
+	/** Failures to check out in the background must be reported to whoever needs the source. */
+	@Test
+	public void testPrefetchFailure() throws Exception {
+		SourceRetrievalException failure = new SourceRetrievalException("failed");
+		doThrow(failure).when(retrievalManager).checkoutSource(artifact("grandchild"), workDirectory, null);
+
+		prefetcher = new SourcePrefetcher(retrievalManager, workDirectory, null, 1, 1);
+		prefetcher.start(graph, graph.sort(null));
+
+		try {
+			prefetcher.take(artifact("grandchild"));
+			fail("Failure should have been reported");
+		} catch (SourceRetrievalException e) {
+			assertSame(failure, e);
+		}
+	}
+
+	/** Nothing can be prefetched without a limit. */
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoLimit() {
+		new SourcePrefetcher(retrievalManager, workDirectory, null, 1, 0);
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.install;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.installer.ArtifactInstallationException;
+import org.apache.maven.artifact.installer.ArtifactInstaller;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.io.Files;
+
+/** Test case for {@link BatchInstaller}. */
+public class TestBatchInstaller {
+	private static final int THREADS = 2;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private final ArtifactInstaller installer = mock(ArtifactInstaller.class);
+	private final ArtifactRepository repository = mock(ArtifactRepository.class);
+	private BatchInstaller batchInstaller;
+
+	@Before
+	public void setUp() throws Exception {
+		batchInstaller = new BatchInstaller(installer, new FileTransfer(false), THREADS);
+
+		when(repository.getBasedir())
+				.thenReturn(tempFolder.newFolder().getCanonicalPath());
+		when(repository.pathOf(any(Artifact.class)))
+				.then(new Answer<String>() {
+					@Override
+					public String answer(final InvocationOnMock invocation) throws Throwable {
+						Artifact artifact = (Artifact) invocation.getArguments()[0];
+						return artifact.getArtifactId() + "/" + artifact.getArtifactId() + "." + artifact.getType();
+					}
+				});
+	}
+
+	@After
+	public void tearDown() {
+		batchInstaller.stop();
+	}
+
+	private Artifact createArtifact(final String artifactId, final String type) throws Exception {
+		File file = tempFolder.newFile();
+		Files.write(artifactId + type, file, Charset.defaultCharset());
+
+		Artifact artifact = mock(Artifact.class, artifactId + ":" + type);
+		when(artifact.getGroupId()).thenReturn("group");
+		when(artifact.getArtifactId()).thenReturn(artifactId);
+		when(artifact.getType()).thenReturn(type);
+		when(artifact.getFile()).thenReturn(file);
+		return artifact;
+	}
+
+	/** Metadata should only be written once per project, the rest of its artifacts are just copied. */
+	@Test
+	public void testMetadataOncePerProject() throws Exception {
+		Artifact jar = createArtifact("project", "jar");
+		Artifact pom = createArtifact("project", "pom");
+		Artifact other = createArtifact("other", "jar");
+
+		batchInstaller.install(Arrays.asList(jar, pom, other), repository);
+
+		verify(installer).install(pom.getFile(), pom, repository);
+		verify(installer).install(other.getFile(), other, repository);
+		verify(installer, never()).install(any(File.class), eq(jar), any(ArtifactRepository.class));
+
+		File copied = new File(repository.getBasedir(), "project/project.jar");
+		assertEquals("projectjar", Files.toString(copied, Charset.defaultCharset()));
+	}
+
+	/** Failures installing any artifact should be reported once all artifacts are done. */
+	@Test(expected = ArtifactInstallationException.class)
+	public void testInstallFailure() throws Exception {
+		Artifact pom = createArtifact("project", "pom");
+		doThrow(new ArtifactInstallationException("failed"))
+				.when(installer).install(any(File.class), eq(pom), any(ArtifactRepository.class));
+
+		batchInstaller.install(Arrays.asList(createArtifact("project", "jar"), pom), repository);
+	}
+
+	/** Artifacts which can't be read must fail. */
+	@Test(expected = ArtifactInstallationException.class)
+	public void testCopyFailure() throws Exception {
+		Artifact jar = createArtifact("project", "jar");
+		when(jar.getFile()).thenReturn(new File(tempFolder.getRoot(), "missing"));
+
+		batchInstaller.install(Arrays.asList(jar, createArtifact("project", "pom")), repository);
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.install;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Files;
+
+/** Test case for {@link FileTransfer}. */
+public class TestFileTransfer {
+	private static final String CONTENT = "content";
+	private static final long MODIFIED = 1000000000L;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private File source;
+
+	@Before
+	public void setUp() throws Exception {
+		source = tempFolder.newFile();
+		Files.write(CONTENT, source, Charset.defaultCharset());
+	}
+
+	/** Without linking, files should be copied byte for byte. */
+	@Test
+	public void testCopy() throws Exception {
+		File target = new File(tempFolder.getRoot(), "some/dir/target");
+		FileTransfer transfer = new FileTransfer(false);
+
+		transfer.transfer(source, target);
+
+		assertEquals(CONTENT, Files.toString(target, Charset.defaultCharset()));
+		assertEquals(CONTENT.length(), transfer.getCopiedBytes());
+		assertEquals(0, transfer.getLinkedBytes());
+	}
+
+	/** Files on the same file system should be linked, replacing anything that is already there. */
+	@Test
+	public void testLink() throws Exception {
+		File target = tempFolder.newFile();
+		Files.write("old", target, Charset.defaultCharset());
+		FileTransfer transfer = new FileTransfer(true);
+
+		transfer.transfer(source, target);
+
+		assertEquals(CONTENT, Files.toString(target, Charset.defaultCharset()));
+		assertEquals(CONTENT.length(), transfer.getLinkedBytes());
+		assertEquals(0, transfer.getCopiedBytes());
+
+		// a link shares its content
+		Files.write("changed", source, Charset.defaultCharset());
+		assertEquals("changed", Files.toString(target, Charset.defaultCharset()));
+	}
+
+	/** Staged files must look identical to the installer so it doesn't copy them again. */
+	@Test
+	public void testStage() throws Exception {
+		assertEquals(true, source.setLastModified(MODIFIED));
+		Artifact artifact = mock(Artifact.class);
+		when(artifact.getFile()).thenReturn(source);
+		when(artifact.getType()).thenReturn("jar");
+		ArtifactRepository repository = mock(ArtifactRepository.class);
+		when(repository.getBasedir()).thenReturn(tempFolder.getRoot().getCanonicalPath());
+		when(repository.pathOf(artifact)).thenReturn("repo/artifact.jar");
+
+		new FileTransfer(true).stage(artifact, repository);
+
+		File target = new File(tempFolder.getRoot(), "repo/artifact.jar");
+		assertEquals(source.length(), target.length());
+		assertEquals(source.lastModified(), target.lastModified());
+	}
+
+	/** Files which are already where they should be must be left alone rather than deleted. */
+	@Test
+	public void testSameFile() throws Exception {
+		FileTransfer transfer = new FileTransfer(false);
+
+		transfer.transfer(source, new File(source.getParentFile(), "." + File.separator + source.getName()));
+
+		assertEquals(CONTENT, Files.toString(source, Charset.defaultCharset()));
+		assertEquals(0, transfer.getCopiedBytes());
+	}
+
+	/** Missing files cannot be transferred. */
+	@Test(expected = IOException.class)
+	public void testMissingSource() throws Exception {
+		new FileTransfer(true).transfer(new File(tempFolder.getRoot(), "missing"), new File(tempFolder.getRoot(), "target"));
+	}
+}
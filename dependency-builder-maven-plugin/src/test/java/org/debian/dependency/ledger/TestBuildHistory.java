@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.ledger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.charset.Charset;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Files;
+
+/** Test case for {@link BuildHistory}. */
+public class TestBuildHistory {
+	private static final String KEY = "group:artifact";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = new File(tempFolder.getRoot(), "history/history.properties");
+	}
+
+	/** Durations which were saved should be loaded back the same. */
+	@Test
+	public void testSaveLoad() throws Exception {
+		BuildHistory history = new BuildHistory(file);
+		history.record(KEY, 10);
+		history.save();
+
+		BuildHistory loaded = new BuildHistory(file);
+		loaded.load();
+		assertEquals(Long.valueOf(10), loaded.getDuration(KEY));
+	}
+
+	/** A missing history file is just an empty history. */
+	@Test
+	public void testLoadMissing() throws Exception {
+		BuildHistory history = new BuildHistory(file);
+		history.load();
+
+		assertNull(history.getDuration(KEY));
+	}
+
+	/** Recording the same artifact again should average the durations. */
+	@Test
+	public void testRecordAverages() {
+		BuildHistory history = new BuildHistory(file);
+		history.record(KEY, 10);
+		history.record(KEY, 20);
+
+		assertEquals(Long.valueOf(15), history.getDuration(KEY));
+	}
+
+	/** Corrupt entries should not prevent the rest of the history from loading. */
+	@Test
+	public void testLoadIgnoresInvalid() throws Exception {
+		Files.createParentDirs(file);
+		Files.write("bad=abc\ngroup\\:artifact=5\n", file, Charset.forName("ISO-8859-1"));
+
+		BuildHistory history = new BuildHistory(file);
+		history.load();
+
+		assertNull(history.getDuration("bad"));
+		assertEquals(Long.valueOf(5), history.getDuration(KEY));
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.ledger;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.Charset;
+
+import org.debian.dependency.ledger.LedgerEntry.InstalledFile;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Files;
+
+/** Test case for {@link BuildLedger}. */
+public class TestBuildLedger {
+	private static final String KEY = "group:artifact:1";
+	private static final String PATH = "group/artifact/1/artifact-1.jar";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private File repository;
+	private BuildLedger ledger;
+
+	@Before
+	public void setUp() throws Exception {
+		repository = tempFolder.newFolder();
+		ledger = new BuildLedger(tempFolder.newFolder(), repository);
+
+		File file = new File(repository, PATH);
+		Files.createParentDirs(file);
+		Files.write("contents", file, Charset.defaultCharset());
+	}
+
+	private LedgerEntry createEntry() throws Exception {
+		LedgerEntry entry = new LedgerEntry(KEY);
+		entry.setOrigin("origin");
+		entry.setRevision("revision");
+		entry.setBuilder("builder");
+		entry.addFile(new InstalledFile("group", "artifact", "1", "jar", null, PATH, ledger.checksum(PATH)));
+		return entry;
+	}
+
+	/** Entries which were written should be read back the same. */
+	@Test
+	public void testWriteRead() throws Exception {
+		ledger.write(createEntry());
+
+		LedgerEntry entry = ledger.read(KEY);
+		assertEquals("origin", entry.getOrigin());
+		assertEquals("revision", entry.getRevision());
+		assertEquals("builder", entry.getBuilder());
+		assertThat(entry.getFiles(), hasSize(1));
+		assertEquals(PATH, entry.getFiles().get(0).getPath());
+		assertEquals("jar", entry.getFiles().get(0).getType());
+		assertNull(entry.getFiles().get(0).getClassifier());
+	}
+
+	/** Artifacts which were never recorded have no entry. */
+	@Test
+	public void testReadMissing() throws Exception {
+		assertNull(ledger.read(KEY));
+	}
+
+	/** Keys which map to the same file must not be confused for each other. */
+	@Test
+	public void testReadDifferentKeySameFile() throws Exception {
+		ledger.write(createEntry());
+
+		assertNull(ledger.read("group_artifact:1"));
+	}
+
+	/** Unmodified installed files leave the entry valid. */
+	@Test
+	public void testValid() throws Exception {
+		assertTrue(ledger.isValid(createEntry()));
+	}
+
+	/** If an installed file was changed, it wasn't what we built. */
+	@Test
+	public void testModifiedFileInvalid() throws Exception {
+		LedgerEntry entry = createEntry();
+		Files.write("modified", new File(repository, PATH), Charset.defaultCharset());
+
+		assertFalse(ledger.isValid(entry));
+	}
+
+	/** If an installed file was removed, it must be built again. */
+	@Test
+	public void testRemovedFileInvalid() throws Exception {
+		LedgerEntry entry = createEntry();
+		new File(repository, PATH).delete();
+
+		assertFalse(ledger.isValid(entry));
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.ledger;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/** Test case for {@link BuildTimings}. */
+public class TestBuildTimings {
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/** Every timing should be written as a JSON object on its own line. */
+	@Test
+	public void testWrite() throws Exception {
+		BuildTimings timings = new BuildTimings();
+		timings.record("group:artifact:1", BuildTimings.CHECKOUT, System.nanoTime());
+		timings.record(null, BuildTimings.INSTALL_IGNORED, System.nanoTime());
+		timings.record("group:\"quoted\"\n:1", BuildTimings.BUILD, System.nanoTime());
+
+		File file = new File(tempFolder.getRoot(), "some/dir/timings.jsonl");
+		timings.write(file);
+
+		List<String> lines = Files.readLines(file, Charsets.UTF_8);
+		assertThat(lines, hasSize(2 + 1));
+		assertThat(lines.get(0), startsWith("{\"artifact\":\"group:artifact:1\",\"phase\":\"checkout\",\"start\":"));
+		assertThat(lines.get(1), startsWith("{\"artifact\":null,\"phase\":\"install-ignored\""));
+		assertThat(lines.get(2), startsWith("{\"artifact\":\"group:\\\"quoted\\\"\\u000a:1\""));
+	}
+
+	/** Summaries should have a line per phase after the header. */
+	@Test
+	public void testSummarize() {
+		BuildTimings timings = new BuildTimings();
+		timings.record("first", BuildTimings.BUILD, System.nanoTime());
+		timings.record("second", BuildTimings.BUILD, System.nanoTime());
+		timings.record("first", BuildTimings.INSTALL, System.nanoTime());
+
+		List<String> summary = timings.summarize();
+
+		assertEquals(2 + 1, summary.size());
+		assertThat(summary.get(0), startsWith("phase"));
+		assertThat(summary.get(1), startsWith(BuildTimings.BUILD));
+		assertThat(summary.get(1), containsString(" 2 "));
+		assertThat(summary.get(2), startsWith(BuildTimings.INSTALL));
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.ledger;
+
+import static org.debian.dependency.matchers.DependencyNodeArtifactMatcher.eqArtifactGraph;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.repository.RepositorySystem;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.apache.maven.shared.dependency.graph.internal.DefaultDependencyNode;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.io.Files;
+
+/** Test case for {@link ResolutionSnapshot}. */
+public class TestResolutionSnapshot {
+	private static final String MAVEN_VERSION = "3.2.1";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private final RepositorySystem repositorySystem = mock(RepositorySystem.class);
+	private final ArtifactRepository localRepository = mock(ArtifactRepository.class);
+	private File repository;
+	private File snapshotDirectory;
+	private ResolutionSnapshot snapshot;
+	private DependencyNode graph;
+
+	@Before
+	public void setUp() throws Exception {
+		repository = tempFolder.newFolder();
+		when(localRepository.getBasedir())
+				.thenReturn(repository.getCanonicalPath());
+		when(localRepository.pathOf(any(Artifact.class)))
+				.then(new Answer<String>() {
+					@Override
+					public String answer(final InvocationOnMock invocation) throws Throwable {
+						Artifact artifact = (Artifact) invocation.getArguments()[0];
+						return artifact.getArtifactId() + "/" + artifact.getArtifactId() + "." + artifact.getType();
+					}
+				});
+		when(repositorySystem.createProjectArtifact(anyString(), anyString(), anyString()))
+				.then(new Answer<Artifact>() {
+					@Override
+					public Artifact answer(final InvocationOnMock invocation) throws Throwable {
+						Object[] args = invocation.getArguments();
+						return createArtifact((String) args[0], (String) args[1], (String) args[2], "pom", null);
+					}
+				});
+		when(repositorySystem.createArtifactWithClassifier(anyString(), anyString(), anyString(), anyString(), anyString()))
+				.then(new Answer<Artifact>() {
+					@Override
+					public Artifact answer(final InvocationOnMock invocation) throws Throwable {
+						Object[] args = invocation.getArguments();
+						return createArtifact((String) args[0], (String) args[1], (String) args[2], (String) args[3], (String) args[4]);
+					}
+				});
+
+		snapshotDirectory = tempFolder.newFolder();
+		snapshot = new ResolutionSnapshot(snapshotDirectory, localRepository, repositorySystem, MAVEN_VERSION);
+
+		graph = createNode(null, createArtifact("group", "root", "1", "jar", null));
+		DependencyNode child = createNode(graph, createArtifact("group", "child", "1", "jar", "tests"));
+		createNode(child, createArtifact("group", "shared", "1", "jar", null));
+		createNode(graph, createArtifact("group", "shared", "1", "jar", null));
+		child.getArtifact().setScope(Artifact.SCOPE_TEST);
+
+		for (String artifactId : new String[] { "root", "child", "shared" }) {
+			writePom(artifactId, artifactId);
+		}
+	}
+
+	private static Artifact createArtifact(final String groupId, final String artifactId, final String version, final String type,
+			final String classifier) {
+		return new DefaultArtifact(groupId, artifactId, version, null, type, classifier, new DefaultArtifactHandler(type));
+	}
+
+	private static DependencyNode createNode(final DependencyNode parent, final Artifact artifact) {
+		DefaultDependencyNode node = new DefaultDependencyNode(parent, artifact, null, null, null);
+		node.setChildren(new ArrayList<DependencyNode>());
+		if (parent != null) {
+			parent.getChildren().add(node);
+		}
+		return node;
+	}
+
+	private void writePom(final String artifactId, final String contents) throws Exception {
+		File pom = new File(repository, artifactId + "/" + artifactId + ".pom");
+		Files.createParentDirs(pom);
+		Files.write(contents, pom, Charset.defaultCharset());
+	}
+
+	/** Graphs should be read back the same as they were saved. */
+	@Test
+	public void testSaveLoad() throws Exception {
+		snapshot.save(graph.getArtifact(), "build", graph);
+
+		DependencyNode loaded = snapshot.load(graph.getArtifact(), "build");
+		assertThat(loaded, eqArtifactGraph(graph));
+		assertEquals(Artifact.SCOPE_TEST, loaded.getChildren().get(0).getArtifact().getScope());
+		assertEquals("tests", loaded.getChildren().get(0).getArtifact().getClassifier());
+		assertTrue(loaded.getChildren().get(0).getParent() == loaded);
+	}
+
+	/** Nodes shared by several parents should still be shared once loaded. */
+	@Test
+	public void testSharedNodes() throws Exception {
+		DependencyNode shared = graph.getChildren().get(1);
+		graph.getChildren().get(0).getChildren().add(shared);
+		snapshot.save(graph.getArtifact(), "build", graph);
+
+		DependencyNode loaded = snapshot.load(graph.getArtifact(), "build");
+		assertThat(loaded, eqArtifactGraph(graph));
+		assertTrue(loaded.getChildren().get(1) == loaded.getChildren().get(0).getChildren().get(1));
+	}
+
+	/** Graphs resolved differently must not be used. */
+	@Test
+	public void testDifferentKey() throws Exception {
+		snapshot.save(graph.getArtifact(), "build", graph);
+
+		assertNull(snapshot.load(graph.getArtifact(), "project"));
+	}
+
+	/** Graphs must be resolved again once any pom in them changes. */
+	@Test
+	public void testChangedPom() throws Exception {
+		snapshot.save(graph.getArtifact(), "build", graph);
+		writePom("shared", "changed");
+
+		assertNull(snapshot.load(graph.getArtifact(), "build"));
+	}
+
+	/** Parents and imported boms decide what the dependencies are just as much as the pom itself. */
+	@Test
+	public void testChangedParentAndImport() throws Exception {
+		writePom("shared", "<project><parent><groupId>group</groupId><artifactId>parent</artifactId><version>1</version></parent>"
+				+ "<artifactId>shared</artifactId></project>");
+		writePom("parent", "<project><groupId>group</groupId><artifactId>parent</artifactId><version>1</version>"
+				+ "<properties><bom.version>2</bom.version></properties>"
+				+ "<dependencyManagement><dependencies><dependency><groupId>${project.groupId}</groupId><artifactId>bom</artifactId>"
+				+ "<version>${bom.version}</version><type>pom</type><scope>import</scope></dependency></dependencies>"
+				+ "</dependencyManagement></project>");
+		writePom("bom", "<project><groupId>group</groupId><artifactId>bom</artifactId><version>2</version></project>");
+
+		snapshot.save(graph.getArtifact(), "build", graph);
+		assertThat(snapshot.load(graph.getArtifact(), "build"), eqArtifactGraph(graph));
+
+		writePom("bom", "<project><groupId>group</groupId><artifactId>bom</artifactId><version>2</version><!-- changed --></project>");
+		assertNull(snapshot.load(graph.getArtifact(), "build"));
+	}
+
+	/** Imports that can't be followed would leave a pom unchecked, so the graph must not be stored. */
+	@Test
+	public void testUnknownImport() throws Exception {
+		writePom("shared", "<project><groupId>group</groupId><artifactId>shared</artifactId><version>1</version>"
+				+ "<dependencyManagement><dependencies><dependency><groupId>group</groupId><artifactId>bom</artifactId>"
+				+ "<version>${missing}</version><type>pom</type><scope>import</scope></dependency></dependencies>"
+				+ "</dependencyManagement></project>");
+
+		snapshot.save(graph.getArtifact(), "build", graph);
+
+		assertNull(snapshot.load(graph.getArtifact(), "build"));
+	}
+
+	/** Versions which can change without their pom changing are always resolved. */
+	@Test
+	public void testDynamicVersions() throws Exception {
+		for (String version : new String[] { "1-SNAPSHOT", "[1,2)", Artifact.LATEST_VERSION, Artifact.RELEASE_VERSION }) {
+			Artifact root = createArtifact("group", "root", version, "jar", null);
+			snapshot.save(root, "build", graph);
+
+			assertNull(snapshot.load(root, "build"));
+		}
+	}
+
+	/** Ranges anywhere in the graph could pick a newer version without any pom changing. */
+	@Test
+	public void testDynamicDependencyVersions() throws Exception {
+		DependencyNode child = graph.getChildren().get(0);
+		child.getChildren().add(new DefaultDependencyNode(child, createArtifact("group", "ranged", "1", "jar", null), null, null,
+				"[1,2)"));
+		writePom("ranged", "ranged");
+		snapshot.save(graph.getArtifact(), "build", graph);
+		assertNull(snapshot.load(graph.getArtifact(), "build"));
+
+		child.getChildren().set(child.getChildren().size() - 1, createNode(null, createArtifact("group", "shared", "1-SNAPSHOT",
+				"jar", null)));
+		snapshot.save(graph.getArtifact(), "build", graph);
+		assertNull(snapshot.load(graph.getArtifact(), "build"));
+	}
+
+	/** Plugins without a version depend on the version of Maven, so graphs resolved by another version must not be used. */
+	@Test
+	public void testDifferentMavenVersion() throws Exception {
+		snapshot.save(graph.getArtifact(), "build", graph);
+
+		ResolutionSnapshot other = new ResolutionSnapshot(snapshotDirectory, localRepository, repositorySystem, "3.0");
+		assertNull(other.load(graph.getArtifact(), "build"));
+	}
+
+	/** Nothing is loaded before a graph is saved. */
+	@Test
+	public void testMissing() throws Exception {
+		assertNull(snapshot.load(graph.getArtifact(), "build"));
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.shard;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import com.google.common.io.Files;
+
+/**
+ * Worker started in its own JVM by {@link TestShardCoordinator}. The first coordinate of each request is "built" by writing a file
+ * with its name to the output directory, the rest are dependencies which must already have been built.
+ */
+public final class ShardWorkerMain {
+	private ShardWorkerMain() {
+	}
+
+	public static void main(final String[] args) throws Exception {
+		final File outputDirectory = new File(args[1]);
+		final String name = args[2];
+		new ShardWorker("localhost", Integer.parseInt(args[0]), name, args[3]).run(new ShardTask() {
+			@Override
+			public List<String> build(final List<String> coordinates, final String dependencies) throws MojoExecutionException {
+				for (String dependency : coordinates.subList(1, coordinates.size())) {
+					if (!new File(outputDirectory, dependency).isFile()) {
+						throw new MojoExecutionException("Missing dependency " + dependency);
+					}
+				}
+
+				try {
+					Files.write(name, new File(outputDirectory, coordinates.get(0)), Charset.defaultCharset());
+				} catch (Exception e) {
+					throw new MojoExecutionException("Unable to write " + coordinates.get(0), e);
+				}
+				return Collections.singletonList(coordinates.get(0));
+			}
+		});
+	}
+}
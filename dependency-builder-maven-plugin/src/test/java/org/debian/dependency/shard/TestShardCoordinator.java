@@ -0,0 +1,187 @@
+/*
+ * Copyright 2015 Andrew Schurman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.debian.dependency.shard;
+
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Test case for {@link ShardCoordinator} with workers running in other JVMs. */
+public class TestShardCoordinator {
+	private static final int WORKERS = 3;
+	private static final long TIMEOUT = 60000;
+	private static final long POLL_INTERVAL = 50;
+	private static final int REPLY_TIMEOUT = 2000;
+	private static final String TOKEN = "secret";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private ShardCoordinator coordinator;
+	private LocalWorkers workers;
+	private File outputDirectory;
+
+	@Before
+	public void setUp() throws Exception {
+		outputDirectory = tempFolder.newFolder();
+		coordinator = new ShardCoordinator(InetAddress.getByName(null), 0, TIMEOUT, TOKEN, REPLY_TIMEOUT);
+		coordinator.start();
+
+		List<String> command = Arrays.asList(new File(System.getProperty("java.home"), "bin/java").getPath(), "-cp",
+				System.getProperty("java.class.path"), ShardWorkerMain.class.getName(), String.valueOf(coordinator.getPort()),
+				outputDirectory.getPath(), "worker", TOKEN);
+		workers = new LocalWorkers(command, tempFolder.newFolder());
+		workers.start(WORKERS);
+
+		awaitWorkers(WORKERS);
+	}
+
+	@After
+	public void tearDown() {
+		coordinator.stop();
+		workers.stop(TIMEOUT);
+	}
+
+	/** Independent builds run on separate workers and what they build is visible to later builds on any worker. */
+	@Test
+	public void testBuildsOnWorkers() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(WORKERS);
+		try {
+			List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+			for (final String name : Arrays.asList("first", "second", "third")) {
+				results.add(executor.submit(new Callable<List<String>>() {
+					@Override
+					public List<String> call() throws Exception {
+						return coordinator.build(Arrays.asList(name));
+					}
+				}));
+			}
+			assertThat(results.get(0).get(), contains("first"));
+			assertThat(results.get(1).get(), contains("second"));
+			assertThat(results.get(2).get(), contains("third"));
+		} finally {
+			executor.shutdown();
+		}
+
+		assertThat(coordinator.build(Arrays.asList("last", "first", "second", "third")), contains("last"));
+		assertTrue(new File(outputDirectory, "last").isFile());
+	}
+
+	/** Failures on a worker must fail the build without losing the worker. */
+	@Test
+	public void testWorkerFailure() throws Exception {
+		try {
+			coordinator.build(Arrays.asList("dependent", "missing"));
+			throw new AssertionError("Failure was not reported");
+		} catch (MojoExecutionException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Missing dependency missing"));
+		}
+
+		assertEquals(WORKERS, coordinator.getWorkerCount());
+		assertThat(coordinator.build(Arrays.asList("other")), contains("other"));
+	}
+
+	/** Workers which go away while idle must be dropped and their build handed to another worker. */
+	@Test
+	public void testIdleWorkerLost() throws Exception {
+		Socket socket = connect(TOKEN);
+		try {
+			awaitWorkers(WORKERS + 1);
+		} finally {
+			socket.close();
+		}
+
+		buildOnEveryWorker();
+		assertEquals(WORKERS, coordinator.getWorkerCount());
+	}
+
+	/** Busy workers which neither reply nor send heartbeats must be dropped and their build handed to another worker. */
+	@Test
+	public void testHungWorkerLost() throws Exception {
+		Socket socket = connect(TOKEN);
+		try {
+			awaitWorkers(WORKERS + 1);
+			buildOnEveryWorker();
+		} finally {
+			socket.close();
+		}
+		assertEquals(WORKERS, coordinator.getWorkerCount());
+	}
+
+	/** Connections which never introduce themselves or don't know the token must not stop workers from connecting. */
+	@Test
+	public void testHandshake() throws Exception {
+		Socket silent = new Socket(InetAddress.getByName(null), coordinator.getPort());
+		Socket stranger = connect("guess");
+		Socket worker = connect(TOKEN);
+		try {
+			awaitWorkers(WORKERS + 1);
+			assertEquals("Strangers must be turned away", -1, stranger.getInputStream().read());
+		} finally {
+			silent.close();
+			stranger.close();
+			worker.close();
+		}
+	}
+
+	private Socket connect(final String token) throws Exception {
+		Socket socket = new Socket(InetAddress.getByName(null), coordinator.getPort());
+		new ShardConnection(socket).send(ShardConnection.HELLO, Arrays.asList("other", token));
+		return socket;
+	}
+
+	private void awaitWorkers(final int count) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (coordinator.getWorkerCount() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(POLL_INTERVAL);
+		}
+		assertEquals(count, coordinator.getWorkerCount());
+	}
+
+	private void buildOnEveryWorker() throws Exception {
+		// workers are handed builds in turn, so one of these lands on the other worker
+		for (int i = 0; i <= WORKERS; ++i) {
+			assertThat(coordinator.build(Arrays.asList("build" + i)), contains("build" + i));
+		}
+	}
+
+	/** Workers must exit once the coordinator stops. */
+	@Test
+	public void testStop() {
+		coordinator.stop();
+
+		assertEquals(0, workers.stop(TIMEOUT));
+	}
+}
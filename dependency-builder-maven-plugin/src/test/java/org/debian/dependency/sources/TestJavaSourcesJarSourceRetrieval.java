@@ -37,6 +37,7 @@ import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.repository.RepositorySystem;
 import org.codehaus.plexus.logging.Logger;
+import org.debian.dependency.repository.LocalRepositoryIndex;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -66,6 +67,8 @@ public class TestJavaSourcesJarSourceRetrieval {
 	@Mock(answer = Answers.RETURNS_DEEP_STUBS)
 	private RepositorySystem repoSystem;
 	@Mock
+	private LocalRepositoryIndex localRepositoryIndex;
+	@Mock
 	private Logger logger;
 
 	private File directory;
@@ -18,6 +18,8 @@ package org.debian.dependency.sources;
 import static org.hamcrest.Matchers.isEmptyOrNullString;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
@@ -32,6 +34,8 @@ import java.io.File;
 import java.util.Collections;
 
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
 import org.apache.maven.artifact.resolver.ArtifactResolutionRequest;
 import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
 import org.apache.maven.execution.MavenSession;
@@ -51,6 +55,9 @@ import org.apache.maven.settings.building.SettingsProblem;
 import org.apache.maven.settings.crypto.SettingsDecrypter;
 import org.apache.maven.settings.crypto.SettingsDecryptionRequest;
 import org.codehaus.plexus.logging.Logger;
+import org.debian.dependency.DefaultProjectCache;
+import org.debian.dependency.ProjectCache;
+import org.debian.dependency.repository.LocalRepositoryIndex;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -58,6 +65,7 @@ import org.mockito.Answers;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
@@ -74,8 +82,12 @@ public class TestSCMSourceRetrieval {
 	private ScmManager scmManager;
 	@Mock(answer = Answers.RETURNS_DEEP_STUBS)
 	private ProjectBuilder projectBuilder;
+	@Spy
+	private ProjectCache projectCache = new DefaultProjectCache();
 	@Mock(answer = Answers.RETURNS_MOCKS)
 	private RepositorySystem repoSystem;
+	@Mock
+	private LocalRepositoryIndex localRepositoryIndex;
 	@Mock(answer = Answers.RETURNS_DEEP_STUBS)
 	private SettingsDecrypter settingsDecrypter;
 	@Mock
@@ -93,7 +105,7 @@ public class TestSCMSourceRetrieval {
 		resolvedProject.setScm(new Scm());
 		resolvedProject.getScm().setConnection(CONNECTION);
 		resolvedProject.getScm().setDeveloperConnection(DEV_CONNECTION);
-		resolvedProject.setArtifact(mock(Artifact.class, Answers.RETURNS_SMART_NULLS.get()));
+		resolvedProject.setArtifact(new DefaultArtifact("group", "artifact", "1", null, "pom", null, new DefaultArtifactHandler("pom")));
 
 		when(repoSystem.resolve(any(ArtifactResolutionRequest.class)))
 				.then(new Answer<ArtifactResolutionResult>() {
@@ -142,6 +154,18 @@ public class TestSCMSourceRetrieval {
 		assertThat(result, not(isEmptyOrNullString()));
 	}
 
+	/** Projects are shared with everything else which builds them, so they must not be changed. */
+	@Test
+	public void testSharedProjectUnchanged() throws Exception {
+		Artifact projectArtifact = resolvedProject.getArtifact();
+
+		sourceRetrieval.retrieveSource(artifact, directory, session);
+		sourceRetrieval.getSourceDirname(artifact, session);
+
+		assertSame(projectArtifact, resolvedProject.getArtifact());
+		assertNull(resolvedProject.getFile());
+	}
+
 	/** No scm information is a failure. */
 	@Test
 	public void testNoScmInfo() throws Exception {